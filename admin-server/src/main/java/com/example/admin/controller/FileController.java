@@ -1,9 +1,15 @@
 package com.example.admin.controller;
 
+import com.example.admin.dto.LinkChallenge;
+import com.example.admin.dto.StoredFile;
+import com.example.admin.dto.UploadStatus;
+import com.example.admin.service.ContentStore;
+import com.example.admin.service.FileDownloadService;
+import com.example.admin.service.UploadSessionService;
+import com.example.admin.util.JwtUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -11,14 +17,12 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 /**
  * 文件上传下载控制器
@@ -31,6 +35,19 @@ public class FileController {
     @Value("${file.upload-dir:uploads}")
     private String uploadDir;
 
+    private final UploadSessionService uploadSessionService;
+    private final FileDownloadService fileDownloadService;
+    private final ContentStore contentStore;
+    private final JwtUtil jwtUtil;
+
+    public FileController(UploadSessionService uploadSessionService, FileDownloadService fileDownloadService,
+                          ContentStore contentStore, JwtUtil jwtUtil) {
+        this.uploadSessionService = uploadSessionService;
+        this.fileDownloadService = fileDownloadService;
+        this.contentStore = contentStore;
+        this.jwtUtil = jwtUtil;
+    }
+
     /**
      * 上传文件
      * POST /api/files/upload
@@ -42,42 +59,15 @@ public class FileController {
             @RequestParam(value = "sender", required = false) String sender) {
 
         try {
-            // 确保上传目录存在
-            Path uploadPath = Paths.get(uploadDir);
-            if (!Files.exists(uploadPath)) {
-                Files.createDirectories(uploadPath);
-            }
+            // 按内容存储：part 改名到位后算 SHA-256，相同内容只保留一份
+            StoredFile stored = uploadSessionService.storeMultipart(file, type);
 
-            // 生成唯一文件名
-            String originalFileName = file.getOriginalFilename();
-            String extension = "";
-            if (originalFileName != null && originalFileName.contains(".")) {
-                extension = originalFileName.substring(originalFileName.lastIndexOf("."));
-            }
-            String uniqueFileName = UUID.randomUUID().toString() + extension;
-
-            // 保存文件
-            Path filePath = uploadPath.resolve(uniqueFileName);
-            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
-
-            // 构建下载URL
-            String downloadUrl = ServletUriComponentsBuilder.fromCurrentContextPath()
-                    .path("/api/files/download/")
-                    .path(uniqueFileName)
-                    .toUriString();
-            // 返回结果
-            Map<String, Object> result = new HashMap<>();
-            result.put("success", true);
-            result.put("fileName", originalFileName);
-            result.put("savedName", uniqueFileName);
-            result.put("fileSize", file.getSize());
-            result.put("type", type);
-            result.put("downloadUrl", downloadUrl);
-
-            System.out.println("文件上传成功: " + originalFileName + " -> " + uniqueFileName);
-
-            return ResponseEntity.ok(result);
+            System.out.println("文件上传成功: " + stored.fileName() + " -> " + stored.savedName());
 
+            return ResponseEntity.ok(uploadResult(stored));
+
+        } catch (IllegalArgumentException e) {
+            return uploadError(e.getMessage());
         } catch (IOException e) {
             Map<String, Object> error = new HashMap<>();
             error.put("success", false);
@@ -87,36 +77,186 @@ public class FileController {
     }
 
     /**
-     * 下载文件
-     * GET /api/files/download/{fileName}
+     * 流式上传：请求体即文件内容，一次写入并计算哈希，不经过 multipart 临时文件
+     * PUT /api/files/upload?fileName=...&type=...
      */
-    @GetMapping("/download/{fileName}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    @PutMapping(value = "/upload", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadStream(
+            @RequestParam("fileName") String fileName,
+            @RequestParam(value = "type", defaultValue = "file") String type,
+            @RequestParam(value = "sender", required = false) String sender,
+            HttpServletRequest request) {
         try {
-            Path filePath = Paths.get(uploadDir).resolve(fileName).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() && resource.isReadable()) {
-                // 尝试确定文件类型
-                String contentType = Files.probeContentType(filePath);
-                if (contentType == null) {
-                    contentType = "application/octet-stream";
-                }
-
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "attachment; filename=\"" + fileName + "\"")
-                        .body(resource);
-            } else {
+            StoredFile stored = uploadSessionService.storeStream(
+                    fileName, type, request.getContentLengthLong(), request.getInputStream());
+            System.out.println("文件上传成功: " + stored.fileName() + " -> " + stored.savedName());
+            return ResponseEntity.ok(uploadResult(stored));
+        } catch (IllegalArgumentException e) {
+            return uploadError(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError().body(Map.of("success", false, "error", "文件上传失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 秒传第一步：服务器已有相同内容时返回持有证明挑战（随机区间与 nonce）；没有时返回 404，客户端再正常上传
+     * 只对登录用户开放：应答本身就暴露了服务器上是否有这份内容
+     * POST /api/files/link  {"sha256": "...", "size": 123, "fileName": "...", "type": "file"}
+     */
+    @PostMapping("/link")
+    public ResponseEntity<?> linkFile(@RequestBody Map<String, Object> params,
+                                      @RequestHeader(value = "Authorization", required = false) String authorization) {
+        if (!authenticated(authorization)) {
+            return ResponseEntity.status(401).body(Map.of("success", false, "error", "秒传需要登录"));
+        }
+        try {
+            Object size = params.get("size");
+            LinkChallenge challenge = contentStore.challengeLink(
+                    (String) params.get("sha256"),
+                    size instanceof Number n ? n.longValue() : -1,
+                    (String) params.getOrDefault("fileName", "file"),
+                    (String) params.getOrDefault("type", "file"));
+            return challenge == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(challenge);
+        } catch (IllegalArgumentException e) {
+            return uploadError(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(429).body(Map.of("success", false, "error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 秒传第二步：提交挑战区间的哈希，正确时生成下载链接，返回值与 /upload 相同；不正确或挑战过期返回 403
+     * POST /api/files/link/{challengeId}  {"proof": "<sha256(nonce + 区间字节)>"}
+     */
+    @PostMapping("/link/{challengeId}")
+    public ResponseEntity<?> completeLink(@PathVariable("challengeId") String challengeId,
+                                          @RequestBody Map<String, String> params,
+                                          @RequestHeader(value = "Authorization", required = false) String authorization) {
+        if (!authenticated(authorization)) {
+            return ResponseEntity.status(401).body(Map.of("success", false, "error", "秒传需要登录"));
+        }
+        try {
+            StoredFile stored = contentStore.completeLink(challengeId, params.get("proof"));
+            if (stored == null) {
+                return ResponseEntity.status(403).body(Map.of("success", false, "error", "持有证明无效或已过期"));
+            }
+            System.out.println("秒传: " + stored.fileName() + " -> " + stored.savedName());
+            return ResponseEntity.ok(uploadResult(stored));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError().body(Map.of("success", false, "error", e.getMessage()));
+        }
+    }
+
+    /**
+     * 建立分片上传会话
+     * POST /api/files/uploads  {"fileName": "...", "size": 123, "type": "file", "sender": "...", "chunkSize": 1048576}
+     */
+    @PostMapping("/uploads")
+    public ResponseEntity<?> initUpload(@RequestBody Map<String, Object> params, HttpServletRequest request) {
+        try {
+            Object size = params.get("size");
+            Object chunkSize = params.get("chunkSize");
+            Object sender = params.get("sender");
+            UploadStatus status = uploadSessionService.init(
+                    (String) params.get("fileName"),
+                    size instanceof Number n ? n.longValue() : -1,
+                    (String) params.getOrDefault("type", "file"),
+                    chunkSize instanceof Number n ? n.intValue() : null,
+                    sender instanceof String user && !user.isBlank() ? user : request.getRemoteAddr());
+            return ResponseEntity.ok(status);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(429).body(Map.of("success", false, "error", e.getMessage()));
+        } catch (IllegalArgumentException | IOException e) {
+            return uploadError(e.getMessage());
+        }
+    }
+
+    /**
+     * 查询上传会话，客户端断线后据此续传
+     * GET /api/files/uploads/{uploadId}
+     */
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<?> uploadStatus(@PathVariable("uploadId") String uploadId) {
+        UploadStatus status = uploadSessionService.status(uploadId);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+
+    /**
+     * 上传一个分片，请求体为原始字节
+     * PUT /api/files/uploads/{uploadId}/chunks/{index}
+     */
+    @PutMapping(value = "/uploads/{uploadId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(@PathVariable("uploadId") String uploadId,
+                                         @PathVariable("index") int index,
+                                         HttpServletRequest request) {
+        try {
+            UploadStatus status = uploadSessionService.writeChunk(uploadId, index,
+                    request.getContentLengthLong(), request.getInputStream());
+            return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+        } catch (IllegalArgumentException e) {
+            return uploadError(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("success", false, "error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError().body(Map.of("success", false, "error", "分片写入失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 所有分片到齐后完成上传，返回值与 /upload 相同
+     * POST /api/files/uploads/{uploadId}/complete
+     */
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable("uploadId") String uploadId) {
+        try {
+            StoredFile stored = uploadSessionService.complete(uploadId);
+            if (stored == null) {
                 return ResponseEntity.notFound().build();
             }
+            System.out.println("分片上传完成: " + stored.fileName() + " -> " + stored.savedName());
 
-        } catch (MalformedURLException e) {
-            return ResponseEntity.badRequest().build();
+            return ResponseEntity.ok(uploadResult(stored));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("success", false, "error", e.getMessage()));
         } catch (IOException e) {
-            return ResponseEntity.internalServerError().build();
+            return ResponseEntity.internalServerError().body(Map.of("success", false, "error", "文件保存失败: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 放弃上传
+     * DELETE /api/files/uploads/{uploadId}
+     */
+    @DeleteMapping("/uploads/{uploadId}")
+    public ResponseEntity<?> abortUpload(@PathVariable("uploadId") String uploadId) {
+        return uploadSessionService.abort(uploadId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 下载文件，支持 Range 与 If-None-Match / If-Range 条件请求
+     * GET /api/files/download/{fileName}
+     */
+    @GetMapping("/download/{fileName}")
+    public void downloadFile(@PathVariable("fileName") String fileName,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path filePath = resolveFile(fileName);
+        if (filePath == null || !Files.isReadable(filePath)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+
+        // 尝试确定文件类型（内容文件没有扩展名，按下载名判断）
+        String contentType = URLConnection.guessContentTypeFromName(fileName);
+        if (contentType == null) {
+            contentType = Files.probeContentType(filePath);
+        }
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+        String etag = contentStore.hashOf(fileName).map(hash -> "\"" + hash + "\"").orElse(null);
+        fileDownloadService.serve(filePath, etag, fileName, contentType, request, response);
     }
 
     /**
@@ -124,16 +264,18 @@ public class FileController {
      * GET /api/files/info/{fileName}
      */
     @GetMapping("/info/{fileName}")
-    public ResponseEntity<?> getFileInfo(@PathVariable String fileName) {
+    public ResponseEntity<?> getFileInfo(@PathVariable("fileName") String fileName) {
         try {
-            Path filePath = Paths.get(uploadDir).resolve(fileName).normalize();
+            Path filePath = resolveFile(fileName);
 
-            if (Files.exists(filePath)) {
+            if (filePath != null) {
                 Map<String, Object> info = new HashMap<>();
                 info.put("fileName", fileName);
                 info.put("fileSize", Files.size(filePath));
-                info.put("contentType", Files.probeContentType(filePath));
+                String contentType = URLConnection.guessContentTypeFromName(fileName);
+                info.put("contentType", contentType != null ? contentType : Files.probeContentType(filePath));
                 info.put("exists", true);
+                contentStore.hashOf(fileName).ifPresent(hash -> info.put("sha256", hash));
                 return ResponseEntity.ok(info);
             } else {
                 Map<String, Object> error = new HashMap<>();
@@ -146,4 +288,45 @@ public class FileController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * 下载名对应的磁盘文件：先查按内容存储的引用，再找上传目录下的旧文件
+     */
+    private Path resolveFile(String fileName) {
+        Path stored = contentStore.resolve(fileName);
+        if (stored != null) {
+            return Files.isRegularFile(stored) ? stored : null;
+        }
+        Path root = Paths.get(uploadDir).toAbsolutePath().normalize();
+        Path filePath = root.resolve(fileName).normalize();
+        return filePath.startsWith(root) && Files.isRegularFile(filePath) ? filePath : null;
+    }
+
+    private Map<String, Object> uploadResult(StoredFile stored) {
+        String downloadUrl = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/files/download/")
+                .path(stored.savedName())
+                .toUriString();
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("fileName", stored.fileName());
+        result.put("savedName", stored.savedName());
+        result.put("fileSize", stored.size());
+        result.put("type", stored.type());
+        result.put("downloadUrl", downloadUrl);
+        result.put("sha256", stored.sha256());
+        result.put("deduplicated", stored.deduplicated());
+        return result;
+    }
+
+    private boolean authenticated(String authorization) {
+        return jwtUtil.getUserIdFromHeader(authorization) != null;
+    }
+
+    private ResponseEntity<?> uploadError(String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("success", false);
+        error.put("error", "文件上传失败: " + message);
+        return ResponseEntity.badRequest().body(error);
+    }
 }
@@ -0,0 +1,100 @@
+package com.example.admin.controller;
+
+import com.example.admin.dto.FanOutStatus;
+import com.example.admin.entity.ChatGroup;
+import com.example.admin.service.GroupFanOutService;
+import com.example.admin.service.OfflineDeliveryService;
+import com.example.admin.util.JwtUtil;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/groups")
+public class GroupController {
+
+    private final GroupFanOutService groupFanOutService;
+    private final JwtUtil jwtUtil;
+
+    public GroupController(GroupFanOutService groupFanOutService, JwtUtil jwtUtil) {
+        this.groupFanOutService = groupFanOutService;
+        this.jwtUtil = jwtUtil;
+    }
+
+    // 建群: POST /api/groups  {"groupId":"g1","owner":"sip:a@x","members":["sip:a@x","sip:b@x"]}
+    // 需要登录；群主取自 token，owner 字段可省略，给出时必须是本人；已有的群只有群主能覆盖
+    @PostMapping
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> defineGroup(@RequestBody Map<String, Object> params,
+                                         @RequestHeader(value = "Authorization", required = false) String authorization) {
+        String caller = jwtUtil.getUserIdFromHeader(authorization);
+        if (caller == null) {
+            return ResponseEntity.status(401).body("需要登录");
+        }
+        if (!isSelf(caller, (String) params.get("owner"))) {
+            return ResponseEntity.status(403).body("只能以自己的身份建群");
+        }
+        try {
+            ChatGroup group = groupFanOutService.defineGroup(
+                    (String) params.get("groupId"),
+                    caller,
+                    (List<String>) params.get("members"));
+            return ResponseEntity.ok(group);
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("建群失败: " + e.getMessage());
+        }
+    }
+
+    // 群消息转发账号: GET /api/groups/relay -> {"uri":"sip:relay@x"}，未配置时 uri 为空串
+    @GetMapping("/relay")
+    public ResponseEntity<Map<String, String>> getRelay() {
+        return ResponseEntity.ok(Map.of("uri", groupFanOutService.getRelayUri()));
+    }
+
+    @GetMapping("/{groupId}")
+    public ResponseEntity<?> getGroup(@PathVariable("groupId") String groupId) {
+        return groupFanOutService.findGroup(groupId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    // 发群消息: POST /api/groups/g1/messages  {"sender":"sip:a@x","content":"..."}，受理后异步扇出
+    // 需要登录；发送者取自 token 且必须是群成员，sender 字段给出时必须是本人
+    @PostMapping("/{groupId}/messages")
+    public ResponseEntity<?> postMessage(@PathVariable("groupId") String groupId,
+                                         @RequestBody Map<String, String> params,
+                                         @RequestHeader(value = "Authorization", required = false) String authorization) {
+        String caller = jwtUtil.getUserIdFromHeader(authorization);
+        if (caller == null) {
+            return ResponseEntity.status(401).body("需要登录");
+        }
+        if (!isSelf(caller, params.get("sender"))) {
+            return ResponseEntity.status(403).body("只能以自己的身份发群消息");
+        }
+        try {
+            FanOutStatus status = groupFanOutService.fanOut(groupId, caller, params.get("content"));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (SecurityException e) {
+            return ResponseEntity.status(403).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("发送失败: " + e.getMessage());
+        }
+    }
+
+    // 查扇出进度: GET /api/groups/fanouts/{id}
+    @GetMapping("/fanouts/{fanOutId}")
+    public ResponseEntity<?> getFanOut(@PathVariable("fanOutId") String fanOutId) {
+        return groupFanOutService.getStatus(fanOutId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private static boolean isSelf(String caller, String claimed) {
+        return claimed == null || OfflineDeliveryService.usernameOf(claimed).equals(OfflineDeliveryService.usernameOf(caller));
+    }
+}
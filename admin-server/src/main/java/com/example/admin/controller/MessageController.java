@@ -1,7 +1,11 @@
 package com.example.admin.controller;
 
+import com.example.admin.dto.OfflineMessage;
+import com.example.admin.dto.ReadSync;
 import com.example.admin.entity.Message;
 import com.example.admin.service.MessageService;
+import com.example.admin.service.OfflineDeliveryService;
+import com.example.admin.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -16,6 +20,12 @@ public class MessageController {
     @Autowired
     private MessageService messageService;
 
+    @Autowired
+    private OfflineDeliveryService offlineDeliveryService;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
     // 发消息接口: POST http://localhost:8080/api/messages/send
     @PostMapping("/send")
     public ResponseEntity<?> sendMessage(@RequestBody Map<String, String> params) {
@@ -23,7 +33,9 @@ public class MessageController {
             Message msg = messageService.sendMessage(
                     params.get("sender"),
                     params.get("receiver"),
-                    params.get("content")
+                    params.get("content"),
+                    params.containsKey("delivered") ? Boolean.valueOf(params.get("delivered")) : null,
+                    params.get("messageId")
             );
             return ResponseEntity.ok(msg);
         } catch (Exception e) {
@@ -38,4 +50,64 @@ public class MessageController {
             @RequestParam String user2) {
         return ResponseEntity.ok(messageService.getChatHistory(user1, user2));
     }
-}
\ No newline at end of file
+
+    // 拉取离线消息: GET http://localhost:8080/api/messages/offline?after=0&limit=200  (Authorization: Bearer <token>)
+    // 队列归属取 token 中的用户；旧客户端带的 user 参数必须与之一致
+    @GetMapping("/offline")
+    public ResponseEntity<?> getOffline(
+            @RequestParam(name = "user", required = false) String user,
+            @RequestParam(name = "after", defaultValue = "0") long after,
+            @RequestParam(name = "limit", defaultValue = "200") int limit,
+            @RequestHeader(value = "Authorization", required = false) String authorization) {
+        String owner = jwtUtil.getUserIdFromHeader(authorization);
+        if (owner == null) {
+            return ResponseEntity.status(401).body("需要登录");
+        }
+        String username = OfflineDeliveryService.usernameOf(owner);
+        if (user != null && !username.equals(OfflineDeliveryService.usernameOf(user))) {
+            return ResponseEntity.status(403).body("只能拉取自己的离线消息");
+        }
+        List<OfflineMessage> batch = offlineDeliveryService.nextBatch(username, after, limit);
+        return ResponseEntity.ok(batch);
+    }
+
+    // 确认离线消息: POST http://localhost:8080/api/messages/offline/ack  {"upTo":"123"}  (Authorization: Bearer <token>)
+    @PostMapping("/offline/ack")
+    public ResponseEntity<?> acknowledgeOffline(@RequestBody Map<String, String> params,
+                                                @RequestHeader(value = "Authorization", required = false) String authorization) {
+        String owner = jwtUtil.getUserIdFromHeader(authorization);
+        if (owner == null) {
+            return ResponseEntity.status(401).body("需要登录");
+        }
+        String username = OfflineDeliveryService.usernameOf(owner);
+        String user = params.get("user");
+        if (user != null && !username.equals(OfflineDeliveryService.usernameOf(user))) {
+            return ResponseEntity.status(403).body("只能确认自己的离线消息");
+        }
+        try {
+            int count = offlineDeliveryService.acknowledge(username, Long.parseLong(params.get("upTo")));
+            return ResponseEntity.ok(Map.of("acknowledged", count));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("确认失败: " + e.getMessage());
+        }
+    }
+
+    // 批量同步已读: POST http://localhost:8080/api/messages/read  {"reader":"A","peers":{"B":"12;epoch=ab12"}}
+    // 需要登录；reader 取自 token，字段给出时必须是本人
+    @PostMapping("/read")
+    public ResponseEntity<?> markRead(@RequestBody ReadSync sync,
+                                      @RequestHeader(value = "Authorization", required = false) String authorization) {
+        String owner = jwtUtil.getUserIdFromHeader(authorization);
+        if (owner == null) {
+            return ResponseEntity.status(401).body("需要登录");
+        }
+        if (sync.reader() != null
+                && !OfflineDeliveryService.usernameOf(owner).equals(OfflineDeliveryService.usernameOf(sync.reader()))) {
+            return ResponseEntity.status(403).body("只能同步自己的已读状态");
+        }
+        if (sync.peers() == null) {
+            return ResponseEntity.badRequest().body("缺少 peers");
+        }
+        return ResponseEntity.ok(Map.of("updated", messageService.markRead(owner, sync.peers())));
+    }
+}
@@ -1,23 +1,68 @@
 package com.example.admin.controller;
 
 import com.example.admin.entity.StatsSummary;
+import com.example.admin.service.ContentStore;
+import com.example.admin.service.FileDownloadService;
+import com.example.admin.service.GroupFanOutService;
+import com.example.admin.service.OfflineDeliveryService;
 import com.example.admin.service.StatsService;
+import com.example.admin.service.UploadSessionService;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/stats")
 public class StatsController {
 
     private final StatsService statsService;
+    private final OfflineDeliveryService offlineDeliveryService;
+    private final GroupFanOutService groupFanOutService;
+    private final UploadSessionService uploadSessionService;
+    private final FileDownloadService fileDownloadService;
+    private final ContentStore contentStore;
 
-    public StatsController(StatsService statsService) {
+    public StatsController(StatsService statsService, OfflineDeliveryService offlineDeliveryService,
+                           GroupFanOutService groupFanOutService, UploadSessionService uploadSessionService,
+                           FileDownloadService fileDownloadService, ContentStore contentStore) {
         this.statsService = statsService;
+        this.offlineDeliveryService = offlineDeliveryService;
+        this.groupFanOutService = groupFanOutService;
+        this.uploadSessionService = uploadSessionService;
+        this.fileDownloadService = fileDownloadService;
+        this.contentStore = contentStore;
     }
 
     @GetMapping
     public StatsSummary getStats() {
         return statsService.snapshot();
     }
+
+    @GetMapping("/offline")
+    public Map<String, Long> getOfflineStats() {
+        return offlineDeliveryService.getStats();
+    }
+
+    @GetMapping("/groups")
+    public Map<String, Long> getGroupStats() {
+        return groupFanOutService.getStats();
+    }
+
+    /**
+     * 文件上传下载与去重计数，附带进程累计 CPU 时间，两次采样相减即可得到每 GB 的 CPU 开销
+     */
+    @GetMapping("/files")
+    public Map<String, Object> getFileStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(uploadSessionService.getStats());
+        stats.putAll(fileDownloadService.getStats());
+        stats.putAll(contentStore.getStats());
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            stats.put("processCpuNanos", os.getProcessCpuTime());
+        }
+        return stats;
+    }
 }
@@ -0,0 +1,11 @@
+package com.example.admin.dto;
+
+import java.util.Map;
+
+/**
+ * 一次群消息扇出的进度
+ * outcomes: 接收方 SIP URI -> PENDING（发送中）/ DELIVERED / QUEUED（未送达，已转入离线队列）
+ */
+public record FanOutStatus(String fanOutId, String groupId, int recipients, int delivered, int queued,
+                           boolean finished, Map<String, String> outcomes) {
+}
@@ -0,0 +1,8 @@
+package com.example.admin.dto;
+
+/**
+ * 秒传的持有证明挑战：客户端读出自己文件的 [offset, offset + length) 区间，
+ * 返回 SHA-256(nonce 字节 + 区间字节) 的十六进制，证明它确实有这份内容而不只是知道哈希
+ */
+public record LinkChallenge(String challengeId, long offset, int length, String nonce) {
+}
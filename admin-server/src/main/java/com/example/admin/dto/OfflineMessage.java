@@ -0,0 +1,11 @@
+package com.example.admin.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * 离线消息 DTO，客户端按 id 确认已收到；messageId 是发送方的消息 id，接收方凭它与 SIP 上收到的同一条消息去重；
+ * groupId 是群消息所属的群（单聊为空），由服务器标明，客户端不必也不应信任消息体里的群消息信封
+ */
+public record OfflineMessage(long id, String sender, String content, LocalDateTime timestamp, String messageId,
+                             String groupId) {
+}
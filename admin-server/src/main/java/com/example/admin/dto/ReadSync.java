@@ -0,0 +1,10 @@
+package com.example.admin.dto;
+
+import java.util.Map;
+
+/**
+ * 客户端批量同步的已读状态：对端 -> 已读到的那条消息的 id，对端在它之前发给 reader 的消息都算已读；
+ * 对端是旧客户端、消息没有 id 时值为空
+ */
+public record ReadSync(String reader, Map<String, String> peers) {
+}
@@ -0,0 +1,11 @@
+package com.example.admin.dto;
+
+/**
+ * 一次上传（或秒传）的结果
+ * @param savedName 下载链接中的文件名
+ * @param sha256 内容哈希，也是下载时的 ETag
+ * @param deduplicated 服务器已有相同内容，没有新占用磁盘
+ */
+public record StoredFile(String fileName, String savedName, long size, String type, String sha256,
+                         boolean deduplicated) {
+}
@@ -0,0 +1,12 @@
+package com.example.admin.dto;
+
+import java.util.List;
+
+/**
+ * 分片上传会话状态，客户端据此从缺失的分片续传
+ * @param missing 尚未收到的分片序号（升序）
+ * @param nextMissing 第一个缺失分片，全部收到时为 -1
+ */
+public record UploadStatus(String uploadId, String fileName, long size, int chunkSize, int totalChunks,
+                           int receivedChunks, List<Integer> missing, int nextMissing) {
+}
@@ -0,0 +1,34 @@
+package com.example.admin.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Entity
+@Table(name = "chat_groups") // 群组表，成员单独一张 chat_group_members 表
+public class ChatGroup {
+
+    @Id
+    @Column(length = 64)
+    private String groupId; // 群 ID，由创建者指定
+
+    private String owner; // 创建者 SIP URI
+
+    private LocalDateTime createdAt;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "chat_group_members", joinColumns = @JoinColumn(name = "group_id"))
+    @Column(name = "member_uri", nullable = false)
+    private List<String> members = new ArrayList<>(); // 成员 SIP URI
+
+    // --- Getter 和 Setter ---
+    public String getGroupId() { return groupId; }
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+    public String getOwner() { return owner; }
+    public void setOwner(String owner) { this.owner = owner; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public List<String> getMembers() { return members; }
+    public void setMembers(List<String> members) { this.members = members; }
+}
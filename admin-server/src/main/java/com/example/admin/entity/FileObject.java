@@ -0,0 +1,29 @@
+package com.example.admin.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "file_objects") // 按内容存储的文件，同样的内容只存一份
+public class FileObject {
+
+    @Id
+    @Column(length = 64)
+    private String sha256; // 内容的 SHA-256（小写十六进制），也是磁盘上的文件名
+
+    private long size;
+
+    private int refCount; // 引用它的 file_references 条数，降到 0 时删除文件
+
+    private LocalDateTime createdAt;
+
+    // --- Getter 和 Setter ---
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+    public long getSize() { return size; }
+    public void setSize(long size) { this.size = size; }
+    public int getRefCount() { return refCount; }
+    public void setRefCount(int refCount) { this.refCount = refCount; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,34 @@
+package com.example.admin.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "file_references", indexes = {@Index(columnList = "sha256"), @Index(columnList = "createdAt")}) // 每次上传一条，下载链接里的文件名指向这里
+public class FileReference {
+
+    @Id
+    @Column(length = 128)
+    private String savedName; // UUID + 扩展名，即下载链接中的文件名
+
+    @Column(length = 64, nullable = false)
+    private String sha256; // 指向的 file_objects
+
+    private String fileName; // 上传时的原始文件名
+
+    private String type;
+
+    private LocalDateTime createdAt;
+
+    // --- Getter 和 Setter ---
+    public String getSavedName() { return savedName; }
+    public void setSavedName(String savedName) { this.savedName = savedName; }
+    public String getSha256() { return sha256; }
+    public void setSha256(String sha256) { this.sha256 = sha256; }
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
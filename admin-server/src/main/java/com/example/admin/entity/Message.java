@@ -4,7 +4,11 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages") // 告诉数据库建一张叫 messages 的表
+@Table(name = "messages", // 告诉数据库建一张叫 messages 的表
+        indexes = {
+                @Index(name = "idx_messages_pending", columnList = "pending_for, id"), // 离线队列按接收方顺序取
+                @Index(name = "idx_messages_conversation", columnList = "receiver_user, sender_user, id") // 已读同步按会话定位
+        })
 public class Message {
 
     @Id
@@ -24,6 +28,43 @@ public class Message {
 
     private boolean isRead; // 是否已读
 
+    // 接收方离线时暂存：存接收方用户名，确认送达后置空；在线直接送达的消息一直为空
+    @Column(name = "pending_for", length = 64)
+    private String pendingFor;
+
+    private LocalDateTime deliveredAt; // 离线消息确认送达的时间
+
+    // 发送方的消息 id（X-Message-Seq 的值），转交离线消息时带回给接收方去重；旧客户端不报告时为空
+    @Column(name = "message_id", length = 64)
+    private String messageId;
+
+    // 服务器扇出的群消息所属的群；单聊消息为空
+    @Column(name = "group_id", length = 64)
+    private String groupId;
+
+    // sender/receiver 可能存完整 URI 也可能只存用户名，这两列统一存用户名供索引查询；保存时自动填写
+    @Column(name = "sender_user", length = 64)
+    private String senderUser;
+
+    @Column(name = "receiver_user", length = 64)
+    private String receiverUser;
+
+    @PrePersist
+    @PreUpdate
+    void fillUsers() {
+        senderUser = userOf(sender);
+        receiverUser = userOf(receiver);
+    }
+
+    private static String userOf(String uri) {
+        if (uri == null) {
+            return null;
+        }
+        String value = uri.startsWith("sip:") ? uri.substring(4) : uri;
+        int at = value.indexOf('@');
+        return at > 0 ? value.substring(0, at) : value;
+    }
+
     // --- Getter 和 Setter ---
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -37,4 +78,14 @@ public class Message {
     public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
     public boolean isRead() { return isRead; }
     public void setRead(boolean read) { isRead = read; }
+    public String getPendingFor() { return pendingFor; }
+    public void setPendingFor(String pendingFor) { this.pendingFor = pendingFor; }
+    public LocalDateTime getDeliveredAt() { return deliveredAt; }
+    public void setDeliveredAt(LocalDateTime deliveredAt) { this.deliveredAt = deliveredAt; }
+    public String getMessageId() { return messageId; }
+    public void setMessageId(String messageId) { this.messageId = messageId; }
+    public String getGroupId() { return groupId; }
+    public void setGroupId(String groupId) { this.groupId = groupId; }
+    public String getSenderUser() { return senderUser; }
+    public String getReceiverUser() { return receiverUser; }
 }
\ No newline at end of file
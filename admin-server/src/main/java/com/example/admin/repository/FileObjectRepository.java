@@ -0,0 +1,9 @@
+package com.example.admin.repository;
+
+import com.example.admin.entity.FileObject;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface FileObjectRepository extends JpaRepository<FileObject, String> {
+}
@@ -0,0 +1,23 @@
+package com.example.admin.repository;
+
+import com.example.admin.entity.FileReference;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface FileReferenceRepository extends JpaRepository<FileReference, String> {
+
+    // 返回删除的行数，并发删除同一条引用时只有一方得到 1
+    @Modifying
+    @Query("DELETE FROM FileReference r WHERE r.savedName = :savedName")
+    int deleteBySavedName(@Param("savedName") String savedName);
+
+    // 按创建时间从旧到新取一批过期引用
+    List<FileReference> findTop200ByCreatedAtBeforeOrderByCreatedAtAsc(LocalDateTime cutoff);
+}
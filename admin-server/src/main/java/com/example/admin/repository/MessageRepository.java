@@ -1,11 +1,16 @@
 package com.example.admin.repository;
 
 import com.example.admin.entity.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
@@ -16,4 +21,30 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
 
     // 查找发给某个人的所有未读消息
     List<Message> findByReceiverAndIsReadFalse(String receiver);
-}
\ No newline at end of file
+
+    // 离线队列：取 afterId 之后的一批待投递消息，按 id 升序保证同一接收方的顺序
+    List<Message> findByPendingForAndIdGreaterThanOrderByIdAsc(String pendingFor, Long afterId, Pageable pageable);
+
+    long countByPendingFor(String pendingFor);
+
+    // 确认投递：upToId 及之前的都算送达，一条 UPDATE 确认整批
+    @Modifying
+    @Query("UPDATE Message m SET m.pendingFor = NULL, m.deliveredAt = :deliveredAt WHERE m.pendingFor = :user AND m.id <= :upToId")
+    int acknowledgePending(@Param("user") String user, @Param("upToId") Long upToId,
+                           @Param("deliveredAt") LocalDateTime deliveredAt);
+
+    // 群消息扇出：送达的一批接收方一次清除待投递标记
+    @Modifying
+    @Query("UPDATE Message m SET m.pendingFor = NULL, m.deliveredAt = :deliveredAt WHERE m.id IN :ids")
+    int markDelivered(@Param("ids") List<Long> ids, @Param("deliveredAt") LocalDateTime deliveredAt);
+
+    // 已读同步：按发送方的消息 id 找到服务器给这条消息分配的自增 id
+    Optional<Message> findFirstBySenderUserAndReceiverUserAndMessageIdOrderByIdDesc(String senderUser, String receiverUser,
+                                                                                   String messageId);
+
+    // 已读回执：peer 发给 reader 的消息中，服务器 id 不超过 upToId 的一次标为已读；走会话索引，不做 LIKE 扫描
+    @Modifying
+    @Query("UPDATE Message m SET m.isRead = true WHERE m.receiverUser = :reader AND m.senderUser = :peer"
+            + " AND m.id <= :upToId AND m.isRead = false")
+    int markReadUpTo(@Param("reader") String reader, @Param("peer") String peer, @Param("upToId") Long upToId);
+}
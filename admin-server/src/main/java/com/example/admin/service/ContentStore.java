@@ -0,0 +1,396 @@
+package com.example.admin.service;
+
+import com.example.admin.dto.LinkChallenge;
+import com.example.admin.dto.StoredFile;
+import com.example.admin.entity.FileObject;
+import com.example.admin.entity.FileReference;
+import com.example.admin.repository.FileObjectRepository;
+import com.example.admin.repository.FileReferenceRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 按内容寻址的文件存储
+ * 文件内容以 SHA-256 命名，分两级目录存放：{@code objects/ab/cd/<sha256>}。
+ * 每次上传生成一条引用（UUID 文件名，即下载链接），相同内容的多次上传共用一个文件，file_objects.refCount 记录引用数，
+ * 引用创建满 {@code file.reference-ttl-days} 天后过期（链接失效，0 表示永不过期），引用删光后文件随之删除。SHA-256 在写入临时文件的同时计算，写完后改名到位或发现已存在而直接丢弃。
+ * 客户端可以先用哈希请求秒传：服务器已有该内容时发一个持有证明挑战（{@link #challengeLink}），
+ * 客户端答对随机区间的哈希后（{@link #completeLink}）只新增引用，不传文件内容。
+ * 只知道哈希拿不到引用；但挑战本身会告诉调用方服务器上有这份内容，所以接口只对登录用户开放。
+ * 同一哈希的计数增减与文件落盘/删除由进程内的锁串行化，只适用于单实例部署；
+ * 计数和引用的写入在锁内作为一个事务提交，释放锁时数据库里已是一致的状态。
+ */
+@Service
+public class ContentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+
+    private static final String OBJECTS_DIR = "objects";
+    private static final String TEMP_DIR = "tmp";
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+    private static final int COPY_BUFFER = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+    // 持有证明区间的最大长度、挑战有效期、同时等待应答的挑战数
+    private static final int PROOF_RANGE = 64 * 1024;
+    private static final long CHALLENGE_TTL_MILLIS = 60_000;
+    private static final int MAX_PENDING_CHALLENGES = 1024;
+
+    private record PendingLink(String sha256, long size, String fileName, String type, long offset, int length,
+                               byte[] nonce, long expiresAtMillis) {
+    }
+
+    private final FileObjectRepository objectRepository;
+    private final FileReferenceRepository referenceRepository;
+    private final TransactionTemplate transactions;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Map<String, PendingLink> challenges = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong storedObjects = new AtomicLong();
+    private final AtomicLong dedupHits = new AtomicLong();
+    private final AtomicLong dedupBytes = new AtomicLong();
+    private final AtomicLong linkHits = new AtomicLong();
+    private final AtomicLong releasedObjects = new AtomicLong();
+    private final AtomicLong expiredReferences = new AtomicLong();
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${file.reference-ttl-days:30}")
+    private long referenceTtlDays;
+
+    public ContentStore(FileObjectRepository objectRepository, FileReferenceRepository referenceRepository,
+                        PlatformTransactionManager transactionManager) {
+        this.objectRepository = objectRepository;
+        this.referenceRepository = referenceRepository;
+        // 事务必须在条带锁内开启和提交，@Transactional 包在方法外会在释放锁之后才提交，所以用 TransactionTemplate
+        this.transactions = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 把输入流存为一个新引用，边写临时文件边算哈希
+     * @param contentLength 声明的长度，未知时为 -1；实际长度不符时失败
+     * @param maxBytes 大小上限
+     */
+    public StoredFile store(InputStream body, long contentLength, long maxBytes, String fileName, String type)
+            throws IOException {
+        if (contentLength > maxBytes) {
+            throw new IllegalArgumentException("文件大小超出限制: " + contentLength);
+        }
+        MessageDigest digest = newDigest();
+        Path temp = newTempFile();
+        long written = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[COPY_BUFFER];
+                ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+                int n;
+                while ((n = body.read(buffer)) >= 0) {
+                    written += n;
+                    if (written > maxBytes) {
+                        throw new IllegalArgumentException("文件大小超出限制: " + written);
+                    }
+                    digest.update(buffer, 0, n);
+                    wrapper.clear().limit(n);
+                    while (wrapper.hasRemaining()) {
+                        channel.write(wrapper);
+                    }
+                }
+            }
+            if (contentLength >= 0 && written != contentLength) {
+                throw new IOException("请求体不完整: " + written + "/" + contentLength);
+            }
+            return commit(temp, HexFormat.of().formatHex(digest.digest()), written, fileName, type);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 把已写好的文件（分片上传的临时文件）存为一个新引用；文件会被移走或删除
+     */
+    public StoredFile storeFile(Path file, String fileName, String type) throws IOException {
+        try {
+            MessageDigest digest = newDigest();
+            long size = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER);
+                int n;
+                while ((n = channel.read(buffer)) >= 0) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                    size += n;
+                }
+            }
+            return commit(file, HexFormat.of().formatHex(digest.digest()), size, fileName, type);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 秒传第一步：服务器已有该内容时随机选一段区间作为持有证明的挑战
+     * @return 挑战；内容不存在或大小不符时返回 null
+     * @throws IllegalStateException 等待应答的挑战过多
+     */
+    public LinkChallenge challengeLink(String sha256, long size, String fileName, String type) {
+        if (sha256 == null || !SHA256.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("无效的 SHA-256: " + sha256);
+        }
+        Optional<FileObject> object = objectRepository.findById(sha256);
+        if (object.isEmpty() || object.get().getSize() != size || !Files.isRegularFile(pathFor(sha256))) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (challenges.size() >= MAX_PENDING_CHALLENGES) {
+            challenges.values().removeIf(pending -> pending.expiresAtMillis() < now);
+            if (challenges.size() >= MAX_PENDING_CHALLENGES) {
+                throw new IllegalStateException("秒传请求过多，请稍后重试");
+            }
+        }
+        int length = (int) Math.min(PROOF_RANGE, size);
+        long offset = size == length ? 0 : (long) (random.nextDouble() * (size - length + 1));
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String id = UUID.randomUUID().toString().replace("-", "");
+        challenges.put(id, new PendingLink(sha256, size, fileName, type, offset, length, nonce, now + CHALLENGE_TTL_MILLIS));
+        return new LinkChallenge(id, offset, length, HexFormat.of().formatHex(nonce));
+    }
+
+    /**
+     * 秒传第二步：核对客户端对挑战区间的哈希，正确时新增一条引用。每个挑战只能应答一次
+     * @return 新引用；挑战不存在、已过期、应答不对或内容已被删除时返回 null
+     */
+    public StoredFile completeLink(String challengeId, String proof) throws IOException {
+        PendingLink pending = challengeId == null ? null : challenges.remove(challengeId);
+        if (pending == null || pending.expiresAtMillis() < System.currentTimeMillis() || proof == null) {
+            return null;
+        }
+        synchronized (lockFor(pending.sha256())) {
+            Optional<FileObject> object = objectRepository.findById(pending.sha256());
+            Path path = pathFor(pending.sha256());
+            if (object.isEmpty() || !Files.isRegularFile(path)) {
+                return null;
+            }
+            MessageDigest digest = newDigest();
+            digest.update(pending.nonce());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(pending.length());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, pending.offset() + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                digest.update(buffer);
+            }
+            byte[] expected = HexFormat.of().formatHex(digest.digest()).getBytes(StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(expected, proof.toLowerCase().getBytes(StandardCharsets.US_ASCII))) {
+                return null;
+            }
+            linkHits.incrementAndGet();
+            dedupBytes.addAndGet(pending.size());
+            return transactions.execute(status -> addReference(object.get(), pending.fileName(), pending.type(), true));
+        }
+    }
+
+    /**
+     * 下载链接中的文件名对应的内容文件；不是按内容存储的文件时返回 null
+     */
+    public Path resolve(String savedName) {
+        return referenceRepository.findById(savedName)
+                .map(reference -> pathFor(reference.getSha256()))
+                .orElse(null);
+    }
+
+    /**
+     * 引用对应的内容哈希
+     */
+    public Optional<String> hashOf(String savedName) {
+        return referenceRepository.findById(savedName).map(FileReference::getSha256);
+    }
+
+    /**
+     * 删除一条引用，内容没有其他引用时删除文件
+     * 引用只在锁外查一次哈希用来选锁；锁内按删除的行数判断，只有真正删掉这条引用的调用才减计数，并发重复删除不会多减
+     */
+    public boolean release(String savedName) throws IOException {
+        Optional<FileReference> reference = referenceRepository.findById(savedName);
+        if (reference.isEmpty()) {
+            return false;
+        }
+        String sha256 = reference.get().getSha256();
+        synchronized (lockFor(sha256)) {
+            Boolean lastReference = transactions.execute(status -> {
+                if (referenceRepository.deleteBySavedName(savedName) != 1) {
+                    return null;
+                }
+                Optional<FileObject> object = objectRepository.findById(sha256);
+                if (object.isEmpty()) {
+                    return false;
+                }
+                FileObject current = object.get();
+                current.setRefCount(current.getRefCount() - 1);
+                if (current.getRefCount() > 0) {
+                    objectRepository.save(current);
+                    return false;
+                }
+                objectRepository.delete(current);
+                return true;
+            });
+            if (lastReference == null) {
+                return false;
+            }
+            if (lastReference) {
+                Files.deleteIfExists(pathFor(sha256));
+                releasedObjects.incrementAndGet();
+                logger.info("内容 {} 已无引用，删除", sha256);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 释放创建时间超过有效期的引用，每小时一轮，按批从最旧的开始
+     */
+    @Scheduled(fixedDelay = 60 * 60 * 1000)
+    public void expireReferences() {
+        if (referenceTtlDays <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(referenceTtlDays);
+        List<FileReference> batch;
+        do {
+            batch = referenceRepository.findTop200ByCreatedAtBeforeOrderByCreatedAtAsc(cutoff);
+            int released = 0;
+            for (FileReference reference : batch) {
+                try {
+                    if (release(reference.getSavedName())) {
+                        released++;
+                    }
+                } catch (IOException e) {
+                    // 行已删除，只是文件没删掉；同一内容再次上传时沿用磁盘上的文件
+                    logger.warn("删除过期内容 {} 失败", reference.getSha256(), e);
+                    released++;
+                }
+            }
+            expiredReferences.addAndGet(released);
+            if (released == 0) {
+                break;
+            }
+        } while (batch.size() == 200);
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "storedObjects", storedObjects.get(),
+                "dedupHits", dedupHits.get(),
+                "linkHits", linkHits.get(),
+                "dedupBytesSaved", dedupBytes.get(),
+                "releasedObjects", releasedObjects.get(),
+                "expiredReferences", expiredReferences.get());
+    }
+
+    private StoredFile commit(Path temp, String sha256, long size, String fileName, String type) throws IOException {
+        synchronized (lockFor(sha256)) {
+            Path target = pathFor(sha256);
+            Optional<FileObject> existing = objectRepository.findById(sha256);
+            boolean deduplicated = existing.isPresent() && Files.isRegularFile(target);
+            if (deduplicated) {
+                dedupHits.incrementAndGet();
+                dedupBytes.addAndGet(size);
+            } else {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // 上次落盘后没来得及记录，内容相同，保留已有文件
+                    logger.debug("内容 {} 已在磁盘上", sha256);
+                }
+                storedObjects.incrementAndGet();
+            }
+            FileObject object = existing.orElseGet(() -> {
+                FileObject created = new FileObject();
+                created.setSha256(sha256);
+                created.setSize(size);
+                created.setCreatedAt(LocalDateTime.now());
+                return created;
+            });
+            return transactions.execute(status -> addReference(object, fileName, type, deduplicated));
+        }
+    }
+
+    /**
+     * 调用方持有该哈希的锁，并在同一个事务内调用
+     */
+    private StoredFile addReference(FileObject object, String fileName, String type, boolean deduplicated) {
+        object.setRefCount(object.getRefCount() + 1);
+        objectRepository.save(object);
+
+        String originalName = Paths.get(fileName).getFileName().toString();
+        String extension = originalName.contains(".") ? originalName.substring(originalName.lastIndexOf('.')) : "";
+        FileReference reference = new FileReference();
+        reference.setSavedName(UUID.randomUUID() + extension);
+        reference.setSha256(object.getSha256());
+        reference.setFileName(originalName);
+        reference.setType(type == null ? "file" : type);
+        reference.setCreatedAt(LocalDateTime.now());
+        referenceRepository.save(reference);
+        return new StoredFile(originalName, reference.getSavedName(), object.getSize(), reference.getType(),
+                object.getSha256(), deduplicated);
+    }
+
+    private Path pathFor(String sha256) {
+        return Paths.get(uploadDir, OBJECTS_DIR, sha256.substring(0, 2), sha256.substring(2, 4), sha256);
+    }
+
+    private Path newTempFile() throws IOException {
+        Path dir = Paths.get(uploadDir, OBJECTS_DIR, TEMP_DIR);
+        Files.createDirectories(dir);
+        return Files.createFile(dir.resolve(UUID.randomUUID() + ".tmp"));
+    }
+
+    private Object lockFor(String sha256) {
+        return locks[Math.floorMod(sha256.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
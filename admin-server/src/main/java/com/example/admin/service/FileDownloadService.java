@@ -0,0 +1,349 @@
+package com.example.admin.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 文件下载：字节区间（Range，单区间与 multipart/byteranges 多区间）、条件请求与缓存头
+ * ETag 是文件内容的 SHA-256（强校验），按 文件名+大小+修改时间 缓存，文件不变时只算一次。
+ * 上传文件以 UUID 命名、内容不再改变，响应标为 immutable 并允许长期缓存；
+ * 客户端带 If-None-Match 重复请求时返回 304，带 If-Range 续传时内容变了就退回完整的 200。
+ * 整个文件和单区间响应在 Tomcat 支持时交给它的 sendfile（FileChannel.transferTo 到 socket），
+ * 数据不经过 JVM 堆；多区间响应和不支持 sendfile 的连接（如 TLS）按缓冲区复制。
+ */
+@Service
+public class FileDownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileDownloadService.class);
+
+    private static final Pattern IMMUTABLE_NAME =
+            Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}(\\.[\\w-]+)?");
+    private static final String IMMUTABLE_CACHE = "public, max-age=31536000, immutable";
+    // 单个请求最多处理的区间数，超过时按整个文件返回，避免被大量小区间放大开销
+    private static final int MAX_RANGES = 16;
+    private static final int MAX_CACHED_TAGS = 10_000;
+    private static final int COPY_BUFFER = 64 * 1024;
+    // Tomcat sendfile 约定的请求属性（org.apache.coyote.Constants / Globals）
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // 小文件直接复制比登记 sendfile 更省事，与 Tomcat DefaultServlet 的 sendfileSize 默认值相同
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+
+    private record Tag(long size, long lastModified, String etag) {
+    }
+
+    private record Range(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    private final Map<Path, Tag> tags = new ConcurrentHashMap<>();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong sendfileResponses = new AtomicLong();
+    private final AtomicLong partialResponses = new AtomicLong();
+    private final AtomicLong notModifiedResponses = new AtomicLong();
+
+    @Value("${file.download.zero-copy:true}")
+    private boolean zeroCopy;
+
+    /**
+     * 文件内容的强 ETag（带引号）
+     */
+    public String etag(Path file) throws IOException {
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        Tag cached = tags.get(file);
+        if (cached != null && cached.size() == size && cached.lastModified() == lastModified) {
+            return cached.etag();
+        }
+        String etag = "\"" + sha256(file) + "\"";
+        if (tags.size() >= MAX_CACHED_TAGS) {
+            tags.clear();
+        }
+        tags.put(file, new Tag(size, lastModified, etag));
+        return etag;
+    }
+
+    /**
+     * 按请求头返回文件的全部或部分内容
+     */
+    public void serve(Path file, String downloadName, String contentType,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(file, null, downloadName, contentType, request, response);
+    }
+
+    /**
+     * 同上，ETag 已知（按内容存储的文件以哈希为名）时直接使用，不再读文件计算
+     * @param knownEtag 带引号的强 ETag，为 null 时计算
+     */
+    public void serve(Path file, String knownEtag, String downloadName, String contentType,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long size = Files.size(file);
+        // HTTP 日期精度为秒
+        long lastModified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+        String etag = knownEtag != null ? knownEtag : etag(file);
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                IMMUTABLE_NAME.matcher(downloadName).matches() ? IMMUTABLE_CACHE : "no-cache");
+
+        if (notModified(request, etag, lastModified)) {
+            notModifiedResponses.incrementAndGet();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        downloads.incrementAndGet();
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        boolean head = "HEAD".equals(request.getMethod());
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        List<Range> ranges = rangeHeader != null && ifRangeMatches(request, etag, lastModified)
+                ? parseRanges(rangeHeader, size) : null;
+
+        if (ranges == null) {
+            response.setContentType(contentType);
+            response.setContentLengthLong(size);
+            if (!head) {
+                send(file, 0, size, request, response);
+            }
+            return;
+        }
+        if (ranges.isEmpty()) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        partialResponses.incrementAndGet();
+        if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, size));
+            response.setContentLengthLong(range.length());
+            if (!head) {
+                send(file, range.start(), range.length(), request, response);
+            }
+            return;
+        }
+
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            byte[] partHeader = ((i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: " + contentRange(ranges.get(i), size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + ranges.get(i).length();
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeaders.get(i));
+                copy(channel, ranges.get(i).start(), ranges.get(i).length(), out);
+            }
+        }
+        out.write(trailer);
+        bytesServed.addAndGet(contentLength);
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "downloads", downloads.get(),
+                "bytesServed", bytesServed.get(),
+                "sendfileResponses", sendfileResponses.get(),
+                "partialResponses", partialResponses.get(),
+                "notModified", notModifiedResponses.get());
+    }
+
+    /**
+     * 发送文件的一段；能用 sendfile 时只登记文件与区间，由 Tomcat 在 servlet 返回后直接从文件写到 socket
+     */
+    private void send(Path file, long start, long length, HttpServletRequest request,
+                      HttpServletResponse response) throws IOException {
+        bytesServed.addAndGet(length);
+        if (zeroCopy && length >= SENDFILE_MIN_BYTES
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            sendfileResponses.incrementAndGet();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            copy(channel, start, length, response.getOutputStream());
+        }
+    }
+
+    /**
+     * If-None-Match 优先；没有时才看 If-Modified-Since
+     */
+    private boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                // If-None-Match 使用弱比较
+                if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * If-Range 为强比较：ETag 完全相同，或日期与最后修改时间相同；不满足时忽略 Range
+     */
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        return dateHeader(request, HttpHeaders.IF_RANGE) == lastModified;
+    }
+
+    /**
+     * 解析 Range 头
+     * @return 格式无法识别或区间过多时返回 null（按完整内容响应）；没有可满足的区间时返回空列表
+     */
+    private static List<Range> parseRanges(String header, long size) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    // 后缀区间：最后 N 个字节
+                    long suffix = Long.parseLong(last);
+                    if (suffix == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    long lastPosition = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (lastPosition < start) {
+                        // 语法无效，整个 Range 头作废
+                        return null;
+                    }
+                    end = Math.min(lastPosition, size - 1);
+                }
+                if (start < size) {
+                    ranges.add(new Range(start, end));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    private static String contentRange(Range range, long size) {
+        return "bytes " + range.start() + "-" + range.end() + "/" + size;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static void copy(FileChannel channel, long position, long length, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER, Math.max(1, length)));
+        long remaining = length;
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            out.write(buffer.array(), 0, n);
+            position += n;
+            remaining -= n;
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        logger.debug("计算 {} 的 ETag 用时 {} ms", file.getFileName(), (System.nanoTime() - started) / 1_000_000);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.admin.service;
+
+import com.example.admin.dto.FanOutStatus;
+import com.example.admin.entity.ChatGroup;
+import com.example.admin.entity.Message;
+import com.example.admin.repository.ChatGroupRepository;
+import com.example.admin.repository.MessageRepository;
+import com.example.sipclient.chat.GroupMessage;
+import com.example.sipclient.sip.DeliveryResult;
+import com.example.sipclient.sip.SipUserAgent;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 群消息服务端扇出
+ * 客户端每条群消息只发一次请求；服务器为每个接收方写一条消息记录（先标记为待投递），
+ * 再用转发账号按批并发发出 SIP MESSAGE，送达的清除标记，未送达的留在离线队列里等对方上线。
+ * 扇出在后台线程执行，接口立即返回扇出 id，进度可按 id 查询。
+ */
+@Service
+public class GroupFanOutService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupFanOutService.class);
+
+    private static final int MAX_TRACKED = 1000;
+
+    // 一次扇出的可变进度，仅由扇出线程更新；快照时加锁
+    private static final class Tracker {
+        private final String id;
+        private final String groupId;
+        private final Map<String, String> outcomes = new LinkedHashMap<>();
+        private int delivered;
+        private int queued;
+        private boolean finished;
+
+        private Tracker(String id, String groupId, List<String> recipients) {
+            this.id = id;
+            this.groupId = groupId;
+            recipients.forEach(r -> outcomes.put(r, "PENDING"));
+        }
+
+        private synchronized void record(String recipient, boolean ok) {
+            outcomes.put(recipient, ok ? "DELIVERED" : "QUEUED");
+            if (ok) {
+                delivered++;
+            } else {
+                queued++;
+            }
+        }
+
+        private synchronized FanOutStatus snapshot() {
+            return new FanOutStatus(id, groupId, outcomes.size(), delivered, queued, finished, Map.copyOf(outcomes));
+        }
+    }
+
+    private final ChatGroupRepository groupRepository;
+    private final MessageRepository messageRepository;
+    private final OfflineDeliveryService offlineDeliveryService;
+    private final SipService sipService;
+
+    @Value("${group.relay.uri:}")
+    private String relayUri;
+    @Value("${group.relay.password:}")
+    private String relayPassword;
+    @Value("${group.relay.local-ip:127.0.0.1}")
+    private String relayLocalIp;
+    @Value("${group.relay.local-port:5090}")
+    private int relayLocalPort;
+    @Value("${group.fanout.batch-size:100}")
+    private int batchSize;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "group-fanout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Tracker> trackers = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tracker> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    };
+
+    private final AtomicLong fanOuts = new AtomicLong();
+    private final AtomicLong recipientsTotal = new AtomicLong();
+    private final AtomicLong deliveredTotal = new AtomicLong();
+    private final AtomicLong queuedTotal = new AtomicLong();
+
+    public GroupFanOutService(ChatGroupRepository groupRepository, MessageRepository messageRepository,
+                              OfflineDeliveryService offlineDeliveryService, SipService sipService) {
+        this.groupRepository = groupRepository;
+        this.messageRepository = messageRepository;
+        this.offlineDeliveryService = offlineDeliveryService;
+        this.sipService = sipService;
+    }
+
+    /**
+     * 创建或覆盖群组；已存在的群只有群主本人能覆盖，否则抛 {@link SecurityException}
+     *
+     * @param owner 调用者（已认证的 SIP URI），新建时成为群主
+     */
+    public ChatGroup defineGroup(String groupId, String owner, List<String> members) {
+        if (!GroupMessage.isValidGroupId(groupId)) {
+            throw new IllegalArgumentException("群 ID 不能为空或包含空白字符");
+        }
+        if (members == null || members.isEmpty()) {
+            throw new IllegalArgumentException("群成员不能为空");
+        }
+        ChatGroup group = groupRepository.findById(groupId).orElseGet(ChatGroup::new);
+        if (group.getOwner() != null
+                && !OfflineDeliveryService.usernameOf(group.getOwner()).equals(OfflineDeliveryService.usernameOf(owner))) {
+            throw new SecurityException("只有群主能修改群组 " + groupId);
+        }
+        group.setGroupId(groupId);
+        group.setOwner(owner);
+        if (group.getCreatedAt() == null) {
+            group.setCreatedAt(LocalDateTime.now());
+        }
+        group.setMembers(new ArrayList<>(members.stream().map(String::trim).filter(m -> !m.isEmpty()).distinct().toList()));
+        logger.info("群组 {} 已保存，成员数量 {}", groupId, group.getMembers().size());
+        return groupRepository.save(group);
+    }
+
+    public Optional<ChatGroup> findGroup(String groupId) {
+        return groupRepository.findById(groupId);
+    }
+
+    /**
+     * 受理一条群消息，立即返回；发送者本人不在接收方之列
+     *
+     * @param senderUri 已认证的发送者，不是群成员时抛 {@link SecurityException}
+     */
+    public FanOutStatus fanOut(String groupId, String senderUri, String content) {
+        ChatGroup group = groupRepository.findById(groupId)
+                .orElseThrow(() -> new IllegalArgumentException("未知群组: " + groupId));
+        String senderUser = OfflineDeliveryService.usernameOf(senderUri);
+        if (group.getMembers().stream().noneMatch(member -> OfflineDeliveryService.usernameOf(member).equals(senderUser))) {
+            throw new SecurityException("不是群 " + groupId + " 的成员");
+        }
+        List<String> recipients = group.getMembers().stream()
+                .filter(member -> !OfflineDeliveryService.usernameOf(member).equals(senderUser))
+                .toList();
+
+        // 先全部落库并标记为待投递，服务器中途重启也不会丢
+        LocalDateTime now = LocalDateTime.now();
+        List<Message> rows = new ArrayList<>(recipients.size());
+        for (String recipient : recipients) {
+            Message message = new Message();
+            message.setSender(senderUri);
+            message.setReceiver(recipient);
+            message.setContent(content);
+            message.setTimestamp(now);
+            message.setPendingFor(OfflineDeliveryService.usernameOf(recipient));
+            message.setGroupId(groupId);
+            rows.add(message);
+        }
+        messageRepository.saveAll(rows);
+
+        Tracker tracker = new Tracker(UUID.randomUUID().toString(), groupId, recipients);
+        synchronized (trackers) {
+            trackers.put(tracker.id, tracker);
+        }
+        fanOuts.incrementAndGet();
+        recipientsTotal.addAndGet(recipients.size());
+        String body = new GroupMessage(groupId, senderUri, content).encode();
+        executor.execute(() -> deliver(tracker, rows, body));
+        return tracker.snapshot();
+    }
+
+    public Optional<FanOutStatus> getStatus(String fanOutId) {
+        synchronized (trackers) {
+            return Optional.ofNullable(trackers.get(fanOutId)).map(Tracker::snapshot);
+        }
+    }
+
+    /**
+     * 转发账号的 URI，未配置时为空串；客户端只把这个账号发来的 GROUP: 消息当作群消息
+     */
+    public String getRelayUri() {
+        return relayUri == null ? "" : relayUri;
+    }
+
+    /**
+     * 统计：扇出次数 / 接收方总数 / 在线送达 / 转入离线队列
+     */
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "fanOuts", fanOuts.get(),
+                "recipients", recipientsTotal.get(),
+                "delivered", deliveredTotal.get(),
+                "queued", queuedTotal.get());
+    }
+
+    private void deliver(Tracker tracker, List<Message> rows, String body) {
+        try {
+            SipUserAgent relay = relayAgent();
+            for (int start = 0; start < rows.size(); start += batchSize) {
+                List<Message> batch = rows.subList(start, Math.min(rows.size(), start + batchSize));
+                List<CompletableFuture<DeliveryResult>> sends = new ArrayList<>(batch.size());
+                for (Message message : batch) {
+                    sends.add(relay == null
+                            ? CompletableFuture.completedFuture(null)
+                            : relay.sendMessageAsync(message.getReceiver(), body));
+                }
+                // 一批全部有结果后再发下一批，单次扇出占用的在途请求数不超过批大小
+                CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).join();
+                List<Long> deliveredIds = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    DeliveryResult result = sends.get(i).join();
+                    boolean ok = result != null && result.isDelivered();
+                    if (ok) {
+                        deliveredIds.add(batch.get(i).getId());
+                    }
+                    tracker.record(batch.get(i).getReceiver(), ok);
+                }
+                offlineDeliveryService.markDelivered(deliveredIds);
+                deliveredTotal.addAndGet(deliveredIds.size());
+                queuedTotal.addAndGet(batch.size() - deliveredIds.size());
+            }
+        } catch (RuntimeException e) {
+            logger.error("群消息扇出失败: {}", tracker.groupId, e);
+        } finally {
+            synchronized (tracker) {
+                tracker.finished = true;
+            }
+        }
+        FanOutStatus status = tracker.snapshot();
+        logger.info("群 {} 消息扇出完成: 送达 {}，离线 {}", status.groupId(), status.delivered(), status.queued());
+    }
+
+    /**
+     * 转发账号，未配置或注册失败时返回 null，消息全部留在离线队列
+     */
+    private synchronized SipUserAgent relayAgent() {
+        if (relayUri == null || relayUri.isBlank()) {
+            return null;
+        }
+        try {
+            return sipService.register(relayUri, relayPassword, relayLocalIp, relayLocalPort);
+        } catch (Exception e) {
+            logger.warn("群消息转发账号注册失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -4,9 +4,11 @@ import com.example.admin.entity.Message;
 import com.example.admin.repository.MessageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class MessageService {
@@ -14,18 +16,57 @@ public class MessageService {
     @Autowired
     private MessageRepository messageRepository;
 
+    @Autowired
+    private OfflineDeliveryService offlineDeliveryService;
+
     // 发送消息
     public Message sendMessage(String sender, String receiver, String content) {
+        return sendMessage(sender, receiver, content, null);
+    }
+
+    public Message sendMessage(String sender, String receiver, String content, Boolean delivered) {
+        return sendMessage(sender, receiver, content, delivered, null);
+    }
+
+    // 发送消息；delivered 为发送方报告的 SIP 投递结果，未送达的消息进入离线队列；messageId 为发送方的消息 id
+    public Message sendMessage(String sender, String receiver, String content, Boolean delivered, String messageId) {
         Message message = new Message();
         message.setSender(sender);
         message.setReceiver(receiver);
         message.setContent(content);
         message.setTimestamp(LocalDateTime.now());
         message.setRead(false); // 刚发出去，默认未读
+        message.setMessageId(messageId);
+        String receiverUser = OfflineDeliveryService.usernameOf(receiver);
+        if (offlineDeliveryService.shouldQueue(receiverUser, delivered)) {
+            message.setPendingFor(receiverUser);
+        }
 
         return messageRepository.save(message);
     }
 
+    // 批量标记已读：peers 为对端 -> 已读到的那条消息的 id（发送方的 X-Message-Seq）。
+    // 按服务器分配的自增 id 划界，不看客户端时钟；找不到这条消息（旧客户端没有 id）的对端跳过，不扩大已读范围
+    @Transactional
+    public int markRead(String reader, Map<String, String> peers) {
+        String readerUser = OfflineDeliveryService.usernameOf(reader);
+        int updated = 0;
+        for (Map.Entry<String, String> peer : peers.entrySet()) {
+            String peerUser = OfflineDeliveryService.usernameOf(peer.getKey());
+            String messageId = peer.getValue();
+            if (messageId == null || messageId.isBlank()) {
+                continue;
+            }
+            Long upToId = messageRepository.findFirstBySenderUserAndReceiverUserAndMessageIdOrderByIdDesc(peerUser, readerUser, messageId)
+                    .map(Message::getId)
+                    .orElse(null);
+            if (upToId != null) {
+                updated += messageRepository.markReadUpTo(readerUser, peerUser, upToId);
+            }
+        }
+        return updated;
+    }
+
     // 获取两个人的聊天历史
     public List<Message> getChatHistory(String user1, String user2) {
         return messageRepository.findChatHistory(user1, user2);
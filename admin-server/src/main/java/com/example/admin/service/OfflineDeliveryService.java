@@ -0,0 +1,120 @@
+package com.example.admin.service;
+
+import com.example.admin.dto.OfflineMessage;
+import com.example.admin.repository.MessageRepository;
+import com.example.admin.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 离线消息存储转发
+ * 接收方不在线（或发送方报告 SIP 投递失败）的消息留在 messages 表里并标记接收方；
+ * 接收方登录后由客户端后台分批拉取，每批处理完再确认，确认前的消息下次还会再取到（至少一次）。
+ * 批次按 id 升序，同一接收方的消息顺序不变；批次大小有上限，上万条积压也不会拖慢登录本身。
+ */
+@Service
+public class OfflineDeliveryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OfflineDeliveryService.class);
+
+    public static final int DEFAULT_BATCH = 200;
+    public static final int MAX_BATCH = 500;
+
+    private final MessageRepository messageRepository;
+    private final UserRepository userRepository;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+
+    public OfflineDeliveryService(MessageRepository messageRepository, UserRepository userRepository) {
+        this.messageRepository = messageRepository;
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * 判断一条消息是否需要暂存
+     * @param receiverUser 接收方用户名
+     * @param delivered 发送方报告的 SIP 投递结果，旧客户端不报告时为 null，此时按接收方在线状态判断
+     */
+    public boolean shouldQueue(String receiverUser, Boolean delivered) {
+        boolean queue = delivered != null
+                ? !delivered
+                : userRepository.findByUsername(receiverUser).map(user -> !user.isOnline()).orElse(true);
+        if (queue) {
+            queued.incrementAndGet();
+        }
+        return queue;
+    }
+
+    /**
+     * 取一批待投递消息
+     * @param afterId 上一批最后一条的 id，首批传 0
+     */
+    public List<OfflineMessage> nextBatch(String user, long afterId, int limit) {
+        int size = limit <= 0 ? DEFAULT_BATCH : Math.min(limit, MAX_BATCH);
+        List<OfflineMessage> batch = messageRepository
+                .findByPendingForAndIdGreaterThanOrderByIdAsc(user, afterId, PageRequest.of(0, size)).stream()
+                .map(m -> new OfflineMessage(m.getId(), m.getSender(), m.getContent(), m.getTimestamp(), m.getMessageId(),
+                        m.getGroupId()))
+                .toList();
+        fetched.addAndGet(batch.size());
+        return batch;
+    }
+
+    /**
+     * 确认 upToId 及之前的消息已送达
+     * @return 本次确认的条数
+     */
+    @Transactional
+    public int acknowledge(String user, long upToId) {
+        int count = messageRepository.acknowledgePending(user, upToId, LocalDateTime.now());
+        acknowledged.addAndGet(count);
+        if (count > 0) {
+            logger.info("离线消息已送达: {} 共 {} 条", user, count);
+        }
+        return count;
+    }
+
+    /**
+     * 已经在线送达的消息（如群消息扇出）清除待投递标记
+     */
+    @Transactional
+    public int markDelivered(List<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return 0;
+        }
+        return messageRepository.markDelivered(messageIds, LocalDateTime.now());
+    }
+
+    public long pendingCount(String user) {
+        return messageRepository.countByPendingFor(user);
+    }
+
+    /**
+     * 统计：暂存 / 已拉取 / 已确认条数
+     */
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "queued", queued.get(),
+                "fetched", fetched.get(),
+                "acknowledged", acknowledged.get());
+    }
+
+    /**
+     * sip:alice@192.168.1.100:5060 -> alice，不是 SIP URI 时原样返回
+     */
+    public static String usernameOf(String uri) {
+        String value = uri.startsWith("sip:") ? uri.substring(4) : uri;
+        int at = value.indexOf('@');
+        return at > 0 ? value.substring(0, at) : value;
+    }
+}
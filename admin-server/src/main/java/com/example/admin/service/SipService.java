@@ -1,5 +1,9 @@
 package com.example.admin.service;
 
+import com.example.sipclient.sip.FlowKeepAlive;
+import com.example.sipclient.sip.RegistrationManager;
+import com.example.sipclient.sip.SharedSipStack;
+import com.example.sipclient.sip.SipEventDispatcher;
 import com.example.sipclient.sip.SipUserAgent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,12 +11,14 @@ import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PreDestroy;
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * SIP 服务
- * 管理所有用户的 SIP 连接
+ * 管理所有用户的 SIP 连接：同一本地地址上的账号共用一个协议栈和端口，按 Request-URI 用户名分发
  */
 @Service
 public class SipService {
@@ -21,6 +27,10 @@ public class SipService {
     
     // 存储每个用户的 SipUserAgent 实例
     private final Map<String, SipUserAgent> userAgents = new ConcurrentHashMap<>();
+    // localIp:localPort -> 共享协议栈
+    private final Map<String, SharedSipStack> stacks = new ConcurrentHashMap<>();
+    // 统一调度所有账号的注册刷新：按批准有效期随机打散、限制并发、失败退避
+    private final RegistrationManager registrationManager = RegistrationManager.builder().build();
     
     /**
      * 注册 SIP 用户
@@ -40,23 +50,63 @@ public class SipService {
             return userAgents.get(sipUri);
         }
         
-        // 创建并初始化 SipUserAgent
-        SipUserAgent userAgent = new SipUserAgent(sipUri, password, localIp, localPort);
+        // 创建并初始化 SipUserAgent，挂到该地址的共享协议栈上
+        SipUserAgent userAgent = new SipUserAgent(sipUri, password, stackFor(sipUri, localIp, localPort));
         
         // 执行注册
         userAgent.register(Duration.ofSeconds(5));
         
         if (!userAgent.isRegistered()) {
+            userAgent.shutdown();
             throw new Exception("SIP 注册失败，请检查网络和服务器配置");
         }
         
         // 保存到映射表
         userAgents.put(sipUri, userAgent);
+        registrationManager.add(userAgent);
         logger.info("SIP 用户注册成功: {}", sipUri);
         
         return userAgent;
     }
     
+    private SharedSipStack stackFor(String sipUri, String localIp, int localPort) throws Exception {
+        String key = localIp + ":" + localPort;
+        SharedSipStack stack = stacks.get(key);
+        if (stack == null) {
+            synchronized (stacks) {
+                stack = stacks.get(key);
+                if (stack == null) {
+                    stack = new SharedSipStack(localIp, localPort, transportOf(sipUri), registrarOf(sipUri));
+                    stacks.put(key, stack);
+                    logger.info("创建共享 SIP 协议栈: {} -> {}", key, stack.getOutboundProxy());
+                }
+            }
+        }
+        if (!stack.getOutboundProxy().equalsIgnoreCase(registrarOf(sipUri))) {
+            throw new Exception("本地地址 " + key + " 已绑定到 registrar " + stack.getOutboundProxy());
+        }
+        return stack;
+    }
+
+    private static String registrarOf(String sipUri) {
+        String hostPart = sipUri.substring(sipUri.indexOf('@') + 1);
+        int params = hostPart.indexOf(';');
+        if (params >= 0) {
+            hostPart = hostPart.substring(0, params);
+        }
+        return hostPart.contains(":") ? hostPart : hostPart + ":5060";
+    }
+
+    private static String transportOf(String sipUri) {
+        int idx = sipUri.toLowerCase().indexOf(";transport=");
+        if (idx < 0) {
+            return "UDP";
+        }
+        String value = sipUri.substring(idx + ";transport=".length());
+        int end = value.indexOf(';');
+        return (end < 0 ? value : value.substring(0, end)).toUpperCase();
+    }
+    
     /**
      * 注销 SIP 用户
      * @param sipUri SIP URI
@@ -64,12 +114,15 @@ public class SipService {
     public void unregister(String sipUri) {
         SipUserAgent userAgent = userAgents.remove(sipUri);
         if (userAgent != null) {
+            registrationManager.remove(userAgent);
             try {
                 userAgent.unregister(Duration.ofSeconds(3));
                 logger.info("SIP 用户注销成功: {}", sipUri);
             } catch (Exception e) {
                 logger.error("注销 SIP 用户失败: {}", sipUri, e);
             }
+            // 从共享协议栈上卸下，释放用户名以便重新登录
+            userAgent.shutdown();
         }
     }
     
@@ -92,6 +145,57 @@ public class SipService {
         return userAgent != null && userAgent.isRegistered();
     }
     
+    /**
+     * 注册刷新状态统计：已注册 / 刷新中 / 失败重试中
+     */
+    public Map<String, Integer> getRegistrationStats() {
+        return Map.of(
+                "registered", registrationManager.getRegisteredCount(),
+                "refreshing", registrationManager.getRefreshingCount(),
+                "failed", registrationManager.getFailedCount());
+    }
+
+    /**
+     * SIP 回调分发统计，按共享协议栈 (localIp:localPort) 分组
+     */
+    public Map<String, Map<String, Number>> getDispatcherStats() {
+        Map<String, Map<String, Number>> stats = new TreeMap<>();
+        stacks.forEach((key, stack) -> {
+            SipEventDispatcher dispatcher = stack.getDispatcher();
+            stats.put(key, Map.of(
+                    "queued", dispatcher.getQueuedCount(),
+                    "maxQueueDepth", dispatcher.getMaxQueueDepth(),
+                    "handled", dispatcher.getHandledCount(),
+                    "avgHandlerMillis", dispatcher.getAverageHandlerMillis(),
+                    "maxHandlerMillis", dispatcher.getMaxHandlerMillis(),
+                    "avgQueueWaitMillis", dispatcher.getAverageQueueWaitMillis()));
+        });
+        return stats;
+    }
+
+    /**
+     * 到服务器的流保活统计，按共享协议栈分组：探测次数、流量、中断检测延迟、恢复次数
+     */
+    public Map<String, Map<String, Object>> getKeepAliveStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        stacks.forEach((key, stack) -> {
+            FlowKeepAlive keepAlive = stack.getKeepAlive();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("flowUp", keepAlive.isFlowUp());
+            entry.put("intervalMillis", keepAlive.getCurrentIntervalMillis());
+            entry.put("probesSent", keepAlive.getProbesSent());
+            entry.put("heartbeatsSent", keepAlive.getHeartbeatsSent());
+            entry.put("bytesSent", keepAlive.getBytesSent());
+            entry.put("avgRttMillis", keepAlive.getAverageRttMillis());
+            entry.put("flowFailures", keepAlive.getFlowFailures());
+            entry.put("lastDetectionMillis", keepAlive.getLastDetectionMillis());
+            entry.put("recoveries", keepAlive.getRecoveries());
+            entry.put("observedAddress", keepAlive.getObservedAddress());
+            stats.put(key, entry);
+        });
+        return stats;
+    }
+    
     /**
      * 发送消息
      * @param fromSipUri 发送者 SIP URI
@@ -147,6 +251,7 @@ public class SipService {
     @PreDestroy
     public void cleanup() {
         logger.info("清理所有 SIP 连接...");
+        registrationManager.close();
         userAgents.forEach((sipUri, userAgent) -> {
             try {
                 userAgent.unregister(Duration.ofSeconds(3));
@@ -155,5 +260,7 @@ public class SipService {
             }
         });
         userAgents.clear();
+        stacks.values().forEach(SharedSipStack::close);
+        stacks.clear();
     }
 }
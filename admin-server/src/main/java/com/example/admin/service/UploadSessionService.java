@@ -0,0 +1,396 @@
+package com.example.admin.service;
+
+import com.example.admin.dto.StoredFile;
+import com.example.admin.dto.UploadStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 分片断点续传
+ * 客户端先建会话（文件名、大小），再按固定大小的分片 PUT，最后 complete。
+ * 分片按 序号 × 分片大小 的偏移直接写进临时文件（FileChannel 定位写，分片可以乱序、并发、重复到达），
+ * 每个会话一个位图记录收到了哪些分片；连接断了客户端查询会话状态，从第一个缺失的分片接着传。
+ * 文件句柄只在写一个分片期间打开，空闲的会话不占句柄；分片写入持会话读锁，完成、放弃、超时清理持写锁，
+ * 会话结束后到达的分片得到 404（已放弃或清理）或 409（已完成），不会写到已关闭的文件上。
+ * 活跃会话总数和每个发送方的会话数都有上限，超出时拒绝新建。
+ * 会话只保存在内存里，服务重启后客户端收到 404 会重新建会话；长时间没有新分片的会话定时清理。
+ * 不需要续传的小文件可以用 {@link #storeStream} 一次写完：请求体边写边算哈希，不经过 multipart 临时文件。
+ * 完成的文件都交给 {@link ContentStore} 按内容存储，相同内容只保留一份。
+ */
+@Service
+public class UploadSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    public static final int MIN_CHUNK_SIZE = 64 << 10;
+    public static final int MAX_CHUNK_SIZE = 8 << 20;
+    private static final String PARTIAL_DIR = ".partial";
+    private static final int COPY_BUFFER = 64 << 10;
+
+    private static final class Session {
+        private final String id;
+        private final String fileName;
+        private final String type;
+        private final long size;
+        private final int chunkSize;
+        private final int totalChunks;
+        private final String owner;
+        private final Path partPath;
+        private final BitSet received;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile long lastTouchedMillis = System.currentTimeMillis();
+        // 以下两个状态只在写锁内修改
+        private boolean completed;
+        private boolean discarded;
+
+        private Session(String id, String fileName, String type, long size, int chunkSize, String owner, Path partPath) {
+            this.id = id;
+            this.fileName = fileName;
+            this.type = type;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.totalChunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+            this.owner = owner;
+            this.partPath = partPath;
+            this.received = new BitSet(totalChunks);
+        }
+
+        private long offsetOf(int index) {
+            return (long) index * chunkSize;
+        }
+
+        private long lengthOf(int index) {
+            return Math.min(chunkSize, size - offsetOf(index));
+        }
+    }
+
+    private final ContentStore contentStore;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong chunksWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong completedUploads = new AtomicLong();
+    private final AtomicLong expiredSessions = new AtomicLong();
+    private final AtomicLong streamedUploads = new AtomicLong();
+    private final AtomicLong streamedBytes = new AtomicLong();
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${file.upload.max-bytes:209715200}")
+    private long maxBytes;
+
+    @Value("${file.upload.session-ttl-minutes:1440}")
+    private long sessionTtlMinutes;
+
+    @Value("${file.upload.max-sessions:256}")
+    private int maxSessions;
+
+    @Value("${file.upload.max-sessions-per-sender:8}")
+    private int maxSessionsPerSender;
+
+    public UploadSessionService(ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    /**
+     * 建立上传会话
+     * @param chunkSize 客户端建议的分片大小，不合法时取默认值
+     * @param owner     发送方（用户名或客户端地址），按它限制每个发送方同时进行的会话数
+     * @throws IllegalStateException 活跃会话数已达上限
+     */
+    public UploadStatus init(String fileName, long size, String type, Integer chunkSize, String owner) throws IOException {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("缺少文件名");
+        }
+        if (size < 0 || size > maxBytes) {
+            throw new IllegalArgumentException("文件大小超出限制: " + size);
+        }
+        int chunk = chunkSize == null || chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE
+                ? DEFAULT_CHUNK_SIZE : chunkSize;
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Path partDir = Paths.get(uploadDir).resolve(PARTIAL_DIR);
+        Files.createDirectories(partDir);
+        Path partPath = partDir.resolve(id + ".part");
+        Session session = new Session(id, Paths.get(fileName).getFileName().toString(),
+                type == null ? "file" : type, size, chunk, owner == null ? "" : owner, partPath);
+        // 计数和登记要一起做，否则并发建会话能越过上限；会话数有上限，遍历一遍的开销可以忽略
+        synchronized (sessions) {
+            if (sessions.size() >= maxSessions) {
+                throw new IllegalStateException("上传会话过多，请稍后重试");
+            }
+            long owned = sessions.values().stream().filter(s -> s.owner.equals(session.owner)).count();
+            if (owned >= maxSessionsPerSender) {
+                throw new IllegalStateException("同时进行的上传过多，请先完成或放弃已有的上传");
+            }
+            sessions.put(id, session);
+        }
+        try {
+            Files.createFile(partPath);
+        } catch (IOException e) {
+            sessions.remove(id);
+            throw e;
+        }
+        logger.info("上传会话 {} 建立: {} ({} 字节, {} 片)", id, session.fileName, size, session.totalChunks);
+        return statusOf(session);
+    }
+
+    /**
+     * 会话状态，不存在时返回 null
+     */
+    public UploadStatus status(String uploadId) {
+        Session session = sessions.get(uploadId);
+        return session == null ? null : statusOf(session);
+    }
+
+    /**
+     * 写入一个分片；长度必须与该分片应有的长度一致。同一分片重复上传会覆盖，结果相同。
+     * @return 写入后的会话状态，会话不存在或已被放弃、清理时返回 null
+     * @throws IllegalStateException 会话已经完成
+     */
+    public UploadStatus writeChunk(String uploadId, int index, long contentLength, InputStream body) throws IOException {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        if (index < 0 || index >= session.totalChunks) {
+            throw new IllegalArgumentException("分片序号越界: " + index);
+        }
+        long expected = session.lengthOf(index);
+        if (contentLength >= 0 && contentLength != expected) {
+            throw new IllegalArgumentException("分片 " + index + " 长度应为 " + expected + "，实际 " + contentLength);
+        }
+        session.lock.readLock().lock();
+        try {
+            if (session.discarded) {
+                return null;
+            }
+            if (session.completed) {
+                throw new IllegalStateException("上传会话已完成");
+            }
+            session.lastTouchedMillis = System.currentTimeMillis();
+            long written = writeAt(session.partPath, session.offsetOf(index), expected, body);
+            if (written != expected) {
+                // 连接中途断开：这一片不记为收到，客户端重传即可
+                throw new IOException("分片 " + index + " 不完整: " + written + "/" + expected);
+            }
+            if (body.read() >= 0) {
+                throw new IllegalArgumentException("分片 " + index + " 超出应有长度 " + expected);
+            }
+            synchronized (session) {
+                session.received.set(index);
+            }
+            chunksWritten.incrementAndGet();
+            bytesWritten.addAndGet(written);
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        return statusOf(session);
+    }
+
+    private static long writeAt(Path partPath, long position, long length, InputStream body) throws IOException {
+        long written = 0;
+        byte[] buffer = new byte[COPY_BUFFER];
+        ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+        try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+            while (written < length) {
+                int n = body.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+                if (n < 0) {
+                    break;
+                }
+                wrapper.clear().limit(n);
+                while (wrapper.hasRemaining()) {
+                    written += channel.write(wrapper, position + written);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 所有分片到齐后落盘为正式文件
+     * @throws IllegalStateException 还有分片缺失
+     * @return 完成的文件，会话不存在时返回 null
+     */
+    public StoredFile complete(String uploadId) throws IOException {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        // 写锁等正在写的分片全部结束，之后到达的分片看到 completed 直接拒绝
+        session.lock.writeLock().lock();
+        try {
+            if (session.discarded) {
+                return null;
+            }
+            if (session.completed) {
+                throw new IllegalStateException("上传会话正在完成");
+            }
+            int receivedCount;
+            synchronized (session) {
+                receivedCount = session.received.cardinality();
+            }
+            if (receivedCount < session.totalChunks) {
+                throw new IllegalStateException("还有 " + (session.totalChunks - receivedCount) + " 个分片未上传");
+            }
+            try (FileChannel channel = FileChannel.open(session.partPath, StandardOpenOption.WRITE)) {
+                channel.force(false);
+            }
+            session.completed = true;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        sessions.remove(uploadId);
+        StoredFile stored = contentStore.storeFile(session.partPath, session.fileName, session.type);
+        completedUploads.incrementAndGet();
+        logger.info("上传会话 {} 完成: {} -> {}{}", uploadId, session.fileName, stored.savedName(),
+                stored.deduplicated() ? "（内容已存在）" : "");
+        return stored;
+    }
+
+    /**
+     * 把请求体一次性写成最终文件
+     * @param contentLength 请求声明的长度，未知时为 -1
+     */
+    public StoredFile storeStream(String fileName, String type, long contentLength, InputStream body) throws IOException {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("缺少文件名");
+        }
+        StoredFile stored = contentStore.store(body, contentLength, maxBytes, fileName, type);
+        streamedUploads.incrementAndGet();
+        streamedBytes.addAndGet(stored.size());
+        return stored;
+    }
+
+    /**
+     * multipart 上传：part 直接转存（容器已落盘时只是改名）到临时文件，再读一遍算哈希交给内容存储
+     */
+    public StoredFile storeMultipart(MultipartFile file, String type) throws IOException {
+        if (file.getSize() > maxBytes) {
+            throw new IllegalArgumentException("文件大小超出限制: " + file.getSize());
+        }
+        String fileName = file.getOriginalFilename() == null || file.getOriginalFilename().isBlank()
+                ? "file" : file.getOriginalFilename();
+        Path partDir = Paths.get(uploadDir).resolve(PARTIAL_DIR);
+        Files.createDirectories(partDir);
+        Path temp = partDir.resolve(UUID.randomUUID().toString().replace("-", "") + ".upload").toAbsolutePath();
+        file.transferTo(temp);
+        return contentStore.storeFile(temp, fileName, type);
+    }
+
+    /**
+     * 放弃上传，删除临时文件
+     */
+    public boolean abort(String uploadId) {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            return false;
+        }
+        session.lock.writeLock().lock();
+        try {
+            // 已完成的会话文件正在转存，不能删
+            if (session.completed || session.discarded) {
+                return false;
+            }
+            discard(session);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        sessions.remove(uploadId, session);
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "activeSessions", sessions.size(),
+                "chunksWritten", chunksWritten.get(),
+                "bytesWritten", bytesWritten.get(),
+                "completed", completedUploads.get(),
+                "expired", expiredSessions.get(),
+                "streamedUploads", streamedUploads.get(),
+                "streamedBytes", streamedBytes.get());
+    }
+
+    @Scheduled(fixedDelay = 10 * 60 * 1000)
+    public void expireIdleSessions() {
+        long cutoff = System.currentTimeMillis() - Duration.ofMinutes(sessionTtlMinutes).toMillis();
+        sessions.values().removeIf(session -> {
+            // 拿不到写锁说明正有分片在写，这一轮不算空闲
+            if (session.lastTouchedMillis >= cutoff || !session.lock.writeLock().tryLock()) {
+                return false;
+            }
+            try {
+                if (session.completed || session.lastTouchedMillis >= cutoff) {
+                    return false;
+                }
+                discard(session);
+            } finally {
+                session.lock.writeLock().unlock();
+            }
+            expiredSessions.incrementAndGet();
+            logger.info("上传会话 {} 超时清理", session.id);
+            return true;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessions.values().forEach(session -> {
+            session.lock.writeLock().lock();
+            try {
+                if (!session.completed) {
+                    discard(session);
+                }
+            } finally {
+                session.lock.writeLock().unlock();
+            }
+        });
+        sessions.clear();
+    }
+
+    private UploadStatus statusOf(Session session) {
+        List<Integer> missing = new ArrayList<>();
+        int receivedCount;
+        synchronized (session) {
+            receivedCount = session.received.cardinality();
+            for (int i = session.received.nextClearBit(0); i < session.totalChunks; i = session.received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+        }
+        return new UploadStatus(session.id, session.fileName, session.size, session.chunkSize, session.totalChunks,
+                receivedCount, missing, missing.isEmpty() ? -1 : missing.get(0));
+    }
+
+    // 调用方持有会话写锁
+    private void discard(Session session) {
+        session.discarded = true;
+        try {
+            Files.deleteIfExists(session.partPath);
+        } catch (IOException e) {
+            logger.warn("清理上传会话 {} 失败: {}", session.id, e.getMessage());
+        }
+    }
+}
@@ -67,6 +67,19 @@ public class JwtUtil {
         return (String) claims.get("displayName");
     }
     
+    /**
+     * 从 Authorization 请求头（Bearer Token）中提取用户ID
+     * @param authorization 请求头的值，可以为 null
+     * @return 用户ID（SIP URI）；没有 Token 或 Token 无效、过期时返回 null
+     */
+    public String getUserIdFromHeader(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return null;
+        }
+        String token = authorization.substring(7);
+        return validateToken(token) ? getUserIdFromToken(token) : null;
+    }
+
     /**
      * 验证 Token 是否有效
      * @param token JWT Token
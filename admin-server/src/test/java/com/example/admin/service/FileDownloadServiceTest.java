@@ -0,0 +1,170 @@
+package com.example.admin.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileDownloadServiceTest {
+
+    private final FileDownloadService service = new FileDownloadService();
+    private final byte[] content = new byte[100];
+    private Path file;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void writeFile() throws Exception {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        file = Files.write(dir.resolve("data.bin"), content);
+    }
+
+    @Test
+    void servesWholeFileWithoutRange() throws Exception {
+        MockHttpServletResponse response = serve(request());
+
+        assertEquals(200, response.getStatus());
+        assertEquals(100, response.getContentLengthLong());
+        assertArrayEquals(content, response.getContentAsByteArray());
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertEquals("no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+    }
+
+    @Test
+    void servesSuffixRange() throws Exception {
+        MockHttpServletResponse response = serve(range("bytes=-10"));
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 90-99/100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10, response.getContentLengthLong());
+        assertArrayEquals(slice(90, 100), response.getContentAsByteArray());
+
+        // 后缀比文件长：整个文件
+        response = serve(range("bytes=-500"));
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 0-99/100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void servesOpenEndedAndClampedRanges() throws Exception {
+        MockHttpServletResponse response = serve(range("bytes=95-"));
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 95-99/100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(slice(95, 100), response.getContentAsByteArray());
+
+        response = serve(range("bytes=98-1000"));
+        assertEquals("bytes 98-99/100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(2, response.getContentLengthLong());
+    }
+
+    @Test
+    void ignoresInvalidRangeHeaders() throws Exception {
+        for (String header : new String[] {"bytes=5-2", "bytes=abc", "items=0-1", "bytes=1"}) {
+            MockHttpServletResponse response = serve(range(header));
+            assertEquals(200, response.getStatus(), header);
+            assertArrayEquals(content, response.getContentAsByteArray(), header);
+        }
+    }
+
+    @Test
+    void rejectsUnsatisfiableRangeWith416() throws Exception {
+        MockHttpServletResponse response = serve(range("bytes=100-200, -0"));
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void ifRangeFallsBackToFullContentUnlessStrongEtagMatches() throws Exception {
+        String etag = service.etag(file);
+
+        MockHttpServletRequest request = range("bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "W/" + etag);
+        MockHttpServletResponse response = serve(request);
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+
+        request = range("bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"0000\"");
+        assertEquals(200, serve(request).getStatus());
+
+        request = range("bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, etag);
+        response = serve(request);
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(slice(0, 10), response.getContentAsByteArray());
+    }
+
+    @Test
+    void ifNoneMatchReturns304() throws Exception {
+        String etag = service.etag(file);
+
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag);
+        MockHttpServletResponse response = serve(request);
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        assertEquals(200, serve(request).getStatus());
+    }
+
+    @Test
+    void multiRangeContentLengthMatchesBody() throws Exception {
+        MockHttpServletResponse response = serve(range("bytes=0-4, 10-14, -3"));
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        byte[] body = response.getContentAsByteArray();
+        assertEquals(body.length, response.getContentLengthLong());
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        assertTrue(text.contains("Content-Range: bytes 0-4/100\r\n\r\n"
+                + new String(slice(0, 5), StandardCharsets.ISO_8859_1)));
+        assertTrue(text.contains("Content-Range: bytes 10-14/100\r\n"));
+        assertTrue(text.contains("Content-Range: bytes 97-99/100\r\n"));
+
+        // HEAD 给出同样的长度但没有正文
+        MockHttpServletRequest head = range("bytes=0-4, 10-14, -3");
+        head.setMethod("HEAD");
+        MockHttpServletResponse headResponse = serve(head);
+        assertEquals(body.length, headResponse.getContentLengthLong());
+        assertEquals(0, headResponse.getContentAsByteArray().length);
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(file, "data.bin", "application/octet-stream", request, response);
+        return response;
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/api/files/download/data.bin");
+    }
+
+    private static MockHttpServletRequest range(String header) {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, header);
+        return request;
+    }
+
+    private byte[] slice(int from, int to) {
+        return Arrays.copyOfRange(content, from, to);
+    }
+}
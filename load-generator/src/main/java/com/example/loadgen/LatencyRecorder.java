@@ -0,0 +1,62 @@
+package com.example.loadgen;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * 记录延迟样本并计算分位数。压测规模下样本数有限，直接保存原始值、报告时排序，结果精确。
+ */
+public final class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count;
+
+    public synchronized void record(Duration latency) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = latency.toNanos();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy;
+        synchronized (this) {
+            copy = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(copy);
+        return new Snapshot(copy);
+    }
+
+    public static final class Snapshot {
+        private final long[] sorted;
+
+        private Snapshot(long[] sorted) {
+            this.sorted = sorted;
+        }
+
+        public int count() {
+            return sorted.length;
+        }
+
+        /**
+         * 最近秩法分位数，p 取 0~100；无样本时返回 0。
+         */
+        public Duration percentile(double p) {
+            if (sorted.length == 0) {
+                return Duration.ZERO;
+            }
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return Duration.ofNanos(sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))]);
+        }
+
+        public Duration max() {
+            return sorted.length == 0 ? Duration.ZERO : Duration.ofNanos(sorted[sorted.length - 1]);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d p50=%dms p90=%dms p99=%dms max=%dms", count(),
+                    percentile(50).toMillis(), percentile(90).toMillis(), percentile(99).toMillis(), max().toMillis());
+        }
+    }
+}
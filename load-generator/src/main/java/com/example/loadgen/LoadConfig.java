@@ -0,0 +1,240 @@
+package com.example.loadgen;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Immutable configuration for一次压测：虚拟用户数量、呼叫速率、消息速率与注册抖动。
+ */
+public final class LoadConfig {
+
+    private final String registrarHost;
+    private final int registrarPort;
+    private final int users;
+    private final int firstUser;
+    private final String password;
+    private final String localIp;
+    private final int basePort;
+    private final double callsPerSecond;
+    private final Duration holdTime;
+    private final Duration setupTimeout;
+    private final double messagesPerSecond;
+    private final Duration registrationChurn;
+    private final Duration duration;
+    private final Duration reportInterval;
+    private final boolean embeddedRegistrar;
+
+    private LoadConfig(Builder builder) {
+        this.registrarHost = builder.registrarHost;
+        this.registrarPort = builder.registrarPort;
+        this.users = builder.users;
+        this.firstUser = builder.firstUser;
+        this.password = builder.password;
+        this.localIp = builder.localIp;
+        this.basePort = builder.basePort;
+        this.callsPerSecond = builder.callsPerSecond;
+        this.holdTime = builder.holdTime;
+        this.setupTimeout = builder.setupTimeout;
+        this.messagesPerSecond = builder.messagesPerSecond;
+        this.registrationChurn = builder.registrationChurn;
+        this.duration = builder.duration;
+        this.reportInterval = builder.reportInterval;
+        this.embeddedRegistrar = builder.embeddedRegistrar;
+        validate();
+    }
+
+    private void validate() {
+        Objects.requireNonNull(registrarHost, "registrarHost");
+        Objects.requireNonNull(localIp, "localIp");
+        Objects.requireNonNull(holdTime, "holdTime");
+        Objects.requireNonNull(setupTimeout, "setupTimeout");
+        Objects.requireNonNull(duration, "duration");
+        Objects.requireNonNull(reportInterval, "reportInterval");
+        if (users < 2) {
+            throw new IllegalArgumentException("users must be at least 2 (callers call each other)");
+        }
+        // SipUserAgent 的媒体端口由 SIP 端口 % 1000 推导，超过 1000 个用户会冲突
+        if (users > 1000) {
+            throw new IllegalArgumentException("users must not exceed 1000 per generator instance");
+        }
+        if (basePort <= 0 || basePort + users > 65535) {
+            throw new IllegalArgumentException("basePort + users must be within UDP port range");
+        }
+        if (callsPerSecond < 0 || messagesPerSecond < 0) {
+            throw new IllegalArgumentException("rates must not be negative");
+        }
+    }
+
+    public String getRegistrarHost() {
+        return registrarHost;
+    }
+
+    public int getRegistrarPort() {
+        return registrarPort;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getFirstUser() {
+        return firstUser;
+    }
+
+    /**
+     * 未配置统一密码时沿用 MSS 测试账号的约定：密码与用户名相同。
+     */
+    public String passwordFor(String username) {
+        return password == null ? username : password;
+    }
+
+    public String getLocalIp() {
+        return localIp;
+    }
+
+    public int getBasePort() {
+        return basePort;
+    }
+
+    public double getCallsPerSecond() {
+        return callsPerSecond;
+    }
+
+    public Duration getHoldTime() {
+        return holdTime;
+    }
+
+    public Duration getSetupTimeout() {
+        return setupTimeout;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * 注册抖动间隔：每隔该时间随机挑一个用户注销再注册；null 表示关闭。
+     */
+    public Duration getRegistrationChurn() {
+        return registrationChurn;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public Duration getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * 是否在进程内启动 registrar/代理，脱离外部 MSS 运行。
+     */
+    public boolean isEmbeddedRegistrar() {
+        return embeddedRegistrar;
+    }
+
+    public String userUri(int index) {
+        return "sip:" + (firstUser + index) + "@" + registrarHost + ":" + registrarPort;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private String registrarHost = "127.0.0.1";
+        private int registrarPort = 5060;
+        private int users = 10;
+        private int firstUser = 1000;
+        private String password;
+        private String localIp = "127.0.0.1";
+        private int basePort = 6000;
+        private double callsPerSecond = 1;
+        private Duration holdTime = Duration.ofSeconds(10);
+        private Duration setupTimeout = Duration.ofSeconds(30);
+        private double messagesPerSecond = 0;
+        private Duration registrationChurn;
+        private Duration duration = Duration.ofSeconds(60);
+        private Duration reportInterval = Duration.ofSeconds(5);
+        private boolean embeddedRegistrar;
+
+        private Builder() {
+        }
+
+        public Builder registrar(String host, int port) {
+            this.registrarHost = host;
+            this.registrarPort = port;
+            return this;
+        }
+
+        public Builder users(int users) {
+            this.users = users;
+            return this;
+        }
+
+        public Builder firstUser(int firstUser) {
+            this.firstUser = firstUser;
+            return this;
+        }
+
+        public Builder password(String password) {
+            this.password = password;
+            return this;
+        }
+
+        public Builder localIp(String localIp) {
+            this.localIp = localIp;
+            return this;
+        }
+
+        public Builder basePort(int basePort) {
+            this.basePort = basePort;
+            return this;
+        }
+
+        public Builder callsPerSecond(double callsPerSecond) {
+            this.callsPerSecond = callsPerSecond;
+            return this;
+        }
+
+        public Builder holdTime(Duration holdTime) {
+            this.holdTime = holdTime;
+            return this;
+        }
+
+        public Builder setupTimeout(Duration setupTimeout) {
+            this.setupTimeout = setupTimeout;
+            return this;
+        }
+
+        public Builder messagesPerSecond(double messagesPerSecond) {
+            this.messagesPerSecond = messagesPerSecond;
+            return this;
+        }
+
+        public Builder registrationChurn(Duration registrationChurn) {
+            this.registrationChurn = registrationChurn;
+            return this;
+        }
+
+        public Builder duration(Duration duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        public Builder reportInterval(Duration reportInterval) {
+            this.reportInterval = reportInterval;
+            return this;
+        }
+
+        public Builder embeddedRegistrar(boolean embeddedRegistrar) {
+            this.embeddedRegistrar = embeddedRegistrar;
+            return this;
+        }
+
+        public LoadConfig build() {
+            return new LoadConfig(this);
+        }
+    }
+}
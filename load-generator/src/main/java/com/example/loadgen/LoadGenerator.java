@@ -0,0 +1,158 @@
+package com.example.loadgen;
+
+import com.example.sipclient.registrar.EmbeddedRegistrar;
+import com.example.sipclient.sip.SipUserAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 呼叫风暴压测：注册一批虚拟用户，按固定 CPS 随机两两互呼，可叠加 IM 消息与注册抖动，
+ * 周期性输出建立时延分位数与成功率。
+ */
+public final class LoadGenerator implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final ExecutorService workers = newWorkerExecutor();
+    private final ScheduledExecutorService timers = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "loadgen-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<VirtualUser> users = new ArrayList<>();
+    private EmbeddedRegistrar registrar;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+    }
+
+    public LoadStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 创建并注册所有虚拟用户，返回注册成功的数量。
+     */
+    public int start() throws Exception {
+        if (config.isEmbeddedRegistrar()) {
+            registrar = EmbeddedRegistrar.builder()
+                    .host(config.getRegistrarHost())
+                    .port(config.getRegistrarPort())
+                    .passwords(config::passwordFor)
+                    .build()
+                    .start();
+        }
+        for (int i = 0; i < config.getUsers(); i++) {
+            String uri = config.userUri(i);
+            String username = String.valueOf(config.getFirstUser() + i);
+            SipUserAgent agent = new SipUserAgent(uri, config.passwordFor(username),
+                    config.getLocalIp(), config.getBasePort() + i);
+            users.add(new VirtualUser(uri, agent, config, stats, workers, timers));
+        }
+        List<CompletableFuture<Boolean>> registrations = new ArrayList<>(users.size());
+        for (VirtualUser user : users) {
+            registrations.add(CompletableFuture.supplyAsync(user::register, workers));
+        }
+        int registered = 0;
+        for (CompletableFuture<Boolean> registration : registrations) {
+            if (registration.join()) {
+                registered++;
+            }
+        }
+        log.info("{}/{} 个虚拟用户注册成功，注册时延 {}", registered, users.size(), stats.registerLatency.snapshot());
+        return registered;
+    }
+
+    /**
+     * 按配置时长施压，期间定期打印统计；阻塞直到结束。
+     */
+    public void run() throws InterruptedException {
+        List<ScheduledFuture<?>> load = new ArrayList<>();
+        schedule(load, config.getCallsPerSecond(), this::placeCall);
+        schedule(load, config.getMessagesPerSecond(), this::sendMessage);
+        if (config.getRegistrationChurn() != null) {
+            long churn = config.getRegistrationChurn().toMillis();
+            load.add(timers.scheduleAtFixedRate(() -> workers.execute(() -> randomUser().churnRegistration()),
+                    churn, churn, TimeUnit.MILLISECONDS));
+        }
+        long report = config.getReportInterval().toMillis();
+        timers.scheduleAtFixedRate(() -> System.out.println(stats.summary()), report, report, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(config.getDuration().toMillis());
+        // 停止施压，留出保持时长让在途通话正常挂断
+        load.forEach(task -> task.cancel(false));
+        Thread.sleep(config.getHoldTime().toMillis() + 1000);
+        System.out.println(stats.summary());
+    }
+
+    @Override
+    public void close() {
+        timers.shutdownNow();
+        workers.shutdownNow();
+        users.forEach(VirtualUser::shutdown);
+        if (registrar != null) {
+            registrar.close();
+        }
+    }
+
+    private void schedule(List<ScheduledFuture<?>> load, double ratePerSecond, Runnable task) {
+        if (ratePerSecond <= 0) {
+            return;
+        }
+        long periodNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        load.add(timers.scheduleAtFixedRate(() -> workers.execute(task), periodNanos, periodNanos, TimeUnit.NANOSECONDS));
+    }
+
+    private void placeCall() {
+        VirtualUser[] pair = randomPair();
+        pair[0].call(pair[1].uri());
+    }
+
+    private void sendMessage() {
+        VirtualUser[] pair = randomPair();
+        pair[0].message(pair[1].uri(), "load-test " + System.nanoTime());
+    }
+
+    private VirtualUser randomUser() {
+        return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+    }
+
+    private VirtualUser[] randomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int caller = random.nextInt(users.size());
+        int callee = random.nextInt(users.size() - 1);
+        if (callee >= caller) {
+            callee++;
+        }
+        return new VirtualUser[]{users.get(caller), users.get(callee)};
+    }
+
+    /**
+     * 注册/呼叫大多阻塞在等待应答上，JDK 21+ 用虚拟线程承载；工程以 17 编译，故反射获取，旧 JDK 退回缓存线程池。
+     */
+    private static ExecutorService newWorkerExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "loadgen-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
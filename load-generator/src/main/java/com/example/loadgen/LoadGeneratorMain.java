@@ -0,0 +1,81 @@
+package com.example.loadgen;
+
+import java.time.Duration;
+
+/**
+ * 命令行入口，例如：
+ * <pre>
+ * mvn -pl load-generator exec:java -Dexec.args="--registrar=10.0.0.5:5060 --users=200 --cps=20 --hold=10s --duration=2m"
+ * mvn -pl load-generator exec:java -Dexec.args="--embedded-registrar --users=100 --cps=10"
+ * </pre>
+ */
+public final class LoadGeneratorMain {
+
+    private LoadGeneratorMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = parse(args);
+        try (LoadGenerator generator = new LoadGenerator(config)) {
+            if (generator.start() < 2) {
+                System.err.println("注册成功的用户不足 2 个，放弃压测");
+                System.exit(1);
+            }
+            generator.run();
+        }
+        System.exit(0);
+    }
+
+    static LoadConfig parse(String[] args) {
+        LoadConfig.Builder builder = LoadConfig.builder();
+        for (String arg : args) {
+            if (arg.equals("--embedded-registrar")) {
+                builder.embeddedRegistrar(true);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Unrecognized argument: " + arg);
+            }
+            String key = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "registrar" -> {
+                    int colon = value.lastIndexOf(':');
+                    builder.registrar(colon < 0 ? value : value.substring(0, colon),
+                            colon < 0 ? 5060 : Integer.parseInt(value.substring(colon + 1)));
+                }
+                case "users" -> builder.users(Integer.parseInt(value));
+                case "first-user" -> builder.firstUser(Integer.parseInt(value));
+                case "password" -> builder.password(value);
+                case "local-ip" -> builder.localIp(value);
+                case "base-port" -> builder.basePort(Integer.parseInt(value));
+                case "cps" -> builder.callsPerSecond(Double.parseDouble(value));
+                case "hold" -> builder.holdTime(parseDuration(value));
+                case "setup-timeout" -> builder.setupTimeout(parseDuration(value));
+                case "msg-rate" -> builder.messagesPerSecond(Double.parseDouble(value));
+                case "churn" -> builder.registrationChurn(parseDuration(value));
+                case "duration" -> builder.duration(parseDuration(value));
+                case "report" -> builder.reportInterval(parseDuration(value));
+                default -> throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 支持 250ms / 10s / 2m，不带单位按秒处理。
+     */
+    static Duration parseDuration(String value) {
+        if (value.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+        }
+        if (value.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+        }
+        if (value.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(value));
+    }
+}
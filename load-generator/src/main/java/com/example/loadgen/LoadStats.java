@@ -0,0 +1,43 @@
+package com.example.loadgen;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测计数器：呼叫、消息、注册的成功/失败数以及建立时延分布。
+ */
+public final class LoadStats {
+
+    final LongAdder callsAttempted = new LongAdder();
+    final LongAdder callsEstablished = new LongAdder();
+    final LongAdder callsFailed = new LongAdder();
+    final LongAdder callsTimedOut = new LongAdder();
+    final LongAdder callsCompleted = new LongAdder();
+    final LongAdder messagesSent = new LongAdder();
+    final LongAdder messagesFailed = new LongAdder();
+    final LongAdder registrations = new LongAdder();
+    final LongAdder registrationFailures = new LongAdder();
+    final LatencyRecorder setupLatency = new LatencyRecorder();
+    final LatencyRecorder registerLatency = new LatencyRecorder();
+
+    private final long startNanos = System.nanoTime();
+
+    public Duration elapsed() {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    public String summary() {
+        double seconds = Math.max(1e-3, elapsed().toNanos() / 1e9);
+        return String.format(
+                "[%5.1fs] calls: attempted=%d established=%d completed=%d failed=%d timeout=%d (%.2f cps)%n"
+                        + "         setup: %s%n"
+                        + "         messages: sent=%d failed=%d (%.2f msg/s)%n"
+                        + "         register: ok=%d failed=%d latency %s",
+                seconds,
+                callsAttempted.sum(), callsEstablished.sum(), callsCompleted.sum(), callsFailed.sum(), callsTimedOut.sum(),
+                callsEstablished.sum() / seconds,
+                setupLatency.snapshot(),
+                messagesSent.sum(), messagesFailed.sum(), messagesSent.sum() / seconds,
+                registrations.sum(), registrationFailures.sum(), registerLatency.snapshot());
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.loadgen;
+
+import com.example.sipclient.call.CallManager;
+import com.example.sipclient.call.CallSession;
+import com.example.sipclient.chat.MessageHandler;
+import com.example.sipclient.sip.SipUserAgent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个虚拟用户：持有一个 SipUserAgent，自动接听来电，主叫的通话在保持时长后挂断。
+ */
+final class VirtualUser {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualUser.class);
+
+    private final String uri;
+    private final SipUserAgent agent;
+    private final CallManager callManager = new CallManager();
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timers;
+
+    VirtualUser(String uri, SipUserAgent agent, LoadConfig config, LoadStats stats,
+                ExecutorService workers, ScheduledExecutorService timers) {
+        this.uri = uri;
+        this.agent = agent;
+        this.config = config;
+        this.stats = stats;
+        this.workers = workers;
+        this.timers = timers;
+
+        agent.setSyntheticMedia(true);
+        agent.setCallManager(callManager);
+        agent.setMessageHandler(new MessageHandler(line -> { }));
+        callManager.setIncomingCallListener((fromUri, sessionId) -> workers.execute(() -> answer(sessionId)));
+        callManager.addTransitionListener(this::onTransition);
+    }
+
+    String uri() {
+        return uri;
+    }
+
+    boolean register() {
+        long start = System.nanoTime();
+        try {
+            boolean ok = agent.register(Duration.ofSeconds(10));
+            if (ok) {
+                stats.registrations.increment();
+                stats.registerLatency.record(Duration.ofNanos(System.nanoTime() - start));
+            } else {
+                stats.registrationFailures.increment();
+            }
+            return ok;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.registrationFailures.increment();
+            return false;
+        } catch (Exception e) {
+            stats.registrationFailures.increment();
+            log.debug("{} 注册失败", uri, e);
+            return false;
+        }
+    }
+
+    void churnRegistration() {
+        try {
+            agent.unregister(Duration.ofSeconds(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.debug("{} 注销失败", uri, e);
+        }
+        register();
+    }
+
+    void call(String targetUri) {
+        stats.callsAttempted.increment();
+        String callId;
+        try {
+            callId = agent.startCall(targetUri);
+        } catch (Exception e) {
+            stats.callsFailed.increment();
+            return;
+        }
+        // 超时未接通视为失败，本地结束会话；按 Call-ID 定位，同一对端的其他通话不受影响
+        timers.schedule(() -> callManager.findByCallId(callId).ifPresent(session -> {
+            if (!session.isIncoming() && session.getState() != CallSession.State.ACTIVE
+                    && session.getState() != CallSession.State.HELD && !session.isFinished()) {
+                stats.callsTimedOut.increment();
+                workers.execute(() -> agent.hangup(session));
+            }
+        }), config.getSetupTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void message(String targetUri, String text) {
+        try {
+            agent.sendMessage(targetUri, text);
+            stats.messagesSent.increment();
+        } catch (Exception e) {
+            stats.messagesFailed.increment();
+        }
+    }
+
+    void shutdown() {
+        agent.shutdown();
+    }
+
+    private void answer(String sessionId) {
+        callManager.findById(sessionId).ifPresent(session -> {
+            try {
+                agent.answerCallByCallId(session.getCallId());
+            } catch (Exception e) {
+                log.debug("{} 接听失败", uri, e);
+            }
+        });
+    }
+
+    private void onTransition(CallSession session, CallSession.Transition transition) {
+        if (session.isIncoming()) {
+            return;
+        }
+        switch (transition.to()) {
+            case ACTIVE -> {
+                stats.callsEstablished.increment();
+                session.getSetupTime().ifPresent(stats.setupLatency::record);
+                timers.schedule(() -> workers.execute(() -> agent.hangup(session)),
+                        config.getHoldTime().toMillis(), TimeUnit.MILLISECONDS);
+            }
+            case FAILED -> stats.callsFailed.increment();
+            case TERMINATED -> {
+                if (transition.from() == CallSession.State.ACTIVE || transition.from() == CallSession.State.HELD) {
+                    stats.callsCompleted.increment();
+                }
+            }
+            default -> {
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyRecorderTest {
+
+    @Test
+    void percentilesUseNearestRank() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 100; i >= 1; i--) {
+            recorder.record(Duration.ofMillis(i));
+        }
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+
+        assertEquals(100, snapshot.count());
+        assertEquals(Duration.ofMillis(50), snapshot.percentile(50));
+        assertEquals(Duration.ofMillis(99), snapshot.percentile(99));
+        assertEquals(Duration.ofMillis(100), snapshot.max());
+    }
+
+    @Test
+    void emptySnapshotReportsZero() {
+        assertEquals(Duration.ZERO, new LatencyRecorder().snapshot().percentile(99));
+    }
+}
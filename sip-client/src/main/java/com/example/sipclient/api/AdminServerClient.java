@@ -1,11 +1,20 @@
 package com.example.sipclient.api;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Admin Server 客户端
@@ -14,8 +23,18 @@ import java.nio.charset.StandardCharsets;
 public class AdminServerClient {
 
     private static final String DEFAULT_SERVER_URL = "http://localhost:8081";
+    private static final int OFFLINE_BATCH = 200;
     private String serverUrl;
-    private String authToken;
+    private volatile String authToken;
+    // 登录凭据，token 过期（服务器回 401）时自动重新登录
+    private volatile String loginUri;
+    private volatile String loginPassword;
+
+    private static final class UnauthorizedException extends IOException {
+        UnauthorizedException() {
+            super("401 Unauthorized");
+        }
+    }
 
     public AdminServerClient() {
         this.serverUrl = DEFAULT_SERVER_URL;
@@ -29,6 +48,35 @@ public class AdminServerClient {
         this.serverUrl = serverUrl;
     }
 
+    /**
+     * 服务器记录的在线用户名（登录同步时置为在线、注销时置为离线），SIP 代理不支持状态订阅时用它代替
+     * @return 在线用户名；请求失败时为 null
+     */
+    public Set<String> getOnlineUsers() {
+        try {
+            String response = get("/api/users");
+            if (response != null) {
+                Set<String> online = new HashSet<>();
+                for (Map<String, String> user : parseObjects(response)) {
+                    if ("true".equals(user.get("online")) && user.get("username") != null) {
+                        online.add(user.get("username"));
+                    }
+                }
+                return online;
+            }
+        } catch (Exception e) {
+            System.err.println("[AdminServerClient] 获取在线用户失败: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 登录后服务器签发的 token，未登录或登录失败时为 null
+     */
+    public String getAuthToken() {
+        return authToken;
+    }
+
     /**
      * 用户登录同步
      */
@@ -38,13 +86,15 @@ public class AdminServerClient {
                     "{\"sipUri\":\"%s\",\"password\":\"%s\",\"localIp\":\"127.0.0.1\",\"localPort\":5061}",
                     escapeJson(sipUri), escapeJson(password));
 
-            String response = post("/api/auth/login", json);
+            String response = postOnce("/api/auth/login", json);
             if (response != null && response.contains("\"success\":true")) {
                 // 提取 token
                 int tokenStart = response.indexOf("\"token\":\"") + 9;
                 int tokenEnd = response.indexOf("\"", tokenStart);
                 if (tokenStart > 8 && tokenEnd > tokenStart) {
                     this.authToken = response.substring(tokenStart, tokenEnd);
+                    this.loginUri = sipUri;
+                    this.loginPassword = password;
                 }
                 System.out.println("[AdminServerClient] 用户登录已同步到服务器");
                 return true;
@@ -63,10 +113,26 @@ public class AdminServerClient {
      * 发送消息记录
      */
     public boolean recordMessage(String sender, String receiver, String content) {
+        return recordMessage(sender, receiver, content, null);
+    }
+
+    /**
+     * 发送消息记录，附带 SIP 投递结果；未送达的消息由服务器暂存，接收方上线后再取
+     */
+    public boolean recordMessage(String sender, String receiver, String content, Boolean delivered) {
+        return recordMessage(sender, receiver, content, delivered, null);
+    }
+
+    /**
+     * 同上，另带消息 id（X-Message-Seq 的值），服务器转交时原样带回，接收方凭它与 SIP 上收到的同一条消息去重
+     */
+    public boolean recordMessage(String sender, String receiver, String content, Boolean delivered, String messageId) {
         try {
             String json = String.format(
-                    "{\"sender\":\"%s\",\"receiver\":\"%s\",\"content\":\"%s\"}",
-                    escapeJson(sender), escapeJson(receiver), escapeJson(content));
+                    "{\"sender\":\"%s\",\"receiver\":\"%s\",\"content\":\"%s\"%s%s}",
+                    escapeJson(sender), escapeJson(receiver), escapeJson(content),
+                    delivered == null ? "" : ",\"delivered\":\"" + delivered + "\"",
+                    messageId == null ? "" : ",\"messageId\":\"" + escapeJson(messageId) + "\"");
 
             String response = post("/api/messages/send", json);
             if (response != null) {
@@ -79,6 +145,81 @@ public class AdminServerClient {
         return false;
     }
 
+    /**
+     * 在服务器上创建或覆盖群组
+     */
+    public boolean defineGroup(String groupId, String owner, List<String> members) {
+        try {
+            StringBuilder memberJson = new StringBuilder();
+            for (String member : members) {
+                memberJson.append(memberJson.length() == 0 ? "" : ",").append('"').append(escapeJson(member)).append('"');
+            }
+            String json = String.format("{\"groupId\":\"%s\",\"owner\":\"%s\",\"members\":[%s]}",
+                    escapeJson(groupId), escapeJson(owner), memberJson);
+            return post("/api/groups", json) != null;
+        } catch (Exception e) {
+            System.err.println("[AdminServerClient] 群组同步失败: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 批量同步已读状态：对端 -> 已读到的消息 id（空串表示没有 id，由服务器按当前最新一条处理），一次请求覆盖本轮读过的所有会话
+     */
+    public boolean markRead(String reader, Map<String, String> peers) {
+        if (peers.isEmpty()) {
+            return true;
+        }
+        try {
+            StringBuilder peerJson = new StringBuilder();
+            for (Map.Entry<String, String> peer : peers.entrySet()) {
+                peerJson.append(peerJson.length() == 0 ? "" : ",")
+                        .append('"').append(escapeJson(peer.getKey())).append("\":\"")
+                        .append(escapeJson(peer.getValue())).append('"');
+            }
+            String json = String.format("{\"reader\":\"%s\",\"peers\":{%s}}", escapeJson(reader), peerJson);
+            return post("/api/messages/read", json) != null;
+        } catch (Exception e) {
+            System.err.println("[AdminServerClient] 已读状态同步失败: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 群消息只发一次，由服务器扇出给各成员
+     * @return 扇出 id，失败时为 null
+     */
+    public String postGroupMessage(String groupId, String sender, String content) {
+        try {
+            String json = String.format("{\"sender\":\"%s\",\"content\":\"%s\"}", escapeJson(sender), escapeJson(content));
+            String response = post("/api/groups/" + URLEncoder.encode(groupId, StandardCharsets.UTF_8) + "/messages", json);
+            if (response != null) {
+                List<Map<String, String>> status = parseObjects(response);
+                return status.isEmpty() ? null : status.get(0).get("fanOutId");
+            }
+        } catch (Exception e) {
+            System.err.println("[AdminServerClient] 群消息发送失败: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 服务器群消息转发账号的 URI，服务器未配置或请求失败时返回 null
+     */
+    public String getGroupRelayUri() {
+        try {
+            String response = get("/api/groups/relay");
+            if (response != null) {
+                List<Map<String, String>> relay = parseObjects(response);
+                String uri = relay.isEmpty() ? null : relay.get(0).get("uri");
+                return uri == null || uri.isBlank() ? null : uri;
+            }
+        } catch (Exception e) {
+            System.err.println("[AdminServerClient] 获取群消息转发账号失败: " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * 记录通话
      */
@@ -116,6 +257,48 @@ public class AdminServerClient {
         return false;
     }
 
+    /**
+     * 拉取离线期间暂存在服务器上的消息
+     * 每批交给 batchHandler，它返回即视为这批已处理完，随后确认；直到取空。
+     * batchHandler 抛异常或确认失败时停止，未确认的消息下次拉取还会再取到（至少一次，接收方按消息 id 去重）
+     * @return 本次处理的条数
+     */
+    public int drainOfflineMessages(String username, Consumer<List<OfflineMessage>> batchHandler) {
+        int total = 0;
+        long after = 0;
+        try {
+            while (true) {
+                // 服务器以 token 中的身份为准，user 参数只用于核对
+                String response = get("/api/messages/offline?user=" + URLEncoder.encode(username, StandardCharsets.UTF_8)
+                        + "&after=" + after + "&limit=" + OFFLINE_BATCH);
+                if (response == null) {
+                    break;
+                }
+                List<OfflineMessage> batch = parseObjects(response).stream()
+                        .map(m -> new OfflineMessage(Long.parseLong(m.get("id")), m.get("sender"), m.get("content"),
+                                m.get("messageId"), m.get("groupId")))
+                        .toList();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                batchHandler.accept(batch);
+                after = batch.get(batch.size() - 1).id();
+                total += batch.size();
+                if (post("/api/messages/offline/ack",
+                        String.format("{\"user\":\"%s\",\"upTo\":\"%d\"}", escapeJson(username), after)) == null
+                        || batch.size() < OFFLINE_BATCH) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                System.out.println("[AdminServerClient] 收到离线消息 " + total + " 条");
+            }
+        } catch (Exception e) {
+            System.err.println("[AdminServerClient] 离线消息拉取失败: " + e.getMessage());
+        }
+        return total;
+    }
+
     /**
      * 检查服务器是否可用
      */
@@ -133,7 +316,36 @@ public class AdminServerClient {
         }
     }
 
+    /**
+     * 受保护的接口回 401（token 过期）时用登录时的凭据重新登录一次再重试
+     */
     private String post(String path, String jsonBody) throws Exception {
+        try {
+            return postOnce(path, jsonBody);
+        } catch (UnauthorizedException e) {
+            return relogin() ? postOnce(path, jsonBody) : null;
+        }
+    }
+
+    private String get(String path) throws Exception {
+        try {
+            return getOnce(path);
+        } catch (UnauthorizedException e) {
+            return relogin() ? getOnce(path) : null;
+        }
+    }
+
+    private boolean relogin() {
+        String sipUri = loginUri;
+        String password = loginPassword;
+        if (sipUri == null || password == null) {
+            return false;
+        }
+        System.out.println("[AdminServerClient] token 已失效，重新登录");
+        return syncUserLogin(sipUri, password) && authToken != null;
+    }
+
+    private String postOnce(String path, String jsonBody) throws Exception {
         URL url = new URL(serverUrl + path);
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
         conn.setRequestMethod("POST");
@@ -151,6 +363,9 @@ public class AdminServerClient {
         }
 
         int responseCode = conn.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            throw new UnauthorizedException();
+        }
         if (responseCode >= 200 && responseCode < 300) {
             try (BufferedReader reader = new BufferedReader(
                     new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
@@ -165,6 +380,104 @@ public class AdminServerClient {
         return null;
     }
 
+    private String getOnce(String path) throws Exception {
+        URL url = new URL(serverUrl + path);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("GET");
+        conn.setRequestProperty("Accept", "application/json");
+        if (authToken != null) {
+            conn.setRequestProperty("Authorization", "Bearer " + authToken);
+        }
+        conn.setConnectTimeout(5000);
+        conn.setReadTimeout(10000);
+
+        if (conn.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            throw new UnauthorizedException();
+        }
+        if (conn.getResponseCode() >= 200 && conn.getResponseCode() < 300) {
+            try (var in = conn.getInputStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析由扁平对象组成的 JSON 数组，值一律按字符串返回（null 除外）
+     */
+    static List<Map<String, String>> parseObjects(String json) {
+        List<Map<String, String>> objects = new ArrayList<>();
+        Map<String, String> current = null;
+        String key = null;
+        int i = 0;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '{') {
+                current = new LinkedHashMap<>();
+                i++;
+            } else if (c == '}') {
+                if (current != null) {
+                    objects.add(current);
+                }
+                current = null;
+                key = null;
+                i++;
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i = readString(json, i + 1, value);
+                if (key == null) {
+                    key = value.toString();
+                } else {
+                    if (current != null) {
+                        current.put(key, value.toString());
+                    }
+                    key = null;
+                }
+            } else if (key != null && (c == '-' || Character.isLetterOrDigit(c))) {
+                int end = i;
+                while (end < json.length() && ",}]".indexOf(json.charAt(end)) < 0) {
+                    end++;
+                }
+                String literal = json.substring(i, end).trim();
+                if (current != null && !literal.equals("null")) {
+                    current.put(key, literal);
+                }
+                key = null;
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return objects;
+    }
+
+    private static int readString(String json, int i, StringBuilder out) {
+        while (i < json.length()) {
+            char c = json.charAt(i++);
+            if (c == '"') {
+                return i;
+            }
+            if (c != '\\' || i >= json.length()) {
+                out.append(c);
+                continue;
+            }
+            char escaped = json.charAt(i++);
+            switch (escaped) {
+                case 'n' -> out.append('\n');
+                case 'r' -> out.append('\r');
+                case 't' -> out.append('\t');
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'u' -> {
+                    out.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                    i += 4;
+                }
+                default -> out.append(escaped);
+            }
+        }
+        return i;
+    }
+
     private String escapeJson(String str) {
         if (str == null)
             return "";
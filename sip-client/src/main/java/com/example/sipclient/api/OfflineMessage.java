@@ -0,0 +1,10 @@
+package com.example.sipclient.api;
+
+/**
+ * 服务器暂存的一条离线消息
+ * @param id 服务器分配的 id，按它确认
+ * @param messageId 发送方的消息 id（X-Message-Seq 的值），旧客户端发的消息没有，为 null
+ * @param groupId 服务器扇出的群消息所属的群，单聊消息为 null；content 是原文，不带群消息信封
+ */
+public record OfflineMessage(long id, String sender, String content, String messageId, String groupId) {
+}
@@ -1,21 +1,27 @@
 package com.example.sipclient.call;
 
 import com.example.sipclient.media.AudioSession;
+import com.example.sipclient.media.MediaDirection;
 import com.example.sipclient.media.MediaSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sip.Dialog;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 
 /**
  * 管理当前会话的状态，并在通话建立/结束时拉起或关闭媒体会话。
+ * <p>
+ * 会话按 SIP Call-ID 和 Dialog ID 建立主索引，SIP 监听线程凭报文中的 Call-ID 直接定位会话，
+ * 无需重新解析 URI；按对端 URI 的索引是多值的，同一对端的多路通话互不覆盖。
  */
 public class CallManager {
 
@@ -26,8 +32,12 @@ public class CallManager {
     private static final Logger log = LoggerFactory.getLogger(CallManager.class);
 
     private final Map<String, CallSession> sessionsById = new ConcurrentHashMap<>();
-    private final Map<String, String> remoteIndex = new ConcurrentHashMap<>();
+    private final Map<String, CallSession> sessionsByCallId = new ConcurrentHashMap<>();
+    private final Map<String, CallSession> sessionsByDialogId = new ConcurrentHashMap<>();
+    // 对端 URI -> 该对端的会话（按创建顺序，不可变列表整体替换，读无锁）
+    private final Map<String, List<CallSession>> remoteIndex = new ConcurrentHashMap<>();
     private final Supplier<MediaSession> mediaSupplier;
+    private final List<CallSession.TransitionListener> transitionListeners = new CopyOnWriteArrayList<>();
     private IncomingCallListener incomingCallListener;
 
     public CallManager() {
@@ -42,18 +52,36 @@ public class CallManager {
         this.incomingCallListener = listener;
     }
 
+    /**
+     * 订阅所有会话的状态迁移（含迁移时刻），用于 CDR 与 SLA 统计。之后创建的会话都会收到。
+     */
+    public void addTransitionListener(CallSession.TransitionListener listener) {
+        transitionListeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
     public CallSession startOutgoing(String targetUri) {
-        CallSession session = new CallSession(targetUri, false);
-        session.markRinging();
+        return startOutgoing(targetUri, null);
+    }
+
+    /**
+     * 呼出的会话停在 IDLE（呼叫中），收到 180 后由 {@link #markRinging(CallSession)} 进入 RINGING，
+     * 这样振铃时长从对方真正开始振铃算起，而不是整个拨号后等待时间。
+     */
+    public CallSession startOutgoing(String targetUri, String callId) {
+        CallSession session = new CallSession(targetUri, false, callId);
         registerSession(session);
         log.info("已发起到 {} 的呼叫，sessionId={}", targetUri, session.getId());
         return session;
     }
 
     public CallSession acceptIncoming(String fromUri) {
-        CallSession session = new CallSession(fromUri, true);
-        session.markRinging();
+        return acceptIncoming(fromUri, null);
+    }
+
+    public CallSession acceptIncoming(String fromUri, String callId) {
+        CallSession session = new CallSession(fromUri, true, callId);
         registerSession(session);
+        session.markRinging();
         log.info("收到来自 {} 的来电，sessionId={}", fromUri, session.getId());
         if (incomingCallListener != null) {
             incomingCallListener.onIncomingCall(fromUri, session.getId());
@@ -62,14 +90,71 @@ public class CallManager {
     }
 
     public void markActive(String remoteUri) {
-        findByRemote(remoteUri).ifPresent(session -> {
-            if (session.getState() != CallSession.State.ACTIVE) {
-                session.markActive();
-                // 音频已由 SipUserAgent 直接管理，不再在这里启动
-                // session.startMedia(mediaSupplier.get());
-                log.info("呼叫 {} 已建立", session.getId());
-            }
-        });
+        findByRemote(remoteUri).ifPresent(this::markActive);
+    }
+
+    public void markActive(CallSession session) {
+        // re-INVITE 的 ACK 也会走到这里，见 CallSession#markActive
+        if (session.markActive()) {
+            // 音频已由 SipUserAgent 直接管理，不再在这里启动
+            // session.startMedia(mediaSupplier.get());
+            log.info("呼叫 {} 已建立", session.getId());
+        }
+    }
+
+    /**
+     * 呼出收到 180 Ringing。重复的 180 或 183 之后再来的 180 不改变状态。
+     */
+    public void markRinging(CallSession session) {
+        session.markRinging();
+    }
+
+    public void markEarlyMedia(String remoteUri) {
+        findByRemote(remoteUri).ifPresent(CallSession::markEarlyMedia);
+    }
+
+    public void markEarlyMedia(CallSession session) {
+        session.markEarlyMedia();
+    }
+
+    public void failByRemote(String remoteUri) {
+        findByRemote(remoteUri).ifPresent(this::fail);
+    }
+
+    /**
+     * 呼叫失败（对方拒接、超时、错误应答），会话进入 FAILED 并移除。
+     */
+    public void fail(CallSession session) {
+        session.fail();
+        unregisterSession(session);
+        log.info("呼叫 {} 失败", session.getId());
+    }
+
+    /**
+     * 本端发起保持/恢复。
+     */
+    public void setLocalHold(String remoteUri, boolean hold) {
+        findByRemote(remoteUri).ifPresent(session -> setLocalHold(session, hold));
+    }
+
+    public void setLocalHold(CallSession session, boolean hold) {
+        session.setLocalHold(hold);
+        log.info("呼叫 {} {}", session.getId(), hold ? "已保持" : "已恢复");
+    }
+
+    public void updateMediaDirection(String remoteUri, MediaDirection direction) {
+        findByRemote(remoteUri).ifPresent(session -> updateMediaDirection(session, direction));
+    }
+
+    /**
+     * 根据重协商后的媒体方向更新通话状态：非 sendrecv 即视为保持中。
+     */
+    public void updateMediaDirection(CallSession session, MediaDirection direction) {
+        if (direction == MediaDirection.SENDRECV) {
+            session.markResumed();
+        } else {
+            session.markHeld();
+        }
     }
 
     public void terminateByRemote(String remoteUri) {
@@ -80,49 +165,121 @@ public class CallManager {
         findByRemote(remoteUri).ifPresent(this::removeSession);
     }
 
+    public void terminate(CallSession session) {
+        removeSession(session);
+    }
+
     public void attachDialog(String remoteUri, Dialog dialog) {
         Objects.requireNonNull(remoteUri, "remoteUri");
         Objects.requireNonNull(dialog, "dialog");
-        findByRemote(remoteUri).ifPresent(session -> {
-            session.bindDialog(dialog);
-            log.debug("Session {} bound to dialog {}", session.getId(), dialog);
-        });
+        findByRemote(remoteUri).ifPresent(session -> attachDialog(session, dialog));
+    }
+
+    public void attachDialog(CallSession session, Dialog dialog) {
+        Objects.requireNonNull(dialog, "dialog");
+        session.bindDialog(dialog);
+        String dialogId = dialog.getDialogId();
+        if (dialogId != null) {
+            sessionsByDialogId.put(dialogId, session);
+        }
+        log.debug("Session {} bound to dialog {}", session.getId(), dialog);
     }
 
     public Collection<CallSession> listSessions() {
         return List.copyOf(sessionsById.values());
     }
 
+    public Optional<CallSession> findById(String sessionId) {
+        return Optional.ofNullable(sessionsById.get(sessionId));
+    }
+
+    /**
+     * 按 Call-ID 查找，O(1) 且不分配对象，供 SIP 监听线程的热路径使用；不存在时返回 null。
+     */
+    public CallSession getByCallId(String callId) {
+        return callId == null ? null : sessionsByCallId.get(callId);
+    }
+
+    public Optional<CallSession> findByCallId(String callId) {
+        return Optional.ofNullable(getByCallId(callId));
+    }
+
+    public CallSession getByDialogId(String dialogId) {
+        return dialogId == null ? null : sessionsByDialogId.get(dialogId);
+    }
+
+    /**
+     * 按对端查找最近发起的一路仍在进行的通话（UI 以联系人为单位操作时使用）。
+     */
     public Optional<CallSession> findByRemote(String remoteUri) {
-        String sessionId = remoteIndex.get(remoteUri);
-        return sessionId == null ? Optional.empty() : Optional.ofNullable(sessionsById.get(sessionId));
+        List<CallSession> sessions = remoteIndex.get(remoteUri);
+        if (sessions == null) {
+            return Optional.empty();
+        }
+        for (int i = sessions.size() - 1; i >= 0; i--) {
+            CallSession session = sessions.get(i);
+            if (!session.isFinished()) {
+                return Optional.of(session);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public List<CallSession> findAllByRemote(String remoteUri) {
+        return remoteIndex.getOrDefault(remoteUri, List.of());
     }
 
     public void answerCall(String remoteUri) {
-        findByRemote(remoteUri).ifPresent(session -> {
-            session.markActive();
-            // 音频已由 SipUserAgent 直接管理，不再在这里启动
-            // session.startMedia(mediaSupplier.get());
-            log.info("已接听来自 {} 的呼叫", remoteUri);
-        });
+        findByRemote(remoteUri).ifPresent(this::answerCall);
+    }
+
+    public void answerCall(CallSession session) {
+        session.markActive();
+        // 音频已由 SipUserAgent 直接管理，不再在这里启动
+        // session.startMedia(mediaSupplier.get());
+        log.info("已接听来自 {} 的呼叫", session.getRemoteUri());
     }
 
     public void rejectCall(String remoteUri) {
-        findByRemote(remoteUri).ifPresent(session -> {
-            removeSession(session);
-            log.info("已拒接来自 {} 的呼叫", remoteUri);
-        });
+        findByRemote(remoteUri).ifPresent(this::rejectCall);
+    }
+
+    public void rejectCall(CallSession session) {
+        removeSession(session);
+        log.info("已拒接来自 {} 的呼叫", session.getRemoteUri());
     }
 
     private void registerSession(CallSession session) {
+        transitionListeners.forEach(session::addTransitionListener);
         sessionsById.put(session.getId(), session);
-        remoteIndex.put(session.getRemoteUri(), session.getId());
+        if (session.getCallId() != null) {
+            sessionsByCallId.put(session.getCallId(), session);
+        }
+        remoteIndex.compute(session.getRemoteUri(), (uri, sessions) -> {
+            List<CallSession> updated = sessions == null ? new ArrayList<>(1) : new ArrayList<>(sessions);
+            updated.add(session);
+            return List.copyOf(updated);
+        });
     }
 
     private void removeSession(CallSession session) {
         session.terminate();
-        sessionsById.remove(session.getId());
-        remoteIndex.remove(session.getRemoteUri());
+        unregisterSession(session);
         log.info("呼叫 {} 已结束", session.getId());
     }
+
+    private void unregisterSession(CallSession session) {
+        sessionsById.remove(session.getId());
+        if (session.getCallId() != null) {
+            sessionsByCallId.remove(session.getCallId(), session);
+        }
+        if (session.getDialogId() != null) {
+            sessionsByDialogId.remove(session.getDialogId(), session);
+        }
+        remoteIndex.computeIfPresent(session.getRemoteUri(), (uri, sessions) -> {
+            List<CallSession> updated = new ArrayList<>(sessions);
+            updated.remove(session);
+            return updated.isEmpty() ? null : List.copyOf(updated);
+        });
+    }
 }
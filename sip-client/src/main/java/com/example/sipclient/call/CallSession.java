@@ -3,36 +3,95 @@ package com.example.sipclient.call;
 import com.example.sipclient.media.MediaSession;
 
 import javax.sip.Dialog;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Represents一次点对点呼叫会话的简化状态机。
+ * Represents一次点对点呼叫会话的状态机。
+ * <p>
+ * 状态由 JAIN SIP 线程、FX 线程和 CallManager 并发修改，因此用 CAS 推进并校验允许的迁移；
+ * 每个状态首次进入的时间点都会被记录，用于计算建立时长、振铃时长和通话时长。
  */
 public final class CallSession {
 
     public enum State {
         IDLE,
         RINGING,
+        EARLY_MEDIA,
         ACTIVE,
-        TERMINATED
+        HELD,
+        TERMINATED,
+        FAILED;
+
+        private Set<State> next;
+
+        static {
+            IDLE.next = EnumSet.of(RINGING, EARLY_MEDIA, ACTIVE, TERMINATED, FAILED);
+            RINGING.next = EnumSet.of(EARLY_MEDIA, ACTIVE, TERMINATED, FAILED);
+            EARLY_MEDIA.next = EnumSet.of(ACTIVE, TERMINATED, FAILED);
+            ACTIVE.next = EnumSet.of(HELD, TERMINATED, FAILED);
+            HELD.next = EnumSet.of(ACTIVE, TERMINATED, FAILED);
+            TERMINATED.next = EnumSet.noneOf(State.class);
+            FAILED.next = EnumSet.noneOf(State.class);
+        }
+
+        public boolean canTransitionTo(State target) {
+            return next.contains(target);
+        }
+
+        public boolean isFinal() {
+            return next.isEmpty();
+        }
     }
 
+    /**
+     * 一次状态迁移，at 为迁移发生的时刻。
+     */
+    public record Transition(State from, State to, Instant at) {
+    }
+
+    public interface TransitionListener {
+        void onTransition(CallSession session, Transition transition);
+    }
+
+    private static final Set<State> SETUP_STATES = EnumSet.of(State.IDLE, State.RINGING, State.EARLY_MEDIA);
+    private static final Set<State> LIVE_STATES = EnumSet.complementOf(EnumSet.of(State.TERMINATED, State.FAILED));
+
     private final String id;
     private final String remoteUri;
+    private final String callId;
     private final Instant createdAt;
+    private final long createdNanos;
     private final boolean incoming;
-    private State state;
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    // 各状态首次进入时的 nanoTime 偏移 (相对 createdNanos)，0 表示尚未进入
+    private final AtomicLongArray enteredAt = new AtomicLongArray(State.values().length);
+    private final List<TransitionListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean localHold;
     private MediaSession mediaSession;
     private Dialog dialog;
+    private volatile String dialogId;
 
     public CallSession(String remoteUri, boolean incoming) {
+        this(remoteUri, incoming, null);
+    }
+
+    public CallSession(String remoteUri, boolean incoming, String callId) {
         this.id = UUID.randomUUID().toString();
         this.remoteUri = Objects.requireNonNull(remoteUri, "remoteUri");
+        this.callId = callId;
         this.createdAt = Instant.now();
+        this.createdNanos = System.nanoTime();
         this.incoming = incoming;
-        this.state = State.IDLE;
     }
 
     public String getId() {
@@ -43,33 +102,161 @@ public final class CallSession {
         return remoteUri;
     }
 
+    /**
+     * SIP Call-ID，本地创建但尚未发出 INVITE 的会话可能为 null。
+     */
+    public String getCallId() {
+        return callId;
+    }
+
+    public String getDialogId() {
+        return dialogId;
+    }
+
     public Instant getCreatedAt() {
         return createdAt;
     }
 
     public State getState() {
-        return state;
+        return state.get();
     }
 
     public boolean isIncoming() {
         return incoming;
     }
 
-    public void markRinging() {
-        this.state = State.RINGING;
+    public boolean isFinished() {
+        return state.get().isFinal();
+    }
+
+    public void addTransitionListener(TransitionListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public void removeTransitionListener(TransitionListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean markRinging() {
+        return transition(State.RINGING, EnumSet.of(State.IDLE));
+    }
+
+    public boolean markEarlyMedia() {
+        return transition(State.EARLY_MEDIA, SETUP_STATES);
+    }
+
+    /**
+     * 通话建立。只从建立阶段的状态迁移，因此 re-INVITE 的 ACK 不会把保持中的通话改回 ACTIVE。
+     */
+    public boolean markActive() {
+        return transition(State.ACTIVE, SETUP_STATES);
+    }
+
+    public boolean markHeld() {
+        return transition(State.HELD, EnumSet.of(State.ACTIVE));
+    }
+
+    public boolean markResumed() {
+        return transition(State.ACTIVE, EnumSet.of(State.HELD));
+    }
+
+    public boolean isLocalHold() {
+        return localHold;
+    }
+
+    public void setLocalHold(boolean localHold) {
+        this.localHold = localHold;
     }
 
-    public void markActive() {
-        this.state = State.ACTIVE;
+    /**
+     * 正常结束。重复调用或与 {@link #fail()} 竞争时只有一方生效，媒体和对话只释放一次。
+     */
+    public boolean terminate() {
+        return finish(State.TERMINATED);
     }
 
-    public void terminate() {
-        this.state = State.TERMINATED;
+    /**
+     * 呼叫失败（被拒、超时、错误应答）。
+     */
+    public boolean fail() {
+        return finish(State.FAILED);
+    }
+
+    private boolean finish(State target) {
+        if (!transition(target, LIVE_STATES)) {
+            return false;
+        }
         stopMedia();
         releaseDialog();
+        return true;
     }
 
-    public void startMedia(MediaSession session) {
+    private boolean transition(State target, Set<State> from) {
+        while (true) {
+            State current = state.get();
+            if (!from.contains(current) || !current.canTransitionTo(target)) {
+                return false;
+            }
+            if (state.compareAndSet(current, target)) {
+                long offset = Math.max(1, System.nanoTime() - createdNanos);
+                enteredAt.compareAndSet(target.ordinal(), 0, offset);
+                publish(new Transition(current, target, createdAt.plusNanos(offset)));
+                return true;
+            }
+        }
+    }
+
+    private void publish(Transition transition) {
+        for (TransitionListener listener : listeners) {
+            listener.onTransition(this, transition);
+        }
+    }
+
+    /**
+     * 某状态首次进入的时刻。
+     */
+    public Optional<Instant> enteredAt(State s) {
+        long offset = enteredAt.get(s.ordinal());
+        return offset == 0 ? Optional.empty() : Optional.of(createdAt.plusNanos(offset));
+    }
+
+    /**
+     * 呼叫建立时长：会话创建到首次 ACTIVE。
+     */
+    public Optional<Duration> getSetupTime() {
+        long active = enteredAt.get(State.ACTIVE.ordinal());
+        return active == 0 ? Optional.empty() : Optional.of(Duration.ofNanos(active));
+    }
+
+    /**
+     * 振铃时长：首次 RINGING（呼出为收到 180，呼入为收到 INVITE）到 ACTIVE，未接通时到结束；
+     * 呼出没收到 180 时为空。
+     */
+    public Optional<Duration> getRingTime() {
+        long end = enteredAt.get(State.ACTIVE.ordinal());
+        if (end == 0) end = endOffset();
+        return span(enteredAt.get(State.RINGING.ordinal()), end);
+    }
+
+    /**
+     * 通话时长：首次 ACTIVE 到结束，未结束时算到当前。
+     */
+    public Optional<Duration> getTalkTime() {
+        long start = enteredAt.get(State.ACTIVE.ordinal());
+        long end = endOffset();
+        return span(start, end == 0 ? System.nanoTime() - createdNanos : end);
+    }
+
+    private long endOffset() {
+        long terminated = enteredAt.get(State.TERMINATED.ordinal());
+        return terminated != 0 ? terminated : enteredAt.get(State.FAILED.ordinal());
+    }
+
+    private static Optional<Duration> span(long start, long end) {
+        return start == 0 || end == 0 ? Optional.empty() : Optional.of(Duration.ofNanos(Math.max(0, end - start)));
+    }
+
+    public synchronized void startMedia(MediaSession session) {
         if (this.mediaSession != null) {
             return;
         }
@@ -79,7 +266,7 @@ public final class CallSession {
         }
     }
 
-    public void stopMedia() {
+    public synchronized void stopMedia() {
         if (mediaSession != null) {
             mediaSession.stop();
             mediaSession = null;
@@ -88,6 +275,9 @@ public final class CallSession {
 
     public synchronized void bindDialog(Dialog dialog) {
         this.dialog = dialog;
+        if (dialog != null && dialog.getDialogId() != null) {
+            this.dialogId = dialog.getDialogId();
+        }
     }
 
     public synchronized Dialog getDialog() {
@@ -1,26 +1,64 @@
 package com.example.sipclient.chat;
 
 import java.time.Instant;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Keeps an in-memory transcript for一个聊天会话，方便 CLI 展示最近消息。
+ * <p>
+ * 最近消息存放在固定容量的环形数组里，每条只记时间戳、发送方（驻留字符串）和正文，展示时才格式化。
+ * 写入串行；读取不加锁，按序号校验每个槽位，读到被覆盖的槽位就跳过，得到的总是某一时刻之后的连续片段。
  */
 public final class ChatSession {
 
+    public static final int DEFAULT_CAPACITY = 20;
+
+    /**
+     * 一条记录的只读视图。
+     */
+    public record Entry(long timestampMillis, String from, String text) {
+
+        public String format() {
+            return "[" + Instant.ofEpochMilli(timestampMillis) + "] " + from + ": " + text;
+        }
+    }
+
+    private static final class Slot {
+        private final long seq;
+        private final long timestampMillis;
+        private final String from;
+        private final String text;
+
+        private Slot(long seq, long timestampMillis, String from, String text) {
+            this.seq = seq;
+            this.timestampMillis = timestampMillis;
+            this.from = from;
+            this.text = text;
+        }
+    }
+
     private final String sessionId;
     private final boolean groupSession;
     private final List<String> participants;
-    private final Deque<String> lastMessages = new ArrayDeque<>();
+    private final AtomicReferenceArray<Slot> ring;
+    // 已写入的总条数，槽位写完后才递增，读者以它为准
+    private volatile long appended;
 
     public ChatSession(String sessionId, boolean groupSession, List<String> participants) {
+        this(sessionId, groupSession, participants, DEFAULT_CAPACITY);
+    }
+
+    public ChatSession(String sessionId, boolean groupSession, List<String> participants, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
         this.sessionId = Objects.requireNonNull(sessionId, "sessionId");
         this.groupSession = groupSession;
-        this.participants = participants == null ? new ArrayList<>() : new ArrayList<>(participants);
+        this.participants = participants == null ? List.of() : List.copyOf(participants);
+        this.ring = new AtomicReferenceArray<>(capacity);
     }
 
     public String getSessionId() {
@@ -32,18 +70,41 @@ public final class ChatSession {
     }
 
     public List<String> getParticipants() {
-        return List.copyOf(participants);
+        return participants;
+    }
+
+    public int getCapacity() {
+        return ring.length();
     }
 
     public void appendMessage(String from, String text) {
-        String line = String.format("[%s] %s: %s", Instant.now(), from, text);
-        lastMessages.addLast(line);
-        while (lastMessages.size() > 20) {
-            lastMessages.removeFirst();
+        long now = System.currentTimeMillis();
+        String sender = from == null ? null : from.intern();
+        synchronized (ring) {
+            long seq = appended;
+            ring.set((int) (seq % ring.length()), new Slot(seq, now, sender, text));
+            appended = seq + 1;
+        }
+    }
+
+    /**
+     * 最近的记录，按时间先后排列。
+     */
+    public List<Entry> recentEntries() {
+        long end = appended;
+        long start = Math.max(0, end - ring.length());
+        List<Entry> entries = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            Slot slot = ring.get((int) (seq % ring.length()));
+            // 读的过程中被新消息覆盖的槽位不再属于这次快照
+            if (slot != null && slot.seq == seq) {
+                entries.add(new Entry(slot.timestampMillis, slot.from, slot.text));
+            }
         }
+        return entries;
     }
 
     public List<String> dumpRecentMessages() {
-        return List.copyOf(lastMessages);
+        return recentEntries().stream().map(Entry::format).toList();
     }
 }
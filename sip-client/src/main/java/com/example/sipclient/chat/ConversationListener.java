@@ -0,0 +1,19 @@
+package com.example.sipclient.chat;
+
+/**
+ * 会话状态回调：对方正在输入、对方已读。回调在 SIP 线程或定时线程上执行。
+ */
+public interface ConversationListener {
+
+    /**
+     * 对方开始或停止输入。
+     */
+    default void onComposing(String peerUri, boolean composing) {
+    }
+
+    /**
+     * 收到对方的已读回执；allRead 表示本端发给对方的消息已全部读过。
+     */
+    default void onRead(String peerUri, boolean allRead) {
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.sipclient.chat;
+
+import com.example.sipclient.sip.DeliveryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端群发：逐个成员异步发送，同时在途数与发送速率受限，瞬时失败按抖动退避重试。
+ * <p>
+ * 所有群发共用一个令牌桶和在途上限，多个群同时群发也不会超过代理的防洪阈值；
+ * 发送本身是异步的，不占线程，n 个成员的群发耗时约为 n / maxInFlight 个往返（或受速率限制）。
+ * 超时、本地发送失败（背压、传输错误）以及 408/480/500/503/504 视为瞬时失败，其余最终应答和消息过大等本地错误直接记为失败。
+ * 重试沿用首次发送的消息 id。发送和结果处理都在群发自己的线程上进行，不占用 SIP 线程，也不阻塞调用方。
+ */
+public final class GroupBroadcaster implements AutoCloseable {
+
+    /**
+     * 发送一条消息，通常是 {@code SipUserAgent::sendMessageAsync}。
+     */
+    public interface Sender {
+        /**
+         * @param messageId 重试时为首次发送结果里的消息 id，沿用同一序号，接收方收到多份时能去重；首次发送为 null
+         */
+        CompletableFuture<DeliveryResult> send(String target, String text, String messageId);
+    }
+
+    /**
+     * @param maxInFlight    同时在途的消息上限
+     * @param ratePerSecond  令牌桶速率（条/秒），含重试
+     * @param burst          令牌桶容量
+     * @param maxAttempts    每个成员最多尝试次数（含首次）
+     * @param initialBackoff 首次重试的退避上限，之后每次翻倍
+     * @param maxBackoff     退避上限
+     */
+    public record Settings(int maxInFlight, double ratePerSecond, int burst, int maxAttempts,
+                           Duration initialBackoff, Duration maxBackoff) {
+
+        public Settings {
+            if (maxInFlight < 1 || ratePerSecond <= 0 || burst < 1 || maxAttempts < 1) {
+                throw new IllegalArgumentException("invalid broadcast settings");
+            }
+        }
+
+        public static Settings defaults() {
+            return new Settings(32, 50, 20, 3, Duration.ofMillis(200), Duration.ofSeconds(5));
+        }
+    }
+
+    /**
+     * 一次群发的结果。
+     *
+     * @param results 每个成员的最终结果，与成员顺序一致
+     * @param retries 重试次数总和
+     * @param elapsed 从提交到最后一个成员有结果的耗时
+     */
+    public record Report(List<DeliveryResult> results, int retries, Duration elapsed) {
+
+        public long deliveredCount() {
+            return results.stream().filter(DeliveryResult::isDelivered).count();
+        }
+
+        public List<DeliveryResult> failures() {
+            return results.stream().filter(r -> !r.isDelivered()).toList();
+        }
+    }
+
+    private static final class Run {
+        private final Sender sender;
+        private final String text;
+        private final DeliveryResult[] results;
+        private final CompletableFuture<Report> future = new CompletableFuture<>();
+        private final long startedAt = System.nanoTime();
+        private final AtomicInteger remaining;
+        private final AtomicInteger retries = new AtomicInteger();
+
+        private Run(Sender sender, String text, int size) {
+            this.sender = sender;
+            this.text = text;
+            this.results = new DeliveryResult[size];
+            this.remaining = new AtomicInteger(size);
+        }
+    }
+
+    private record Task(Run run, int index, String target, int attempt, String messageId) {
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(GroupBroadcaster.class);
+
+    private final Settings settings;
+    private final long nanosPerToken;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "group-broadcast");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 以下字段由 this 保护
+    private final Queue<Task> ready = new ArrayDeque<>();
+    private int inFlight;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private boolean pumpScheduled;
+    private boolean pumpRequested;
+
+    public GroupBroadcaster(Settings settings) {
+        this.settings = Objects.requireNonNull(settings, "settings");
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / settings.ratePerSecond());
+        this.tokens = settings.burst();
+    }
+
+    public CompletableFuture<Report> broadcast(Sender sender, List<String> members, String text) {
+        Run run = new Run(Objects.requireNonNull(sender, "sender"), text, members.size());
+        if (members.isEmpty()) {
+            run.future.complete(new Report(List.of(), 0, Duration.ZERO));
+            return run.future;
+        }
+        synchronized (this) {
+            for (int i = 0; i < members.size(); i++) {
+                ready.add(new Task(run, i, members.get(i), 1, null));
+            }
+        }
+        if (!requestPump()) {
+            synchronized (this) {
+                ready.removeIf(task -> task.run == run);
+            }
+            run.future.completeExceptionally(new RejectedExecutionException("群发已关闭"));
+        }
+        return run.future;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return ready.size();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 让群发线程取一轮任务；已有一轮在排队时不重复提交。发送可能因背压阻塞，
+     * 所以不在调用方或 SIP 线程（发送结果的回调）上直接发送。
+     *
+     * @return 群发已关闭时为 false
+     */
+    private boolean requestPump() {
+        synchronized (this) {
+            if (pumpRequested) {
+                return true;
+            }
+            pumpRequested = true;
+        }
+        if (schedule(this::pump, 0)) {
+            return true;
+        }
+        synchronized (this) {
+            pumpRequested = false;
+        }
+        return false;
+    }
+
+    private void pump() {
+        synchronized (this) {
+            pumpRequested = false;
+        }
+        launchReady();
+    }
+
+    /**
+     * 在在途上限和令牌允许的范围内取出任务发送；令牌不足时按补满下一个令牌的时间再来。
+     * 只在群发线程上执行，发送结果同步完成时回调只登记一轮新的 pump，不会递归。
+     */
+    private void launchReady() {
+        List<Task> launch = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            while (!ready.isEmpty() && inFlight < settings.maxInFlight() && tokens >= 1) {
+                launch.add(ready.poll());
+                tokens--;
+                inFlight++;
+            }
+            if (!ready.isEmpty() && inFlight < settings.maxInFlight() && !pumpScheduled) {
+                long wait = (long) ((1 - tokens) * nanosPerToken);
+                pumpScheduled = schedule(() -> {
+                    synchronized (this) {
+                        pumpScheduled = false;
+                    }
+                    pump();
+                }, Math.max(wait, 1));
+            }
+        }
+        // 发送可能因全局背压短暂阻塞，不能持锁调用
+        for (Task task : launch) {
+            send(task);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(settings.burst(), tokens + (double) (now - refilledAt) / nanosPerToken);
+        refilledAt = now;
+    }
+
+    private void send(Task task) {
+        CompletableFuture<DeliveryResult> sending;
+        try {
+            sending = task.run.sender.send(task.target, task.run.text, task.messageId);
+        } catch (RuntimeException e) {
+            sending = CompletableFuture.completedFuture(new DeliveryResult(task.target, DeliveryResult.Outcome.FAILED,
+                    0, String.valueOf(e.getMessage()), Duration.ZERO));
+        }
+        sending.whenComplete((result, error) -> {
+            DeliveryResult outcome = error == null ? result : new DeliveryResult(task.target,
+                    DeliveryResult.Outcome.FAILED, 0, String.valueOf(error.getMessage()), Duration.ZERO);
+            synchronized (this) {
+                inFlight--;
+            }
+            onResult(task, outcome);
+            requestPump();
+        });
+    }
+
+    private void onResult(Task task, DeliveryResult result) {
+        if (!result.isDelivered() && isTransient(result) && task.attempt < settings.maxAttempts()) {
+            Run run = task.run;
+            run.retries.incrementAndGet();
+            long delay = backoffNanos(task.attempt);
+            log.debug("群发给 {} 失败（{}），{} ms 后重试", task.target, result.reason(),
+                    TimeUnit.NANOSECONDS.toMillis(delay));
+            // 沿用首次的消息 id（序号与分片 id 不变），之前那次其实已送达时接收方能认出重复
+            Task retry = new Task(run, task.index, task.target, task.attempt + 1,
+                    task.messageId != null ? task.messageId : result.messageId());
+            if (schedule(() -> {
+                synchronized (this) {
+                    ready.add(retry);
+                }
+                pump();
+            }, delay)) {
+                return;
+            }
+        }
+        Run run = task.run;
+        run.results[task.index] = result;
+        if (run.remaining.decrementAndGet() == 0) {
+            run.future.complete(new Report(List.copyOf(Arrays.asList(run.results)), run.retries.get(),
+                    Duration.ofNanos(System.nanoTime() - run.startedAt)));
+        }
+    }
+
+    /**
+     * 等抖动退避：取本次退避上限的一半再加上随机的另一半，避免所有失败的成员在同一时刻重试。
+     */
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(settings.maxBackoff().toNanos(),
+                settings.initialBackoff().toNanos() << Math.min(attempt - 1, 20));
+        long half = Math.max(ceiling / 2, 1);
+        return half + ThreadLocalRandom.current().nextLong(half);
+    }
+
+    private static boolean isTransient(DeliveryResult result) {
+        return switch (result.outcome()) {
+            case TIMED_OUT -> true;
+            // 背压、传输错误等没有状态码；消息过大 (513) 等本地错误重试也不会成功
+            case FAILED -> result.statusCode() == 0;
+            case REJECTED -> switch (result.statusCode()) {
+                case 408, 480, 500, 503, 504 -> true;
+                default -> false;
+            };
+            case DELIVERED -> false;
+        };
+    }
+
+    private boolean schedule(Runnable task, long delayNanos) {
+        try {
+            scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+}
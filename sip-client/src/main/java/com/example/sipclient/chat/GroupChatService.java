@@ -1,25 +1,50 @@
 package com.example.sipclient.chat;
 
+import com.example.sipclient.api.AdminServerClient;
 import com.example.sipclient.sip.SipUserAgent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.sip.SipException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 群聊管理：维护群成员列表，并复用点对点 MESSAGE 发送能力。
+ * 配置了业务服务器时群组同步保存到服务器，群消息只发一次由服务器扇出（{@link #relayMessage}）。
  */
-public class GroupChatService {
+public class GroupChatService implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(GroupChatService.class);
 
     private final Map<String, ChatSession> groups = new ConcurrentHashMap<>();
+    private final GroupBroadcaster broadcaster;
+    private volatile AdminServerClient server;
+    private volatile String selfUri;
+
+    public GroupChatService() {
+        this(new GroupBroadcaster(GroupBroadcaster.Settings.defaults()));
+    }
+
+    public GroupChatService(GroupBroadcaster broadcaster) {
+        this.broadcaster = Objects.requireNonNull(broadcaster, "broadcaster");
+    }
+
+    /**
+     * 改由业务服务器保存群组并扇出群消息
+     */
+    public void useServer(AdminServerClient server, String selfUri) {
+        this.server = Objects.requireNonNull(server, "server");
+        this.selfUri = Objects.requireNonNull(selfUri, "selfUri");
+    }
+
+    public boolean isServerBacked() {
+        return server != null;
+    }
 
     public void defineGroup(String groupId, List<String> members) {
         Objects.requireNonNull(groupId, "groupId");
@@ -28,18 +53,38 @@ public class GroupChatService {
         }
         ChatSession session = new ChatSession(groupId, true, new ArrayList<>(members));
         groups.put(groupId, session);
+        AdminServerClient current = server;
+        if (current != null && !current.defineGroup(groupId, selfUri, members)) {
+            log.warn("群组 {} 未能同步到服务器", groupId);
+        }
         log.info("群组 {} 初始化，成员数量 {}", groupId, members.size());
     }
 
-    public void broadcastMessage(SipUserAgent userAgent, String groupId, String text) throws SipException {
+    /**
+     * 向所有成员群发，同时在途数与速率受 {@link GroupBroadcaster} 限制，返回每个成员的投递结果（与成员顺序一致）。
+     */
+    public CompletableFuture<GroupBroadcaster.Report> broadcastMessage(SipUserAgent userAgent, String groupId, String text) {
         ChatSession session = groups.get(groupId);
         if (session == null) {
             throw new IllegalArgumentException("未知群组: " + groupId);
         }
-        for (String member : session.getParticipants()) {
-            userAgent.sendMessage(member, text);
-        }
         session.appendMessage("me", text);
+        return broadcaster.broadcast(userAgent::sendMessageAsync, session.getParticipants(), text);
+    }
+
+    /**
+     * 经服务器发送群消息：客户端只发一个请求，与群大小无关；返回服务器的扇出 id（失败时为 null）。
+     */
+    public CompletableFuture<String> relayMessage(String groupId, String text) {
+        AdminServerClient current = server;
+        if (current == null) {
+            throw new IllegalStateException("未配置业务服务器");
+        }
+        ChatSession session = groups.get(groupId);
+        if (session != null) {
+            session.appendMessage("me", text);
+        }
+        return CompletableFuture.supplyAsync(() -> current.postGroupMessage(groupId, selfUri, text));
     }
 
     public void recordIncoming(String groupId, String from, String text) {
@@ -53,4 +98,12 @@ public class GroupChatService {
     public List<ChatSession> listGroups() {
         return Collections.unmodifiableList(new ArrayList<>(groups.values()));
     }
+
+    /**
+     * 停止群发线程，未完成的群发不再重试
+     */
+    @Override
+    public void close() {
+        broadcaster.close();
+    }
 }
@@ -0,0 +1,71 @@
+package com.example.sipclient.chat;
+
+/**
+ * 服务器转发的群消息：MESSAGE 的发送方是服务器的转发账号，群 ID 与原发送方放在消息体首行。
+ * 只有转发账号发来的才可信，见 {@link #decodeFromRelay}。
+ * <pre>
+ * GROUP:&lt;groupId&gt; &lt;senderUri&gt;
+ * &lt;text&gt;
+ * </pre>
+ */
+public record GroupMessage(String groupId, String sender, String text) {
+
+    public static final String PREFIX = "GROUP:";
+
+    public String encode() {
+        return PREFIX + groupId + " " + sender + "\n" + text;
+    }
+
+    /**
+     * 不是群消息格式时返回 null。
+     */
+    public static GroupMessage decode(String body) {
+        if (body == null || !body.startsWith(PREFIX)) {
+            return null;
+        }
+        int lineEnd = body.indexOf('\n');
+        int space = body.indexOf(' ');
+        if (lineEnd < 0 || space < 0 || space > lineEnd) {
+            return null;
+        }
+        return new GroupMessage(body.substring(PREFIX.length(), space), body.substring(space + 1, lineEnd),
+                body.substring(lineEnd + 1));
+    }
+
+    /**
+     * 只认转发账号发来的群消息：发送方不是 relayUri（或未配置转发账号）时返回 null，消息体按普通单聊消息处理，
+     * 否则任何人都能在消息体里冒充群和原发送方。
+     */
+    public static GroupMessage decodeFromRelay(String relayUri, String fromUri, String body) {
+        if (relayUri == null || relayUri.isBlank() || fromUri == null
+                || !accountOf(relayUri).equalsIgnoreCase(accountOf(fromUri))) {
+            return null;
+        }
+        return decode(body);
+    }
+
+    /**
+     * sip:relay@10.0.0.1:5060;transport=udp -> relay@10.0.0.1，From 头一般不带端口，按用户名和主机比较
+     */
+    private static String accountOf(String uri) {
+        String value = uri.trim();
+        if (value.startsWith("<") && value.endsWith(">")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        value = value.replaceFirst("^sips?:", "");
+        int params = value.indexOf(';');
+        if (params >= 0) {
+            value = value.substring(0, params);
+        }
+        int at = value.indexOf('@');
+        int port = value.indexOf(':', at + 1);
+        return port >= 0 ? value.substring(0, port) : value;
+    }
+
+    /**
+     * 群 ID 出现在首行里，不能含空白字符。
+     */
+    public static boolean isValidGroupId(String groupId) {
+        return groupId != null && !groupId.isBlank() && groupId.chars().noneMatch(Character::isWhitespace);
+    }
+}
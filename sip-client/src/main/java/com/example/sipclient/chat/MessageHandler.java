@@ -4,8 +4,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 /**
@@ -15,19 +13,69 @@ public class MessageHandler {
 
     private static final Logger log = LoggerFactory.getLogger(MessageHandler.class);
 
-    private final Map<String, ChatSession> sessions = new ConcurrentHashMap<>();
+    private final SessionCache sessions;
     private final Consumer<String> displaySink;
+    private final int transcriptCapacity;
+    private volatile String groupRelayUri;
 
     public MessageHandler() {
         this(System.out::println);
     }
 
     public MessageHandler(Consumer<String> displaySink) {
+        this(displaySink, ChatSession.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param transcriptCapacity 每个会话保留的最近消息条数
+     */
+    public MessageHandler(Consumer<String> displaySink, int transcriptCapacity) {
+        this(displaySink, transcriptCapacity, SessionCache.Settings.defaults());
+    }
+
+    /**
+     * @param transcriptCapacity 每个会话保留的最近消息条数
+     * @param sessionLimits      会话数与空闲时间上限，超出的会话被淘汰
+     */
+    public MessageHandler(Consumer<String> displaySink, int transcriptCapacity, SessionCache.Settings sessionLimits) {
+        if (transcriptCapacity < 1) {
+            throw new IllegalArgumentException("transcriptCapacity must be positive");
+        }
         this.displaySink = displaySink == null ? s -> { } : displaySink;
+        this.transcriptCapacity = transcriptCapacity;
+        this.sessions = new SessionCache(sessionLimits);
+    }
+
+    /**
+     * 会话被淘汰时回调，可在这里持久化聊天记录；回调在消息处理线程上执行。
+     */
+    public void setSessionEvictionListener(SessionCache.EvictionListener listener) {
+        sessions.setEvictionListener(listener);
+    }
+
+    public SessionCache.Stats getSessionStats() {
+        return sessions.getStats();
+    }
+
+    /**
+     * 服务器群消息转发账号的 URI；只有它发来的消息才按群消息解析，未设置时所有消息都按单聊处理。
+     */
+    public void setGroupRelay(String groupRelayUri) {
+        this.groupRelayUri = groupRelayUri;
     }
 
     public void handleIncomingMessage(String fromUri, String body) {
-        ChatSession session = sessions.computeIfAbsent(fromUri, uri -> new ChatSession(uri, false, List.of(uri)));
+        GroupMessage group = GroupMessage.decodeFromRelay(groupRelayUri, fromUri, body);
+        if (group != null) {
+            // 服务器转发的群消息按群归档
+            ChatSession session = sessions.get(group.groupId(), id -> new ChatSession(id, true, List.of(), transcriptCapacity));
+            session.appendMessage(group.sender(), group.text());
+            String line = "群 %s 中 %s 说：%s".formatted(group.groupId(), group.sender(), group.text());
+            log.info(line);
+            displaySink.accept(line);
+            return;
+        }
+        ChatSession session = sessions.get(fromUri, uri -> new ChatSession(uri, false, List.of(uri), transcriptCapacity));
         session.appendMessage(fromUri, body);
         String line = "收到来自 %s 的消息：%s".formatted(fromUri, body);
         log.info(line);
@@ -35,7 +83,7 @@ public class MessageHandler {
     }
 
     public void handleOutgoingMessage(String targetUri, String body) {
-        ChatSession session = sessions.computeIfAbsent(targetUri, uri -> new ChatSession(uri, false, List.of(uri)));
+        ChatSession session = sessions.get(targetUri, uri -> new ChatSession(uri, false, List.of(uri), transcriptCapacity));
         session.appendMessage("me", body);
         String line = "已向 %s 发送消息：%s".formatted(targetUri, body);
         log.info(line);
@@ -43,6 +91,6 @@ public class MessageHandler {
     }
 
     public List<ChatSession> listSessions() {
-        return List.copyOf(sessions.values());
+        return sessions.values();
     }
 }
@@ -0,0 +1,244 @@
+package com.example.sipclient.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 按数量和空闲时间淘汰的会话表（分段 LRU）。
+ * <p>
+ * 新会话先进试用段，再次访问才晋升到保护段（占总容量的 80%），保护段溢出的会话退回试用段末尾；
+ * 超出总容量时先淘汰试用段里最久未用的。只来过一条消息的大量对端（群发通知、扫描）因此冲不掉常用会话。
+ * 空闲超过 {@code idleTimeout} 的会话在每次访问时顺带从两段头部清理。
+ * 退回试用段的会话保留原来的访问时间，排在比它新的会话之后，头部清理碰不到；
+ * 因此另记下这类会话中最早的访问时间，到期时整段扫一遍。
+ * 淘汰的会话在锁外交给 {@link EvictionListener}，可用于持久化聊天记录。
+ */
+public final class SessionCache {
+
+    public enum Cause {
+        /** 超出数量上限 */
+        SIZE,
+        /** 空闲超时 */
+        IDLE
+    }
+
+    public interface EvictionListener {
+        void onEvicted(ChatSession session, Cause cause);
+    }
+
+    /**
+     * @param maxSessions 会话数上限
+     * @param idleTimeout 空闲多久后淘汰
+     */
+    public record Settings(int maxSessions, Duration idleTimeout) {
+
+        public Settings {
+            if (maxSessions < 2) {
+                throw new IllegalArgumentException("maxSessions must be at least 2");
+            }
+            Objects.requireNonNull(idleTimeout, "idleTimeout");
+        }
+
+        public static Settings defaults() {
+            return new Settings(10_000, Duration.ofHours(12));
+        }
+    }
+
+    public record Stats(int size, long hits, long misses, long evictions, long expirations) {
+    }
+
+    private static final class Node {
+        private final ChatSession session;
+        private long lastAccessNanos;
+        // 从保护段退回试用段的，在试用段里不一定按访问时间排序
+        private boolean demoted;
+
+        private Node(ChatSession session, long now) {
+            this.session = session;
+            this.lastAccessNanos = now;
+        }
+    }
+
+    private record Evicted(ChatSession session, Cause cause) {
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SessionCache.class);
+
+    private final int maxSessions;
+    private final int protectedCapacity;
+    private final long idleNanos;
+    private volatile EvictionListener listener = (session, cause) -> { };
+
+    // 以下字段由 this 保护；两段都按最近访问从旧到新排列
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private int demotedCount;
+    private long oldestDemotedNanos;
+
+    public SessionCache(Settings settings) {
+        this.maxSessions = settings.maxSessions();
+        this.protectedCapacity = Math.max(1, settings.maxSessions() * 4 / 5);
+        this.idleNanos = settings.idleTimeout().toNanos();
+    }
+
+    public void setEvictionListener(EvictionListener listener) {
+        this.listener = listener == null ? (session, cause) -> { } : listener;
+    }
+
+    /**
+     * 取出会话，不存在时用 factory 新建。
+     */
+    public ChatSession get(String key, Function<String, ChatSession> factory) {
+        List<Evicted> evicted = new ArrayList<>();
+        ChatSession session;
+        synchronized (this) {
+            long now = System.nanoTime();
+            expire(now, evicted);
+            Node node = protectedSegment.get(key);
+            if (node == null) {
+                node = probation.remove(key);
+                if (node != null) {
+                    leftProbation(node);
+                    promote(key, node);
+                }
+            }
+            if (node != null) {
+                hits++;
+            } else {
+                misses++;
+                node = new Node(factory.apply(key), now);
+                probation.put(key, node);
+                evictOverflow(evicted);
+            }
+            node.lastAccessNanos = now;
+            session = node.session;
+        }
+        notifyEvicted(evicted);
+        return session;
+    }
+
+    public synchronized List<ChatSession> values() {
+        List<ChatSession> sessions = new ArrayList<>(probation.size() + protectedSegment.size());
+        probation.values().forEach(node -> sessions.add(node.session));
+        protectedSegment.values().forEach(node -> sessions.add(node.session));
+        return sessions;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(size(), hits, misses, evictions, expirations);
+    }
+
+    /**
+     * 立即清理空闲会话，适合没有新消息时由定时任务调用。
+     */
+    public void cleanUp() {
+        List<Evicted> evicted = new ArrayList<>();
+        synchronized (this) {
+            expire(System.nanoTime(), evicted);
+        }
+        notifyEvicted(evicted);
+    }
+
+    private void promote(String key, Node node) {
+        protectedSegment.put(key, node);
+        if (protectedSegment.size() > protectedCapacity) {
+            Iterator<Map.Entry<String, Node>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<String, Node> demoted = eldest.next();
+            eldest.remove();
+            Node demotedNode = demoted.getValue();
+            demotedNode.demoted = true;
+            if (demotedCount++ == 0 || demotedNode.lastAccessNanos - oldestDemotedNanos < 0) {
+                oldestDemotedNanos = demotedNode.lastAccessNanos;
+            }
+            probation.put(demoted.getKey(), demotedNode);
+        }
+    }
+
+    private void leftProbation(Node node) {
+        if (node.demoted) {
+            node.demoted = false;
+            demotedCount--;
+        }
+    }
+
+    private void evictOverflow(List<Evicted> evicted) {
+        while (probation.size() + protectedSegment.size() > maxSessions) {
+            Map<String, Node> victims = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Node> eldest = victims.values().iterator();
+            Node victim = eldest.next();
+            eldest.remove();
+            leftProbation(victim);
+            evicted.add(new Evicted(victim.session, Cause.SIZE));
+            evictions++;
+        }
+    }
+
+    private void expire(long now, List<Evicted> evicted) {
+        expire(probation, now, evicted);
+        if (demotedCount > 0 && now - oldestDemotedNanos >= idleNanos) {
+            expireDemoted(now, evicted);
+        }
+        expire(protectedSegment, now, evicted);
+    }
+
+    /**
+     * 整段扫描试用段，清掉所有空闲超时的会话，并重新求出剩下的退回会话里最早的访问时间。
+     * 只在确有退回会话到期时才扫，每次至少清掉一个。
+     */
+    private void expireDemoted(long now, List<Evicted> evicted) {
+        demotedCount = 0;
+        Iterator<Node> it = probation.values().iterator();
+        while (it.hasNext()) {
+            Node node = it.next();
+            if (now - node.lastAccessNanos >= idleNanos) {
+                it.remove();
+                evicted.add(new Evicted(node.session, Cause.IDLE));
+                expirations++;
+            } else if (node.demoted && (demotedCount++ == 0 || node.lastAccessNanos - oldestDemotedNanos < 0)) {
+                oldestDemotedNanos = node.lastAccessNanos;
+            }
+        }
+    }
+
+    private void expire(Map<String, Node> segment, long now, List<Evicted> evicted) {
+        Iterator<Node> it = segment.values().iterator();
+        while (it.hasNext()) {
+            Node node = it.next();
+            if (now - node.lastAccessNanos < idleNanos) {
+                break;
+            }
+            it.remove();
+            leftProbation(node);
+            evicted.add(new Evicted(node.session, Cause.IDLE));
+            expirations++;
+        }
+    }
+
+    private void notifyEvicted(List<Evicted> evicted) {
+        EvictionListener current = listener;
+        for (Evicted entry : evicted) {
+            try {
+                current.onEvicted(entry.session(), entry.cause());
+            } catch (RuntimeException e) {
+                log.warn("会话 {} 淘汰回调失败", entry.session().getSessionId(), e);
+            }
+        }
+    }
+}
@@ -5,15 +5,37 @@ import com.example.sipclient.gui.model.MessageType;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * 文件传输服务
  * 通过HTTP上传文件到服务器，通过SIP发送下载链接
+ * 不超过一个分片的小文件用一个 PUT 流式上传；
+ * 大文件走服务器的分片会话接口（建会话 → 逐片 PUT → complete），中途失败从服务器记录的第一个缺失分片续传；
+ * 服务器不支持分片接口时退回一次性 multipart 上传。
+ * 服务器按内容（SHA-256）存储文件：较大的文件先在本地算哈希请求秒传，服务器已有相同内容时
+ * 只需答对它随机挑选的一段区间的哈希（持有证明），不再上传文件内容；秒传需要登录后的 token。
+ * 上传的分片和下载的字节区间（Range）都通过 {@link ParallelTransfer} 多连接并发传输，
+ * 下载先预分配目标文件，各连接按偏移直接写入。
  */
 public class FileTransferService {
 
@@ -32,8 +54,40 @@ public class FileTransferService {
     public static final long MAX_VIDEO_SIZE = 50 * 1024 * 1024; // 50MB
     public static final long MAX_FILE_SIZE = 20 * 1024 * 1024; // 20MB
 
+    // 分片上传
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    // 分段下载时每个 Range 请求的大小
+    private static final int DOWNLOAD_CHUNK_SIZE = 2 * 1024 * 1024;
+    private static final int INITIAL_CONNECTIONS = 2;
+    private static final int DEFAULT_MAX_CONNECTIONS = 6;
+    private static final int MAX_CHUNK_ATTEMPTS = 5;
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
     private Consumer<Double> progressCallback;
 
+    // 业务服务器登录后签发的 token，登录前为 null
+    private volatile Supplier<String> authToken = () -> null;
+
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    // 未完成的上传会话：文件路径+大小+修改时间 -> uploadId，同一文件再次发送时续传
+    private final Map<String, String> resumableUploads = new ConcurrentHashMap<>();
+
+    // 已下载的文件：下载URL -> ETag 与本地文件，再次下载同一链接时服务器返回 304 即可复用
+    private record CachedDownload(String etag, File file) {
+    }
+
+    private static final int MAX_CACHED_DOWNLOADS = 1000;
+    private final Map<String, CachedDownload> downloads = new ConcurrentHashMap<>();
+
+    // 小于这个大小的文件直接上传，秒传请求本身的往返不划算
+    private static final long LINK_MIN_SIZE = 256 * 1024;
+    private static final int MAX_CACHED_HASHES = 1000;
+    // 文件路径:大小:修改时间 -> SHA-256，同一文件反复发送时不必重新计算
+    private final Map<String, String> fileHashes = new ConcurrentHashMap<>();
+
     public FileTransferService() {
         // 确保接收目录存在
         File dir = new File(RECEIVED_FILES_DIR);
@@ -53,12 +107,365 @@ public class FileTransferService {
         this.progressCallback = callback;
     }
 
+    /**
+     * 设置 token 来源，请求时再取，登录晚于本服务创建也没关系
+     */
+    public void setAuthToken(Supplier<String> authToken) {
+        this.authToken = authToken;
+    }
+
+    /**
+     * 设置单个文件传输的最大并发连接数，1 表示单连接顺序传输
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
     /**
      * 上传文件到服务器
      * 
      * @return 下载URL
      */
     public String uploadFile(File file, MessageType type) throws IOException {
+        String downloadUrl = file.length() >= LINK_MIN_SIZE ? linkExisting(file, type) : null;
+        if (downloadUrl != null) {
+            return downloadUrl;
+        }
+        downloadUrl = file.length() <= CHUNK_SIZE ? uploadStream(file, type) : null;
+        if (downloadUrl == null) {
+            downloadUrl = uploadInChunks(file, type);
+        }
+        return downloadUrl != null ? downloadUrl : uploadMultipart(file, type);
+    }
+
+    /**
+     * 秒传：把本地算出的 SHA-256 和大小发给服务器，服务器已有相同内容时返回一个挑战（区间与 nonce），
+     * 答对该区间的哈希后服务器返回新的下载链接
+     *
+     * @return 下载URL；未登录、服务器没有该内容、不支持秒传或证明未通过时返回 null
+     */
+    private String linkExisting(File file, MessageType type) throws IOException {
+        if (authToken.get() == null) {
+            return null;
+        }
+        String sha256 = sha256(file);
+        String request = String.format("{\"sha256\":\"%s\",\"size\":%d,\"fileName\":\"%s\",\"type\":\"%s\"}",
+                sha256, file.length(), escapeJson(file.getName()), type.getValue());
+        String result;
+        try {
+            String challenge = exchange("POST", serverUrl + "/api/files/link", request);
+            String challengeId = challenge == null ? null : jsonString(challenge, "challengeId");
+            if (challengeId == null) {
+                return null;
+            }
+            String proof = proofOf(file, jsonLong(challenge, "offset"), (int) jsonLong(challenge, "length"),
+                    jsonString(challenge, "nonce"));
+            result = exchange("POST", serverUrl + "/api/files/link/" + URLEncoder.encode(challengeId, StandardCharsets.UTF_8),
+                    "{\"proof\":\"" + proof + "\"}");
+        } catch (IOException e) {
+            // 旧服务器没有秒传接口（405 等）、证明未通过（403）或文件已被改动，照常上传
+            return null;
+        }
+        String downloadUrl = result == null ? null : jsonString(result, "downloadUrl");
+        if (downloadUrl != null) {
+            reportProgress(1, 1, 1.0);
+        }
+        return downloadUrl;
+    }
+
+    /**
+     * 持有证明：SHA-256(nonce 字节 + 文件 [offset, offset + length) 区间)
+     */
+    private static String proofOf(File file, long offset, int length, String nonce) throws IOException {
+        if (nonce == null || offset < 0 || length < 0 || offset + length > file.length()) {
+            throw new IOException("无效的秒传挑战");
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(HexFormat.of().parseHex(nonce));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("文件在秒传过程中被截断");
+                }
+            }
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String sha256(File file) throws IOException {
+        String key = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        String cached = fileHashes.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        if (fileHashes.size() >= MAX_CACHED_HASHES) {
+            fileHashes.clear();
+        }
+        fileHashes.put(key, hash);
+        return hash;
+    }
+
+    /**
+     * 小文件用一个 PUT 流式上传，省去建会话和 complete 两次往返
+     *
+     * @return 下载URL；服务器没有流式上传接口时返回 null
+     */
+    private String uploadStream(File file, MessageType type) throws IOException {
+        String url = serverUrl + "/api/files/upload?fileName="
+                + URLEncoder.encode(file.getName(), StandardCharsets.UTF_8) + "&type=" + type.getValue();
+        HttpURLConnection connection = openConnection(url, "PUT");
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(file.length());
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            Files.copy(file.toPath(), outputStream);
+        }
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_BAD_METHOD
+                || responseCode == HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+            readBody(connection.getErrorStream());
+            return null;
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("上传失败 (" + responseCode + "): " + readBody(connection.getErrorStream()));
+        }
+        String downloadUrl = jsonString(readBody(connection.getInputStream()), "downloadUrl");
+        if (downloadUrl == null) {
+            throw new IOException("上传失败: 服务器未返回下载地址");
+        }
+        reportProgress(1, 1, 1.0);
+        return downloadUrl;
+    }
+
+    /**
+     * 分片上传
+     *
+     * @return 下载URL；服务器没有分片接口时返回 null
+     */
+    private String uploadInChunks(File file, MessageType type) throws IOException {
+        String uploadsUrl = serverUrl + "/api/files/uploads";
+        long fileSize = file.length();
+        String key = file.getAbsolutePath() + ":" + fileSize + ":" + file.lastModified();
+
+        String uploadId = resumableUploads.get(key);
+        String status = uploadId == null ? null : exchange("GET", uploadsUrl + "/" + uploadId, null);
+        if (status == null) {
+            String init = String.format("{\"fileName\":\"%s\",\"size\":%d,\"type\":\"%s\",\"chunkSize\":%d}",
+                    escapeJson(file.getName()), fileSize, type.getValue(), CHUNK_SIZE);
+            status = exchange("POST", uploadsUrl, init);
+            if (status == null) {
+                return null;
+            }
+            uploadId = jsonString(status, "uploadId");
+            resumableUploads.put(key, uploadId);
+        }
+
+        int chunkSize = (int) jsonLong(status, "chunkSize");
+        String sessionUrl = uploadsUrl + "/" + uploadId;
+        List<Integer> missing = jsonIntArray(status, "missing");
+        AtomicLong acknowledged = new AtomicLong(
+                Math.min(fileSize, (jsonLong(status, "totalChunks") - missing.size()) * chunkSize));
+        ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            newTransfer().run(missing, index -> {
+                long offset = (long) index * chunkSize;
+                int length = (int) Math.min(chunkSize, fileSize - offset);
+                ByteBuffer buffer = buffers.poll();
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocate(chunkSize);
+                }
+                try {
+                    putChunk(sessionUrl + "/chunks/" + index, channel, buffer, offset, length);
+                } finally {
+                    buffers.offer(buffer);
+                }
+                return length;
+            }, bytes -> reportProgress(acknowledged.addAndGet(bytes), fileSize, 0.95));
+        } catch (IOException e) {
+            // 会话还在时保留在服务器上，下次发送同一文件时从缺失的分片续传
+            try {
+                if (exchange("GET", sessionUrl, null) == null) {
+                    resumableUploads.remove(key);
+                }
+            } catch (IOException ignored) {
+                // 服务器不可达，保留会话记录
+            }
+            throw e;
+        }
+
+        String result = exchange("POST", sessionUrl + "/complete", null);
+        resumableUploads.remove(key);
+        String downloadUrl = result == null ? null : jsonString(result, "downloadUrl");
+        if (downloadUrl == null) {
+            throw new IOException("上传失败: 服务器未返回下载地址");
+        }
+        if (progressCallback != null) {
+            progressCallback.accept(1.0);
+        }
+        return downloadUrl;
+    }
+
+    /**
+     * PUT 一个分片，从文件的 offset 处读取 length 字节
+     *
+     * @return 服务器返回的会话状态
+     */
+    private String putChunk(String url, FileChannel channel, ByteBuffer buffer, long offset, int length)
+            throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("文件在上传过程中被修改");
+            }
+        }
+
+        HttpURLConnection connection = openConnection(url, "PUT");
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(length);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(buffer.array(), 0, length);
+        }
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + responseCode + ": " + readBody(connection.getErrorStream()));
+        }
+        return readBody(connection.getInputStream());
+    }
+
+    /**
+     * 发送 JSON 请求
+     *
+     * @return 响应体；404 时返回 null
+     */
+    private String exchange(String method, String url, String json) throws IOException {
+        HttpURLConnection connection = openConnection(url, method);
+        connection.setRequestProperty("Accept", "application/json");
+        if (json != null) {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+        }
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            return null;
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("上传失败 (" + responseCode + "): " + readBody(connection.getErrorStream()));
+        }
+        return readBody(connection.getInputStream());
+    }
+
+    private HttpURLConnection openConnection(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        String token = authToken.get();
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private ParallelTransfer newTransfer() {
+        int max = maxConnections;
+        return new ParallelTransfer(Math.min(INITIAL_CONNECTIONS, max), max, MAX_CHUNK_ATTEMPTS, RETRY_BACKOFF_MILLIS);
+    }
+
+    private void reportProgress(long done, long total, double scale) {
+        if (progressCallback != null && total > 0) {
+            progressCallback.accept((double) done / total * scale);
+        }
+    }
+
+    private static String readBody(InputStream stream) throws IOException {
+        if (stream == null) {
+            return "";
+        }
+        try (InputStream in = stream) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String jsonString(String json, String field) {
+        String marker = "\"" + field + "\":\"";
+        int start = json.indexOf(marker);
+        if (start < 0) {
+            return null;
+        }
+        start += marker.length();
+        int end = json.indexOf('"', start);
+        return end > start ? json.substring(start, end) : null;
+    }
+
+    private static long jsonLong(String json, String field) throws IOException {
+        String marker = "\"" + field + "\":";
+        int start = json.indexOf(marker);
+        if (start < 0) {
+            throw new IOException("服务器响应缺少字段 " + field + ": " + json);
+        }
+        start += marker.length();
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || (end == start && json.charAt(end) == '-'))) {
+            end++;
+        }
+        return Long.parseLong(json.substring(start, end));
+    }
+
+    private static List<Integer> jsonIntArray(String json, String field) throws IOException {
+        String marker = "\"" + field + "\":[";
+        int start = json.indexOf(marker);
+        int end = start < 0 ? -1 : json.indexOf(']', start);
+        if (end < 0) {
+            throw new IOException("服务器响应缺少字段 " + field + ": " + json);
+        }
+        List<Integer> values = new ArrayList<>();
+        for (String item : json.substring(start + marker.length(), end).split(",")) {
+            if (!item.isBlank()) {
+                values.add(Integer.parseInt(item.trim()));
+            }
+        }
+        return values;
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * 一次性 multipart 上传，供不支持分片接口的旧服务器使用
+     */
+    private String uploadMultipart(File file, MessageType type) throws IOException {
         String uploadUrl = serverUrl + "/api/files/upload";
         String boundary = "===" + System.currentTimeMillis() + "===";
 
@@ -145,26 +552,126 @@ public class FileTransferService {
 
     /**
      * 从URL下载文件
+     * 服务器支持 Range 时按区间多连接下载到预分配的文件，否则整体下载。
+     * 之后的区间请求带 If-Range，文件在下载途中被替换时服务器返回完整内容，本次下载失败而不会拼出错误的文件。
      */
     public File downloadFile(String downloadUrl, String fileName) throws IOException {
-        URL url = new URL(downloadUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
+        CachedDownload cached = downloads.get(downloadUrl);
+        if (cached != null && !cached.file().isFile()) {
+            downloads.remove(downloadUrl);
+            cached = null;
+        }
+
+        // 确保文件名唯一
+        String uniqueFileName = System.currentTimeMillis() + "_" + fileName;
+        Path filePath = Paths.get(RECEIVED_FILES_DIR, uniqueFileName);
 
+        HttpURLConnection connection = openConnection(downloadUrl, "GET");
+        connection.setRequestProperty("Range", "bytes=0-" + (DOWNLOAD_CHUNK_SIZE - 1));
+        if (cached != null) {
+            connection.setRequestProperty("If-None-Match", cached.etag());
+        }
         int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            return cached.file();
+        }
+        if (responseCode == 416) {
+            // 空文件没有可请求的区间
+            connection = openConnection(downloadUrl, "GET");
+            responseCode = connection.getResponseCode();
+        }
         if (responseCode == HttpURLConnection.HTTP_OK) {
-            // 确保文件名唯一
-            String uniqueFileName = System.currentTimeMillis() + "_" + fileName;
-            Path filePath = Paths.get(RECEIVED_FILES_DIR, uniqueFileName);
-
             try (InputStream inputStream = connection.getInputStream()) {
                 Files.copy(inputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
             }
-
-            return filePath.toFile();
-        } else {
+            return remember(downloadUrl, connection.getHeaderField("ETag"), filePath.toFile());
+        }
+        if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
             throw new IOException("下载失败: HTTP " + responseCode);
         }
+
+        long total = contentRangeTotal(connection.getHeaderField("Content-Range"));
+        String etag = connection.getHeaderField("ETag");
+        try (RandomAccessFile preallocated = new RandomAccessFile(filePath.toFile(), "rw")) {
+            preallocated.setLength(total);
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+            long first = Math.min(DOWNLOAD_CHUNK_SIZE, total);
+            try (InputStream inputStream = connection.getInputStream()) {
+                writeRange(inputStream, channel, 0, first);
+            }
+            AtomicLong downloaded = new AtomicLong(first);
+            reportProgress(first, total, 1.0);
+            List<Integer> remaining = new ArrayList<>();
+            for (int i = 1; (long) i * DOWNLOAD_CHUNK_SIZE < total; i++) {
+                remaining.add(i);
+            }
+            newTransfer().run(remaining, index -> downloadRange(downloadUrl, etag, channel, index, total),
+                    bytes -> reportProgress(downloaded.addAndGet(bytes), total, 1.0));
+        } catch (IOException e) {
+            Files.deleteIfExists(filePath);
+            throw e;
+        }
+        return remember(downloadUrl, etag, filePath.toFile());
+    }
+
+    private File remember(String downloadUrl, String etag, File file) {
+        if (etag != null) {
+            if (downloads.size() >= MAX_CACHED_DOWNLOADS) {
+                downloads.clear();
+            }
+            downloads.put(downloadUrl, new CachedDownload(etag, file));
+        }
+        return file;
+    }
+
+    private long downloadRange(String url, String etag, FileChannel channel, int index, long total)
+            throws IOException {
+        long offset = (long) index * DOWNLOAD_CHUNK_SIZE;
+        long length = Math.min(DOWNLOAD_CHUNK_SIZE, total - offset);
+        HttpURLConnection connection = openConnection(url, "GET");
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        if (etag != null) {
+            connection.setRequestProperty("If-Range", etag);
+        }
+        int responseCode = connection.getResponseCode();
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (responseCode != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                || !contentRange.startsWith("bytes " + offset + "-")) {
+            connection.disconnect();
+            throw new IOException("区间下载失败: HTTP " + responseCode + " " + contentRange);
+        }
+        try (InputStream inputStream = connection.getInputStream()) {
+            writeRange(inputStream, channel, offset, length);
+        }
+        return length;
+    }
+
+    private static void writeRange(InputStream in, FileChannel channel, long offset, long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+        long written = 0;
+        while (written < length) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+            if (n < 0) {
+                throw new EOFException("区间数据不完整: " + written + "/" + length);
+            }
+            wrapper.clear().limit(n);
+            while (wrapper.hasRemaining()) {
+                written += channel.write(wrapper, offset + written);
+            }
+        }
+    }
+
+    /**
+     * 解析 Content-Range: bytes 0-2097151/52428800 中的总长度
+     */
+    private static long contentRangeTotal(String contentRange) throws IOException {
+        int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+        if (slash < 0 || contentRange.endsWith("*")) {
+            throw new IOException("无法识别的 Content-Range: " + contentRange);
+        }
+        return Long.parseLong(contentRange.substring(slash + 1).trim());
     }
 
     /**
@@ -0,0 +1,183 @@
+package com.example.sipclient.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+/**
+ * 多连接分片传输
+ * 分片放进共享队列，由最多 maxConnections 个连接并发领取；实际并发数由吞吐量决定：
+ * 每个采样窗口结束时吞吐比上个窗口明显提高就多开一个连接，明显下降就少开一个。
+ * 单条 TCP 流在高延迟链路上受窗口/RTT 限制，多条流可以把带宽跑满；本地或链路已饱和时并发会自行回落。
+ * 单个分片失败按退避重试，超过次数后整个传输失败，未开始的分片不再领取。
+ */
+final class ParallelTransfer {
+
+    interface ChunkTask {
+        /**
+         * 传输一个分片
+         * @return 传输的字节数
+         */
+        long transfer(int index) throws IOException;
+    }
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "file-transfer-" + THREAD_IDS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final long SAMPLE_NANOS = 250_000_000L;
+    // 吞吐变化超过这个比例才调整并发
+    private static final double GAIN = 1.10;
+    private static final double LOSS = 0.90;
+
+    private final int maxConnections;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    // 以下字段由 this 保护
+    private int limit;
+    private int active;
+    private long windowStartNanos = System.nanoTime();
+    private long windowBytes;
+    private double lastRate;
+    private int peakLimit;
+
+    ParallelTransfer(int initialConnections, int maxConnections, int maxAttempts, long backoffMillis) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.limit = Math.max(1, Math.min(initialConnections, this.maxConnections));
+        this.peakLimit = limit;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * 传输全部分片，返回前所有已领取的分片都已结束
+     * @param onBytes 每个分片完成后回调其字节数
+     */
+    void run(List<Integer> chunks, ChunkTask task, LongConsumer onBytes) throws IOException {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>(chunks);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        int workers = Math.min(maxConnections, chunks.size());
+        Future<?>[] futures = new Future<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            futures[i] = WORKERS.submit(() -> work(queue, task, onBytes, failure));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, new InterruptedIOException("传输被中断"));
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, new IOException(e.getCause()));
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 当前允许的并发连接数
+     */
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 本次传输中达到过的最大并发数
+     */
+    synchronized int getPeakLimit() {
+        return peakLimit;
+    }
+
+    private void work(ConcurrentLinkedQueue<Integer> queue, ChunkTask task, LongConsumer onBytes,
+                      AtomicReference<IOException> failure) {
+        while (failure.get() == null) {
+            try {
+                acquire();
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, new InterruptedIOException("传输被中断"));
+                return;
+            }
+            long bytes = 0;
+            try {
+                Integer index = queue.poll();
+                if (index == null || failure.get() != null) {
+                    return;
+                }
+                bytes = transferWithRetry(task, index);
+                onBytes.accept(bytes);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+                return;
+            } finally {
+                release(bytes);
+            }
+        }
+    }
+
+    private long transferWithRetry(ChunkTask task, int index) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return task.transfer(index);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) {
+                    throw new IOException("分片 " + index + " 传输失败: " + e.getMessage(), e);
+                }
+                try {
+                    Thread.sleep(backoffMillis << Math.min(attempt - 1, 4));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("传输被中断");
+                }
+            }
+        }
+    }
+
+    private synchronized void acquire() throws InterruptedException {
+        while (active >= limit) {
+            wait();
+        }
+        active++;
+    }
+
+    private synchronized void release(long bytes) {
+        active--;
+        windowBytes += bytes;
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= SAMPLE_NANOS) {
+            double rate = (double) windowBytes / elapsed;
+            if (rate > lastRate * GAIN) {
+                limit = Math.min(maxConnections, limit + 1);
+            } else if (rate < lastRate * LOSS) {
+                limit = Math.max(1, limit - 1);
+            }
+            peakLimit = Math.max(peakLimit, limit);
+            lastRate = rate;
+            windowBytes = 0;
+            windowStartNanos = now;
+        }
+        notifyAll();
+    }
+}
@@ -21,6 +21,7 @@ public class CallController {
     @FXML private Label timerLabel;
     @FXML private Button hangupButton;
     @FXML private Button muteButton;
+    @FXML private Button holdButton;
 
     // 📺 视频组件
     @FXML private ImageView remoteVideoView; // 对方画面 (大)
@@ -33,6 +34,7 @@ public class CallController {
     private Timeline timer;
     private int seconds = 0;
     private boolean muted = false;
+    private boolean held = false;
 
     public void setCallInfo(Contact contact, SipUserAgent userAgent, CallManager callManager, boolean isReceiver) {
         this.contact = contact;
@@ -96,6 +98,23 @@ public class CallController {
         // 实际上这里还需要调用 AudioSession 的 mute 方法，暂时只做 UI 变更
     }
 
+    @FXML
+    private void handleHold() {
+        try {
+            if (held) {
+                userAgent.resume(contact.getSipUri());
+                callStatusLabel.setText("通话中...");
+            } else {
+                userAgent.hold(contact.getSipUri());
+                callStatusLabel.setText("已保持");
+            }
+            held = !held;
+            holdButton.setText(held ? "▶" : "⏸");
+        } catch (Exception e) {
+            callStatusLabel.setText("操作失败: " + e.getMessage());
+        }
+    }
+
     private void waitForCallEstablished() {
         Timeline checkTimer = new Timeline(new KeyFrame(Duration.millis(500), event -> {
             if (callManager != null) {
@@ -103,7 +122,9 @@ public class CallController {
                     if (session.getState() == CallSession.State.ACTIVE) {
                         callStatusLabel.setText("通话已建立");
                         startTimer();
-                    } else if (session.getState() == CallSession.State.TERMINATED) {
+                    } else if (session.getState() == CallSession.State.EARLY_MEDIA) {
+                        callStatusLabel.setText("对方振铃中...");
+                    } else if (session.isFinished()) {
                         // 对方拒接或挂断
                         cleanupCallbacks();
                         stopTimer();
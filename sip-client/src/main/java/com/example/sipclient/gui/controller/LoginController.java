@@ -147,6 +147,7 @@ public class LoginController {
             controller.setAdminClient(adminClient); // 传递 AdminServerClient
             controller.setCurrentUserSipUri(sipUriField.getText().trim()); // 传递当前用户 SIP URI
             controller.setServerUrl(serverUrlField.getText().trim()); // 传递业务服务器地址
+            controller.fetchOfflineMessages(); // 后台拉取离线消息，不阻塞登录
 
             // 保存当前 userAgent 到 scene
             scene.setUserData(this);
@@ -1,7 +1,10 @@
 package com.example.sipclient.gui.controller;
 
 import com.example.sipclient.api.AdminServerClient;
+import com.example.sipclient.api.OfflineMessage;
 import com.example.sipclient.call.CallManager;
+import com.example.sipclient.chat.ConversationListener;
+import com.example.sipclient.chat.GroupMessage;
 import com.example.sipclient.chat.MessageHandler;
 import com.example.sipclient.file.AudioRecorderDialog;
 import com.example.sipclient.file.FileMessageData;
@@ -10,6 +13,8 @@ import com.example.sipclient.gui.model.Contact;
 import com.example.sipclient.gui.model.Message;
 import com.example.sipclient.gui.model.MessageType;
 import com.example.sipclient.gui.storage.LocalDatabase;
+import com.example.sipclient.presence.PresenceListener;
+import com.example.sipclient.presence.PresenceStatus;
 import com.example.sipclient.sip.SipUserAgent;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -33,9 +38,14 @@ import javafx.stage.Stage;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 主界面控制器
@@ -76,6 +86,11 @@ public class MainController {
     private FileTransferService fileTransferService;
     private AdminServerClient adminClient; // Admin Server 客户端
     private String currentUserSipUri; // 当前用户 SIP URI
+    private static final long PRESENCE_POLL_MILLIS = 30_000;
+    private final AtomicBoolean presencePolling = new AtomicBoolean(); // 代理不支持状态订阅时的轮询是否在跑
+    private final AtomicBoolean offlineDraining = new AtomicBoolean(); // 离线消息拉取线程是否在跑
+    private final AtomicBoolean offlineDrainRequested = new AtomicBoolean();
+    private volatile String groupRelayUri; // 服务器群消息转发账号，登录后从服务器取得
 
     @FXML
     public void initialize() {
@@ -125,6 +140,13 @@ public class MainController {
         callButton.setDisable(true);
         videoCallButton.setDisable(true);
 
+        // 输入时通知对方；发送频率由 SipUserAgent 限制，这里每次变化都可以调用
+        messageInput.textProperty().addListener((obs, oldVal, newVal) -> {
+            if (userAgent != null && currentContact != null && newVal != null && !newVal.isBlank()) {
+                userAgent.notifyTyping(currentContact.getSipUri());
+            }
+        });
+
         // 回车发送
         messageInput.setOnKeyPressed(event -> {
             if (event.getCode().toString().equals("ENTER") && !event.isShiftDown()) {
@@ -141,6 +163,7 @@ public class MainController {
      */
     public void setAdminClient(AdminServerClient client) {
         this.adminClient = client;
+        fileTransferService.setAuthToken(client == null ? () -> null : client::getAuthToken);
     }
 
     /**
@@ -150,6 +173,159 @@ public class MainController {
         this.currentUserSipUri = sipUri;
     }
 
+    /**
+     * 后台拉取离线期间服务器暂存的消息，按原顺序当作收到的消息处理；需在 setUserAgent 之后调用。
+     * 登录后和每次注册成功时都会调用；拉取中再次调用只记一笔，本轮结束后再拉一轮
+     */
+    public void fetchOfflineMessages() {
+        if (adminClient == null || currentUserSipUri == null || userAgent == null) {
+            return;
+        }
+        offlineDrainRequested.set(true);
+        if (!offlineDraining.compareAndSet(false, true)) {
+            return;
+        }
+        String username = extractUserId(currentUserSipUri);
+        Thread drain = new Thread(() -> {
+            if (groupRelayUri == null) {
+                groupRelayUri = adminClient.getGroupRelayUri();
+            }
+            AtomicInteger shown = new AtomicInteger();
+            try {
+                while (offlineDrainRequested.getAndSet(false)) {
+                    adminClient.drainOfflineMessages(username, batch -> showOfflineBatch(batch, shown));
+                }
+            } finally {
+                offlineDraining.set(false);
+            }
+            // 结束前又有请求进来时补一轮
+            if (offlineDrainRequested.get()) {
+                fetchOfflineMessages();
+            }
+            int count = shown.get();
+            if (count > 0) {
+                Platform.runLater(() -> statusLabel.setText("收到离线消息 " + count + " 条"));
+            }
+        }, "offline-drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    /**
+     * 在界面线程上显示一批离线消息，显示完才返回，返回后这批才会被确认；SIP 上已收到过的同一条消息丢弃
+     */
+    private void showOfflineBatch(List<OfflineMessage> batch, AtomicInteger shown) {
+        List<OfflineMessage> fresh = batch.stream()
+                .filter(message -> userAgent.claimOfflineMessage(message.sender(), message.messageId()))
+                .toList();
+        if (fresh.isEmpty()) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            try {
+                for (OfflineMessage message : fresh) {
+                    // 群消息由服务器标明所属的群；消息体原样显示，不解析其中的群消息信封
+                    showIncomingMessage(message.sender(), message.groupId() != null
+                            ? groupLabel(message.groupId(), message.content()) : message.content());
+                }
+            } finally {
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("离线消息处理被中断", e);
+        }
+        shown.addAndGet(fresh.size());
+    }
+
+    private static String groupLabel(String groupId, String text) {
+        return "[群 " + groupId + "] " + text;
+    }
+
+    /**
+     * 显示一条收到的消息（SIP 收到的与离线消息共用），群消息已由调用方解出原发送者并标上群名；须在界面线程上调用
+     */
+    private void showIncomingMessage(String from, String body) {
+        // 查找或创建联系人
+        Contact contact = findContactByUri(from);
+        if (contact == null) {
+            contact = new Contact(extractUserId(from), from, "用户 " + extractUserId(from));
+            allContacts.add(contact);
+            contacts.add(contact);
+            // 保存新联系人到数据库
+            database.saveContact(contact);
+        }
+
+        Message msg;
+
+        // 检查是否为文件消息
+        if (fileTransferService.isFileMessage(body)) {
+            // 解析文件消息
+            FileMessageData fileData = fileTransferService.parseFileMessage(body);
+            if (fileData != null) {
+                try {
+                    // 下载文件 (Base64Data字段现在存储的是下载URL)
+                    statusLabel.setText("正在下载文件: " + fileData.getFileName());
+                    File savedFile = fileTransferService.downloadFile(
+                            fileData.getBase64Data(), fileData.getFileName());
+
+                    // 创建文件消息
+                    msg = new Message(
+                            "[" + fileData.getType().getValue().toUpperCase() + "] "
+                                    + fileData.getFileName(),
+                            false,
+                            LocalDateTime.now(),
+                            fileData.getType(),
+                            fileData.getFileName(),
+                            savedFile.getAbsolutePath(),
+                            fileData.getFileSize());
+
+                    contact.setLastMessage("[" + getTypeDisplayName(fileData.getType()) + "]");
+                    statusLabel.setText("文件接收完成: " + fileData.getFileName());
+                } catch (Exception e) {
+                    // 解码失败，作为普通消息处理
+                    msg = new Message("[文件接收失败]", false, LocalDateTime.now());
+                    contact.setLastMessage("[文件接收失败]");
+                    statusLabel.setText("文件接收失败: " + e.getMessage());
+                }
+            } else {
+                // 解析失败
+                msg = new Message(body, false, LocalDateTime.now());
+                contact.setLastMessage(body);
+            }
+        } else {
+            // 普通文本消息
+            msg = new Message(body, false, LocalDateTime.now());
+            contact.setLastMessage(body);
+        }
+
+        contact.getMessages().add(msg);
+        contact.setLastMessageTime(LocalDateTime.now());
+
+        // 保存到数据库
+        if (SettingsController.isHistorySaveEnabled()) {
+            database.saveMessage(contact.getUserId(), msg);
+            database.saveContact(contact);
+        }
+
+        // 如果是当前聊天对象，显示消息
+        if (contact.equals(currentContact)) {
+            displayMessage(msg);
+            chatTitleLabel.setText(contact.getDisplayName());
+            userAgent.markRead(contact.getSipUri());
+        } else {
+            // 增加未读计数
+            contact.incrementUnreadCount();
+        }
+
+        // 刷新列表
+        contactListView.refresh();
+    }
+
     /**
      * 设置业务服务器地址（用于文件上传与后台同步）
      */
@@ -170,86 +346,79 @@ public class MainController {
         callManager = new CallManager();
         userAgent.setCallManager(callManager);
 
-        // 设置消息处理器
+        // 设置消息处理器：SIP 线程上收到，交给界面线程显示
         userAgent.setMessageHandler(new MessageHandler() {
             @Override
-            public void handleIncomingMessage(String from, String body) {
-                Platform.runLater(() -> {
-                    // 查找或创建联系人
-                    Contact contact = findContactByUri(from);
-                    if (contact == null) {
-                        contact = new Contact(extractUserId(from), from, "用户 " + extractUserId(from));
-                        allContacts.add(contact);
-                        contacts.add(contact);
-                        // 保存新联系人到数据库
-                        database.saveContact(contact);
-                    }
+            public void handleIncomingMessage(String rawFrom, String rawBody) {
+                // 服务器转发的群消息：只认转发账号发来的，显示在原发送者的会话里并标出群名
+                GroupMessage group = GroupMessage.decodeFromRelay(groupRelayUri, rawFrom, rawBody);
+                String from = group != null ? group.sender() : rawFrom;
+                String body = group != null ? groupLabel(group.groupId(), group.text()) : rawBody;
+                Platform.runLater(() -> showIncomingMessage(from, body));
+            }
+        });
+        // 每次注册成功（含重注册）都看一眼服务器上有没有暂存的消息
+        userAgent.setRegistrationListener(this::fetchOfflineMessages);
 
-                    Message msg;
-
-                    // 检查是否为文件消息
-                    if (fileTransferService.isFileMessage(body)) {
-                        // 解析文件消息
-                        FileMessageData fileData = fileTransferService.parseFileMessage(body);
-                        if (fileData != null) {
-                            try {
-                                // 下载文件 (Base64Data字段现在存储的是下载URL)
-                                statusLabel.setText("正在下载文件: " + fileData.getFileName());
-                                File savedFile = fileTransferService.downloadFile(
-                                        fileData.getBase64Data(), fileData.getFileName());
-
-                                // 创建文件消息
-                                msg = new Message(
-                                        "[" + fileData.getType().getValue().toUpperCase() + "] "
-                                                + fileData.getFileName(),
-                                        false,
-                                        LocalDateTime.now(),
-                                        fileData.getType(),
-                                        fileData.getFileName(),
-                                        savedFile.getAbsolutePath(),
-                                        fileData.getFileSize());
-
-                                contact.setLastMessage("[" + getTypeDisplayName(fileData.getType()) + "]");
-                                statusLabel.setText("文件接收完成: " + fileData.getFileName());
-                            } catch (Exception e) {
-                                // 解码失败，作为普通消息处理
-                                msg = new Message("[文件接收失败]", false, LocalDateTime.now());
-                                contact.setLastMessage("[文件接收失败]");
-                                statusLabel.setText("文件接收失败: " + e.getMessage());
-                            }
-                        } else {
-                            // 解析失败
-                            msg = new Message(body, false, LocalDateTime.now());
-                            contact.setLastMessage(body);
-                        }
-                    } else {
-                        // 普通文本消息
-                        msg = new Message(body, false, LocalDateTime.now());
-                        contact.setLastMessage(body);
+        // 联系人在线状态：服务器推送 NOTIFY。只有内置注册服务器实现了 presence，
+        // 接入的代理不支持 SUBSCRIBE 时改为定时读取业务服务器记录的在线状态（没有状态备注）
+        userAgent.setPresenceListener(new PresenceListener() {
+            @Override
+            public void onPresenceChanged(PresenceStatus status) {
+                Platform.runLater(() -> {
+                    Contact contact = findContactByUserId(extractUserId(status.uri()));
+                    if (contact != null) {
+                        contact.setOnline(status.online());
+                        contact.setPresenceNote(status.note());
+                        contactListView.refresh();
                     }
+                });
+            }
 
-                    contact.getMessages().add(msg);
-                    contact.setLastMessageTime(LocalDateTime.now());
+            @Override
+            public void onPresenceUnavailable(int statusCode) {
+                startPresencePolling();
+            }
+        });
+        subscribeContactPresence();
 
-                    // 保存到数据库
-                    if (SettingsController.isHistorySaveEnabled()) {
-                        database.saveMessage(contact.getUserId(), msg);
-                        database.saveContact(contact);
+        // 对方正在输入 / 已读：只反映在当前会话上
+        userAgent.setConversationListener(new ConversationListener() {
+            @Override
+            public void onComposing(String peerUri, boolean composing) {
+                Platform.runLater(() -> {
+                    if (currentContact != null && currentContact.getUserId().equals(extractUserId(peerUri))) {
+                        chatTitleLabel.setText(currentContact.getDisplayName() + (composing ? "（正在输入…）" : ""));
                     }
+                });
+            }
 
-                    // 如果是当前聊天对象，显示消息
-                    if (contact.equals(currentContact)) {
-                        displayMessage(msg);
-                    } else {
-                        // 增加未读计数
-                        contact.incrementUnreadCount();
+            @Override
+            public void onRead(String peerUri, boolean allRead) {
+                Platform.runLater(() -> {
+                    if (allRead && currentContact != null && currentContact.getUserId().equals(extractUserId(peerUri))) {
+                        statusLabel.setText(currentContact.getDisplayName() + " 已读");
                     }
-
-                    // 刷新列表
-                    contactListView.refresh();
                 });
             }
         });
+        // 回执合并发送时顺带把已读状态批量同步到服务器
+        userAgent.setReadSync(peers -> {
+            if (adminClient != null && currentUserSipUri != null) {
+                new Thread(() -> adminClient.markRead(currentUserSipUri, peers), "read-sync").start();
+            }
+        });
+
+        // 通话结束时按状态机记录的精确通话时长上报 CDR
+        callManager.addTransitionListener((session, transition) -> {
+            if (!transition.to().isFinal() || adminClient == null) {
+                return;
+            }
+            long talkSeconds = session.getTalkTime().map(Duration::getSeconds).orElse(0L);
+            String caller = session.isIncoming() ? session.getRemoteUri() : currentUserSipUri;
+            String callee = session.isIncoming() ? currentUserSipUri : session.getRemoteUri();
+            new Thread(() -> adminClient.recordCall(caller, callee, talkSeconds, "AUDIO")).start();
+        });
 
         // 设置来电监听器
         callManager.setIncomingCallListener((fromUri, sessionId) -> {
@@ -286,9 +455,12 @@ public class MainController {
             displayMessage(msg);
         }
 
-        // 清除未读计数
+        // 清除未读计数，并通知对方已读（合并后发送）
         contact.clearUnreadCount();
         contactListView.refresh();
+        if (userAgent != null) {
+            userAgent.markRead(contact.getSipUri());
+        }
 
         // 聚焦输入框
         messageInput.requestFocus();
@@ -304,7 +476,25 @@ public class MainController {
             return;
 
         try {
-            userAgent.sendMessage(currentContact.getSipUri(), text);
+            final String targetName = currentContact.getDisplayName();
+            final String sender = currentUserSipUri;
+            final String receiver = currentContact.getSipUri();
+            userAgent.sendMessageAsync(receiver, text).thenAccept(result -> {
+                // 同步到 admin-server（异步），附带投递结果：未送达的由服务器暂存，对方上线后转发
+                if (adminClient != null) {
+                    new Thread(() -> {
+                        boolean queued = adminClient.recordMessage(sender, receiver, text, result.isDelivered(), result.messageId())
+                                && !result.isDelivered();
+                        if (queued) {
+                            Platform.runLater(() -> statusLabel.setText("对方不在线，消息已由服务器暂存: " + targetName));
+                        }
+                    }).start();
+                }
+                if (!result.isDelivered() && adminClient == null) {
+                    Platform.runLater(() -> statusLabel.setText(
+                            "消息未送达 " + targetName + ": " + result.statusCode() + " " + result.reason()));
+                }
+            });
 
             // 添加到聊天记录
             Message msg = new Message(text, true, LocalDateTime.now());
@@ -318,14 +508,6 @@ public class MainController {
                 database.saveContact(currentContact);
             }
 
-            // 同步到 admin-server（异步）
-            if (adminClient != null) {
-                final String sender = currentUserSipUri;
-                final String receiver = currentContact.getSipUri();
-                final String content = text;
-                new Thread(() -> adminClient.recordMessage(sender, receiver, content)).start();
-            }
-
             displayMessage(msg);
             messageInput.clear();
             contactListView.refresh();
@@ -709,6 +891,7 @@ public class MainController {
                 if (!exists) {
                     allContacts.add(newContact);
                     contacts.add(newContact);
+                    subscribeContactPresence();
                     showInfoAlert("添加成功", "联系人已添加");
                 } else {
                     showInfoAlert("提示", "该联系人已存在");
@@ -756,6 +939,7 @@ public class MainController {
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
                 try {
+                    presencePolling.set(false);
                     // 断开 SIP 连接
                     if (userAgent != null) {
                         try {
@@ -1162,6 +1346,61 @@ public class MainController {
         });
     }
 
+    /**
+     * 以当前联系人列表重建状态订阅（一个列表订阅覆盖所有联系人）。
+     */
+    private void subscribeContactPresence() {
+        if (userAgent == null) {
+            return;
+        }
+        List<String> uris = allContacts.stream().map(Contact::getSipUri).toList();
+        new Thread(() -> {
+            try {
+                userAgent.subscribePresence(uris);
+            } catch (Exception e) {
+                Platform.runLater(() -> statusLabel.setText("状态订阅失败: " + e.getMessage()));
+            }
+        }).start();
+    }
+
+    /**
+     * SIP 代理不提供状态订阅时的退路：每 30 秒按业务服务器的在线标记刷新联系人状态，只启动一次。
+     */
+    private void startPresencePolling() {
+        if (adminClient == null || !presencePolling.compareAndSet(false, true)) {
+            return;
+        }
+        Thread poller = new Thread(() -> {
+            while (presencePolling.get()) {
+                Set<String> online = adminClient.getOnlineUsers();
+                if (online != null) {
+                    Platform.runLater(() -> {
+                        for (Contact contact : allContacts) {
+                            contact.setOnline(online.contains(contact.getUserId()));
+                        }
+                        contactListView.refresh();
+                    });
+                }
+                try {
+                    Thread.sleep(PRESENCE_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "presence-poll");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    private Contact findContactByUserId(String userId) {
+        for (Contact contact : allContacts) {
+            if (contact.getUserId().equals(userId)) {
+                return contact;
+            }
+        }
+        return null;
+    }
+
     /**
      * 联系人列表单元格
      */
@@ -1176,8 +1415,14 @@ public class MainController {
             } else {
                 VBox vbox = new VBox(5);
 
-                HBox topLine = new HBox();
-                Label nameLabel = new Label(contact.getDisplayName());
+                HBox topLine = new HBox(6);
+                Label presenceDot = new Label("●");
+                presenceDot.setStyle(contact.isOnline()
+                        ? "-fx-text-fill: #43a047; -fx-font-size: 10px;"
+                        : "-fx-text-fill: #bdbdbd; -fx-font-size: 10px;");
+                Label nameLabel = new Label(contact.getPresenceNote() != null
+                        ? contact.getDisplayName() + " (" + contact.getPresenceNote() + ")"
+                        : contact.getDisplayName());
                 nameLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 14px;");
                 HBox.setHgrow(nameLabel, Priority.ALWAYS);
 
@@ -1186,7 +1431,7 @@ public class MainController {
                         : "");
                 timeLabel.setStyle("-fx-text-fill: #999; -fx-font-size: 11px;");
 
-                topLine.getChildren().addAll(nameLabel, timeLabel);
+                topLine.getChildren().addAll(presenceDot, nameLabel, timeLabel);
 
                 HBox bottomLine = new HBox();
                 Label msgLabel = new Label(contact.getLastMessage() != null ? contact.getLastMessage() : "");
@@ -15,6 +15,8 @@ public class Contact {
     private String lastMessage;
     private LocalDateTime lastMessageTime;
     private int unreadCount;
+    private boolean online;
+    private String presenceNote;
     private ObservableList<Message> messages;
 
     public Contact(String userId, String sipUri, String displayName) {
@@ -69,6 +71,22 @@ public class Contact {
         this.unreadCount = 0;
     }
 
+    public boolean isOnline() {
+        return online;
+    }
+
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    public String getPresenceNote() {
+        return presenceNote;
+    }
+
+    public void setPresenceNote(String presenceNote) {
+        this.presenceNote = presenceNote;
+    }
+
     public ObservableList<Message> getMessages() {
         return messages;
     }
@@ -5,8 +5,12 @@ import org.slf4j.LoggerFactory;
 import javax.sound.sampled.*;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 音频会话 - L16 无损高清模式
@@ -34,10 +38,30 @@ public class AudioSession implements MediaSession {
     // 自定义头部长度: 2字节用于存放序列号
     private static final int HEADER_SIZE = 2;
 
-    private String remoteIp;
-    private int remotePort;
+    // 远端地址可在 re-INVITE 重协商时更新，发送循环每次读取最新值
+    private volatile InetSocketAddress remoteAddress;
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    // 保持时暂停采集/播放，但保留 socket 和线程，恢复时无需重新分配
+    private volatile MediaDirection direction = MediaDirection.SENDRECV;
+    private final Object directionLock = new Object();
+
+    private final ExecutorService executor;
+
+    public AudioSession() {
+        this(Executors.newFixedThreadPool(2));
+    }
+
+    /**
+     * 收发循环在给定线程池上运行，多个账号共用一个协议栈时共用同一个池
+     */
+    public AudioSession(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // 合成媒体模式：不打开声卡，发送 440Hz 正弦波、接收端只计数（压测/无声卡环境使用）
+    private volatile boolean synthetic = false;
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong packetsReceived = new AtomicLong();
 
     @Override
     public void start() {
@@ -46,8 +70,7 @@ public class AudioSession implements MediaSession {
 
     public synchronized void start(String targetIp, int targetPort, int localPort) {
         if (running) return;
-        this.remoteIp = targetIp;
-        this.remotePort = targetPort;
+        this.remoteAddress = new InetSocketAddress(targetIp, targetPort);
         this.running = true;
 
         try {
@@ -57,8 +80,13 @@ public class AudioSession implements MediaSession {
 
             log.info(">>> [Audio] 启动 (高清无损 L16/16000)! 本地:{} -> 目标:{}:{}", localPort, targetIp, targetPort);
 
-            executor.submit(this::captureAndSend);
-            executor.submit(this::receiveAndPlay);
+            if (synthetic) {
+                executor.submit(this::generateAndSend);
+                executor.submit(this::receiveAndDiscard);
+            } else {
+                executor.submit(this::captureAndSend);
+                executor.submit(this::receiveAndPlay);
+            }
 
         } catch (SocketException e) {
             log.error("Audio Socket启动失败", e);
@@ -74,6 +102,7 @@ public class AudioSession implements MediaSession {
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
+        setDirection(MediaDirection.SENDRECV); // 唤醒暂停中的采集线程，并为下次通话复位
         log.info(">>> [Audio] 停止");
     }
 
@@ -81,6 +110,102 @@ public class AudioSession implements MediaSession {
         return running;
     }
 
+    @Override
+    public void setDirection(MediaDirection direction) {
+        synchronized (directionLock) {
+            this.direction = direction;
+            directionLock.notifyAll();
+        }
+        if (running) {
+            log.info(">>> [Audio] 媒体方向 -> {}", direction.attribute());
+        }
+    }
+
+    @Override
+    public MediaDirection getDirection() {
+        return direction;
+    }
+
+    public void setSynthetic(boolean synthetic) {
+        this.synthetic = synthetic;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived.get();
+    }
+
+    /**
+     * 重协商后切换发送目标，沿用现有 socket。
+     */
+    public void retarget(String targetIp, int targetPort) {
+        InetSocketAddress updated = new InetSocketAddress(targetIp, targetPort);
+        if (!updated.equals(remoteAddress)) {
+            remoteAddress = updated;
+            log.info(">>> [Audio] 发送目标更新为 {}:{}", targetIp, targetPort);
+        }
+    }
+
+    private void awaitSendable() throws InterruptedException {
+        synchronized (directionLock) {
+            while (running && !direction.canSend()) {
+                directionLock.wait();
+            }
+        }
+    }
+
+    // --- 合成音源：按 20ms 节拍发送正弦波 ---
+    private void generateAndSend() {
+        // 1 秒 440Hz 正弦波，整数个周期，可无缝循环
+        int samples = (int) FORMAT.getSampleRate();
+        ByteBuffer tone = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            tone.putShort((short) (Math.sin(2 * Math.PI * 440 * i / samples) * 8000));
+        }
+        byte[] pcm = tone.array();
+        byte[] packetData = new byte[HEADER_SIZE + CHUNK_SIZE];
+        long interval = TimeUnit.MILLISECONDS.toNanos(20);
+        long next = System.nanoTime();
+        short sequenceNumber = 0;
+        int offset = 0;
+        try {
+            while (running && !socket.isClosed()) {
+                if (!direction.canSend()) {
+                    awaitSendable();
+                    next = System.nanoTime();
+                    continue;
+                }
+                packetData[0] = (byte) (sequenceNumber >> 8);
+                packetData[1] = (byte) sequenceNumber++;
+                System.arraycopy(pcm, offset, packetData, HEADER_SIZE, CHUNK_SIZE);
+                offset = (offset + CHUNK_SIZE) % pcm.length;
+                socket.send(new DatagramPacket(packetData, packetData.length, remoteAddress));
+                packetsSent.incrementAndGet();
+                next += interval;
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+        } catch (SocketException e) {
+            // socket 关闭，正常退出
+        } catch (Exception e) {
+            log.error("合成音源发送异常", e);
+        }
+    }
+
+    private void receiveAndDiscard() {
+        DatagramPacket packet = new DatagramPacket(new byte[HEADER_SIZE + CHUNK_SIZE + 100], HEADER_SIZE + CHUNK_SIZE + 100);
+        try {
+            while (running && !socket.isClosed()) {
+                socket.receive(packet);
+                if (direction.canReceive()) packetsReceived.incrementAndGet();
+            }
+        } catch (Exception e) {
+            // socket 关闭，正常退出
+        }
+    }
+
     // --- 采集并发送 (无损) ---
     private void captureAndSend() {
         TargetDataLine mic = null;
@@ -96,11 +221,18 @@ public class AudioSession implements MediaSession {
             mic.start();
 
             byte[] pcmBuffer = new byte[CHUNK_SIZE];
-            InetAddress address = InetAddress.getByName(remoteIp);
             short sequenceNumber = 0;
 
             log.info("麦克风采集开始...");
             while (running && !socket.isClosed()) {
+                if (!direction.canSend()) {
+                    // 保持中：停止麦克风并挂起线程，恢复时丢弃积压的旧数据
+                    mic.stop();
+                    awaitSendable();
+                    mic.flush();
+                    mic.start();
+                    continue;
+                }
                 // 1. 读取麦克风原始数据
                 int bytesRead = mic.read(pcmBuffer, 0, pcmBuffer.length);
                 if (bytesRead > 0) {
@@ -112,7 +244,7 @@ public class AudioSession implements MediaSession {
 
                     // 3. 发送 UDP 包
                     byte[] packetData = bb.array();
-                    DatagramPacket packet = new DatagramPacket(packetData, packetData.length, address, remotePort);
+                    DatagramPacket packet = new DatagramPacket(packetData, packetData.length, remoteAddress);
                     socket.send(packet);
                 }
             }
@@ -151,6 +283,8 @@ public class AudioSession implements MediaSession {
                 try {
                     socket.receive(packet);
                     if (packet.getLength() <= HEADER_SIZE) continue;
+                    // 保持中继续排空 socket，但不播放
+                    if (!direction.canReceive()) continue;
 
                     ByteBuffer bb = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
                     short seq = bb.getShort();
@@ -0,0 +1,65 @@
+package com.example.sipclient.media;
+
+/**
+ * SDP 媒体方向属性 (RFC 3264)：sendrecv / sendonly / recvonly / inactive。
+ * 用于保持 (hold)、恢复 (resume) 与 re-INVITE 媒体重协商。
+ */
+public enum MediaDirection {
+
+    SENDRECV("sendrecv", true, true),
+    SENDONLY("sendonly", true, false),
+    RECVONLY("recvonly", false, true),
+    INACTIVE("inactive", false, false);
+
+    private final String attribute;
+    private final boolean send;
+    private final boolean receive;
+
+    MediaDirection(String attribute, boolean send, boolean receive) {
+        this.attribute = attribute;
+        this.send = send;
+        this.receive = receive;
+    }
+
+    public String attribute() {
+        return attribute;
+    }
+
+    public boolean canSend() {
+        return send;
+    }
+
+    public boolean canReceive() {
+        return receive;
+    }
+
+    /**
+     * 对端声明的方向在本端看来的方向，例如对方 sendonly → 本端 recvonly。
+     */
+    public MediaDirection reverse() {
+        return of(receive, send);
+    }
+
+    /**
+     * 取两个方向的交集，例如本端处于保持 (INACTIVE) 时无论对方提议什么都不收发。
+     */
+    public MediaDirection intersect(MediaDirection other) {
+        return of(send && other.send, receive && other.receive);
+    }
+
+    public static MediaDirection of(boolean send, boolean receive) {
+        if (send && receive) return SENDRECV;
+        if (send) return SENDONLY;
+        if (receive) return RECVONLY;
+        return INACTIVE;
+    }
+
+    public static MediaDirection fromAttribute(String value) {
+        if (value != null) {
+            for (MediaDirection d : values()) {
+                if (d.attribute.equalsIgnoreCase(value.trim())) return d;
+            }
+        }
+        return SENDRECV;
+    }
+}
@@ -8,4 +8,14 @@ public interface MediaSession {
     void start();
 
     void stop();
+
+    /**
+     * 调整收发方向（保持/恢复）。实现应只暂停采集/播放循环，保留 socket 与线程。
+     */
+    default void setDirection(MediaDirection direction) {
+    }
+
+    default MediaDirection getDirection() {
+        return MediaDirection.SENDRECV;
+    }
 }
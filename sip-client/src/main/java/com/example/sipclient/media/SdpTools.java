@@ -9,10 +9,19 @@ import java.util.regex.Pattern;
  */
 public class SdpTools {
 
+    private static final Pattern DIRECTION = Pattern.compile("a=(sendrecv|sendonly|recvonly|inactive)");
+
     /**
      * 生成 SDP
      */
     public static String createSdp(String ipAddress, int audioPort, int videoPort) {
+        return createSdp(ipAddress, audioPort, videoPort, MediaDirection.SENDRECV);
+    }
+
+    /**
+     * 生成带媒体方向属性的 SDP，用于保持/恢复时的 re-INVITE 重协商
+     */
+    public static String createSdp(String ipAddress, int audioPort, int videoPort, MediaDirection direction) {
         long id = System.currentTimeMillis();
         StringBuilder sdp = new StringBuilder();
 
@@ -22,6 +31,8 @@ public class SdpTools {
         sdp.append("s=Talk\r\n");
         sdp.append("c=IN IP4 ").append(ipAddress).append("\r\n");
         sdp.append("t=0 0\r\n");
+        // 会话级方向属性，作用于下面所有媒体流
+        sdp.append("a=").append(direction.attribute()).append("\r\n");
 
         // --- 音频部分修改 ---
         if (audioPort > 0) {
@@ -71,6 +82,15 @@ public class SdpTools {
         return parsePort(sdpContent, "video");
     }
 
+    /**
+     * 提取媒体方向 (a=sendonly 等)，未声明时按 RFC 3264 视为 sendrecv
+     */
+    public static MediaDirection getDirection(String sdpContent) {
+        if (sdpContent == null) return MediaDirection.SENDRECV;
+        Matcher m = DIRECTION.matcher(sdpContent);
+        return m.find() ? MediaDirection.fromAttribute(m.group(1)) : MediaDirection.SENDRECV;
+    }
+
     private static int parsePort(String sdp, String mediaType) {
         if (sdp == null) return 0;
         Matcher m = Pattern.compile("m=" + mediaType + " (\\d+)").matcher(sdp);
@@ -37,14 +37,28 @@ public class VideoSession implements MediaSession {
 
     private volatile boolean running = false;
     private DatagramSocket socket;
-    private String remoteIp;
-    private int remotePort;
+    private volatile InetSocketAddress remoteAddress;
     private Webcam webcam;
 
+    // 保持时暂停采集/显示，保留 socket、摄像头和线程
+    private volatile MediaDirection direction = MediaDirection.SENDRECV;
+    private final Object directionLock = new Object();
+
     private Consumer<Image> frameCallback;      // 远程画面回调
     private Consumer<Image> localFrameCallback; // 本地画面回调
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(3); // 发送+接收+处理
+    private final ExecutorService executor; // 发送+接收+处理
+
+    public VideoSession() {
+        this(Executors.newFixedThreadPool(3));
+    }
+
+    /**
+     * 收发循环在给定线程池上运行，多个账号共用一个协议栈时共用同一个池
+     */
+    public VideoSession(ExecutorService executor) {
+        this.executor = executor;
+    }
 
     // 用于重组分片的缓存: Map<FrameId, ReceivedChunks[]>
     private final Map<Long, byte[][]> frameBuffer = new ConcurrentHashMap<>();
@@ -58,8 +72,7 @@ public class VideoSession implements MediaSession {
 
     public synchronized void start(String targetIp, int targetPort, int localPort) {
         if (running) return;
-        this.remoteIp = targetIp;
-        this.remotePort = targetPort;
+        this.remoteAddress = new InetSocketAddress(targetIp, targetPort);
         this.running = true;
 
         try {
@@ -92,9 +105,39 @@ public class VideoSession implements MediaSession {
         }
         frameBuffer.clear();
         frameProgress.clear();
+        setDirection(MediaDirection.SENDRECV);
         log.info(">>> [Video] 停止");
     }
 
+    @Override
+    public void setDirection(MediaDirection direction) {
+        synchronized (directionLock) {
+            this.direction = direction;
+            directionLock.notifyAll();
+        }
+        if (!direction.canReceive()) {
+            frameBuffer.clear();
+            frameProgress.clear();
+        }
+    }
+
+    @Override
+    public MediaDirection getDirection() {
+        return direction;
+    }
+
+    public void retarget(String targetIp, int targetPort) {
+        remoteAddress = new InetSocketAddress(targetIp, targetPort);
+    }
+
+    private void awaitSendable() throws InterruptedException {
+        synchronized (directionLock) {
+            while (running && !direction.canSend()) {
+                directionLock.wait();
+            }
+        }
+    }
+
     public boolean isRunning() { return running; }
     public void setFrameCallback(Consumer<Image> callback) { this.frameCallback = callback; }
     public void setLocalFrameCallback(Consumer<Image> callback) { this.localFrameCallback = callback; }
@@ -112,10 +155,13 @@ public class VideoSession implements MediaSession {
             webcam.setViewSize(new Dimension(320, 240));
             webcam.open();
 
-            InetAddress targetAddress = InetAddress.getByName(remoteIp);
             long frameId = 0;
 
             while (running && !socket.isClosed()) {
+                if (!direction.canSend()) {
+                    awaitSendable();
+                    continue;
+                }
                 long start = System.currentTimeMillis();
 
                 if (!webcam.isOpen()) break;
@@ -140,6 +186,7 @@ public class VideoSession implements MediaSession {
                 int totalLength = fullData.length;
                 // 计算需要多少个包
                 int chunks = (int) Math.ceil((double) totalLength / CHUNK_SIZE);
+                InetSocketAddress targetAddress = remoteAddress;
 
                 if (chunks > 200) { // 保护：如果图片太大，丢弃该帧
                     log.warn("帧过大丢弃: {} bytes", totalLength);
@@ -159,7 +206,7 @@ public class VideoSession implements MediaSession {
                     buffer.put(fullData, offset, length);
 
                     byte[] packetData = buffer.array();
-                    DatagramPacket packet = new DatagramPacket(packetData, packetData.length, targetAddress, remotePort);
+                    DatagramPacket packet = new DatagramPacket(packetData, packetData.length, targetAddress);
                     socket.send(packet);
 
                     // ⚡ 关键修改：增加 1ms 延时。
@@ -197,6 +244,7 @@ public class VideoSession implements MediaSession {
                 try {
                     socket.receive(packet);
                     if (packet.getLength() < HEADER_SIZE) continue;
+                    if (!direction.canReceive()) continue;
 
                     ByteBuffer bb = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
                     long frameId = bb.getLong();
@@ -0,0 +1,90 @@
+package com.example.sipclient.presence;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * PIDF (RFC 3863) 的最小编解码：只用 tuple/status/basic、contact 和 note。
+ * <p>
+ * 列表订阅的一次 NOTIFY 把多个联系人放进同一个文档，每人一个 tuple，用 contact 区分；
+ * 这样一批状态变化对一个订阅者只需要一条 NOTIFY。
+ */
+public final class Pidf {
+
+    public static final String CONTENT_TYPE = "application";
+    public static final String CONTENT_SUBTYPE = "pidf+xml";
+
+    private Pidf() {
+    }
+
+    public static String encode(String entity, Collection<PresenceStatus> statuses) {
+        StringBuilder xml = new StringBuilder(128 + statuses.size() * 160);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<presence xmlns=\"urn:ietf:params:xml:ns:pidf\" entity=\"").append(escape(entity)).append("\">\n");
+        int index = 0;
+        for (PresenceStatus status : statuses) {
+            xml.append(" <tuple id=\"t").append(index++).append("\">\n")
+                    .append("  <status><basic>").append(status.online() ? "open" : "closed").append("</basic></status>\n")
+                    .append("  <contact>").append(escape(status.uri())).append("</contact>\n");
+            if (status.note() != null && !status.note().isEmpty()) {
+                xml.append("  <note>").append(escape(status.note())).append("</note>\n");
+            }
+            xml.append(" </tuple>\n");
+        }
+        return xml.append("</presence>\n").toString();
+    }
+
+    /**
+     * 解析失败抛 IllegalArgumentException；没有 contact 的 tuple 归到 entity 名下。
+     */
+    public static List<PresenceStatus> decode(String xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = factory.newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+            String entity = document.getDocumentElement().getAttribute("entity");
+            List<PresenceStatus> statuses = new ArrayList<>();
+            NodeList tuples = document.getElementsByTagName("tuple");
+            for (int i = 0; i < tuples.getLength(); i++) {
+                Element tuple = (Element) tuples.item(i);
+                String contact = textOf(tuple, "contact");
+                String note = textOf(tuple, "note");
+                boolean online = "open".equalsIgnoreCase(textOf(tuple, "basic"));
+                statuses.add(new PresenceStatus(contact != null ? contact : entity, online, note));
+            }
+            return statuses;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid PIDF document", e);
+        }
+    }
+
+    private static String textOf(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
+    }
+
+    private static String escape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                default -> out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.sipclient.presence;
+
+/**
+ * 收到 NOTIFY 时回调，每个联系人一次。
+ */
+@FunctionalInterface
+public interface PresenceListener {
+
+    void onPresenceChanged(PresenceStatus status);
+
+    /**
+     * 服务器不提供状态订阅时回调（SUBSCRIBE 得到 405/489/501 等失败应答或超时），之后不会再收到 NOTIFY。
+     * 只有内置注册服务器实现了 presence，接入其他代理时应改用别的在线状态来源。
+     *
+     * @param statusCode 失败应答的状态码，超时为 408
+     */
+    default void onPresenceUnavailable(int statusCode) {
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.sipclient.presence;
+
+/**
+ * 一个联系人的在线状态。
+ *
+ * @param uri    联系人 SIP URI
+ * @param online PIDF basic 为 open
+ * @param note   自定义状态说明（忙碌、开会中…），可为 null
+ */
+public record PresenceStatus(String uri, boolean online, String note) {
+
+    public static PresenceStatus offline(String uri) {
+        return new PresenceStatus(uri, false, null);
+    }
+}
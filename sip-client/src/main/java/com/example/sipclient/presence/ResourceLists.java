@@ -0,0 +1,57 @@
+package com.example.sipclient.presence;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 列表订阅 SUBSCRIBE 的请求体 (RFC 4826 resource-lists)：一次订阅整个联系人列表，
+ * 不必对每个联系人各建一个订阅对话。
+ */
+public final class ResourceLists {
+
+    public static final String CONTENT_TYPE = "application";
+    public static final String CONTENT_SUBTYPE = "resource-lists+xml";
+
+    private ResourceLists() {
+    }
+
+    public static String encode(Collection<String> uris) {
+        StringBuilder xml = new StringBuilder(96 + uris.size() * 48);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<resource-lists xmlns=\"urn:ietf:params:xml:ns:resource-lists\">\n <list>\n");
+        for (String uri : uris) {
+            xml.append("  <entry uri=\"").append(uri.replace("&", "&amp;").replace("\"", "&quot;")).append("\"/>\n");
+        }
+        return xml.append(" </list>\n</resource-lists>\n").toString();
+    }
+
+    public static List<String> decode(String xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = factory.newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+            NodeList entries = document.getElementsByTagName("entry");
+            List<String> uris = new ArrayList<>(entries.getLength());
+            for (int i = 0; i < entries.getLength(); i++) {
+                String uri = ((Element) entries.item(i)).getAttribute("uri");
+                if (!uri.isBlank()) {
+                    uris.add(uri.trim());
+                }
+            }
+            return uris;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid resource-lists document", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.sipclient.registrar;
+
+import javax.sip.header.AuthorizationHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.WWWAuthenticateHeader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * RFC 2617 摘要认证（MD5，qop=auth），服务端只保存自己签发的 nonce。
+ */
+final class DigestAuthenticator {
+
+    enum Result { OK, STALE, REJECTED }
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final String realm;
+    private final Function<String, String> passwords;
+    private final long nonceTtlNanos;
+    private final Map<String, Long> nonces = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    DigestAuthenticator(String realm, Function<String, String> passwords, Duration nonceTtl) {
+        this.realm = realm;
+        this.passwords = passwords;
+        this.nonceTtlNanos = nonceTtl.toNanos();
+    }
+
+    WWWAuthenticateHeader challenge(HeaderFactory headerFactory, boolean stale) throws ParseException {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String nonce = HEX.formatHex(bytes);
+        nonces.put(nonce, System.nanoTime());
+
+        WWWAuthenticateHeader header = headerFactory.createWWWAuthenticateHeader("Digest");
+        header.setRealm(realm);
+        header.setNonce(nonce);
+        header.setAlgorithm("MD5");
+        header.setQop("auth");
+        if (stale) {
+            header.setStale(true);
+        }
+        return header;
+    }
+
+    Result verify(AuthorizationHeader authorization, String method, String expectedUser) {
+        if (authorization == null || !realm.equals(authorization.getRealm())
+                || expectedUser == null || !expectedUser.equals(authorization.getUsername())) {
+            return Result.REJECTED;
+        }
+        String nonce = authorization.getNonce();
+        Long issuedAt = nonce == null ? null : nonces.get(nonce);
+        if (issuedAt == null || System.nanoTime() - issuedAt > nonceTtlNanos) {
+            if (nonce != null) {
+                nonces.remove(nonce);
+            }
+            return Result.STALE;
+        }
+        String password = passwords.apply(expectedUser);
+        if (password == null) {
+            return Result.REJECTED;
+        }
+
+        String ha1 = md5(expectedUser + ":" + realm + ":" + password);
+        String ha2 = md5(method + ":" + authorization.getURI());
+        String qop = authorization.getQop();
+        String expected = qop == null
+                ? md5(ha1 + ":" + nonce + ":" + ha2)
+                : md5(ha1 + ":" + nonce + ":" + ncOf(authorization) + ":" + authorization.getCNonce() + ":" + qop + ":" + ha2);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                String.valueOf(authorization.getResponse()).getBytes(StandardCharsets.US_ASCII))
+                ? Result.OK : Result.REJECTED;
+    }
+
+    /**
+     * 清理过期 nonce，避免长时间运行时表无限增长。
+     */
+    void purgeExpiredNonces() {
+        long now = System.nanoTime();
+        nonces.values().removeIf(issuedAt -> now - issuedAt > nonceTtlNanos);
+    }
+
+    private static String ncOf(AuthorizationHeader authorization) {
+        // nc 按规范是 8 位十六进制，解析器会把它转成整数
+        return String.format("%08x", authorization.getNonceCount());
+    }
+
+    private static String md5(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return HEX.formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
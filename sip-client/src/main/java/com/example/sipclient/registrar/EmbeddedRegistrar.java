@@ -0,0 +1,826 @@
+package com.example.sipclient.registrar;
+
+import com.example.sipclient.presence.Pidf;
+import com.example.sipclient.presence.PresenceStatus;
+import com.example.sipclient.presence.ResourceLists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sip.ClientTransaction;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionState;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.address.URI;
+import javax.sip.header.AuthorizationHeader;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ContactHeader;
+import javax.sip.header.ContentTypeHeader;
+import javax.sip.header.EventHeader;
+import javax.sip.header.ExpiresHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.RouteHeader;
+import javax.sip.header.SIPIfMatchHeader;
+import javax.sip.header.SubscriptionStateHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 进程内的 SIP registrar + 有状态代理，代替外部 MSS 用于集成测试、压测和信令基准。
+ * <p>
+ * 只服务一个域：REGISTER 走摘要认证后写入 {@link LocationService}；发往本域用户的请求按位置表改写
+ * Request-URI 后转发，其余请求（对话内的 BYE/re-INVITE/ACK 等，Request-URI 已是对端 Contact）原样转发。
+ * 不插入 Record-Route，因此对话内请求是否经过代理取决于客户端是否配置了 outbound proxy。
+ * <p>
+ * 同时充当本域的 presence 服务器：注册/注销即上线/下线，PUBLISH 可附带状态说明（只能发布自己的状态）；
+ * PUBLISH 和 SUBSCRIBE 与 REGISTER 走同一套摘要认证。SUBSCRIBE (Event: presence) 可订阅单个用户，
+ * 或在请求体里带 resource-lists 一次订阅整个联系人列表，
+ * 状态变化经 {@link PresenceStore} 合并、限速后以 NOTIFY 扇出。
+ */
+public final class EmbeddedRegistrar implements SipListener, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedRegistrar.class);
+
+    private final String host;
+    private final int port;
+    private final String transport;
+    private final String realm;
+    private final Duration minExpires;
+    private final Duration maxExpires;
+    private final Duration presenceCoalesce;
+    private final Duration presenceMinNotifyInterval;
+    private final int presenceMaxNotifiesPerFlush;
+
+    private final LocationService locationService = new LocationService();
+    private final DigestAuthenticator authenticator;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "registrar-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 上游 INVITE 的 Via branch -> 下游客户端事务，用于转发 CANCEL
+    private final ConcurrentHashMap<String, ClientTransaction> pendingInvites = new ConcurrentHashMap<>();
+    // 用户 -> 当前有效的 PUBLISH（SIP-ETag 与到期时间）
+    private final ConcurrentHashMap<String, Publication> publications = new ConcurrentHashMap<>();
+
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder authFailures = new LongAdder();
+    private final LongAdder requestsForwarded = new LongAdder();
+    private final LongAdder responsesForwarded = new LongAdder();
+
+    private PresenceStore presence;
+    private SipStack sipStack;
+    private SipProvider sipProvider;
+    private AddressFactory addressFactory;
+    private HeaderFactory headerFactory;
+    private MessageFactory messageFactory;
+
+    private EmbeddedRegistrar(Builder builder) {
+        this.host = Objects.requireNonNull(builder.host, "host");
+        this.port = builder.port;
+        this.transport = builder.transport;
+        this.realm = builder.realm == null ? builder.host : builder.realm;
+        this.minExpires = builder.minExpires;
+        this.maxExpires = builder.maxExpires;
+        this.presenceCoalesce = builder.presenceCoalesce;
+        this.presenceMinNotifyInterval = builder.presenceMinNotifyInterval;
+        this.presenceMaxNotifiesPerFlush = builder.presenceMaxNotifiesPerFlush;
+        this.authenticator = new DigestAuthenticator(realm, builder.passwords, builder.nonceTtl);
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be within UDP port range");
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public synchronized EmbeddedRegistrar start() throws Exception {
+        if (sipStack != null) {
+            return this;
+        }
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "EmbeddedRegistrar-" + port);
+        // 代理不参与对话，由端点维护对话状态
+        properties.setProperty("javax.sip.AUTOMATIC_DIALOG_SUPPORT", "off");
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "8");
+        properties.setProperty("gov.nist.javax.sip.REENTRANT_LISTENER", "true");
+
+        sipStack = sipFactory.createSipStack(properties);
+        ListeningPoint listeningPoint = sipStack.createListeningPoint(host, port, transport);
+        sipProvider = sipStack.createSipProvider(listeningPoint);
+        presence = new PresenceStore(this::sendNotify, presenceCoalesce, presenceMinNotifyInterval,
+                presenceMaxNotifiesPerFlush);
+        locationService.setExpiryListener(binding -> {
+            publications.remove(binding.user());
+            presence.update(binding.user(), false, null);
+        });
+        sipProvider.addSipListener(this);
+        sipStack.start();
+
+        sweeper.scheduleWithFixedDelay(() -> {
+            int purged = locationService.purgeExpired();
+            authenticator.purgeExpiredNonces();
+            purgeExpiredPublications();
+            if (purged > 0) {
+                log.debug("清理过期注册 {} 条", purged);
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+        log.info("内嵌 registrar 已启动: {}:{}/{} realm={}", host, port, transport, realm);
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        sweeper.shutdownNow();
+        if (presence != null) {
+            presence.close();
+        }
+        if (sipStack != null) {
+            sipStack.stop();
+            sipStack = null;
+        }
+    }
+
+    public LocationService getLocationService() {
+        return locationService;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getRegistrationCount() {
+        return registrations.sum();
+    }
+
+    public long getAuthFailureCount() {
+        return authFailures.sum();
+    }
+
+    public long getForwardedRequestCount() {
+        return requestsForwarded.sum();
+    }
+
+    public long getForwardedResponseCount() {
+        return responsesForwarded.sum();
+    }
+
+    public int getPresenceSubscriptionCount() {
+        return presence == null ? 0 : presence.getSubscriptionCount();
+    }
+
+    public long getPresenceNotifyCount() {
+        return presence == null ? 0 : presence.getNotifyCount();
+    }
+
+    /**
+     * 合并窗口内翻转回原状态、没有产生 NOTIFY 的状态变化数。
+     */
+    public long getPresenceSuppressedCount() {
+        return presence == null ? 0 : presence.getSuppressedCount();
+    }
+
+    // --- SipListener ---
+
+    @Override
+    public void processRequest(RequestEvent evt) {
+        Request request = evt.getRequest();
+        try {
+            switch (request.getMethod()) {
+                case Request.REGISTER -> handleRegister(evt);
+                case Request.ACK -> forwardStateless(request);
+                case Request.CANCEL -> handleCancel(evt);
+                case Request.PUBLISH -> handlePublish(evt);
+                case Request.SUBSCRIBE -> handleSubscribe(evt);
+                default -> proxy(evt);
+            }
+        } catch (Exception e) {
+            log.warn("处理 {} 失败", request.getMethod(), e);
+        }
+    }
+
+    @Override
+    public void processResponse(ResponseEvent evt) {
+        if (evt.getClientTransaction() != null
+                && evt.getClientTransaction().getApplicationData() instanceof PresenceStore.Subscription subscription) {
+            int status = evt.getResponse().getStatusCode();
+            if (status == Response.CALL_OR_TRANSACTION_DOES_NOT_EXIST || status >= 400) {
+                presence.drop(subscription.id());
+            }
+            return;
+        }
+        if (evt.getResponse().getStatusCode() == Response.TRYING) {
+            // 100 Trying 只在逐跳之间有效，不向上游转发
+            return;
+        }
+        Response response = (Response) evt.getResponse().clone();
+        response.removeFirst(ViaHeader.NAME);
+        if (response.getHeader(ViaHeader.NAME) == null) {
+            // 发给代理自己的应答（如转发 CANCEL 的 200）
+            return;
+        }
+        ClientTransaction ct = evt.getClientTransaction();
+        try {
+            if (ct != null && ct.getApplicationData() instanceof ServerTransaction st) {
+                if (response.getStatusCode() >= 200 && Request.INVITE.equals(ct.getRequest().getMethod())) {
+                    pendingInvites.remove(branchOf(st.getRequest()));
+                }
+                if (st.getState() != TransactionState.TERMINATED) {
+                    st.sendResponse(response);
+                } else {
+                    sipProvider.sendResponse(response);
+                }
+            } else if (ct == null) {
+                // 2xx 重传到达时客户端事务已结束，无状态转发
+                sipProvider.sendResponse(response);
+            } else {
+                return;
+            }
+            responsesForwarded.increment();
+        } catch (Exception e) {
+            log.warn("转发应答 {} 失败", response.getStatusCode(), e);
+        }
+    }
+
+    @Override
+    public void processTimeout(TimeoutEvent evt) {
+        if (evt.isServerTransaction()) {
+            return;
+        }
+        ClientTransaction ct = evt.getClientTransaction();
+        if (ct.getApplicationData() instanceof PresenceStore.Subscription subscription) {
+            presence.drop(subscription.id());
+        } else if (ct.getApplicationData() instanceof ServerTransaction st) {
+            pendingInvites.remove(branchOf(st.getRequest()));
+            respond(st, st.getRequest(), Response.REQUEST_TIMEOUT);
+        }
+    }
+
+    @Override
+    public void processIOException(IOExceptionEvent evt) {
+        log.debug("IO 异常: {}:{}/{}", evt.getHost(), evt.getPort(), evt.getTransport());
+    }
+
+    @Override
+    public void processTransactionTerminated(TransactionTerminatedEvent evt) {
+    }
+
+    @Override
+    public void processDialogTerminated(DialogTerminatedEvent evt) {
+    }
+
+    // --- REGISTER ---
+
+    private void handleRegister(RequestEvent evt) throws Exception {
+        Request request = evt.getRequest();
+        ServerTransaction st = serverTransactionOf(evt);
+        if (st == null) {
+            return;
+        }
+        String user = userOf(((ToHeader) request.getHeader(ToHeader.NAME)).getAddress().getURI());
+        if (!authenticate(st, request, user)) {
+            return;
+        }
+
+        ContactHeader contact = (ContactHeader) request.getHeader(ContactHeader.NAME);
+        ExpiresHeader expiresHeader = request.getExpires();
+        int requested = contact != null && contact.getExpires() >= 0 ? contact.getExpires()
+                : expiresHeader != null ? expiresHeader.getExpires() : (int) maxExpires.toSeconds();
+
+        Response ok = messageFactory.createResponse(Response.OK, request);
+        if (contact == null) {
+            // 不带 Contact 是查询 (RFC 3261 §10.2.3)：原样返回当前绑定，不改动任何状态
+            LocationService.Binding binding = locationService.lookup(user);
+            if (binding != null) {
+                ContactHeader current = headerFactory.createContactHeader(addressFactory.createAddress(binding.contact()));
+                current.setExpires((int) Math.max(1, Duration.between(Instant.now(), binding.expiresAt()).toSeconds()));
+                ok.addHeader(current);
+            }
+        } else if (contact.isWildCard() && (expiresHeader == null || expiresHeader.getExpires() != 0)) {
+            // "*" 只能配合 Expires: 0 注销全部绑定
+            respond(st, request, Response.BAD_REQUEST);
+            return;
+        } else if (requested == 0 || contact.isWildCard()) {
+            locationService.unbind(user);
+            publications.remove(user);
+            presence.update(user, false, null);
+        } else if (requested < minExpires.toSeconds()) {
+            Response tooBrief = messageFactory.createResponse(Response.INTERVAL_TOO_BRIEF, request);
+            tooBrief.addHeader(headerFactory.createMinExpiresHeader((int) minExpires.toSeconds()));
+            st.sendResponse(tooBrief);
+            return;
+        } else if (contact.getAddress().getURI() instanceof SipURI contactUri) {
+            int granted = (int) Math.min(requested, maxExpires.toSeconds());
+            locationService.bind(user, contactUri, Duration.ofSeconds(granted));
+            if (!presence.current(user, null).online()) {
+                presence.update(user, true, null);
+            }
+            ContactHeader grantedContact = (ContactHeader) contact.clone();
+            grantedContact.setExpires(granted);
+            ok.addHeader(grantedContact);
+            ok.addHeader(headerFactory.createExpiresHeader(granted));
+        } else {
+            st.sendResponse(messageFactory.createResponse(Response.UNSUPPORTED_URI_SCHEME, request));
+            return;
+        }
+        registrations.increment();
+        st.sendResponse(ok);
+    }
+
+    /**
+     * 摘要认证，REGISTER/PUBLISH/SUBSCRIBE 共用同一套质询；未通过时已回 401，调用方直接返回。
+     *
+     * @param user 请求声明的身份，REGISTER 取 To，其余取 From
+     */
+    private boolean authenticate(ServerTransaction st, Request request, String user) throws Exception {
+        AuthorizationHeader authorization = (AuthorizationHeader) request.getHeader(AuthorizationHeader.NAME);
+        DigestAuthenticator.Result result = authorization == null
+                ? DigestAuthenticator.Result.STALE
+                : authenticator.verify(authorization, request.getMethod(), user);
+        if (result == DigestAuthenticator.Result.OK) {
+            return true;
+        }
+        if (authorization != null && result == DigestAuthenticator.Result.REJECTED) {
+            authFailures.increment();
+        }
+        Response challenge = messageFactory.createResponse(Response.UNAUTHORIZED, request);
+        challenge.addHeader(authenticator.challenge(headerFactory, authorization != null));
+        st.sendResponse(challenge);
+        return false;
+    }
+
+    // --- presence ---
+
+    /**
+     * 只接受本人发布自己的状态（认证身份即 From 用户，须与 Request-URI 一致）。
+     * 首次发布必须带 PIDF；之后凭 SIP-If-Match 刷新或修改，过期未刷新的发布由 sweeper 撤销 (RFC 3903)。
+     */
+    private void handlePublish(RequestEvent evt) throws Exception {
+        Request request = evt.getRequest();
+        ServerTransaction st = serverTransactionOf(evt);
+        if (st == null) {
+            return;
+        }
+        if (!isPresenceEvent(request)) {
+            respond(st, request, Response.BAD_EVENT);
+            return;
+        }
+        String user = userOf(((FromHeader) request.getHeader(FromHeader.NAME)).getAddress().getURI());
+        if (!authenticate(st, request, user)) {
+            return;
+        }
+        if (!user.equals(userOf(request.getRequestURI()))) {
+            respond(st, request, Response.FORBIDDEN);
+            return;
+        }
+        SIPIfMatchHeader ifMatch = (SIPIfMatchHeader) request.getHeader(SIPIfMatchHeader.NAME);
+        Publication current = publications.get(user);
+        if (ifMatch != null && (current == null || !current.etag().equals(ifMatch.getETag()))) {
+            respond(st, request, Response.CONDITIONAL_REQUEST_FAILED);
+            return;
+        }
+        ExpiresHeader expires = request.getExpires();
+        byte[] body = request.getRawContent();
+        if (expires != null && expires.getExpires() == 0) {
+            // 撤销发布：回到仅由注册决定的状态
+            publications.remove(user);
+            presence.update(user, locationService.lookup(user) != null, null);
+            st.sendResponse(messageFactory.createResponse(Response.OK, request));
+            return;
+        }
+        if (body != null && body.length > 0) {
+            List<PresenceStatus> statuses;
+            try {
+                statuses = Pidf.decode(new String(body, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                respond(st, request, Response.BAD_REQUEST);
+                return;
+            }
+            if (!statuses.isEmpty()) {
+                PresenceStatus status = statuses.get(0);
+                presence.update(user, status.online(), status.note());
+            }
+        } else if (ifMatch == null) {
+            respond(st, request, Response.BAD_REQUEST);
+            return;
+        }
+        int granted = expires == null ? (int) maxExpires.toSeconds()
+                : (int) Math.min(expires.getExpires(), maxExpires.toSeconds());
+        Publication publication = new Publication(Long.toHexString(System.nanoTime()),
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(granted));
+        publications.put(user, publication);
+        Response ok = messageFactory.createResponse(Response.OK, request);
+        ok.addHeader(headerFactory.createSIPETagHeader(publication.etag()));
+        ok.addHeader(headerFactory.createExpiresHeader(granted));
+        st.sendResponse(ok);
+    }
+
+    /**
+     * 撤销过期未刷新的发布，状态回到仅由注册决定。
+     */
+    private void purgeExpiredPublications() {
+        long now = System.nanoTime();
+        publications.forEach((user, publication) -> {
+            if (publication.expiresAtNanos() - now <= 0 && publications.remove(user, publication)) {
+                presence.update(user, locationService.lookup(user) != null, null);
+            }
+        });
+    }
+
+    private void handleSubscribe(RequestEvent evt) throws Exception {
+        Request request = evt.getRequest();
+        ServerTransaction st = serverTransactionOf(evt);
+        if (st == null) {
+            return;
+        }
+        if (!isPresenceEvent(request)) {
+            respond(st, request, Response.BAD_EVENT);
+            return;
+        }
+        String callId = ((CallIdHeader) request.getHeader(CallIdHeader.NAME)).getCallId();
+        ExpiresHeader expiresHeader = request.getExpires();
+        int expires = (int) Math.min(expiresHeader == null ? maxExpires.toSeconds() : expiresHeader.getExpires(),
+                maxExpires.toSeconds());
+        ToHeader to = (ToHeader) request.getHeader(ToHeader.NAME);
+
+        FromHeader from = (FromHeader) request.getHeader(FromHeader.NAME);
+        if (to.getTag() != null) {
+            // 对话内刷新或退订：对话标识在认证过的首个 SUBSCRIBE 中建立，须与之一致
+            PresenceStore.Subscription existing = presence.find(callId);
+            if (existing == null || !(existing.context() instanceof NotifyDialog dialog)
+                    || !dialog.localTag().equals(to.getTag()) || !dialog.remoteTag().equals(from.getTag())) {
+                respond(st, request, Response.CALL_OR_TRANSACTION_DOES_NOT_EXIST);
+                return;
+            }
+            boolean known = expires == 0 ? presence.unsubscribe(callId) != null
+                    : presence.refresh(callId, Duration.ofSeconds(expires));
+            if (!known) {
+                respond(st, request, Response.CALL_OR_TRANSACTION_DOES_NOT_EXIST);
+                return;
+            }
+            Response ok = messageFactory.createResponse(Response.OK, request);
+            ok.addHeader(headerFactory.createExpiresHeader(expires));
+            st.sendResponse(ok);
+            return;
+        }
+
+        String watcher = userOf(from.getAddress().getURI());
+        if (!authenticate(st, request, watcher)) {
+            return;
+        }
+        ContactHeader contact = (ContactHeader) request.getHeader(ContactHeader.NAME);
+        if (contact == null || expires == 0) {
+            respond(st, request, contact == null ? Response.BAD_REQUEST : Response.OK);
+            return;
+        }
+        Map<String, String> resources = new LinkedHashMap<>();
+        ContentTypeHeader contentType = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
+        byte[] body = request.getRawContent();
+        if (contentType != null && ResourceLists.CONTENT_SUBTYPE.equalsIgnoreCase(contentType.getContentSubType())
+                && body != null) {
+            for (String uri : ResourceLists.decode(new String(body, StandardCharsets.UTF_8))) {
+                String user = userOf(addressFactory.createURI(uri));
+                if (user != null) {
+                    resources.put(user, uri);
+                }
+            }
+        } else {
+            String user = userOf(request.getRequestURI());
+            if (user != null) {
+                resources.put(user, request.getRequestURI().toString());
+            }
+        }
+        if (resources.isEmpty()) {
+            respond(st, request, Response.NOT_FOUND);
+            return;
+        }
+
+        String localTag = UUID.randomUUID().toString().substring(0, 8);
+        NotifyDialog dialog = new NotifyDialog(callId, localTag, from.getTag(), (URI) contact.getAddress().getURI().clone(),
+                (Address) to.getAddress().clone(), (Address) from.getAddress().clone());
+        Response ok = messageFactory.createResponse(Response.OK, request);
+        ((ToHeader) ok.getHeader(ToHeader.NAME)).setTag(localTag);
+        ok.addHeader(headerFactory.createContactHeader(addressFactory.createAddress(selfUri())));
+        ok.addHeader(headerFactory.createExpiresHeader(expires));
+        st.sendResponse(ok);
+        presence.subscribe(callId, watcher, resources, Duration.ofSeconds(expires), dialog);
+    }
+
+    private void sendNotify(PresenceStore.Subscription subscription, List<PresenceStatus> changes, boolean terminated) {
+        NotifyDialog dialog = (NotifyDialog) subscription.context();
+        try {
+            Request notify = messageFactory.createRequest((URI) dialog.remoteTarget.clone(), Request.NOTIFY,
+                    headerFactory.createCallIdHeader(dialog.callId),
+                    headerFactory.createCSeqHeader(dialog.cseq.incrementAndGet(), Request.NOTIFY),
+                    headerFactory.createFromHeader(dialog.localAddress, dialog.localTag),
+                    headerFactory.createToHeader(dialog.remoteAddress, dialog.remoteTag),
+                    Collections.singletonList(headerFactory.createViaHeader(host, port, transport, null)),
+                    headerFactory.createMaxForwardsHeader(70));
+            notify.addHeader(headerFactory.createEventHeader("presence"));
+            SubscriptionStateHeader state = headerFactory.createSubscriptionStateHeader(
+                    terminated ? SubscriptionStateHeader.TERMINATED : SubscriptionStateHeader.ACTIVE);
+            if (terminated) {
+                state.setReasonCode(SubscriptionStateHeader.TIMEOUT);
+            } else {
+                state.setExpires(subscription.remainingSeconds());
+            }
+            notify.addHeader(state);
+            notify.addHeader(headerFactory.createContactHeader(addressFactory.createAddress(selfUri())));
+            if (!changes.isEmpty()) {
+                notify.setContent(Pidf.encode(dialog.localAddress.getURI().toString(), changes),
+                        headerFactory.createContentTypeHeader(Pidf.CONTENT_TYPE, Pidf.CONTENT_SUBTYPE));
+            }
+            ClientTransaction ct = sipProvider.getNewClientTransaction(notify);
+            ct.setApplicationData(subscription);
+            ct.sendRequest();
+        } catch (Exception e) {
+            log.debug("向 {} 发送 NOTIFY 失败", subscription.watcher(), e);
+            presence.drop(subscription.id());
+        }
+    }
+
+    private static boolean isPresenceEvent(Request request) {
+        EventHeader event = (EventHeader) request.getHeader(EventHeader.NAME);
+        return event != null && "presence".equalsIgnoreCase(event.getEventType());
+    }
+
+    private SipURI selfUri() throws Exception {
+        SipURI self = addressFactory.createSipURI(null, host);
+        self.setPort(port);
+        self.setTransportParam(transport);
+        return self;
+    }
+
+    private static String userOf(URI uri) {
+        return uri instanceof SipURI sipUri ? sipUri.getUser() : null;
+    }
+
+    private record Publication(String etag, long expiresAtNanos) {
+    }
+
+    /**
+     * 订阅对话中 NOTIFY 需要的状态（registrar 不启用协议栈的自动对话）。
+     */
+    private record NotifyDialog(String callId, String localTag, String remoteTag, URI remoteTarget,
+                                Address localAddress, Address remoteAddress, AtomicLong cseq) {
+        private NotifyDialog(String callId, String localTag, String remoteTag, URI remoteTarget,
+                             Address localAddress, Address remoteAddress) {
+            this(callId, localTag, remoteTag, remoteTarget, localAddress, remoteAddress, new AtomicLong());
+        }
+    }
+
+    // --- 代理 ---
+
+    private void proxy(RequestEvent evt) throws Exception {
+        Request request = evt.getRequest();
+        ServerTransaction st = serverTransactionOf(evt);
+        if (st == null) {
+            return;
+        }
+        MaxForwardsHeader maxForwards = (MaxForwardsHeader) request.getHeader(MaxForwardsHeader.NAME);
+        if (maxForwards != null && maxForwards.getMaxForwards() <= 0) {
+            respond(st, request, Response.TOO_MANY_HOPS);
+            return;
+        }
+
+        URI requestUri = request.getRequestURI();
+        URI target = requestUri;
+        if (isLocal(requestUri)) {
+            String user = ((SipURI) requestUri).getUser();
+            if (user == null) {
+                // 发给代理本身的 OPTIONS 等
+                respond(st, request, Request.OPTIONS.equals(request.getMethod()) ? Response.OK : Response.NOT_IMPLEMENTED);
+                return;
+            }
+            LocationService.Binding binding = locationService.lookup(user);
+            if (binding == null) {
+                respond(st, request, Response.TEMPORARILY_UNAVAILABLE);
+                return;
+            }
+            target = binding.contact();
+        }
+
+        Request forwarded = prepareForward(request, target);
+        ClientTransaction ct = sipProvider.getNewClientTransaction(forwarded);
+        ct.setApplicationData(st);
+        if (Request.INVITE.equals(request.getMethod())) {
+            pendingInvites.put(branchOf(request), ct);
+            // 先回 100 Trying，抑制上游重传
+            st.sendResponse(messageFactory.createResponse(Response.TRYING, request));
+        }
+        ct.sendRequest();
+        requestsForwarded.increment();
+    }
+
+    private void forwardStateless(Request request) throws Exception {
+        URI target = request.getRequestURI();
+        if (isLocal(target)) {
+            LocationService.Binding binding = locationService.lookup(((SipURI) target).getUser());
+            if (binding == null) {
+                return;
+            }
+            target = binding.contact();
+        }
+        sipProvider.sendRequest(prepareForward(request, target));
+        requestsForwarded.increment();
+    }
+
+    private void handleCancel(RequestEvent evt) throws Exception {
+        Request cancel = evt.getRequest();
+        ServerTransaction st = serverTransactionOf(evt);
+        if (st != null) {
+            st.sendResponse(messageFactory.createResponse(Response.OK, cancel));
+        }
+        ClientTransaction ct = pendingInvites.remove(branchOf(cancel));
+        if (ct != null && ct.getState() == TransactionState.PROCEEDING) {
+            sipProvider.getNewClientTransaction(ct.createCancel()).sendRequest();
+        }
+    }
+
+    private Request prepareForward(Request request, URI target) throws Exception {
+        Request forwarded = (Request) request.clone();
+        forwarded.setRequestURI((URI) target.clone());
+        RouteHeader route = (RouteHeader) forwarded.getHeader(RouteHeader.NAME);
+        if (route != null && isLocal(route.getAddress().getURI())) {
+            forwarded.removeFirst(RouteHeader.NAME);
+        }
+        MaxForwardsHeader maxForwards = (MaxForwardsHeader) forwarded.getHeader(MaxForwardsHeader.NAME);
+        if (maxForwards != null) {
+            maxForwards.decrementMaxForwards();
+        }
+        // branch 为空时由协议栈生成
+        ViaHeader via = headerFactory.createViaHeader(host, port, transport, null);
+        forwarded.addFirst(via);
+        return forwarded;
+    }
+
+    private boolean isLocal(URI uri) {
+        if (!(uri instanceof SipURI sipUri)) {
+            return false;
+        }
+        int uriPort = sipUri.getPort() == -1 ? 5060 : sipUri.getPort();
+        return uriPort == port && (host.equalsIgnoreCase(sipUri.getHost()) || realm.equalsIgnoreCase(sipUri.getHost()));
+    }
+
+    private ServerTransaction serverTransactionOf(RequestEvent evt) {
+        if (evt.getServerTransaction() != null) {
+            return evt.getServerTransaction();
+        }
+        try {
+            return sipProvider.getNewServerTransaction(evt.getRequest());
+        } catch (Exception e) {
+            // 重传命中已有事务，由协议栈处理
+            return null;
+        }
+    }
+
+    private void respond(ServerTransaction st, Request request, int status) {
+        try {
+            st.sendResponse(messageFactory.createResponse(status, request));
+        } catch (Exception e) {
+            log.debug("发送 {} 失败", status, e);
+        }
+    }
+
+    private static String branchOf(Request request) {
+        return ((ViaHeader) request.getHeader(ViaHeader.NAME)).getBranch();
+    }
+
+    public static final class Builder {
+        private String host = "127.0.0.1";
+        private int port = 5060;
+        private String transport = ListeningPoint.UDP;
+        private String realm;
+        // 默认沿用 MSS 测试账号的约定：密码与用户名相同
+        private Function<String, String> passwords = Function.identity();
+        private Duration minExpires = Duration.ofSeconds(60);
+        private Duration maxExpires = Duration.ofSeconds(3600);
+        private Duration nonceTtl = Duration.ofMinutes(5);
+        private Duration presenceCoalesce = Duration.ofMillis(500);
+        private Duration presenceMinNotifyInterval = Duration.ofSeconds(2);
+        private int presenceMaxNotifiesPerFlush = 500;
+
+        private Builder() {
+        }
+
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder transport(String transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * 认证域，默认与 host 相同（客户端的 From/To 使用 registrar 主机名）。
+         */
+        public Builder realm(String realm) {
+            this.realm = realm;
+            return this;
+        }
+
+        /**
+         * 用户名 -> 密码；返回 null 表示用户不存在。
+         */
+        public Builder passwords(Function<String, String> passwords) {
+            this.passwords = Objects.requireNonNull(passwords, "passwords");
+            return this;
+        }
+
+        public Builder minExpires(Duration minExpires) {
+            this.minExpires = minExpires;
+            return this;
+        }
+
+        public Builder maxExpires(Duration maxExpires) {
+            this.maxExpires = maxExpires;
+            return this;
+        }
+
+        public Builder nonceTtl(Duration nonceTtl) {
+            this.nonceTtl = nonceTtl;
+            return this;
+        }
+
+        /**
+         * 状态变化的合并窗口，窗口内的反复翻转只产生一次 NOTIFY。
+         */
+        public Builder presenceCoalesce(Duration presenceCoalesce) {
+            this.presenceCoalesce = presenceCoalesce;
+            return this;
+        }
+
+        /**
+         * 同一订阅者两条 NOTIFY 之间的最小间隔。
+         */
+        public Builder presenceMinNotifyInterval(Duration presenceMinNotifyInterval) {
+            this.presenceMinNotifyInterval = presenceMinNotifyInterval;
+            return this;
+        }
+
+        /**
+         * 每个合并窗口最多发出的 NOTIFY 数，超出的顺延到下一个窗口。
+         */
+        public Builder presenceMaxNotifiesPerFlush(int presenceMaxNotifiesPerFlush) {
+            this.presenceMaxNotifiesPerFlush = presenceMaxNotifiesPerFlush;
+            return this;
+        }
+
+        public EmbeddedRegistrar build() {
+            return new EmbeddedRegistrar(this);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.sipclient.registrar;
+
+import javax.sip.address.SipURI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 注册位置表：AOR 的用户名 -> 当前联系地址。
+ * <p>
+ * 按用户名而不是完整 AOR 建索引，因为客户端的 From/To 使用 registrar 主机名而 Request-URI 常带端口，
+ * 两者在单域的内嵌 registrar 中指向同一用户。每个用户只保留最近一次注册的联系地址。
+ */
+public final class LocationService {
+
+    public record Binding(String user, SipURI contact, Instant expiresAt) {
+        public boolean isExpired(Instant now) {
+            return !expiresAt.isAfter(now);
+        }
+    }
+
+    private final Map<String, Binding> bindings = new ConcurrentHashMap<>();
+    private final Clock clock;
+    private volatile Consumer<Binding> expiryListener = binding -> { };
+
+    public LocationService() {
+        this(Clock.systemUTC());
+    }
+
+    public LocationService(Clock clock) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+    }
+
+    public Binding bind(String user, SipURI contact, Duration expires) {
+        Binding binding = new Binding(user, (SipURI) contact.clone(), clock.instant().plus(expires));
+        bindings.put(user, binding);
+        return binding;
+    }
+
+    /**
+     * 绑定因过期被删除时回调（无论是查找时顺手删除还是定期清理）。
+     */
+    public void setExpiryListener(Consumer<Binding> expiryListener) {
+        this.expiryListener = Objects.requireNonNull(expiryListener, "expiryListener");
+    }
+
+    public void unbind(String user) {
+        bindings.remove(user);
+    }
+
+    /**
+     * 查找未过期的绑定；过期项顺手删除，不存在时返回 null。
+     */
+    public Binding lookup(String user) {
+        Binding binding = user == null ? null : bindings.get(user);
+        if (binding == null) {
+            return null;
+        }
+        if (binding.isExpired(clock.instant())) {
+            if (bindings.remove(user, binding)) {
+                expiryListener.accept(binding);
+            }
+            return null;
+        }
+        return binding;
+    }
+
+    /**
+     * 清理所有已过期的绑定，返回清理数量。
+     */
+    public int purgeExpired() {
+        Instant now = clock.instant();
+        int purged = 0;
+        for (Binding binding : bindings.values()) {
+            if (binding.isExpired(now) && bindings.remove(binding.user(), binding)) {
+                expiryListener.accept(binding);
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    public int size() {
+        return bindings.size();
+    }
+
+    public Collection<Binding> listBindings() {
+        return List.copyOf(bindings.values());
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.sipclient.registrar;
+
+import com.example.sipclient.presence.PresenceStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端在线状态表与 NOTIFY 扇出。
+ * <p>
+ * 状态变化只标记为脏，由单个线程每个合并窗口处理一次：窗口内来回翻转、最终与上次扇出相同的变化直接丢弃；
+ * 其余变化按订阅者归并，一个订阅者一次只收一条 NOTIFY（列表订阅里包含本轮所有变化的联系人），
+ * 同一订阅者两条 NOTIFY 之间至少间隔 {@code minNotifyInterval}，期间的变化继续合并。
+ * 每轮最多发 {@code maxNotifiesPerFlush} 条，剩下的顺延到下一轮。
+ * 这样 n 个互为联系人的用户同时上线，每轮是 O(n) 条 NOTIFY 而不是 O(n²)。
+ * 订阅者的待发状态只由刷新线程读写。
+ */
+final class PresenceStore implements AutoCloseable {
+
+    /**
+     * 把一批状态变化发给订阅者；terminated 为 true 时是订阅结束的最后一条。
+     */
+    interface Notifier {
+        void notify(Subscription subscription, List<PresenceStatus> changes, boolean terminated);
+    }
+
+    static final class Subscription {
+        private final String id;
+        private final String watcher;
+        // 用户名 -> 订阅时使用的 URI，NOTIFY 中原样带回
+        private final Map<String, String> resources;
+        private final Object context;
+        private volatile long expiresAtNanos;
+        private final Map<String, PresenceStatus> pending = new LinkedHashMap<>();
+        private long nextAllowedNanos;
+        private volatile boolean terminated;
+
+        private Subscription(String id, String watcher, Map<String, String> resources, Object context, long expiresAtNanos) {
+            this.id = id;
+            this.watcher = watcher;
+            this.resources = resources;
+            this.context = context;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        String id() {
+            return id;
+        }
+
+        String watcher() {
+            return watcher;
+        }
+
+        Object context() {
+            return context;
+        }
+
+        Set<String> users() {
+            return resources.keySet();
+        }
+
+        /**
+         * 剩余有效期（秒），用于 Subscription-State 的 expires 参数。
+         */
+        int remainingSeconds() {
+            return (int) Math.max(0, TimeUnit.NANOSECONDS.toSeconds(expiresAtNanos - System.nanoTime()));
+        }
+    }
+
+    private record State(boolean online, String note) {
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceStore.class);
+
+    private static final State OFFLINE = new State(false, null);
+
+    private final Notifier notifier;
+    private final long minNotifyIntervalNanos;
+    private final int maxNotifiesPerFlush;
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    // 仅刷新线程访问：上次扇出的状态
+    private final Map<String, State> fannedOut = new HashMap<>();
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> watchersByUser = new ConcurrentHashMap<>();
+    private final Queue<Subscription> fresh = new ConcurrentLinkedQueue<>();
+    private final Queue<Subscription> ending = new ConcurrentLinkedQueue<>();
+    // 仅刷新线程访问：还有待发变化的订阅（被限速或超出本轮配额）
+    private final Set<Subscription> backlog = Collections.newSetFromMap(new LinkedHashMap<>());
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder notifies = new LongAdder();
+    private final LongAdder statusesNotified = new LongAdder();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    PresenceStore(Notifier notifier, Duration coalesceWindow, Duration minNotifyInterval, int maxNotifiesPerFlush) {
+        this.notifier = Objects.requireNonNull(notifier, "notifier");
+        this.minNotifyIntervalNanos = minNotifyInterval.toNanos();
+        this.maxNotifiesPerFlush = maxNotifiesPerFlush;
+        long window = Math.max(1, coalesceWindow.toMillis());
+        flusher.scheduleWithFixedDelay(this::flushSafely, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * PUBLISH、注册或注销时调用，不会立即触发 NOTIFY。
+     */
+    void update(String user, boolean online, String note) {
+        State next = online ? new State(true, note) : OFFLINE;
+        State previous = states.put(user, next);
+        updates.increment();
+        if (!next.equals(previous)) {
+            dirty.add(user);
+        }
+    }
+
+    PresenceStatus current(String user, String uri) {
+        State state = states.getOrDefault(user, OFFLINE);
+        return new PresenceStatus(uri, state.online(), state.note());
+    }
+
+    /**
+     * 新建订阅，首条 NOTIFY（全部联系人的当前状态）在下一轮刷新时发出。
+     *
+     * @param resources 用户名 -> 订阅使用的 URI
+     */
+    Subscription subscribe(String id, String watcher, Map<String, String> resources, Duration expires, Object context) {
+        Subscription subscription = new Subscription(id, watcher, new LinkedHashMap<>(resources), context,
+                System.nanoTime() + expires.toNanos());
+        Subscription previous = subscriptions.put(id, subscription);
+        if (previous != null) {
+            detach(previous);
+        }
+        for (String user : subscription.users()) {
+            watchersByUser.computeIfAbsent(user, u -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+        fresh.add(subscription);
+        return subscription;
+    }
+
+    Subscription find(String id) {
+        return subscriptions.get(id);
+    }
+
+    boolean refresh(String id, Duration expires) {
+        Subscription subscription = subscriptions.get(id);
+        if (subscription == null) {
+            return false;
+        }
+        subscription.expiresAtNanos = System.nanoTime() + expires.toNanos();
+        return true;
+    }
+
+    /**
+     * 结束订阅，最后一条 NOTIFY (Subscription-State: terminated) 在下一轮刷新时发出。
+     */
+    Subscription unsubscribe(String id) {
+        Subscription subscription = subscriptions.remove(id);
+        if (subscription != null) {
+            detach(subscription);
+            ending.add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * 订阅者不可达（NOTIFY 超时或 481）时静默移除。
+     */
+    void drop(String id) {
+        Subscription subscription = subscriptions.remove(id);
+        if (subscription != null) {
+            detach(subscription);
+        }
+    }
+
+    int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    long getUpdateCount() {
+        return updates.sum();
+    }
+
+    /**
+     * 因合并窗口内翻转回原状态而未扇出的变化数。
+     */
+    long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    long getNotifyCount() {
+        return notifies.sum();
+    }
+
+    long getNotifiedStatusCount() {
+        return statusesNotified.sum();
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+    }
+
+    private void detach(Subscription subscription) {
+        subscription.terminated = true;
+        for (String user : subscription.users()) {
+            Set<Subscription> watchers = watchersByUser.get(user);
+            if (watchers != null) {
+                watchers.remove(subscription);
+                if (watchers.isEmpty()) {
+                    watchersByUser.remove(user, watchers);
+                }
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("presence 扇出失败", e);
+        }
+    }
+
+    void flush() {
+        long now = System.nanoTime();
+
+        Subscription ended;
+        while ((ended = ending.poll()) != null) {
+            backlog.remove(ended);
+            send(ended, List.of(), true);
+        }
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.expiresAtNanos - now <= 0) {
+                unsubscribe(subscription.id);
+            }
+        }
+
+        Subscription created;
+        while ((created = fresh.poll()) != null) {
+            if (created.terminated) {
+                continue;
+            }
+            for (Map.Entry<String, String> resource : created.resources.entrySet()) {
+                created.pending.put(resource.getKey(), current(resource.getKey(), resource.getValue()));
+            }
+            // 首条 NOTIFY 不受限速约束
+            created.nextAllowedNanos = now;
+            backlog.add(created);
+        }
+
+        for (String user : List.copyOf(dirty)) {
+            dirty.remove(user);
+            State state = states.getOrDefault(user, OFFLINE);
+            State last = fannedOut.put(user, state);
+            if (state.equals(last) || (last == null && state.equals(OFFLINE))) {
+                suppressed.increment();
+                continue;
+            }
+            for (Subscription subscription : watchersByUser.getOrDefault(user, Set.of())) {
+                String uri = subscription.resources.get(user);
+                subscription.pending.put(user, new PresenceStatus(uri, state.online(), state.note()));
+                backlog.add(subscription);
+            }
+        }
+
+        int sent = 0;
+        var it = backlog.iterator();
+        while (it.hasNext() && sent < maxNotifiesPerFlush) {
+            Subscription subscription = it.next();
+            if (subscription.terminated || subscription.pending.isEmpty()) {
+                it.remove();
+                continue;
+            }
+            if (now - subscription.nextAllowedNanos < 0) {
+                continue;
+            }
+            List<PresenceStatus> changes = new ArrayList<>(subscription.pending.values());
+            subscription.pending.clear();
+            subscription.nextAllowedNanos = now + minNotifyIntervalNanos;
+            it.remove();
+            send(subscription, changes, false);
+            sent++;
+        }
+    }
+
+    private void send(Subscription subscription, List<PresenceStatus> changes, boolean terminated) {
+        notifies.increment();
+        statusesNotified.add(changes.size());
+        try {
+            notifier.notify(subscription, changes, terminated);
+        } catch (RuntimeException e) {
+            log.debug("NOTIFY {} 发送失败", subscription.watcher, e);
+        }
+    }
+}
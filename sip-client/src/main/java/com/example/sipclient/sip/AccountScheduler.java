@@ -0,0 +1,100 @@
+package com.example.sipclient.sip;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 账号在共享定时线程上的视图：任务交给 {@link SharedSipStack} 的定时线程池执行，
+ * 但账号自己记录未执行的任务，关闭时只取消本账号的任务、此后拒绝新任务，与独占一个定时线程时的行为一致。
+ * 任务应当很快结束，阻塞会拖慢同一协议栈上所有账号的定时器。
+ */
+final class AccountScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    // 已完成的任务超过这个数量时顺带清理
+    private static final int PURGE_THRESHOLD = 64;
+
+    private final ScheduledExecutorService shared;
+    private final Set<Future<?>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    AccountScheduler(ScheduledExecutorService shared) {
+        this.shared = shared;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return track(shared.schedule(command, delay, unit));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return track(shared.schedule(callable, delay, unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return track(shared.scheduleAtFixedRate(command, initialDelay, period, unit));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return track(shared.scheduleWithFixedDelay(command, initialDelay, delay, unit));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdownNow();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        pending.forEach(future -> future.cancel(false));
+        pending.clear();
+        return List.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return shutdown;
+    }
+
+    private <F extends ScheduledFuture<?>> F track(F future) {
+        if (shutdown) {
+            future.cancel(false);
+            throw new RejectedExecutionException("账号已关闭");
+        }
+        if (pending.size() >= PURGE_THRESHOLD) {
+            pending.removeIf(Future::isDone);
+        }
+        pending.add(future);
+        // 与 shutdownNow 并发时补一次取消
+        if (shutdown) {
+            future.cancel(false);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.sipclient.sip;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * “正在输入”状态，消息格式按 RFC 3994 (isComposing)。
+ * <p>
+ * 本端：每次按键只更新时间戳；空闲转为输入时发一条 active，之后每 {@code refresh} 最多再发一条，
+ * 停止输入 {@code idleAfter} 后发 idle。发出消息即隐含 idle，不再单独发送。
+ * 对端：收到 active 后在其 refresh 时间（加少量余量）内没有刷新、收到 idle 或收到正文消息时转为空闲。
+ */
+final class ComposingIndicator {
+
+    interface Signal {
+        void send(String target, String body);
+    }
+
+    interface Listener {
+        void onComposing(String peer, boolean active);
+    }
+
+    static final String CONTENT_TYPE = "application";
+    static final String CONTENT_SUBTYPE = "im-iscomposing+xml";
+
+    private static final Pattern STATE = Pattern.compile("<state>\\s*(\\w+)\\s*</state>");
+    private static final Pattern REFRESH = Pattern.compile("<refresh>\\s*(\\d+)\\s*</refresh>");
+    // 对端刷新晚到的容忍时间
+    private static final long REMOTE_GRACE_MILLIS = 2000;
+
+    private static final class Local {
+        private String target;
+        private long lastKeyMillis;
+        private long lastActiveSentMillis;
+        private boolean active;
+        private boolean idleScheduled;
+    }
+
+    private static final class Remote {
+        private long generation;
+        private boolean active;
+    }
+
+    private final Signal signal;
+    private final Listener listener;
+    private final long refreshMillis;
+    private final long idleAfterMillis;
+    private final ScheduledExecutorService scheduler;
+    private final int maxPeers;
+
+    // 以下字段由 this 保护
+    private final Map<String, Local> local = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Remote> remote = new LinkedHashMap<>(16, 0.75f, true);
+    private long keystrokes;
+    private long signalsSent;
+
+    ComposingIndicator(Signal signal, Listener listener, Duration refresh, Duration idleAfter,
+                       ScheduledExecutorService scheduler, int maxPeers) {
+        this.signal = signal;
+        this.listener = listener;
+        this.refreshMillis = refresh.toMillis();
+        this.idleAfterMillis = idleAfter.toMillis();
+        this.scheduler = scheduler;
+        this.maxPeers = maxPeers;
+    }
+
+    /**
+     * 用户在与 peer 的会话里输入，状态发往 target。
+     */
+    void typing(String peer, String target) {
+        long now = System.currentTimeMillis();
+        boolean sendActive;
+        synchronized (this) {
+            keystrokes++;
+            Local state = bounded(local, peer, Local::new);
+            state.target = target;
+            state.lastKeyMillis = now;
+            sendActive = !state.active || now - state.lastActiveSentMillis >= refreshMillis;
+            if (sendActive) {
+                state.active = true;
+                state.lastActiveSentMillis = now;
+                signalsSent++;
+            }
+            if (!state.idleScheduled) {
+                state.idleScheduled = schedule(() -> checkIdle(peer), idleAfterMillis);
+            }
+        }
+        if (sendActive) {
+            signal.send(target, encode(true, refreshMillis));
+        }
+    }
+
+    /**
+     * 已向 peer 发出正文消息，对端会自行视为 idle。
+     */
+    synchronized void messageSent(String peer) {
+        Local state = local.get(peer);
+        if (state != null) {
+            state.active = false;
+        }
+    }
+
+    /**
+     * 收到 peer 的 isComposing 消息。
+     */
+    void remoteIndication(String peer, String body) {
+        Matcher state = STATE.matcher(body);
+        if (!state.find()) {
+            return;
+        }
+        boolean active = "active".equalsIgnoreCase(state.group(1));
+        Matcher refresh = REFRESH.matcher(body);
+        // RFC 3994 未给 refresh 时接收方按 120 秒超时
+        long timeout = (refresh.find() ? Long.parseLong(refresh.group(1)) * 1000 : 120_000) + REMOTE_GRACE_MILLIS;
+        updateRemote(peer, active, timeout);
+    }
+
+    /**
+     * 收到 peer 的正文消息，对方的输入状态随之结束。
+     */
+    void remoteMessage(String peer) {
+        updateRemote(peer, false, 0);
+    }
+
+    synchronized long getKeystrokeCount() {
+        return keystrokes;
+    }
+
+    synchronized long getSignalsSent() {
+        return signalsSent;
+    }
+
+    private void updateRemote(String peer, boolean active, long timeoutMillis) {
+        boolean changed;
+        long generation;
+        synchronized (this) {
+            Remote state = active ? bounded(remote, peer, Remote::new) : remote.get(peer);
+            if (state == null) {
+                return;
+            }
+            changed = state.active != active;
+            state.active = active;
+            generation = ++state.generation;
+        }
+        if (active) {
+            schedule(() -> expireRemote(peer, generation), timeoutMillis);
+        }
+        if (changed) {
+            listener.onComposing(peer, active);
+        }
+    }
+
+    private void expireRemote(String peer, long generation) {
+        synchronized (this) {
+            Remote state = remote.get(peer);
+            if (state == null || state.generation != generation || !state.active) {
+                return;
+            }
+            state.active = false;
+        }
+        listener.onComposing(peer, false);
+    }
+
+    private void checkIdle(String peer) {
+        long now = System.currentTimeMillis();
+        String target = null;
+        synchronized (this) {
+            Local state = local.get(peer);
+            if (state == null) {
+                return;
+            }
+            state.idleScheduled = false;
+            long quiet = now - state.lastKeyMillis;
+            if (quiet < idleAfterMillis) {
+                state.idleScheduled = schedule(() -> checkIdle(peer), idleAfterMillis - quiet);
+            } else if (state.active) {
+                state.active = false;
+                target = state.target;
+                signalsSent++;
+            }
+        }
+        if (target != null) {
+            signal.send(target, encode(false, refreshMillis));
+        }
+    }
+
+    private <T> T bounded(Map<String, T> map, String peer, Supplier<T> factory) {
+        T state = map.get(peer);
+        if (state == null) {
+            state = factory.get();
+            map.put(peer, state);
+            if (map.size() > maxPeers) {
+                var eldest = map.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return state;
+    }
+
+    private boolean schedule(Runnable task, long delayMillis) {
+        try {
+            scheduler.schedule(task, Math.max(1, delayMillis), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    static String encode(boolean active, long refreshMillis) {
+        StringBuilder body = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<isComposing xmlns=\"urn:ietf:params:xml:ns:im-iscomposing\">")
+                .append("<state>").append(active ? "active" : "idle").append("</state>")
+                .append("<contenttype>text/plain</contenttype>");
+        if (active) {
+            body.append("<refresh>").append(Math.max(1, refreshMillis / 1000)).append("</refresh>");
+        }
+        return body.append("</isComposing>").toString();
+    }
+}
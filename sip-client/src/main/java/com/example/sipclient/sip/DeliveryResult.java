@@ -0,0 +1,72 @@
+package com.example.sipclient.sip;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * 一条 MESSAGE 的投递结果：最终应答码或超时/本地失败。
+ *
+ * @param messageId 消息 id（X-Message-Seq 的值 {@code <序号>;epoch=<epoch>}），经服务器转交的副本凭它去重；没有时为 null
+ */
+public record DeliveryResult(String target, Outcome outcome, int statusCode, String reason, Duration latency,
+                             String messageId) {
+
+    public DeliveryResult(String target, Outcome outcome, int statusCode, String reason, Duration latency) {
+        this(target, outcome, statusCode, reason, latency, null);
+    }
+
+    public enum Outcome {
+        /** 2xx */
+        DELIVERED,
+        /** 3xx~6xx 最终应答 */
+        REJECTED,
+        /** 事务超时，未收到最终应答 */
+        TIMED_OUT,
+        /** 未能发出（本地异常或背压超时）；消息过大时状态码为 513，其余为 0 */
+        FAILED
+    }
+
+    public boolean isDelivered() {
+        return outcome == Outcome.DELIVERED;
+    }
+
+    DeliveryResult withMessageId(String messageId) {
+        return new DeliveryResult(target, outcome, statusCode, reason, latency, messageId);
+    }
+
+    static DeliveryResult ofResponse(String target, int statusCode, String reason, Duration latency) {
+        Outcome outcome = statusCode >= 200 && statusCode < 300 ? Outcome.DELIVERED : Outcome.REJECTED;
+        return new DeliveryResult(target, outcome, statusCode, reason, latency);
+    }
+
+    static DeliveryResult timedOut(String target, Duration latency) {
+        return new DeliveryResult(target, Outcome.TIMED_OUT, 408, "Request Timeout", latency);
+    }
+
+    static DeliveryResult failed(String target, String reason) {
+        return new DeliveryResult(target, Outcome.FAILED, 0, reason, Duration.ZERO);
+    }
+
+    /**
+     * 本地就判定发不出去（超过分片上限），借用 513 Message Too Large，重试没有意义。
+     */
+    static DeliveryResult tooLarge(String target, String reason) {
+        return new DeliveryResult(target, Outcome.FAILED, 513, reason, Duration.ZERO);
+    }
+
+    /**
+     * 分片消息的整体结果：全部分片送达才算送达，时延取最慢的一片；否则取第一片失败的结果。
+     */
+    static DeliveryResult combine(List<DeliveryResult> parts) {
+        DeliveryResult slowest = parts.get(0);
+        for (DeliveryResult part : parts) {
+            if (!part.isDelivered()) {
+                return part;
+            }
+            if (part.latency().compareTo(slowest.latency()) > 0) {
+                slowest = part;
+            }
+        }
+        return slowest;
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.sipclient.sip;
+
+import gov.nist.javax.sip.ListeningPointExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sip.ListeningPoint;
+import javax.sip.address.Address;
+import javax.sip.address.SipURI;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.ViaHeader;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享协议栈到 outbound proxy 这条流的保活与故障检测。
+ * <p>
+ * UDP 用无状态 OPTIONS 探测，既刷新 NAT 映射，又能从应答 Via 的 received/rport 看到公网映射地址；
+ * TCP/TLS 平时发 RFC 5626 的 CRLF 心跳（4 字节），每隔几次或心跳写失败时改发 OPTIONS 做端到端确认，
+ * 连接由协议栈按目标缓存复用。
+ * <p>
+ * 间隔自适应：连续成功后逐步拉长，一旦发现映射地址变化（说明间隔超过了 NAT 绑定寿命）就回退并以此为上限。
+ * 探测无应答时立即快速重探，连续 {@code maxMisses} 次失败判定流中断；恢复或映射变化时通知各账号立即重注册，
+ * 不必等到下一次定时刷新。
+ */
+public final class FlowKeepAlive implements AutoCloseable {
+
+    /**
+     * 流状态变化回调，在保活线程上执行，不要阻塞。
+     */
+    public interface Listener {
+        void onFlowFailed();
+
+        /**
+         * 中断后恢复，或 NAT 映射地址发生变化；原有注册绑定可能已经失效。
+         */
+        void onFlowRestored();
+    }
+
+    /**
+     * @param initialInterval 初始保活间隔
+     * @param minInterval     自适应下限，也是流中断后的重探间隔
+     * @param maxInterval     自适应上限
+     * @param probeTimeout    单次 OPTIONS 等待应答的时间
+     * @param maxMisses       连续多少次无应答判定流中断
+     */
+    public record Settings(Duration initialInterval, Duration minInterval, Duration maxInterval,
+                           Duration probeTimeout, int maxMisses) {
+
+        /**
+         * UDP 按常见 NAT 的 30 秒左右映射寿命取值；面向连接的传输参考 RFC 5626 的 95~120 秒。
+         */
+        public static Settings forTransport(String transport) {
+            if (ListeningPoint.UDP.equalsIgnoreCase(transport)) {
+                return new Settings(Duration.ofSeconds(25), Duration.ofSeconds(10), Duration.ofSeconds(120),
+                        Duration.ofSeconds(4), 3);
+            }
+            return new Settings(Duration.ofSeconds(90), Duration.ofSeconds(30), Duration.ofSeconds(300),
+                    Duration.ofSeconds(8), 2);
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FlowKeepAlive.class);
+
+    private static final String CALL_ID_PREFIX = "keepalive-";
+    // 连续成功多少次后拉长间隔
+    private static final int GROW_AFTER = 3;
+    // 面向连接时每几次心跳插入一次 OPTIONS
+    private static final int PROBE_EVERY = 4;
+    private static final int CRLF_PING_BYTES = 4;
+
+    private final SharedSipStack stack;
+    private final Settings settings;
+    private final boolean connectionOriented;
+    private final String proxyHost;
+    private final int proxyPort;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong probesSent = new AtomicLong();
+    private final AtomicLong heartbeatsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong flowFailures = new AtomicLong();
+    private final AtomicLong recoveries = new AtomicLong();
+    private final AtomicLong rebinds = new AtomicLong();
+    private final AtomicLong rttNanosTotal = new AtomicLong();
+    private final AtomicLong rttSamples = new AtomicLong();
+
+    // 以下状态都在 this 上同步
+    private boolean started;
+    private boolean closed;
+    private boolean flowUp = true;
+    private long intervalMillis;
+    private long ceilingMillis;
+    private int successes;
+    private int misses;
+    private int heartbeatsSinceProbe;
+    private long lastAliveNanos;
+    private volatile long lastDetectionMillis = -1;
+    private volatile String observedAddress;
+    private Probe outstanding;
+    private ScheduledFuture<?> next;
+
+    FlowKeepAlive(SharedSipStack stack, Settings settings) {
+        this.stack = stack;
+        this.settings = settings;
+        this.connectionOriented = !ListeningPoint.UDP.equalsIgnoreCase(stack.getTransport());
+        String proxy = stack.getOutboundProxy();
+        int colon = proxy.lastIndexOf(':');
+        this.proxyHost = colon < 0 ? proxy : proxy.substring(0, colon);
+        this.proxyPort = colon < 0 ? 5060 : Integer.parseInt(proxy.substring(colon + 1));
+        this.intervalMillis = settings.initialInterval().toMillis();
+        this.ceilingMillis = settings.maxInterval().toMillis();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sip-keepalive-" + stack.getListeningPoint().getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始保活，重复调用无副作用。通常在第一个账号注册成功后由协议栈启动。
+     */
+    public synchronized void start() {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        lastAliveNanos = System.nanoTime();
+        reschedule(0);
+        log.debug("开始保活 {}:{}/{}", proxyHost, proxyPort, stack.getTransport());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    public synchronized boolean isFlowUp() {
+        return flowUp;
+    }
+
+    public synchronized long getCurrentIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * 最近一次 OPTIONS 应答中 Via received/rport 给出的公网映射地址 (ip:port)。
+     */
+    public String getObservedAddress() {
+        return observedAddress;
+    }
+
+    public long getProbesSent() {
+        return probesSent.get();
+    }
+
+    public long getHeartbeatsSent() {
+        return heartbeatsSent.get();
+    }
+
+    /**
+     * 保活流量（OPTIONS 按请求长度、心跳按 4 字节计）。
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getFlowFailures() {
+        return flowFailures.get();
+    }
+
+    public long getRecoveries() {
+        return recoveries.get();
+    }
+
+    /**
+     * 检测到 NAT 映射地址变化的次数。
+     */
+    public long getRebinds() {
+        return rebinds.get();
+    }
+
+    /**
+     * 最近一次流中断的检测延迟：最后一次确认存活到判定中断的时间，未发生过为 -1。
+     */
+    public long getLastDetectionMillis() {
+        return lastDetectionMillis;
+    }
+
+    public double getAverageRttMillis() {
+        long samples = rttSamples.get();
+        return samples == 0 ? 0 : rttNanosTotal.get() / 1e6 / samples;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (next != null) {
+            next.cancel(false);
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * 协议栈收到应答时调用；保活探测（包括超时后迟到的）的应答返回 true，不再分发给账号。
+     */
+    boolean onResponse(Response response) {
+        CallIdHeader callId = (CallIdHeader) response.getHeader(CallIdHeader.NAME);
+        if (callId == null || !callId.getCallId().startsWith(CALL_ID_PREFIX)) {
+            return false;
+        }
+        synchronized (this) {
+            Probe probe = outstanding;
+            if (probe != null && probe.callId.equals(callId.getCallId()) && !closed) {
+                outstanding = null;
+                probe.timeout.cancel(false);
+                rttNanosTotal.addAndGet(System.nanoTime() - probe.sentAt);
+                rttSamples.incrementAndGet();
+                alive(observedAddressOf(response));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 传输层报告 IO 错误时提前探测，不等下一个周期。
+     */
+    synchronized void onTransportError() {
+        if (started && !closed && outstanding == null) {
+            reschedule(0);
+        }
+    }
+
+    private synchronized void tick() {
+        if (closed) {
+            return;
+        }
+        boolean probe = !connectionOriented || !flowUp || misses > 0 || heartbeatsSinceProbe >= PROBE_EVERY;
+        if (probe) {
+            sendProbe();
+            return;
+        }
+        try {
+            ((ListeningPointExt) stack.getListeningPoint()).sendHeartbeat(proxyHost, proxyPort);
+            heartbeatsSent.incrementAndGet();
+            bytesSent.addAndGet(CRLF_PING_BYTES);
+            heartbeatsSinceProbe++;
+            reschedule(intervalMillis);
+        } catch (IOException e) {
+            log.debug("心跳发送失败 {}:{}", proxyHost, proxyPort, e);
+            miss();
+        }
+    }
+
+    private void sendProbe() {
+        heartbeatsSinceProbe = 0;
+        String callId = CALL_ID_PREFIX + UUID.randomUUID();
+        try {
+            Request options = createOptions(callId);
+            long sentAt = System.nanoTime();
+            // 无状态发送：不走事务重传，超时与重试由这里控制
+            stack.getSipProvider().sendRequest(options);
+            probesSent.incrementAndGet();
+            bytesSent.addAndGet(options.toString().length());
+            ScheduledFuture<?> timeout = timer.schedule(() -> probeTimedOut(callId),
+                    settings.probeTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            outstanding = new Probe(callId, sentAt, timeout);
+        } catch (Exception e) {
+            log.debug("OPTIONS 探测发送失败 {}:{}", proxyHost, proxyPort, e);
+            miss();
+        }
+    }
+
+    private synchronized void probeTimedOut(String callId) {
+        if (closed || outstanding == null || !outstanding.callId.equals(callId)) {
+            return;
+        }
+        outstanding = null;
+        miss();
+    }
+
+    private void miss() {
+        missCount.incrementAndGet();
+        misses++;
+        successes = 0;
+        if (flowUp && misses >= settings.maxMisses()) {
+            flowUp = false;
+            flowFailures.incrementAndGet();
+            lastDetectionMillis = (System.nanoTime() - lastAliveNanos) / 1_000_000;
+            log.warn("到 {}:{} 的流中断，检测用时 {}ms", proxyHost, proxyPort, lastDetectionMillis);
+            notifyListeners(false);
+        }
+        // 未判定中断前立即重探；中断后按下限间隔重探
+        reschedule(flowUp ? 0 : settings.minInterval().toMillis());
+    }
+
+    private void alive(String observed) {
+        lastAliveNanos = System.nanoTime();
+        misses = 0;
+        boolean restored = !flowUp;
+        flowUp = true;
+        boolean rebound = observed != null && observedAddress != null && !observed.equals(observedAddress);
+        if (observed != null) {
+            observedAddress = observed;
+        }
+        long min = settings.minInterval().toMillis();
+        if (rebound) {
+            // 映射已经换过：当前间隔超出了绑定寿命，回退并把它作为以后的上限
+            rebinds.incrementAndGet();
+            ceilingMillis = Math.max(min, intervalMillis * 4 / 5);
+            intervalMillis = ceilingMillis;
+            successes = 0;
+            log.info("NAT 映射变化为 {}，保活间隔调整为 {}ms", observed, intervalMillis);
+        } else if (++successes >= GROW_AFTER) {
+            intervalMillis = Math.min(ceilingMillis, intervalMillis * 5 / 4);
+            successes = 0;
+        }
+        if (restored) {
+            recoveries.incrementAndGet();
+            log.info("到 {}:{} 的流已恢复", proxyHost, proxyPort);
+        }
+        if (restored || rebound) {
+            notifyListeners(true);
+        }
+        reschedule(intervalMillis);
+    }
+
+    private void reschedule(long delayMillis) {
+        if (closed) {
+            return;
+        }
+        if (next != null) {
+            next.cancel(false);
+        }
+        next = timer.schedule(this::tick, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void notifyListeners(boolean restored) {
+        timer.execute(() -> {
+            for (Listener listener : listeners) {
+                try {
+                    if (restored) {
+                        listener.onFlowRestored();
+                    } else {
+                        listener.onFlowFailed();
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("保活回调异常", e);
+                }
+            }
+        });
+    }
+
+    private Request createOptions(String callId) throws Exception {
+        ListeningPoint lp = stack.getListeningPoint();
+        SipURI target = stack.getAddressFactory().createSipURI(null, proxyHost);
+        target.setPort(proxyPort);
+        target.setTransportParam(stack.getTransport());
+        Address self = stack.getAddressFactory().createAddress(
+                stack.getAddressFactory().createSipURI("keepalive", lp.getIPAddress()));
+        ViaHeader via = stack.getHeaderFactory().createViaHeader(lp.getIPAddress(), lp.getPort(), stack.getTransport(),
+                "z9hG4bK" + UUID.randomUUID().toString().replace("-", ""));
+        via.setRPort();
+        Request request = stack.getMessageFactory().createRequest(target, Request.OPTIONS,
+                stack.getHeaderFactory().createCallIdHeader(callId),
+                stack.getHeaderFactory().createCSeqHeader(1L, Request.OPTIONS),
+                stack.getHeaderFactory().createFromHeader(self, Long.toHexString(System.nanoTime())),
+                stack.getHeaderFactory().createToHeader(self, null),
+                Collections.singletonList(via),
+                stack.getHeaderFactory().createMaxForwardsHeader(70));
+        return request;
+    }
+
+    private static String observedAddressOf(Response response) {
+        ViaHeader via = (ViaHeader) response.getHeader(ViaHeader.NAME);
+        if (via == null) {
+            return null;
+        }
+        String host = via.getReceived() != null ? via.getReceived() : via.getHost();
+        int port = via.getRPort() > 0 ? via.getRPort() : via.getPort();
+        return host + ":" + port;
+    }
+
+    private record Probe(String callId, long sentAt, ScheduledFuture<?> timeout) {
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.sipclient.sip;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 哈希时间轮：大量长延迟、低精度定时任务（如注册刷新）的 O(1) 调度。
+ * <p>
+ * 单个 tick 线程推进轮子，新任务先进入无锁队列，由 tick 线程放入对应槽位；到期任务交给 executor 执行，
+ * tick 线程本身不运行业务代码。取消只打标记，在槽位被扫描时移除。
+ */
+public final class HashedTimingWheel implements AutoCloseable {
+
+    public interface Timeout {
+        boolean cancel();
+
+        boolean isCancelled();
+    }
+
+    private final long tickNanos;
+    private final List<Task>[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Queue<Task> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param tick      槽位精度
+     * @param wheelSize 槽位数，会向上取整为 2 的幂
+     * @param executor  执行到期任务
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(Duration tick, int wheelSize, Executor executor) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = tick.toNanos();
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, "timing-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timing wheel stopped");
+        }
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        Task timeout = new Task(task, deadline);
+        pending.incrementAndGet();
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 尚未到期且未取消的任务数。
+     */
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            transferIncoming();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Task task;
+        while ((task = incoming.poll()) != null) {
+            if (task.isCancelled()) {
+                continue;
+            }
+            long calculated = task.deadline / tickNanos;
+            task.remainingRounds = (calculated - tick) / wheel.length;
+            // 已过期的任务放到当前槽，本轮即执行
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(task);
+        }
+    }
+
+    private void expire(List<Task> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Task task = bucket.get(i);
+            if (task.isCancelled()) {
+                continue;
+            }
+            if (task.remainingRounds <= 0) {
+                if (task.state.compareAndSet(Task.PENDING, Task.FIRED)) {
+                    pending.decrementAndGet();
+                    executor.execute(task.runnable);
+                }
+            } else {
+                task.remainingRounds--;
+                bucket.set(kept++, task);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    private final class Task implements Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int FIRED = 2;
+
+        private final Runnable runnable;
+        private final long deadline;
+        // 取消与到期竞争同一个状态位，保证任务要么执行要么被取消
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long remainingRounds;
+
+        private Task(Runnable runnable, long deadline) {
+            this.runnable = runnable;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+}
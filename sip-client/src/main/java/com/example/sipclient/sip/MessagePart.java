@@ -0,0 +1,74 @@
+package com.example.sipclient.sip;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 一条 MESSAGE 的请求体。超过阈值的文本按 UTF-8 字节切成若干片，
+ * 以 {@code Content-Type: message/partial; id=..; number=..; total=..}（RFC 2046 的分片约定）逐片发送，
+ * 切分点总在字符边界上，每一片本身都是合法的 UTF-8 文本。
+ *
+ * @param id     分片组标识，未分片时为 null
+ * @param number 从 1 开始
+ * @param seq    发送方在该会话上的序号，同一条消息的各分片相同；0 表示不带序号
+ */
+record MessagePart(String body, String id, int number, int total, long seq) {
+
+    /**
+     * 单条消息最多的分片数，接收端同样按此拒绝异常的分片头。
+     */
+    static final int MAX_PARTS = 4096;
+
+    static MessagePart whole(String text) {
+        return new MessagePart(text, null, 1, 1, 0);
+    }
+
+    boolean isPartial() {
+        return id != null;
+    }
+
+    /**
+     * @param maxBytes 每片最大字节数，不大于 0 表示不分片
+     */
+    static List<MessagePart> split(String text, int maxBytes) {
+        return split(text, maxBytes, 0);
+    }
+
+    static List<MessagePart> split(String text, int maxBytes, long seq) {
+        return split(text, maxBytes, seq, null);
+    }
+
+    /**
+     * @param id 分片组标识，重发同一条消息时沿用，接收端可把两次发送的分片拼在一起；为 null 时随机生成
+     */
+    static List<MessagePart> split(String text, int maxBytes, long seq, String id) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (maxBytes <= 0 || utf8.length <= maxBytes) {
+            return List.of(new MessagePart(text, null, 1, 1, seq));
+        }
+        List<String> bodies = new ArrayList<>(utf8.length / maxBytes + 1);
+        int start = 0;
+        while (start < utf8.length) {
+            int end = Math.min(start + maxBytes, utf8.length);
+            // 回退到字符起始字节（非 10xxxxxx 的续字节）
+            while (end < utf8.length && end > start && (utf8[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            bodies.add(new String(utf8, start, end - start, StandardCharsets.UTF_8));
+            start = end;
+        }
+        if (bodies.size() > MAX_PARTS) {
+            throw new IllegalArgumentException("Message too large: " + utf8.length + " bytes");
+        }
+        if (id == null) {
+            id = UUID.randomUUID().toString().replace("-", "");
+        }
+        List<MessagePart> parts = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            parts.add(new MessagePart(bodies.get(i), id, i + 1, bodies.size(), seq));
+        }
+        return parts;
+    }
+}
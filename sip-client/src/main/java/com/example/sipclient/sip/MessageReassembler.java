@@ -0,0 +1,131 @@
+package com.example.sipclient.sip;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分片 MESSAGE 的接收端重组缓冲。
+ * <p>
+ * 分片可以乱序、重复到达；按 (发送方, 分片组 id) 归组，收齐后按序拼接返回。
+ * 缓冲有上限：未完成的组超过 {@code ttl} 或总数/总字节数超限时，从最早的组开始丢弃，
+ * 发送方丢了一片也不会让内存无限增长。
+ */
+final class MessageReassembler {
+
+    private static final class Pending {
+        private final String[] parts;
+        private final long createdAt;
+        private int received;
+        private long bytes;
+
+        private Pending(int total, long createdAt) {
+            this.parts = new String[total];
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final int maxPending;
+    private final long maxBytes;
+    private final long ttlNanos;
+    // 插入顺序即创建顺序，迭代时最早的在前
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private long bufferedBytes;
+    private long completed;
+    private long evicted;
+    private long rejected;
+
+    MessageReassembler(int maxPending, long maxBytes, Duration ttl) {
+        this.maxPending = maxPending;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * 收下一片，组内全部收齐时返回完整文本，否则返回 null。
+     */
+    synchronized String accept(String from, String id, int number, int total, String body) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        if (id == null || total < 1 || total > MessagePart.MAX_PARTS || number < 1 || number > total) {
+            rejected++;
+            return null;
+        }
+        if (total == 1) {
+            completed++;
+            return body;
+        }
+        String key = from + '\n' + id;
+        Pending group = pending.get(key);
+        if (group == null) {
+            group = new Pending(total, now);
+            pending.put(key, group);
+        } else if (group.parts.length != total) {
+            rejected++;
+            return null;
+        }
+        if (group.parts[number - 1] != null) {
+            // 重传
+            return null;
+        }
+        group.parts[number - 1] = body;
+        group.received++;
+        group.bytes += body.length();
+        bufferedBytes += body.length();
+
+        if (group.received == total) {
+            pending.remove(key);
+            bufferedBytes -= group.bytes;
+            completed++;
+            return String.join("", group.parts);
+        }
+        evictOverflow(key);
+        return null;
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized long getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * 因超时或缓冲超限而丢弃的未完成分片组数。
+     */
+    synchronized long getEvictedCount() {
+        return evicted;
+    }
+
+    synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Pending group = it.next();
+            if (now - group.createdAt < ttlNanos) {
+                break;
+            }
+            it.remove();
+            bufferedBytes -= group.bytes;
+            evicted++;
+        }
+    }
+
+    private void evictOverflow(String current) {
+        Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator();
+        while ((pending.size() > maxPending || bufferedBytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Pending> eldest = it.next();
+            if (eldest.getKey().equals(current) && pending.size() == 1) {
+                break;
+            }
+            it.remove();
+            bufferedBytes -= eldest.getValue().bytes;
+            evicted++;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.sipclient.sip;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 接收端按发送方序号去重、排序。
+ * <p>
+ * 发送方每个会话（对端）一个递增序号，另带一个每次启动随机生成的 epoch，epoch 变化说明对方重启过，状态从头开始。
+ * 每个对端只保存：下一个应交付的序号 {@code next}、{@code next} 之前 {@code window} 个序号的交付位图，
+ * 以及至多 {@code reorderLimit} 条提前到达、等待补齐的消息。
+ * 早于位图窗口或位图中已置位的序号视为重复丢弃；缺口在 {@code reorderTimeout} 内未补齐（或等待的消息太多）就跳过，
+ * 之后迟到的那条仍在位图窗口内时照常交付，只是不再保证顺序。
+ * 超出 {@code next} {@value #MAX_AHEAD} 以上（或为负）的序号不可能是正常发送方产生的，直接丢弃，不移动状态。
+ */
+final class MessageSequencer {
+
+    /** 相对 {@code next} 允许的最大跳跃；跳跃本身只清至多 {@code window} 个位，与跨度无关。 */
+    static final long MAX_AHEAD = 1L << 16;
+
+    interface Sink {
+        void deliver(String peer, String text);
+    }
+
+    private static final class Peer {
+        private final String epoch;
+        private long next;
+        // 环形位图：seq % window 对应的位表示 [next - window, next) 内该序号是否已交付
+        private final long[] delivered;
+        private final TreeMap<Long, String> held = new TreeMap<>();
+        private long heldSince;
+        private boolean flushScheduled;
+
+        private Peer(String epoch, long first, int window) {
+            this.epoch = epoch;
+            this.next = first;
+            this.delivered = new long[(window + 63) / 64];
+        }
+    }
+
+    private final Sink sink;
+    private final int window;
+    private final int reorderLimit;
+    private final long reorderTimeoutNanos;
+    private final ScheduledExecutorService scheduler;
+    private final int maxPeers;
+    private final Map<String, Peer> peers;
+
+    private long deliveredCount;
+    private long duplicates;
+    private long reordered;
+    private long gapsSkipped;
+    private long rejected;
+
+    MessageSequencer(Sink sink, int window, int reorderLimit, Duration reorderTimeout,
+                     ScheduledExecutorService scheduler, int maxPeers) {
+        this.sink = sink;
+        this.window = ((window + 63) / 64) * 64;
+        this.reorderLimit = reorderLimit;
+        this.reorderTimeoutNanos = reorderTimeout.toNanos();
+        this.scheduler = scheduler;
+        this.maxPeers = maxPeers;
+        this.peers = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 收到一条带序号的消息；按序交付给 {@link Sink}（可能连带交付之前暂存的消息），重复的直接丢弃。
+     */
+    void accept(String peerUri, String epoch, long seq, String text) {
+        accept(peerUri, peerUri, epoch, seq, text);
+    }
+
+    /**
+     * @param key     对端标识，同一对端的不同 URI 写法共用一套序号状态
+     * @param peerUri 交付时给出的发送方 URI
+     */
+    void accept(String key, String peerUri, String epoch, long seq, String text) {
+        if (seq < 0) {
+            reject();
+            return;
+        }
+        Peer peer = peerFor(key, epoch, seq);
+        synchronized (peer) {
+            if (seq - peer.next > MAX_AHEAD) {
+                reject();
+                return;
+            }
+            if (seq < peer.next) {
+                if (seq < peer.next - window || isDelivered(peer, seq)) {
+                    duplicate();
+                    return;
+                }
+                // 已被跳过的缺口迟到了，仍在窗口内就交付
+                mark(peer, seq);
+                count(true);
+                sink.deliver(peerUri, text);
+                return;
+            }
+            if (seq == peer.next) {
+                deliverNext(peerUri, peer, text);
+                drainHeld(peerUri, peer);
+                return;
+            }
+            if (peer.held.putIfAbsent(seq, text) != null) {
+                duplicate();
+                return;
+            }
+            if (peer.held.size() == 1) {
+                peer.heldSince = System.nanoTime();
+            }
+            if (peer.held.size() > reorderLimit) {
+                skipGap(peerUri, peer);
+            } else {
+                scheduleFlush(peerUri, peer);
+            }
+        }
+    }
+
+    /**
+     * 经其他途径（服务器暂存的离线消息）收到一条带序号的消息：没交付过就记为已交付并返回 true，由调用方自行交付；
+     * 交付过或 SIP 上已收到、正在等待补齐的，计为重复并返回 false。越过的缺口里暂存的消息照常按序交付。
+     * 与当前记录的 epoch 不同（对方之后重启过）时无从比对，一律返回 true；序号越界的视为伪造，返回 false。
+     */
+    boolean claim(String key, String peerUri, String epoch, long seq) {
+        if (seq < 0) {
+            reject();
+            return false;
+        }
+        Peer peer;
+        synchronized (peers) {
+            peer = peers.get(key);
+        }
+        if (peer != null && !peer.epoch.equals(epoch)) {
+            return true;
+        }
+        if (peer == null) {
+            peer = peerFor(key, epoch, seq);
+        }
+        synchronized (peer) {
+            if (seq - peer.next > MAX_AHEAD) {
+                reject();
+                return false;
+            }
+            if (seq < peer.next) {
+                if (seq < peer.next - window || isDelivered(peer, seq)) {
+                    duplicate();
+                    return false;
+                }
+                mark(peer, seq);
+                return true;
+            }
+            if (peer.held.containsKey(seq)) {
+                duplicate();
+                return false;
+            }
+            // 只按暂存的消息逐条推进，其间的空缺整段越过
+            while (!peer.held.isEmpty() && peer.held.firstKey() < seq) {
+                var held = peer.held.pollFirstEntry();
+                advanceTo(peer, held.getKey());
+                deliverNext(peerUri, peer, held.getValue());
+            }
+            advanceTo(peer, seq);
+            mark(peer, seq);
+            peer.next++;
+            drainHeld(peerUri, peer);
+            return true;
+        }
+    }
+
+    synchronized long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    synchronized long getDuplicateCount() {
+        return duplicates;
+    }
+
+    /**
+     * 未按到达顺序交付的消息数：在重排窗口内等到缺口后补交的，以及缺口被跳过后迟到的。
+     */
+    synchronized long getReorderedCount() {
+        return reordered;
+    }
+
+    synchronized long getGapsSkipped() {
+        return gapsSkipped;
+    }
+
+    synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    private Peer peerFor(String peerUri, String epoch, long seq) {
+        synchronized (peers) {
+            Peer peer = peers.get(peerUri);
+            if (peer == null || !peer.epoch.equals(epoch)) {
+                // 首条消息或对方重启：从这一条开始计数；旧 epoch 暂存的消息没有意义了，直接丢弃
+                peer = new Peer(epoch, seq, window);
+                peers.put(peerUri, peer);
+                if (peers.size() > maxPeers) {
+                    var eldest = peers.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+            return peer;
+        }
+    }
+
+    private void deliverNext(String peerUri, Peer peer, String text) {
+        mark(peer, peer.next);
+        peer.next++;
+        count(false);
+        sink.deliver(peerUri, text);
+    }
+
+    private void drainHeld(String peerUri, Peer peer) {
+        while (!peer.held.isEmpty() && peer.held.firstKey() == peer.next) {
+            deliverNext(peerUri, peer, peer.held.pollFirstEntry().getValue());
+            synchronized (this) {
+                reordered++;
+            }
+        }
+        if (!peer.held.isEmpty()) {
+            peer.heldSince = System.nanoTime();
+        }
+    }
+
+    private void skipGap(String peerUri, Peer peer) {
+        long target = peer.held.firstKey();
+        synchronized (this) {
+            gapsSkipped += target - peer.next;
+        }
+        advanceTo(peer, target);
+        drainHeld(peerUri, peer);
+    }
+
+    /**
+     * 把 {@code next} 直接移到 {@code target}，越过的序号标为未交付。
+     * 早于 {@code target - window} 的序号移动后已在窗口外，不必清位，所以最多清 {@code window} 个位。
+     */
+    private void advanceTo(Peer peer, long target) {
+        for (long seq = Math.max(peer.next, target - window); seq < target; seq++) {
+            clear(peer, seq);
+        }
+        peer.next = Math.max(peer.next, target);
+    }
+
+    private void scheduleFlush(String peerUri, Peer peer) {
+        if (peer.flushScheduled) {
+            return;
+        }
+        peer.flushScheduled = true;
+        try {
+            scheduler.schedule(() -> flush(peerUri, peer), reorderTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            peer.flushScheduled = false;
+        }
+    }
+
+    private void flush(String peerUri, Peer peer) {
+        synchronized (peer) {
+            peer.flushScheduled = false;
+            if (peer.held.isEmpty()) {
+                return;
+            }
+            if (System.nanoTime() - peer.heldSince >= reorderTimeoutNanos) {
+                skipGap(peerUri, peer);
+            }
+            if (!peer.held.isEmpty()) {
+                scheduleFlush(peerUri, peer);
+            }
+        }
+    }
+
+    private boolean isDelivered(Peer peer, long seq) {
+        int bit = (int) (seq % window);
+        return (peer.delivered[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void mark(Peer peer, long seq) {
+        int bit = (int) (seq % window);
+        peer.delivered[bit >>> 6] |= 1L << bit;
+    }
+
+    private void clear(Peer peer, long seq) {
+        int bit = (int) (seq % window);
+        peer.delivered[bit >>> 6] &= ~(1L << bit);
+    }
+
+    private synchronized void count(boolean late) {
+        deliveredCount++;
+        if (late) {
+            reordered++;
+        }
+    }
+
+    private synchronized void duplicate() {
+        duplicates++;
+    }
+
+    private synchronized void reject() {
+        rejected++;
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.sipclient.sip;
+
+import gov.nist.javax.sip.TransactionExt;
+
+import javax.sip.ClientTransaction;
+import javax.sip.IOExceptionEvent;
+import javax.sip.message.Response;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步 MESSAGE 的流控与结果跟踪。
+ * <p>
+ * 全局信号量限制未完成的消息总数（含排队），超过时调用方最多阻塞 {@code acquireTimeout}，实现背压；
+ * 每个目的地只允许 {@code perDestination} 条同时在途，多出的按提交顺序排队，前一条有最终结果后再发出。
+ * 事务与消息通过 {@link ClientTransaction#setApplicationData} 关联，由监听线程在最终应答或超时时完成；
+ * 传输层出错或事务没有最终应答就结束时同样完成（失败），保证每条消息的名额都会归还。
+ */
+final class OutboundMessageQueue {
+
+    /**
+     * 构造并返回尚未发送的客户端事务。
+     */
+    interface Transmitter {
+        ClientTransaction prepare(String target, MessagePart part) throws Exception;
+    }
+
+    static final class PendingMessage {
+        private final String target;
+        private final MessagePart part;
+        private final CompletableFuture<DeliveryResult> future = new CompletableFuture<>();
+        private Window window;
+        private volatile ClientTransaction transaction;
+        private long sentAt;
+
+        private PendingMessage(String target, MessagePart part) {
+            this.target = target;
+            this.part = part;
+        }
+    }
+
+    private static final class Window {
+        private int inFlight;
+        // 空闲窗口会从表中移除，已移除的窗口不能再接收消息
+        private boolean retired;
+        private final Queue<PendingMessage> waiting = new ArrayDeque<>();
+    }
+
+    private final Transmitter transmitter;
+    private final Semaphore outstanding;
+    private final int maxOutstanding;
+    private final int perDestination;
+    private final long acquireTimeoutNanos;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    // 已发出、尚无结果的消息，传输层出错时按下一跳查找
+    private final Set<PendingMessage> inFlight = ConcurrentHashMap.newKeySet();
+
+    OutboundMessageQueue(Transmitter transmitter, int maxOutstanding, int perDestination, Duration acquireTimeout) {
+        this.transmitter = transmitter;
+        this.outstanding = new Semaphore(maxOutstanding);
+        this.maxOutstanding = maxOutstanding;
+        this.perDestination = perDestination;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+    }
+
+    CompletableFuture<DeliveryResult> submit(String target, String text) {
+        return submit(target, MessagePart.whole(text));
+    }
+
+    CompletableFuture<DeliveryResult> submit(String target, MessagePart part) {
+        try {
+            if (!outstanding.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                return CompletableFuture.completedFuture(DeliveryResult.failed(target, "too many outstanding messages"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(DeliveryResult.failed(target, "interrupted"));
+        }
+        PendingMessage message = new PendingMessage(target, part);
+        boolean sendNow;
+        while (true) {
+            Window window = windows.computeIfAbsent(target, t -> new Window());
+            synchronized (window) {
+                if (window.retired) {
+                    continue;
+                }
+                message.window = window;
+                sendNow = window.inFlight < perDestination;
+                if (sendNow) {
+                    window.inFlight++;
+                } else {
+                    window.waiting.add(message);
+                }
+                break;
+            }
+        }
+        if (sendNow) {
+            transmit(message);
+        }
+        return message.future;
+    }
+
+    /**
+     * 最终应答到达时由监听线程调用；非本队列发出的事务返回 false。
+     */
+    boolean onResponse(ClientTransaction ct, Response response) {
+        if (ct == null || !(ct.getApplicationData() instanceof PendingMessage message)) {
+            return false;
+        }
+        if (response.getStatusCode() < 200) {
+            return true;
+        }
+        complete(message, DeliveryResult.ofResponse(message.target, response.getStatusCode(),
+                response.getReasonPhrase(), elapsed(message)));
+        return true;
+    }
+
+    boolean onTimeout(ClientTransaction ct) {
+        if (ct == null || !(ct.getApplicationData() instanceof PendingMessage message)) {
+            return false;
+        }
+        complete(message, DeliveryResult.timedOut(message.target, elapsed(message)));
+        return true;
+    }
+
+    /**
+     * 传输层出错：事件源是本队列的事务时只结束这一条，否则结束所有发往该下一跳的在途消息。
+     * @return 是否结束了本队列的消息
+     */
+    boolean onTransportError(IOExceptionEvent event) {
+        String reason = "transport error: " + event.getHost() + ":" + event.getPort() + "/" + event.getTransport();
+        if (event.getSource() instanceof ClientTransaction ct && ct.getApplicationData() instanceof PendingMessage message) {
+            complete(message, DeliveryResult.failed(message.target, reason));
+            return true;
+        }
+        boolean matched = false;
+        for (PendingMessage message : inFlight) {
+            if (message.transaction instanceof TransactionExt tx && event.getPort() == tx.getPeerPort()
+                    && event.getHost() != null && event.getHost().equals(tx.getPeerAddress())) {
+                complete(message, DeliveryResult.failed(message.target, reason));
+                matched = true;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 事务结束时调用；没有收到最终应答也没有超时通知就结束的消息按超时处理。
+     */
+    boolean onTerminated(ClientTransaction ct) {
+        if (ct == null || !(ct.getApplicationData() instanceof PendingMessage message)) {
+            return false;
+        }
+        complete(message, DeliveryResult.timedOut(message.target, elapsed(message)));
+        return true;
+    }
+
+    /**
+     * 已占用的名额数（排队中与在途的消息）
+     */
+    int outstanding() {
+        return maxOutstanding - outstanding.availablePermits();
+    }
+
+    private void transmit(PendingMessage message) {
+        try {
+            ClientTransaction ct = transmitter.prepare(message.target, message.part);
+            ct.setApplicationData(message);
+            message.transaction = ct;
+            message.sentAt = System.nanoTime();
+            inFlight.add(message);
+            ct.sendRequest();
+        } catch (Exception e) {
+            complete(message, DeliveryResult.failed(message.target, String.valueOf(e.getMessage())));
+        }
+    }
+
+    private void complete(PendingMessage message, DeliveryResult result) {
+        if (!message.future.complete(result)) {
+            return;
+        }
+        inFlight.remove(message);
+        outstanding.release();
+        PendingMessage next;
+        Window window = message.window;
+        synchronized (window) {
+            next = window.waiting.poll();
+            if (next == null) {
+                window.inFlight--;
+                if (window.inFlight == 0) {
+                    window.retired = true;
+                    windows.remove(message.target, window);
+                }
+            }
+        }
+        if (next != null) {
+            transmit(next);
+        }
+    }
+
+    private static Duration elapsed(PendingMessage message) {
+        return Duration.ofNanos(System.nanoTime() - message.sentAt);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.sipclient.sip;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 已读回执的合并发送。
+ * <p>
+ * 回执是累积的：一条回执表示“对方发来的、序号不超过 seq 的消息都已读”，格式借用 IMDN (RFC 5438) 的
+ * display-notification，message-id 为 {@code <epoch>:<seq>}。用户查看会话时只做标记，
+ * 每个间隔统一发送一次，一个会话一条，不管这期间读了多少条、标记了多少次。
+ * 不带序号的旧客户端消息没有可引用的 id，不发 SIP 回执，但仍会交给 {@link Flusher} 用于同步服务器已读状态。
+ */
+final class ReadReceiptBatcher {
+
+    /**
+     * @param peer         对端标识（sip:user@host）
+     * @param target       回执发往的 URI
+     * @param epoch        对端发送序号的 epoch，旧客户端为 null
+     * @param seq          已读到的序号，旧客户端为 0
+     * @param readAtMillis 标记已读的时间
+     */
+    record Mark(String peer, String target, String epoch, long seq, long readAtMillis) {
+    }
+
+    interface Flusher {
+        void flush(List<Mark> marks);
+    }
+
+    static final String CONTENT_TYPE = "message";
+    static final String CONTENT_SUBTYPE = "imdn+xml";
+
+    private static final Pattern MESSAGE_ID = Pattern.compile("<message-id>\\s*([0-9a-fA-F]+):(\\d+)\\s*</message-id>");
+
+    private static final class Peer {
+        private String epoch;
+        private long highestSeq;
+        private boolean unread;
+    }
+
+    private final Flusher flusher;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final int maxPeers;
+
+    // 以下字段由 this 保护
+    private final Map<String, Peer> peers = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Mark> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private long marked;
+    private long flushed;
+
+    ReadReceiptBatcher(Flusher flusher, Duration interval, ScheduledExecutorService scheduler, int maxPeers) {
+        this.flusher = flusher;
+        this.intervalMillis = Math.max(1, interval.toMillis());
+        this.scheduler = scheduler;
+        this.maxPeers = maxPeers;
+    }
+
+    /**
+     * 收到一条对端消息。
+     */
+    synchronized void received(String peer, String epoch, long seq) {
+        Peer state = peers.get(peer);
+        if (state == null) {
+            state = new Peer();
+            peers.put(peer, state);
+            if (peers.size() > maxPeers) {
+                var eldest = peers.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        if (epoch != null && !epoch.equals(state.epoch)) {
+            // 对方重启，序号重新开始
+            state.epoch = epoch;
+            state.highestSeq = 0;
+        }
+        if (epoch != null) {
+            state.highestSeq = Math.max(state.highestSeq, seq);
+        }
+        state.unread = true;
+    }
+
+    /**
+     * 用户看过了与 peer 的会话，已收到的消息全部标为已读；没有未读消息时返回 false。
+     */
+    synchronized boolean markRead(String peer, String target) {
+        Peer state = peers.get(peer);
+        if (state == null || !state.unread) {
+            return false;
+        }
+        state.unread = false;
+        marked++;
+        pending.put(peer, new Mark(peer, target, state.epoch, state.epoch == null ? 0 : state.highestSeq,
+                System.currentTimeMillis()));
+        if (!flushScheduled) {
+            try {
+                scheduler.schedule(this::flush, intervalMillis, TimeUnit.MILLISECONDS);
+                flushScheduled = true;
+            } catch (RejectedExecutionException e) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    void flush() {
+        List<Mark> marks;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            marks = new ArrayList<>(pending.values());
+            pending.clear();
+            flushed += marks.size();
+        }
+        flusher.flush(marks);
+    }
+
+    /**
+     * 用户调用 markRead 的次数（有未读消息时）。
+     */
+    synchronized long getMarkedCount() {
+        return marked;
+    }
+
+    /**
+     * 合并后实际发出的回执数。
+     */
+    synchronized long getFlushedCount() {
+        return flushed;
+    }
+
+    static String encode(Mark mark) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<imdn xmlns=\"urn:ietf:params:xml:ns:imdn\">"
+                + "<message-id>" + mark.epoch() + ":" + mark.seq() + "</message-id>"
+                + "<datetime>" + Instant.ofEpochMilli(mark.readAtMillis()) + "</datetime>"
+                + "<display-notification><status><displayed/></status></display-notification>"
+                + "</imdn>";
+    }
+
+    /**
+     * 解析 peer 发来的回执；格式不对时返回 null。
+     */
+    static Mark decode(String peer, String body) {
+        Matcher matcher = MESSAGE_ID.matcher(body);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return new Mark(peer, peer, matcher.group(1), Long.parseLong(matcher.group(2)), System.currentTimeMillis());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
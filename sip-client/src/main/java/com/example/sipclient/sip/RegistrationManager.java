@@ -0,0 +1,328 @@
+package com.example.sipclient.sip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大量账号的注册刷新调度。
+ * <p>
+ * 按 registrar 实际批准的有效期在一个随机窗口内刷新，同时登录的账号不会在同一秒集中重注册；
+ * 同时在途的 REGISTER 数受工作线程数限制；失败后按指数退避（带随机抖动）重试。
+ * 定时由 {@link HashedTimingWheel} 承担，十万级绑定也只占一个 tick 线程。
+ * 到 proxy 的流中断后恢复时（{@link FlowKeepAlive}），该流上的账号在 {@code flowRestoreSpread} 内随机重注册，
+ * 同样经注册线程池限流，避免共享流恢复的瞬间所有账号同时发 REGISTER。
+ */
+public final class RegistrationManager implements AutoCloseable {
+
+    public enum State { PENDING, REGISTERED, REFRESHING, FAILED }
+
+    private static final Logger log = LoggerFactory.getLogger(RegistrationManager.class);
+
+    private final double refreshMin;
+    private final double refreshMax;
+    private final Duration registerTimeout;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration initialSpread;
+    private final Duration flowRestoreSpread;
+
+    private final Map<SipUserAgent, Binding> bindings = new ConcurrentHashMap<>();
+    private final AtomicInteger[] counts = new AtomicInteger[State.values().length];
+    private final ExecutorService registerPool;
+    private final HashedTimingWheel wheel;
+    // 已挂监听的保活器 -> 监听器
+    private final Map<FlowKeepAlive, FlowKeepAlive.Listener> flows = new ConcurrentHashMap<>();
+
+    private RegistrationManager(Builder builder) {
+        if (builder.refreshMin <= 0 || builder.refreshMax >= 1 || builder.refreshMin > builder.refreshMax) {
+            throw new IllegalArgumentException("refresh window must satisfy 0 < min <= max < 1");
+        }
+        if (builder.maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.refreshMin = builder.refreshMin;
+        this.refreshMax = builder.refreshMax;
+        this.registerTimeout = builder.registerTimeout;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.initialSpread = builder.initialSpread;
+        this.flowRestoreSpread = builder.flowRestoreSpread;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new AtomicInteger();
+        }
+        // 每个 REGISTER 阻塞一个线程等待应答，线程数即在途上限，多余的在队列里排队
+        AtomicInteger threadIds = new AtomicInteger();
+        this.registerPool = Executors.newFixedThreadPool(builder.maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "sip-register-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.wheel = new HashedTimingWheel(builder.tick, 512, registerPool);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 纳入管理。已注册的账号按批准有效期安排下次刷新，未注册的在初始打散窗口内随机发起首次注册。
+     */
+    public void add(SipUserAgent agent) {
+        agent.setAutoRefresh(false);
+        Binding binding = new Binding(agent);
+        if (bindings.putIfAbsent(agent, binding) != null) {
+            return;
+        }
+        watchFlow(agent.getStack().getKeepAlive());
+        if (agent.isRegistered()) {
+            binding.setState(State.REGISTERED);
+            scheduleRefresh(binding);
+        } else {
+            binding.setState(State.PENDING);
+            long spread = initialSpread.toMillis();
+            binding.schedule(spread <= 0 ? 0 : ThreadLocalRandom.current().nextLong(spread));
+        }
+    }
+
+    /**
+     * 移出管理并取消挂起的刷新，不会主动注销。
+     */
+    public void remove(SipUserAgent agent) {
+        Binding binding = bindings.remove(agent);
+        if (binding != null) {
+            binding.cancel();
+            binding.retire();
+        }
+    }
+
+    public State stateOf(SipUserAgent agent) {
+        Binding binding = bindings.get(agent);
+        return binding == null ? null : binding.state;
+    }
+
+    public int size() {
+        return bindings.size();
+    }
+
+    public int getRegisteredCount() {
+        return counts[State.REGISTERED.ordinal()].get();
+    }
+
+    public int getRefreshingCount() {
+        return counts[State.REFRESHING.ordinal()].get();
+    }
+
+    public int getFailedCount() {
+        return counts[State.FAILED.ordinal()].get();
+    }
+
+    public int getPendingCount() {
+        return counts[State.PENDING.ordinal()].get();
+    }
+
+    @Override
+    public void close() {
+        flows.forEach(FlowKeepAlive::removeListener);
+        flows.clear();
+        wheel.close();
+        registerPool.shutdownNow();
+        bindings.values().forEach(Binding::cancel);
+        bindings.clear();
+    }
+
+    private void register(Binding binding) {
+        if (bindings.get(binding.agent) != binding) {
+            return;
+        }
+        binding.setState(State.REFRESHING);
+        boolean ok;
+        try {
+            ok = binding.agent.register(registerTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.warn("{} 注册异常", binding.agent.getUsername(), e);
+            ok = false;
+        }
+        if (bindings.get(binding.agent) != binding) {
+            return;
+        }
+        if (ok) {
+            binding.failures = 0;
+            binding.setState(State.REGISTERED);
+            scheduleRefresh(binding);
+        } else {
+            binding.failures++;
+            binding.setState(State.FAILED);
+            long backoff = backoffMillis(binding.failures);
+            log.warn("{} 注册失败 {} 次，{}ms 后重试", binding.agent.getUsername(), binding.failures, backoff);
+            binding.schedule(backoff);
+        }
+    }
+
+    private void watchFlow(FlowKeepAlive keepAlive) {
+        flows.computeIfAbsent(keepAlive, flow -> {
+            FlowKeepAlive.Listener listener = new FlowKeepAlive.Listener() {
+                @Override
+                public void onFlowFailed() {
+                }
+
+                @Override
+                public void onFlowRestored() {
+                    reRegisterAfterRestore(flow);
+                }
+            };
+            flow.addListener(listener);
+            return listener;
+        });
+    }
+
+    /**
+     * 流恢复：原绑定指向的地址可能已失效，该流上已注册或正在重试的账号在打散窗口内提前刷新
+     */
+    private void reRegisterAfterRestore(FlowKeepAlive flow) {
+        long spread = Math.max(1, flowRestoreSpread.toMillis());
+        int count = 0;
+        for (Binding binding : bindings.values()) {
+            if (binding.agent.getStack().getKeepAlive() != flow || binding.state == State.PENDING) {
+                continue;
+            }
+            binding.cancel();
+            binding.schedule(ThreadLocalRandom.current().nextLong(spread));
+            count++;
+        }
+        if (count > 0) {
+            log.info("流恢复，{} 个账号在 {}ms 内重注册", count, spread);
+        }
+    }
+
+    private void scheduleRefresh(Binding binding) {
+        long granted = Math.max(1, binding.agent.getGrantedExpires()) * 1000L;
+        binding.schedule((long) (granted * ThreadLocalRandom.current().nextDouble(refreshMin, refreshMax)));
+    }
+
+    /**
+     * 指数退避，取 [上限/2, 上限] 内的随机值，避免失败的账号一起重试。
+     */
+    private long backoffMillis(int failures) {
+        long base = initialBackoff.toMillis() << Math.min(failures - 1, 20);
+        long cap = Math.min(maxBackoff.toMillis(), base);
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    private final class Binding {
+        private final SipUserAgent agent;
+        private volatile State state;
+        private volatile HashedTimingWheel.Timeout timeout;
+        private int failures;
+        private boolean retired;
+
+        private Binding(SipUserAgent agent) {
+            this.agent = agent;
+        }
+
+        private synchronized void setState(State next) {
+            if (retired) {
+                return;
+            }
+            if (state != null) {
+                counts[state.ordinal()].decrementAndGet();
+            }
+            state = next;
+            counts[next.ordinal()].incrementAndGet();
+        }
+
+        private synchronized void retire() {
+            if (!retired && state != null) {
+                counts[state.ordinal()].decrementAndGet();
+            }
+            retired = true;
+        }
+
+        private void schedule(long delayMillis) {
+            timeout = wheel.schedule(() -> register(this), delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void cancel() {
+            HashedTimingWheel.Timeout current = timeout;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    public static final class Builder {
+        private double refreshMin = 0.5;
+        private double refreshMax = 0.85;
+        private int maxInFlight = 32;
+        private Duration registerTimeout = Duration.ofSeconds(10);
+        private Duration initialBackoff = Duration.ofSeconds(2);
+        private Duration maxBackoff = Duration.ofMinutes(5);
+        private Duration initialSpread = Duration.ZERO;
+        private Duration flowRestoreSpread = Duration.ofSeconds(30);
+        private Duration tick = Duration.ofMillis(100);
+
+        private Builder() {
+        }
+
+        /**
+         * 在批准有效期的 [min, max] 比例之间随机刷新。
+         */
+        public Builder refreshWindow(double min, double max) {
+            this.refreshMin = min;
+            this.refreshMax = max;
+            return this;
+        }
+
+        public Builder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public Builder registerTimeout(Duration registerTimeout) {
+            this.registerTimeout = registerTimeout;
+            return this;
+        }
+
+        public Builder backoff(Duration initial, Duration max) {
+            this.initialBackoff = initial;
+            this.maxBackoff = max;
+            return this;
+        }
+
+        /**
+         * 未注册账号的首次注册在该窗口内随机打散（如服务重启后批量登录）。
+         */
+        public Builder initialSpread(Duration initialSpread) {
+            this.initialSpread = initialSpread;
+            return this;
+        }
+
+        /**
+         * 共享流中断恢复后，流上的账号在该窗口内随机重注册。
+         */
+        public Builder flowRestoreSpread(Duration flowRestoreSpread) {
+            this.flowRestoreSpread = flowRestoreSpread;
+            return this;
+        }
+
+        public Builder tick(Duration tick) {
+            this.tick = tick;
+            return this;
+        }
+
+        public RegistrationManager build() {
+            return new RegistrationManager(this);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.sipclient.sip;
+
+import javax.sip.InvalidArgumentException;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.MaxForwardsHeader;
+import javax.sip.header.ToHeader;
+import javax.sip.header.ViaHeader;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个账号发出请求时使用的头部模板。
+ * <p>
+ * 本账号的 From/To、Via、Max-Forwards 以及 registrar/AOR 的 URI 在构造时建好一次；
+ * 目标 URI 的解析结果（Request-URI、To 头、规范化字符串）按 LRU 缓存。
+ * JAIN SIP 的头部对象是可变的（事务层写 Via branch，对话层写 tag），原型从不直接放进请求，每次取用都克隆一份。
+ */
+final class RequestTemplates {
+
+    private record Target(SipURI uri, ToHeader to, String normalized, String peerKey) {
+    }
+
+    private final FromHeader from;
+    private final ToHeader toSelf;
+    private final ViaHeader via;
+    private final MaxForwardsHeader maxForwards;
+    private final SipURI registrarUri;
+    private final SipURI aorUri;
+
+    private final AddressFactory addressFactory;
+    private final HeaderFactory headerFactory;
+    private final int maxTargets;
+    private final Map<String, Target> targets;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    RequestTemplates(AddressFactory addressFactory, HeaderFactory headerFactory, String username,
+                     String registrarHost, int registrarPort, String localIp, int localPort, String transport,
+                     int maxTargets) throws ParseException, InvalidArgumentException {
+        this.addressFactory = addressFactory;
+        this.headerFactory = headerFactory;
+        this.maxTargets = maxTargets;
+        this.targets = new LinkedHashMap<>(Math.min(maxTargets, 256), 0.75f, true);
+
+        Address self = addressFactory.createAddress(addressFactory.createSipURI(username, registrarHost));
+        this.from = headerFactory.createFromHeader(self, null);
+        this.toSelf = headerFactory.createToHeader(self, null);
+        this.via = headerFactory.createViaHeader(localIp, localPort, transport, null);
+        this.maxForwards = headerFactory.createMaxForwardsHeader(70);
+        this.registrarUri = addressFactory.createSipURI(null, registrarHost);
+        this.registrarUri.setPort(registrarPort);
+        this.aorUri = addressFactory.createSipURI(username, registrarHost);
+        this.aorUri.setPort(registrarPort);
+    }
+
+    FromHeader from(String tag) throws ParseException {
+        FromHeader header = (FromHeader) from.clone();
+        header.setTag(tag);
+        return header;
+    }
+
+    ToHeader toSelf() {
+        return (ToHeader) toSelf.clone();
+    }
+
+    List<ViaHeader> via() {
+        return Collections.singletonList((ViaHeader) via.clone());
+    }
+
+    MaxForwardsHeader maxForwards() {
+        return (MaxForwardsHeader) maxForwards.clone();
+    }
+
+    /** REGISTER 的 Request-URI：sip:registrar:port */
+    SipURI registrarUri() {
+        return (SipURI) registrarUri.clone();
+    }
+
+    /** PUBLISH/SUBSCRIBE 的 Request-URI：sip:user@registrar:port */
+    SipURI aorUri() {
+        return (SipURI) aorUri.clone();
+    }
+
+    SipURI requestUri(String target) throws ParseException {
+        return (SipURI) target(target).uri().clone();
+    }
+
+    ToHeader to(String target) throws ParseException {
+        return (ToHeader) target(target).to().clone();
+    }
+
+    /**
+     * 与 {@code addressFactory.createURI(uri).toString()} 相同，无法解析时原样返回。
+     */
+    String normalize(String uri) {
+        try {
+            return target(uri).normalized();
+        } catch (Exception e) {
+            return uri;
+        }
+    }
+
+    /**
+     * 对端标识 sip:user@host，不含端口和参数：From 头里的 AOR 一般不带端口，与联系人 URI 写法不同也能对上。
+     */
+    String peerKey(String uri) {
+        try {
+            return target(uri).peerKey();
+        } catch (Exception e) {
+            return uri;
+        }
+    }
+
+    long getTargetCacheHits() {
+        return hits.sum();
+    }
+
+    long getTargetCacheMisses() {
+        return misses.sum();
+    }
+
+    private Target target(String uri) throws ParseException {
+        synchronized (targets) {
+            Target cached = targets.get(uri);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        // 解析放在锁外；并发的首次解析至多重复一次
+        SipURI parsed = (SipURI) addressFactory.createURI(uri);
+        Target target = new Target(parsed, headerFactory.createToHeader(addressFactory.createAddress((SipURI) parsed.clone()), null),
+                parsed.toString(), parsed.getUser() == null ? "sip:" + parsed.getHost() : "sip:" + parsed.getUser() + "@" + parsed.getHost());
+        synchronized (targets) {
+            targets.put(uri, target);
+            if (targets.size() > maxTargets) {
+                var eldest = targets.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return target;
+    }
+}
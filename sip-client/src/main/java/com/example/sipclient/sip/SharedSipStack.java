@@ -0,0 +1,371 @@
+package com.example.sipclient.sip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sip.ClientTransaction;
+import javax.sip.Dialog;
+import javax.sip.DialogTerminatedEvent;
+import javax.sip.IOExceptionEvent;
+import javax.sip.ListeningPoint;
+import javax.sip.RequestEvent;
+import javax.sip.ResponseEvent;
+import javax.sip.ServerTransaction;
+import javax.sip.SipFactory;
+import javax.sip.SipListener;
+import javax.sip.SipProvider;
+import javax.sip.SipStack;
+import javax.sip.TimeoutEvent;
+import javax.sip.TransactionTerminatedEvent;
+import javax.sip.address.Address;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.address.URI;
+import javax.sip.header.CallIdHeader;
+import javax.sip.header.FromHeader;
+import javax.sip.header.HeaderFactory;
+import javax.sip.header.ToHeader;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import javax.sip.message.Response;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多个账号共用的 SIP 协议栈：一个 SipStack、一个监听端口和一组事件线程。
+ * <p>
+ * JAIN SIP 每个 provider 只允许一个监听器，这里作为唯一监听器按用户名把事件分发给各账号：
+ * 收到的请求看 Request-URI（缺省时看 To），收到的应答与本端事务超时看 From（都是本端发起的请求）。
+ * 只挂了一个账号时所有事件都交给它，与独占协议栈时的行为一致。
+ * 账号回调不在协议栈线程上执行，而是经 {@link SipEventDispatcher} 按 Call-ID 串行投递到工作线程。
+ * 到 proxy 的流由 {@link FlowKeepAlive} 保活，第一个账号注册成功后启动。
+ * 各账号的定时任务（重注册、订阅刷新、回执合并等）共用一个定时线程池，媒体收发循环共用一个按需伸缩的线程池；
+ * 媒体端口按段分配，账号注销时归还，可被后来的账号复用。
+ */
+public final class SharedSipStack implements SipListener, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedSipStack.class);
+
+    // 每个账号占用一段媒体端口：音频 +0，视频 +2
+    private static final int MEDIA_PORT_STRIDE = 10;
+    private static final Duration SLOW_HANDLER = Duration.ofMillis(200);
+    private static final int MAX_MEDIA_PORT = 65535;
+    private static final int TIMER_THREADS = 2;
+
+    private final SipStack sipStack;
+    private final SipProvider sipProvider;
+    private final ListeningPoint listeningPoint;
+    private final AddressFactory addressFactory;
+    private final HeaderFactory headerFactory;
+    private final MessageFactory messageFactory;
+    private final String transport;
+    private final String outboundProxy;
+    private final SipEventDispatcher dispatcher;
+    private final FlowKeepAlive keepAlive;
+
+    private final Map<String, SipListener> accounts = new ConcurrentHashMap<>();
+    private final int mediaPortBase;
+    private final int mediaPortBlocks;
+    // 已分配的媒体端口段，由 this 保护
+    private final BitSet usedMediaBlocks = new BitSet();
+    private final ScheduledThreadPoolExecutor timers;
+    private final ExecutorService mediaExecutor;
+
+    /**
+     * @param outboundProxy 所有请求都发往的代理 (host:port)，账号必须属于同一个 registrar
+     */
+    public SharedSipStack(String localIp, int localPort, String transport, String outboundProxy) throws Exception {
+        this(localIp, localPort, transport, outboundProxy, FlowKeepAlive.Settings.forTransport(transport));
+    }
+
+    public SharedSipStack(String localIp, int localPort, String transport, String outboundProxy,
+                          FlowKeepAlive.Settings keepAliveSettings) throws Exception {
+        this.transport = transport;
+        this.outboundProxy = outboundProxy;
+        // 保持与单账号时相同的端口推导：SIP 5060 -> Audio 20000, Video 20002
+        this.mediaPortBase = 20000 + (localPort % 1000) * MEDIA_PORT_STRIDE;
+        this.mediaPortBlocks = (MAX_MEDIA_PORT - mediaPortBase + 1) / MEDIA_PORT_STRIDE;
+
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        this.addressFactory = sipFactory.createAddressFactory();
+        this.headerFactory = sipFactory.createHeaderFactory();
+        this.messageFactory = sipFactory.createMessageFactory();
+
+        Properties properties = new Properties();
+        properties.setProperty("javax.sip.STACK_NAME", "SipClientStack-" + localPort);
+        // 不设置 javax.sip.IP_ADDRESS：SipFactory 会按该地址复用协议栈，同一 JVM 内多个端口会拿到同一个栈
+        properties.setProperty("gov.nist.javax.sip.OUTBOUND_PROXY", outboundProxy + "/" + transport);
+        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
+        properties.setProperty("gov.nist.javax.sip.RELIABLE_CONNECTION_KEEP_ALIVE_TIMEOUT", "60");
+        // TCP/TLS 按目标缓存连接，所有账号和保活复用同一条连接
+        properties.setProperty("gov.nist.javax.sip.CACHE_CLIENT_CONNECTIONS", "true");
+        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "8");
+
+        this.sipStack = sipFactory.createSipStack(properties);
+        this.listeningPoint = sipStack.createListeningPoint(localIp, localPort, transport);
+        this.sipProvider = sipStack.createSipProvider(listeningPoint);
+        this.dispatcher = new SipEventDispatcher(Math.max(4, Runtime.getRuntime().availableProcessors()), SLOW_HANDLER);
+        AtomicInteger timerIds = new AtomicInteger();
+        this.timers = new ScheduledThreadPoolExecutor(TIMER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "sip-timer-" + localPort + "-" + timerIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 账号注销或取消的定时任务立即从队列移除，不等到期
+        this.timers.setRemoveOnCancelPolicy(true);
+        AtomicInteger mediaIds = new AtomicInteger();
+        this.mediaExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sip-media-" + localPort + "-" + mediaIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.keepAlive = new FlowKeepAlive(this, keepAliveSettings);
+        this.sipProvider.addSipListener(this);
+    }
+
+    /**
+     * 挂载账号，同一用户名只能挂一次。
+     */
+    public void attach(String username, SipListener account) {
+        if (accounts.putIfAbsent(username, account) != null) {
+            throw new IllegalStateException("Account already attached: " + username);
+        }
+        log.debug("账号 {} 挂载到 {}:{}", username, listeningPoint.getIPAddress(), listeningPoint.getPort());
+    }
+
+    public void detach(String username, SipListener account) {
+        accounts.remove(username, account);
+    }
+
+    public int getAccountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * 为一个账号分配媒体端口段，返回音频端口（视频端口为 +2）；优先复用已归还的最低段。
+     * @throws IllegalStateException 端口段已用完
+     */
+    synchronized int allocateMediaPorts() {
+        int block = usedMediaBlocks.nextClearBit(0);
+        if (block >= mediaPortBlocks) {
+            throw new IllegalStateException("媒体端口已用完: " + mediaPortBlocks + " 个账号");
+        }
+        usedMediaBlocks.set(block);
+        return mediaPortBase + block * MEDIA_PORT_STRIDE;
+    }
+
+    /**
+     * 归还 {@link #allocateMediaPorts()} 分配的端口段
+     */
+    synchronized void releaseMediaPorts(int audioPort) {
+        int offset = audioPort - mediaPortBase;
+        if (offset >= 0 && offset % MEDIA_PORT_STRIDE == 0) {
+            usedMediaBlocks.clear(offset / MEDIA_PORT_STRIDE);
+        }
+    }
+
+    synchronized int getAllocatedMediaBlocks() {
+        return usedMediaBlocks.cardinality();
+    }
+
+    /**
+     * 所有账号共用的定时线程池，账号经 {@link AccountScheduler} 使用
+     */
+    ScheduledExecutorService getTimers() {
+        return timers;
+    }
+
+    /**
+     * 所有账号共用的媒体收发线程池
+     */
+    ExecutorService getMediaExecutor() {
+        return mediaExecutor;
+    }
+
+    SipStack getSipStack() {
+        return sipStack;
+    }
+
+    SipProvider getSipProvider() {
+        return sipProvider;
+    }
+
+    ListeningPoint getListeningPoint() {
+        return listeningPoint;
+    }
+
+    AddressFactory getAddressFactory() {
+        return addressFactory;
+    }
+
+    HeaderFactory getHeaderFactory() {
+        return headerFactory;
+    }
+
+    MessageFactory getMessageFactory() {
+        return messageFactory;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public String getOutboundProxy() {
+        return outboundProxy;
+    }
+
+    /**
+     * 回调分发器，可读取排队深度与处理耗时。
+     */
+    public SipEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public FlowKeepAlive getKeepAlive() {
+        return keepAlive;
+    }
+
+    @Override
+    public void close() {
+        accounts.clear();
+        keepAlive.close();
+        try {
+            sipStack.stop();
+        } catch (Exception e) {
+            log.debug("停止协议栈失败", e);
+        }
+        dispatcher.close();
+        timers.shutdownNow();
+        mediaExecutor.shutdownNow();
+    }
+
+    // --- 事件分发 ---
+
+    @Override
+    public void processRequest(RequestEvent evt) {
+        Request request = evt.getRequest();
+        SipListener account = accountFor(userOf(request.getRequestURI()), toUser(request));
+        if (account != null) {
+            dispatcher.dispatch(callIdOf(request), () -> account.processRequest(evt));
+        } else if (!Request.ACK.equals(request.getMethod())) {
+            try {
+                sipProvider.sendResponse(messageFactory.createResponse(Response.NOT_FOUND, request));
+            } catch (Exception e) {
+                log.debug("拒绝未知账号的 {} 失败", request.getMethod(), e);
+            }
+        }
+    }
+
+    @Override
+    public void processResponse(ResponseEvent evt) {
+        if (keepAlive.onResponse(evt.getResponse())) {
+            return;
+        }
+        SipListener account = accountFor(fromUser(evt.getResponse()), null);
+        if (account != null) {
+            dispatcher.dispatch(callIdOf(evt.getResponse()), () -> account.processResponse(evt));
+        }
+    }
+
+    @Override
+    public void processTimeout(TimeoutEvent evt) {
+        SipListener account = evt.isServerTransaction()
+                ? accountFor(evt.getServerTransaction())
+                : accountFor(evt.getClientTransaction());
+        if (account != null) {
+            dispatcher.dispatch(callIdOf(evt.isServerTransaction() ? evt.getServerTransaction() : evt.getClientTransaction()),
+                    () -> account.processTimeout(evt));
+        }
+    }
+
+    @Override
+    public void processIOException(IOExceptionEvent evt) {
+        keepAlive.onTransportError();
+        // 无法对应到具体事务，通知所有账号
+        accounts.values().forEach(account -> dispatcher.dispatch(null, () -> account.processIOException(evt)));
+    }
+
+    @Override
+    public void processTransactionTerminated(TransactionTerminatedEvent evt) {
+        SipListener account = evt.isServerTransaction()
+                ? accountFor(evt.getServerTransaction())
+                : accountFor(evt.getClientTransaction());
+        if (account != null) {
+            dispatcher.dispatch(callIdOf(evt.isServerTransaction() ? evt.getServerTransaction() : evt.getClientTransaction()),
+                    () -> account.processTransactionTerminated(evt));
+        }
+    }
+
+    @Override
+    public void processDialogTerminated(DialogTerminatedEvent evt) {
+        Dialog dialog = evt.getDialog();
+        Address local = dialog == null ? null : dialog.getLocalParty();
+        SipListener account = accountFor(local == null ? null : userOf(local.getURI()), null);
+        if (account != null) {
+            dispatcher.dispatch(dialog == null ? null : dialog.getCallId().getCallId(),
+                    () -> account.processDialogTerminated(evt));
+        }
+    }
+
+    private SipListener accountFor(ClientTransaction ct) {
+        return ct == null ? soleAccount() : accountFor(fromUser(ct.getRequest()), null);
+    }
+
+    private SipListener accountFor(ServerTransaction st) {
+        return st == null ? soleAccount()
+                : accountFor(userOf(st.getRequest().getRequestURI()), toUser(st.getRequest()));
+    }
+
+    private SipListener accountFor(String user, String fallbackUser) {
+        SipListener single = soleAccount();
+        if (single != null) {
+            return single;
+        }
+        SipListener account = user == null ? null : accounts.get(user);
+        if (account == null && fallbackUser != null) {
+            account = accounts.get(fallbackUser);
+        }
+        return account;
+    }
+
+    private SipListener soleAccount() {
+        if (accounts.size() != 1) {
+            return null;
+        }
+        Iterator<SipListener> it = accounts.values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private static String callIdOf(javax.sip.Transaction transaction) {
+        return transaction == null ? null : callIdOf(transaction.getRequest());
+    }
+
+    private static String callIdOf(javax.sip.message.Message message) {
+        CallIdHeader callId = (CallIdHeader) message.getHeader(CallIdHeader.NAME);
+        return callId == null ? null : callId.getCallId();
+    }
+
+    private static String fromUser(javax.sip.message.Message message) {
+        FromHeader from = (FromHeader) message.getHeader(FromHeader.NAME);
+        return from == null ? null : userOf(from.getAddress().getURI());
+    }
+
+    private static String toUser(javax.sip.message.Message message) {
+        ToHeader to = (ToHeader) message.getHeader(ToHeader.NAME);
+        return to == null ? null : userOf(to.getAddress().getURI());
+    }
+
+    private static String userOf(URI uri) {
+        return uri instanceof SipURI sipUri ? sipUri.getUser() : null;
+    }
+}
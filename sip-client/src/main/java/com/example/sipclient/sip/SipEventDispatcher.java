@@ -0,0 +1,214 @@
+package com.example.sipclient.sip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把监听器回调从 JAIN SIP 事件线程转到工作线程池执行。
+ * <p>
+ * 事件按键（通常是 Call-ID，即一个对话或一个独立事务）进入各自的串行队列：同一键的事件严格按到达顺序、
+ * 一次一个地执行，不同键之间并行。这样消息回调里的界面刷新、数据库写入或媒体启动再慢，
+ * 也只拖住自己的对话，不会占满协议栈线程而导致重传堆积。
+ * 同一队列连续执行 {@value #DRAIN_BATCH} 个事件后让出线程，避免繁忙对话饿死其他对话。
+ */
+public final class SipEventDispatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SipEventDispatcher.class);
+
+    private static final int DRAIN_BATCH = 32;
+
+    private final ExecutorService workers;
+    private final long slowHandlerNanos;
+    private final Map<String, SerialQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder handlerNanos = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxHandlerNanos = new AtomicLong();
+
+    /**
+     * @param threads     工作线程数
+     * @param slowHandler 单个回调超过该耗时会记一条告警日志
+     */
+    public SipEventDispatcher(int threads, Duration slowHandler) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "sip-dispatch-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.slowHandlerNanos = slowHandler.toNanos();
+    }
+
+    /**
+     * 提交一个事件；key 为 null 的事件共用一个队列。
+     */
+    public void dispatch(String key, Runnable handler) {
+        Event event = new Event(handler, System.nanoTime());
+        String queueKey = key == null ? "" : key;
+        while (true) {
+            SerialQueue queue = queues.computeIfAbsent(queueKey, SerialQueue::new);
+            boolean schedule;
+            synchronized (queue) {
+                if (queue.retired) {
+                    continue;
+                }
+                queue.events.add(event);
+                maxQueueDepth.accumulateAndGet(queue.events.size(), Math::max);
+                schedule = !queue.running;
+                queue.running = true;
+            }
+            queued.incrementAndGet();
+            if (schedule) {
+                submit(queue);
+            }
+            return;
+        }
+    }
+
+    /**
+     * 所有队列中等待执行的事件数。
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * 单个队列出现过的最大积压。
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * 当前有事件在排队或执行的键数。
+     */
+    public int getActiveKeyCount() {
+        return queues.size();
+    }
+
+    public long getHandledCount() {
+        return handled.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public double getAverageHandlerMillis() {
+        long count = handled.sum();
+        return count == 0 ? 0 : handlerNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxHandlerMillis() {
+        return maxHandlerNanos.get() / 1e6;
+    }
+
+    /**
+     * 事件从提交到开始执行的平均排队时间。
+     */
+    public double getAverageQueueWaitMillis() {
+        long count = handled.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(2, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        queues.clear();
+    }
+
+    private void submit(SerialQueue queue) {
+        try {
+            workers.execute(() -> drain(queue));
+        } catch (RejectedExecutionException e) {
+            // 已关闭：丢弃剩余事件
+            synchronized (queue) {
+                queued.addAndGet(-queue.events.size());
+                queue.events.clear();
+                queue.running = false;
+                queue.retired = true;
+                queues.remove(queue.key, queue);
+            }
+        }
+    }
+
+    private void drain(SerialQueue queue) {
+        for (int i = 0; i < DRAIN_BATCH; i++) {
+            Event event;
+            synchronized (queue) {
+                event = queue.events.poll();
+                if (event == null) {
+                    queue.running = false;
+                    queue.retired = true;
+                    queues.remove(queue.key, queue);
+                    return;
+                }
+            }
+            queued.decrementAndGet();
+            run(queue.key, event);
+        }
+        // 还有积压，重新排到线程池队尾
+        submit(queue);
+    }
+
+    private void run(String key, Event event) {
+        long start = System.nanoTime();
+        try {
+            event.handler.run();
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.warn("SIP 事件处理异常 [{}]", key, e);
+        }
+        long elapsed = System.nanoTime() - start;
+        handled.increment();
+        handlerNanos.add(elapsed);
+        waitNanos.add(start - event.submittedAt);
+        maxHandlerNanos.accumulateAndGet(elapsed, Math::max);
+        if (elapsed > slowHandlerNanos) {
+            log.warn("SIP 事件处理耗时 {}ms [{}]", elapsed / 1_000_000, key);
+        }
+    }
+
+    private record Event(Runnable handler, long submittedAt) {
+    }
+
+    private static final class SerialQueue {
+        private final String key;
+        private final Queue<Event> events = new ArrayDeque<>();
+        private boolean running;
+        // 队列清空后从表中移除，已移除的队列不能再接收事件
+        private boolean retired;
+
+        private SerialQueue(String key) {
+            this.key = key;
+        }
+    }
+}
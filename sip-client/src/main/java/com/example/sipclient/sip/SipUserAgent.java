@@ -1,10 +1,17 @@
 package com.example.sipclient.sip;
 
 import com.example.sipclient.call.CallManager;
+import com.example.sipclient.call.CallSession;
+import com.example.sipclient.chat.ConversationListener;
 import com.example.sipclient.chat.MessageHandler;
 import com.example.sipclient.media.AudioSession;
+import com.example.sipclient.media.MediaDirection;
 import com.example.sipclient.media.SdpTools;
 import com.example.sipclient.media.VideoSession;
+import com.example.sipclient.presence.Pidf;
+import com.example.sipclient.presence.PresenceListener;
+import com.example.sipclient.presence.PresenceStatus;
+import com.example.sipclient.presence.ResourceLists;
 import gov.nist.javax.sip.SipStackExt;
 import gov.nist.javax.sip.clientauthutils.AccountManager;
 import gov.nist.javax.sip.clientauthutils.AuthenticationHelper;
@@ -19,10 +26,16 @@ import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public final class SipUserAgent implements SipListener {
 
     private static final int DEFAULT_EXPIRES_SECONDS = 3600;
+    // UDP 报文超过路径 MTU 会被 IP 分片，丢一片整条重发；大消息按此大小切成多条 MESSAGE。TCP/TLS 不切
+    private static final int UDP_MESSAGE_CHUNK_BYTES = 1200;
+    // MESSAGE 序号头：X-Message-Seq: <会话内序号>;epoch=<发送方本次启动的随机标识>，二者合起来即消息 id
+    private static final String SEQ_HEADER = "X-Message-Seq";
 
     private final String username;
     private final String registrarHost;
@@ -30,6 +43,8 @@ public final class SipUserAgent implements SipListener {
     private final String password;
     private final String transport;
 
+    private final SharedSipStack stack;
+    private final boolean ownsStack;
     private final SipStack sipStack;
     private final SipProvider sipProvider;
     private final AddressFactory addressFactory;
@@ -37,15 +52,32 @@ public final class SipUserAgent implements SipListener {
     private final MessageFactory messageFactory;
     private final ListeningPoint listeningPoint;
     private final ContactHeader contactHeader;
+    private final RequestTemplates templates;
     private final AuthenticationHelper authenticationHelper;
 
     private MessageHandler messageHandler;
+    private volatile PresenceListener presenceListener;
+    // 联系人列表订阅：一个 SUBSCRIBE 对话覆盖所有联系人
+    private volatile Dialog presenceDialog;
+    private volatile List<String> presenceContacts = List.of();
+    private volatile ScheduledFuture<?> presenceRefreshTask;
+    // 本端发布的状态：服务器给的 SIP-ETag，到期前凭它刷新；412 时用 lastPublished 重新发布
+    private volatile String publishETag;
+    private volatile PresenceStatus lastPublished;
+    private volatile ScheduledFuture<?> publishRefreshTask;
     private CallManager callManager;
+    // 待接听的 INVITE，按 Call-ID 索引
     private final ConcurrentHashMap<String, ServerTransaction> pendingInvites = new ConcurrentHashMap<>();
+    // 本端发出的 re-INVITE (保持/恢复)，收到 200 OK 时只更新媒体方向而不重新拉起媒体
+    private final Set<ClientTransaction> pendingReInvites = ConcurrentHashMap.newKeySet();
+    // 对端发来不带 SDP 的 re-INVITE 时本端在 200 OK 中给出的提议方向，应答随 ACK 到达，按 Call-ID 索引
+    private final ConcurrentHashMap<String, MediaDirection> lateOffers = new ConcurrentHashMap<>();
 
-    // 媒体会话
-    private final AudioSession audioSession = new AudioSession();
-    private final VideoSession videoSession = new VideoSession();
+    // 媒体会话，收发循环跑在协议栈共用的媒体线程池上
+    private final AudioSession audioSession;
+    private final VideoSession videoSession;
+    // 占用上面这对媒体会话的通话 Call-ID；同一时刻只有一路通话有媒体，挂断其他通话不能停掉它
+    private final AtomicReference<String> mediaCallId = new AtomicReference<>();
 
     // 本地媒体端口 (固定端口以便于防火墙调试，实际生产应动态分配)
     private final int localAudioPort;
@@ -54,47 +86,94 @@ public final class SipUserAgent implements SipListener {
     private final AtomicLong cseq = new AtomicLong(1);
     private volatile boolean registered;
     private volatile CountDownLatch registrationLatch = new CountDownLatch(0);
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // 协议栈共用定时线程上本账号的视图，shutdown 时只取消本账号的任务
+    private final ScheduledExecutorService scheduler;
     private volatile ScheduledFuture<?> reRegisterTask;
+    private volatile int grantedExpires = DEFAULT_EXPIRES_SECONDS;
+    private volatile boolean autoRefresh = true;
+    // 流中断恢复或 NAT 映射变化后，原注册绑定指向的地址可能已失效，稍加随机延迟后立即重注册；
+    // 由 RegistrationManager 管理的账号交给它限流打散，这里不再各自重注册
+    private final FlowKeepAlive.Listener flowListener = new FlowKeepAlive.Listener() {
+        public void onFlowFailed() { System.err.println("到 " + registrarHost + " 的连接中断: " + username); }
+        public void onFlowRestored() {
+            if (!autoRefresh || !registered || scheduler.isShutdown()) return;
+            try {
+                scheduler.schedule(SipUserAgent.this::refreshRegistration,
+                        ThreadLocalRandom.current().nextLong(2000), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {}
+        }
+    };
+    private final OutboundMessageQueue messageQueue =
+            new OutboundMessageQueue(this::prepareMessage, 256, 8, Duration.ofSeconds(5));
+    private final MessageReassembler reassembler = new MessageReassembler(64, 4L << 20, Duration.ofSeconds(30));
+    private volatile int messageChunkBytes;
+    private final String messageEpoch = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    // 对端 -> 已用的最大序号
+    private final ConcurrentHashMap<String, AtomicLong> outboundSeq = new ConcurrentHashMap<>();
+    // 每个对端 256 个序号的去重位图，最多等 32 条乱序消息或 500ms 补齐缺口
+    private final MessageSequencer sequencer;
+    private volatile ConversationListener conversationListener;
+    private volatile Consumer<Map<String, String>> readSync;
+    private volatile Runnable registrationListener;
+    // 输入状态至多每 10 秒刷新一次，停止输入 5 秒后发 idle
+    private final ComposingIndicator composing;
+    // 已读回执每 2 秒合并发送一次，每个会话一条
+    private final ReadReceiptBatcher receipts;
 
     public SipUserAgent(String userAddress, String password, String localIp, int localPort) throws Exception {
+        this(userAddress, password, newPrivateStack(userAddress, password, localIp, localPort), true);
+    }
+
+    /**
+     * 挂到共享协议栈上，多个账号共用一个端口和一组 SIP 线程；账号的 registrar 须与共享栈的 outbound proxy 一致。
+     * 各账号的注册、认证、呼叫状态相互独立。
+     */
+    public SipUserAgent(String userAddress, String password, SharedSipStack stack) throws Exception {
+        this(userAddress, password, stack, false);
+    }
+
+    private SipUserAgent(String userAddress, String password, SharedSipStack stack, boolean ownsStack) throws Exception {
         Objects.requireNonNull(userAddress);
         Objects.requireNonNull(password);
-        Objects.requireNonNull(localIp);
+        Objects.requireNonNull(stack);
 
         this.password = password;
-
-        // 基于 SIP 端口生成媒体端口，避免冲突
-        // 例如 SIP 5060 -> Audio 20000, Video 20002
-        this.localAudioPort = 20000 + (localPort % 1000) * 10;
-        this.localVideoPort = this.localAudioPort + 2;
-
-        SipFactory sipFactory = SipFactory.getInstance();
-        sipFactory.setPathName("gov.nist");
-        this.addressFactory = sipFactory.createAddressFactory();
-        this.headerFactory = sipFactory.createHeaderFactory();
-        this.messageFactory = sipFactory.createMessageFactory();
+        this.stack = stack;
+        this.ownsStack = ownsStack;
+        this.scheduler = new AccountScheduler(stack.getTimers());
+        this.audioSession = new AudioSession(stack.getMediaExecutor());
+        this.videoSession = new VideoSession(stack.getMediaExecutor());
+        this.sequencer = new MessageSequencer(this::deliverMessage, 256, 32, Duration.ofMillis(500), scheduler, 1024);
+        this.composing = new ComposingIndicator(this::sendComposing, (peer, active) -> {
+            ConversationListener listener = conversationListener;
+            if (listener != null) listener.onComposing(peer, active);
+        }, Duration.ofSeconds(10), Duration.ofSeconds(5), scheduler, 1024);
+        this.receipts = new ReadReceiptBatcher(this::flushReceipts, Duration.ofSeconds(2), scheduler, 1024);
+        this.addressFactory = stack.getAddressFactory();
+        this.headerFactory = stack.getHeaderFactory();
+        this.messageFactory = stack.getMessageFactory();
 
         SipURI parsedUri = (SipURI) addressFactory.createURI(userAddress);
         this.username = parsedUri.getUser();
         this.registrarHost = parsedUri.getHost();
         this.registrarPort = parsedUri.getPort() == -1 ? 5060 : parsedUri.getPort();
         this.transport = parsedUri.getTransportParam() != null ? parsedUri.getTransportParam() : ListeningPoint.UDP;
+        if (!transport.equalsIgnoreCase(stack.getTransport())) {
+            throw new IllegalArgumentException("Transport " + transport + " does not match shared stack " + stack.getTransport());
+        }
 
-        Properties properties = new Properties();
-        properties.setProperty("javax.sip.STACK_NAME", "SipClientStack-" + localPort);
-        properties.setProperty("javax.sip.IP_ADDRESS", localIp);
-        // 如果有 MSS，可开启 outbound proxy
-        properties.setProperty("gov.nist.javax.sip.OUTBOUND_PROXY", registrarHost + ":" + registrarPort + "/" + transport);
-        properties.setProperty("gov.nist.javax.sip.TRACE_LEVEL", "0");
-        properties.setProperty("gov.nist.javax.sip.RELIABLE_CONNECTION_KEEP_ALIVE_TIMEOUT", "60");
-        properties.setProperty("gov.nist.javax.sip.THREAD_POOL_SIZE", "8");
+        this.messageChunkBytes = ListeningPoint.UDP.equalsIgnoreCase(transport) ? UDP_MESSAGE_CHUNK_BYTES : 0;
 
-        this.sipStack = sipFactory.createSipStack(properties);
-        this.listeningPoint = sipStack.createListeningPoint(localIp, localPort, transport);
-        this.sipProvider = sipStack.createSipProvider(listeningPoint);
-        this.sipProvider.addSipListener(this);
-        this.contactHeader = buildContactHeader(localIp, localPort);
+        this.sipStack = stack.getSipStack();
+        this.listeningPoint = stack.getListeningPoint();
+        this.sipProvider = stack.getSipProvider();
+        this.contactHeader = buildContactHeader(listeningPoint.getIPAddress(), listeningPoint.getPort());
+        this.templates = new RequestTemplates(addressFactory, headerFactory, username, registrarHost, registrarPort,
+                listeningPoint.getIPAddress(), listeningPoint.getPort(), transport, 1024);
+
+        // 媒体端口由共享栈按账号分段分配；独占栈时仍是 SIP 5060 -> Audio 20000, Video 20002
+        this.localAudioPort = stack.allocateMediaPorts();
+        this.localVideoPort = this.localAudioPort + 2;
 
         AccountManager accountManager = (ct, realm) -> new UserCredentials() {
             public String getUserName() { return username; }
@@ -102,16 +181,42 @@ public final class SipUserAgent implements SipListener {
             public String getSipDomain() { return registrarHost; }
         };
         this.authenticationHelper = ((SipStackExt) sipStack).getAuthenticationHelper(accountManager, headerFactory);
+        stack.attach(username, this);
+        stack.getKeepAlive().addListener(flowListener);
+    }
+
+    private static SharedSipStack newPrivateStack(String userAddress, String password, String localIp, int localPort) throws Exception {
+        Objects.requireNonNull(userAddress);
+        Objects.requireNonNull(password);
+        Objects.requireNonNull(localIp);
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        SipURI parsedUri = (SipURI) sipFactory.createAddressFactory().createURI(userAddress);
+        int port = parsedUri.getPort() == -1 ? 5060 : parsedUri.getPort();
+        String transport = parsedUri.getTransportParam() != null ? parsedUri.getTransportParam() : ListeningPoint.UDP;
+        // 如果有 MSS，可开启 outbound proxy
+        return new SharedSipStack(localIp, localPort, transport, parsedUri.getHost() + ":" + port);
     }
 
     public VideoSession getVideoSession() { return this.videoSession; }
+    public AudioSession getAudioSession() { return this.audioSession; }
+    /** 使用合成音源代替麦克风/扬声器（压测、无声卡的服务器环境）。 */
+    public void setSyntheticMedia(boolean synthetic) { audioSession.setSynthetic(synthetic); }
     public void setMessageHandler(MessageHandler messageHandler) { this.messageHandler = messageHandler; }
+    /** 单条 MESSAGE 请求体的最大字节数，超过则分片发送；不大于 0 表示不分片。 */
+    public void setMessageChunkBytes(int messageChunkBytes) { this.messageChunkBytes = messageChunkBytes; }
+    public void setPresenceListener(PresenceListener presenceListener) { this.presenceListener = presenceListener; }
+    public void setConversationListener(ConversationListener conversationListener) { this.conversationListener = conversationListener; }
+    /** 已读回执每次合并发送时回调一次：对端 URI -> 已读到的消息 id（旧客户端的消息没有 id，为空串），用于批量同步服务器的已读状态。 */
+    public void setReadSync(Consumer<Map<String, String>> readSync) { this.readSync = readSync; }
+    /** 每次注册成功（含定时重注册、断线恢复后的重注册）在 SIP 线程上回调，回调里不要阻塞。 */
+    public void setRegistrationListener(Runnable registrationListener) { this.registrationListener = registrationListener; }
     public void setCallManager(CallManager callManager) { this.callManager = callManager; }
     public CallManager getCallManager() { return this.callManager; }
 
     // --- 注册/注销 ---
     public boolean register(Duration timeout) throws SipException, InterruptedException {
-        return sendRegister(3600, timeout);
+        return sendRegister(DEFAULT_EXPIRES_SECONDS, timeout);
     }
 
     public boolean unregister(Duration timeout) throws SipException, InterruptedException {
@@ -120,60 +225,270 @@ public final class SipUserAgent implements SipListener {
 
     public void shutdown() {
         scheduler.shutdownNow();
+        unsubscribePresence();
         if (registered) try { unregister(Duration.ofSeconds(1)); } catch (Exception e) {}
         stopMedia(); // 停止媒体
-        if (sipStack != null) try { sipStack.stop(); } catch (Exception e) {}
+        stack.releaseMediaPorts(localAudioPort);
+        stack.getKeepAlive().removeListener(flowListener);
+        stack.detach(username, this);
+        if (ownsStack) stack.close();
     }
 
     public boolean isRegistered() { return registered; }
+    /** 最近一次注册成功时 registrar 批准的有效期（秒）。 */
+    public int getGrantedExpires() { return grantedExpires; }
+    public String getUsername() { return username; }
+    SharedSipStack getStack() { return stack; }
+
+    /**
+     * 关闭内置的定时重注册，交给 {@link RegistrationManager} 统一调度。
+     */
+    public void setAutoRefresh(boolean autoRefresh) {
+        this.autoRefresh = autoRefresh;
+        if (!autoRefresh && reRegisterTask != null) reRegisterTask.cancel(false);
+    }
+
+    // --- 在线状态 ---
+
+    /**
+     * 发布自己的状态；注册本身已表示在线，这里用于附带状态说明或主动显示为离线。
+     * 发布在服务器批准的有效期到期前自动刷新。
+     */
+    public void publishPresence(boolean online, String note) throws SipException {
+        String aor = templates.aorUri().toString();
+        lastPublished = new PresenceStatus(aor, online, note);
+        try {
+            sendPublish(Pidf.encode(aor, List.of(lastPublished)), publishETag);
+        } catch (Exception e) { throw new SipException("发布状态失败", e); }
+    }
+
+    /**
+     * @param pidf 为 null 时是不带状态的刷新 (RFC 3903)
+     * @param ifMatch 已有发布的 SIP-ETag，首次发布为 null
+     */
+    private void sendPublish(String pidf, String ifMatch) throws Exception {
+        SipURI aor = templates.aorUri();
+        Request req = messageFactory.createRequest(aor, Request.PUBLISH, sipProvider.getNewCallId(),
+                headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.PUBLISH),
+                templates.from(generateTag()), templates.toSelf(), templates.via(), templates.maxForwards());
+        req.addHeader(headerFactory.createEventHeader("presence"));
+        req.addHeader(headerFactory.createExpiresHeader(DEFAULT_EXPIRES_SECONDS));
+        if (ifMatch != null) req.addHeader(headerFactory.createSIPIfMatchHeader(ifMatch));
+        if (pidf != null) req.setContent(pidf, headerFactory.createContentTypeHeader(Pidf.CONTENT_TYPE, Pidf.CONTENT_SUBTYPE));
+        sipProvider.getNewClientTransaction(req).sendRequest();
+    }
+
+    private void refreshPublication() {
+        String etag = publishETag;
+        PresenceStatus status = lastPublished;
+        try {
+            if (etag != null) sendPublish(null, etag);
+            else if (status != null) sendPublish(Pidf.encode(status.uri(), List.of(status)), null);
+        } catch (Exception e) { System.err.println("刷新状态发布失败: " + e.getMessage()); }
+    }
+
+    private void handlePublishResponse(ResponseEvent evt) {
+        Response r = evt.getResponse();
+        int status = r.getStatusCode();
+        if (status < 200) return;
+        if (status == Response.UNAUTHORIZED || status == Response.PROXY_AUTHENTICATION_REQUIRED) {
+            try { authenticationHelper.handleChallenge(r, evt.getClientTransaction(), sipProvider, 5).sendRequest(); }
+            catch (Exception e) { System.err.println("状态发布认证失败: " + e.getMessage()); }
+        } else if (status < 300) {
+            SIPETagHeader etag = (SIPETagHeader) r.getHeader(SIPETagHeader.NAME);
+            if (etag != null) publishETag = etag.getETag();
+            int granted = r.getExpires() != null ? r.getExpires().getExpires() : DEFAULT_EXPIRES_SECONDS;
+            if (publishRefreshTask != null) publishRefreshTask.cancel(false);
+            if (granted > 0 && !scheduler.isShutdown()) {
+                try {
+                    publishRefreshTask = scheduler.schedule(this::refreshPublication, Math.max(1000, granted * 800L), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ignored) {}
+            }
+        } else if (status == Response.CONDITIONAL_REQUEST_FAILED) {
+            // 服务器已不认这个 ETag（发布过期或服务器重启），重新发布完整状态
+            publishETag = null;
+            if (!scheduler.isShutdown()) scheduler.execute(this::refreshPublication);
+        } else {
+            System.err.println("状态发布失败: " + status);
+        }
+    }
+
+    /**
+     * 用一个列表订阅关注所有联系人，状态变化通过 {@link PresenceListener} 回调；再次调用会替换原订阅。
+     * 服务器会合并同一时段内的多处变化，一条 NOTIFY 可能带多个联系人。
+     */
+    public void subscribePresence(Collection<String> contactUris) throws SipException {
+        unsubscribePresence();
+        presenceContacts = List.copyOf(contactUris);
+        if (presenceContacts.isEmpty()) return;
+        try {
+            Request req = messageFactory.createRequest(templates.aorUri(), Request.SUBSCRIBE, sipProvider.getNewCallId(),
+                    headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.SUBSCRIBE),
+                    templates.from(generateTag()), templates.toSelf(), templates.via(), templates.maxForwards());
+            req.addHeader(contactHeader);
+            req.addHeader(headerFactory.createEventHeader("presence"));
+            req.addHeader(headerFactory.createExpiresHeader(DEFAULT_EXPIRES_SECONDS));
+            req.addHeader(headerFactory.createAcceptHeader(Pidf.CONTENT_TYPE, Pidf.CONTENT_SUBTYPE));
+            req.addHeader(headerFactory.createSupportedHeader("eventlist"));
+            req.setContent(ResourceLists.encode(presenceContacts),
+                    headerFactory.createContentTypeHeader(ResourceLists.CONTENT_TYPE, ResourceLists.CONTENT_SUBTYPE));
+            sipProvider.getNewClientTransaction(req).sendRequest();
+        } catch (Exception e) { throw new SipException("订阅状态失败", e); }
+    }
+
+    public void unsubscribePresence() {
+        presenceContacts = List.of();
+        if (presenceRefreshTask != null) presenceRefreshTask.cancel(false);
+        Dialog dialog = presenceDialog;
+        presenceDialog = null;
+        if (dialog != null && dialog.getState() != DialogState.TERMINATED) {
+            try { sendInDialogSubscribe(dialog, 0); } catch (Exception e) {}
+        }
+    }
+
+    private void sendInDialogSubscribe(Dialog dialog, int expires) throws Exception {
+        Request req = dialog.createRequest(Request.SUBSCRIBE);
+        req.addHeader(headerFactory.createEventHeader("presence"));
+        req.addHeader(headerFactory.createExpiresHeader(expires));
+        dialog.sendRequest(sipProvider.getNewClientTransaction(req));
+    }
+
+    private void refreshPresence() {
+        Dialog dialog = presenceDialog;
+        try {
+            if (dialog == null || dialog.getState() == DialogState.TERMINATED) subscribePresence(presenceContacts);
+            else sendInDialogSubscribe(dialog, DEFAULT_EXPIRES_SECONDS);
+        } catch (Exception e) { System.err.println("刷新状态订阅失败: " + e.getMessage()); }
+    }
+
+    private void handleSubscribeResponse(ResponseEvent evt) {
+        Response r = evt.getResponse();
+        if (r.getStatusCode() < 200) return;
+        if (r.getStatusCode() == Response.UNAUTHORIZED || r.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED) {
+            try { authenticationHelper.handleChallenge(r, evt.getClientTransaction(), sipProvider, 5).sendRequest(); }
+            catch (Exception e) { System.err.println("状态订阅认证失败: " + e.getMessage()); }
+            return;
+        }
+        ExpiresHeader requested = evt.getClientTransaction() == null ? null : evt.getClientTransaction().getRequest().getExpires();
+        if (requested != null && requested.getExpires() == 0) return; // 退订的应答
+        if (r.getStatusCode() < 300) {
+            if (evt.getDialog() != null) presenceDialog = evt.getDialog();
+            int granted = r.getExpires() != null ? r.getExpires().getExpires() : DEFAULT_EXPIRES_SECONDS;
+            if (presenceRefreshTask != null) presenceRefreshTask.cancel(false);
+            if (!scheduler.isShutdown()) {
+                presenceRefreshTask = scheduler.schedule(this::refreshPresence, Math.max(1000, granted * 800L), TimeUnit.MILLISECONDS);
+            }
+        } else if (r.getStatusCode() == Response.CALL_OR_TRANSACTION_DOES_NOT_EXIST && !presenceContacts.isEmpty()) {
+            // 服务器已丢失订阅（重启等），重新建立
+            presenceDialog = null;
+            if (!scheduler.isShutdown()) scheduler.execute(this::refreshPresence);
+        } else {
+            System.err.println("状态订阅失败: " + r.getStatusCode());
+            presenceUnavailable(r.getStatusCode());
+        }
+    }
+
+    private void presenceUnavailable(int statusCode) {
+        PresenceListener listener = presenceListener;
+        if (listener != null) listener.onPresenceUnavailable(statusCode);
+    }
+
+    private void handleNotify(RequestEvent evt) {
+        Request request = evt.getRequest();
+        try {
+            ServerTransaction tx = evt.getServerTransaction() != null ? evt.getServerTransaction() : sipProvider.getNewServerTransaction(request);
+            tx.sendResponse(messageFactory.createResponse(Response.OK, request));
+        } catch (Exception e) { return; }
+
+        SubscriptionStateHeader state = (SubscriptionStateHeader) request.getHeader(SubscriptionStateHeader.NAME);
+        if (state != null && SubscriptionStateHeader.TERMINATED.equalsIgnoreCase(state.getState())
+                && evt.getDialog() != null && evt.getDialog() == presenceDialog) {
+            presenceDialog = null;
+        }
+        byte[] raw = request.getRawContent();
+        PresenceListener listener = presenceListener;
+        if (raw == null || listener == null) return;
+        try {
+            for (PresenceStatus status : Pidf.decode(new String(raw, StandardCharsets.UTF_8))) listener.onPresenceChanged(status);
+        } catch (IllegalArgumentException e) { System.err.println("无法解析 NOTIFY: " + e.getMessage()); }
+    }
 
     // --- 呼叫控制 ---
 
     // 兼容旧API
     public void makeCall(String targetUri) throws SipException { startCall(targetUri, false); }
-    public void startCall(String targetUri) throws SipException { startCall(targetUri, false); }
+    public String startCall(String targetUri) throws SipException { return startCall(targetUri, false); }
 
-    public void startCall(String targetUri, boolean enableVideo) throws SipException {
+    /**
+     * 发起呼叫
+     * @return 本次呼叫的 Call-ID，同一对端并发多路通话时用它定位会话
+     */
+    public String startCall(String targetUri, boolean enableVideo) throws SipException {
         try {
             Request invite = createInviteRequest(targetUri, enableVideo);
             ClientTransaction ctx = sipProvider.getNewClientTransaction(invite);
 
-            if (callManager != null) callManager.startOutgoing(normalizeUri(targetUri));
+            String callId = callIdOf(invite);
+            if (callManager != null) callManager.startOutgoing(normalizeUri(targetUri), callId);
             ctx.sendRequest();
             System.out.println("INVITE Sent to " + targetUri + " (Video=" + enableVideo + ")");
+            return callId;
         } catch (Exception e) {
             throw new IllegalArgumentException("呼叫失败: " + e.getMessage(), e);
         }
     }
 
     public void hangup(String targetUri) throws SipException {
-        stopMedia(); // 挂断立即停止媒体
-
-        if (callManager == null) return;
+        if (callManager == null) {
+            stopMedia(); // 挂断立即停止媒体
+            return;
+        }
         String normalized = normalizeUri(targetUri);
 
-        callManager.findByRemote(normalized).ifPresent(session -> {
-            try {
-                if (session.getDialog() != null && session.getDialog().getState() == DialogState.CONFIRMED) {
-                    Request bye = session.getDialog().createRequest(Request.BYE);
-                    ClientTransaction ctx = sipProvider.getNewClientTransaction(bye);
-                    session.getDialog().sendRequest(ctx);
-                }
-                callManager.terminateLocal(normalized);
-            } catch (Exception e) {
-                e.printStackTrace();
+        callManager.findByRemote(normalized).ifPresentOrElse(this::hangup, this::stopMedia);
+    }
+
+    /**
+     * 挂断指定的一路通话（同一对端存在多路通话时使用）。只有这路通话占用媒体时才停止媒体。
+     */
+    public void hangup(CallSession session) {
+        stopMediaFor(session.getCallId()); // 挂断立即停止媒体
+        lateOffers.remove(session.getCallId());
+        try {
+            if (session.getDialog() != null && session.getDialog().getState() == DialogState.CONFIRMED) {
+                Request bye = session.getDialog().createRequest(Request.BYE);
+                ClientTransaction ctx = sipProvider.getNewClientTransaction(bye);
+                session.getDialog().sendRequest(ctx);
             }
-        });
+            if (callManager != null) callManager.terminate(session);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     public void answerCall(String fromUri) throws SipException {
         String normalized = normalizeUri(fromUri);
-        ServerTransaction tx = pendingInvites.remove(normalized);
+        ServerTransaction tx = removePendingInvite(normalized);
         if (tx == null) {
             System.err.println("找不到挂起的 INVITE 事务: " + normalized);
             return;
         }
+        answerPending(tx);
+    }
+
+    /**
+     * 按 Call-ID 接听，适用于同一对端并发来电的场景。
+     */
+    public void answerCallByCallId(String callId) throws SipException {
+        ServerTransaction tx = pendingInvites.remove(callId);
+        if (tx == null) {
+            System.err.println("找不到挂起的 INVITE 事务: " + callId);
+            return;
+        }
+        answerPending(tx);
+    }
 
+    private void answerPending(ServerTransaction tx) throws SipException {
         try {
             // 解析对方 SDP
             String remoteSdp = "";
@@ -183,7 +498,7 @@ public final class SipUserAgent implements SipListener {
             }
 
             // 立即启动媒体接收
-            startMediaEngines(remoteSdp);
+            startMediaEngines(callIdOf(tx.getRequest()), remoteSdp);
 
             Response ok = messageFactory.createResponse(Response.OK, tx.getRequest());
             ok.addHeader(contactHeader);
@@ -199,22 +514,141 @@ public final class SipUserAgent implements SipListener {
             ok.setContent(mySdp, headerFactory.createContentTypeHeader("application", "sdp"));
             tx.sendResponse(ok);
 
-            if (callManager != null) callManager.answerCall(normalized);
+            CallSession session = sessionOf(tx.getRequest());
+            if (session != null) {
+                callManager.answerCall(session);
+                if (tx.getDialog() != null) callManager.attachDialog(session, tx.getDialog());
+            }
 
         } catch (Exception e) {
             throw new SipException("接听失败", e);
         }
     }
 
+    // --- 保持/恢复 ---
+
+    /**
+     * 保持通话：发送 a=inactive 的 re-INVITE，本端暂停采集与播放（不释放端口和线程）。
+     */
+    public void hold(String targetUri) throws SipException {
+        sendReInvite(targetUri, true);
+    }
+
+    /**
+     * 恢复通话：发送 a=sendrecv 的 re-INVITE，沿用原有媒体 socket。
+     */
+    public void resume(String targetUri) throws SipException {
+        sendReInvite(targetUri, false);
+    }
+
+    private void sendReInvite(String targetUri, boolean hold) throws SipException {
+        if (callManager == null) throw new SipException("CallManager 未设置");
+        String normalized = normalizeUri(targetUri);
+        CallSession session = callManager.findByRemote(normalized)
+                .orElseThrow(() -> new SipException("没有与 " + normalized + " 的通话"));
+        Dialog dialog = session.getDialog();
+        if (dialog == null || dialog.getState() != DialogState.CONFIRMED) {
+            throw new SipException("对话尚未建立，无法" + (hold ? "保持" : "恢复"));
+        }
+        try {
+            Request reInvite = dialog.createRequest(Request.INVITE);
+            reInvite.addHeader(contactHeader);
+            // 提议的方向与本端实际的收发状态一致：保持时双向暂停
+            MediaDirection offer = hold ? MediaDirection.INACTIVE : MediaDirection.SENDRECV;
+            reInvite.setContent(createLocalSdp(offer), headerFactory.createContentTypeHeader("application", "sdp"));
+            ClientTransaction ctx = sipProvider.getNewClientTransaction(reInvite);
+            pendingReInvites.add(ctx);
+            dialog.sendRequest(ctx);
+
+            // 本端立即暂停/恢复，不必等待应答
+            callManager.setLocalHold(session, hold);
+            applyMediaDirection(offer);
+            callManager.updateMediaDirection(session, offer);
+        } catch (SipException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SipException((hold ? "保持" : "恢复") + "失败", e);
+        }
+    }
+
+    private String createLocalSdp(MediaDirection direction) {
+        return SdpTools.createSdp(listeningPoint.getIPAddress(), localAudioPort,
+                videoSession.isRunning() ? localVideoPort : 0, direction);
+    }
+
+    /**
+     * 根据对端在重协商中给出的 SDP 更新媒体：仅切换目标地址和收发方向，不重建 socket。
+     */
+    private void renegotiateMedia(String remoteSdp, MediaDirection localDirection) {
+        String remoteIp = SdpTools.getRemoteIp(remoteSdp);
+        int rAudio = SdpTools.getRemotePort(remoteSdp);
+        int rVideo = SdpTools.getRemoteVideoPort(remoteSdp);
+        if (remoteIp != null && rAudio > 0 && audioSession.isRunning()) audioSession.retarget(remoteIp, rAudio);
+        if (remoteIp != null && rVideo > 0 && videoSession.isRunning()) videoSession.retarget(remoteIp, rVideo);
+        applyMediaDirection(localDirection);
+    }
+
+    /**
+     * 本端当前愿意的收发方向：保持中不收不发
+     */
+    private static MediaDirection localCapability(CallSession session) {
+        return session != null && session.isLocalHold() ? MediaDirection.INACTIVE : MediaDirection.SENDRECV;
+    }
+
+    private void applyMediaDirection(MediaDirection direction) {
+        audioSession.setDirection(direction);
+        videoSession.setDirection(direction);
+    }
+
+    /**
+     * 按报文的 Call-ID 定位会话，监听线程的热路径不再解析 URI。
+     */
+    private CallSession sessionOf(javax.sip.message.Message message) {
+        return callManager == null ? null : callManager.getByCallId(callIdOf(message));
+    }
+
+    private static String callIdOf(javax.sip.message.Message message) {
+        return ((CallIdHeader) message.getHeader(CallIdHeader.NAME)).getCallId();
+    }
+
+    private ServerTransaction removePendingInvite(String remoteUri) {
+        if (callManager != null) {
+            String callId = callManager.findByRemote(remoteUri).map(CallSession::getCallId).orElse(null);
+            return callId == null ? null : pendingInvites.remove(callId);
+        }
+        // 未设置 CallManager 时退化为按 From 匹配
+        for (Map.Entry<String, ServerTransaction> e : pendingInvites.entrySet()) {
+            if (remoteUri.equals(extractFromUri(e.getValue().getRequest()))) {
+                return pendingInvites.remove(e.getKey());
+            }
+        }
+        return null;
+    }
+
     // --- 辅助逻辑 ---
 
     private void stopMedia() {
+        mediaCallId.set(null);
+        stopMediaEngines();
+    }
+
+    /**
+     * 只停止 callId 这路通话的媒体，媒体属于别的通话时不动。
+     */
+    private void stopMediaFor(String callId) {
+        if (callId != null && mediaCallId.compareAndSet(callId, null)) {
+            stopMediaEngines();
+        }
+    }
+
+    private void stopMediaEngines() {
         if (audioSession.isRunning()) audioSession.stop();
         if (videoSession.isRunning()) videoSession.stop();
     }
 
-    private void startMediaEngines(String remoteSdp) {
+    private void startMediaEngines(String callId, String remoteSdp) {
         if (remoteSdp == null || remoteSdp.isEmpty()) return;
+        mediaCallId.set(callId);
 
         String remoteIp = SdpTools.getRemoteIp(remoteSdp);
         int rAudio = SdpTools.getRemotePort(remoteSdp);
@@ -234,9 +668,12 @@ public final class SipUserAgent implements SipListener {
     public void processRequest(RequestEvent evt) {
         String m = evt.getRequest().getMethod();
         if (Request.MESSAGE.equals(m)) handleMessage(evt);
+        else if (Request.INVITE.equals(m) && isInDialog(evt.getRequest())) handleReInvite(evt);
+        else if (Request.UPDATE.equals(m)) handleReInvite(evt);
         else if (Request.INVITE.equals(m)) handleInvite(evt);
         else if (Request.BYE.equals(m)) handleBye(evt);
         else if (Request.ACK.equals(m)) handleAck(evt);
+        else if (Request.NOTIFY.equals(m)) handleNotify(evt);
     }
 
     public void processResponse(ResponseEvent evt) {
@@ -244,40 +681,136 @@ public final class SipUserAgent implements SipListener {
         String method = ((CSeqHeader)response.getHeader(CSeqHeader.NAME)).getMethod();
 
         if (Request.REGISTER.equals(method)) handleRegisterResponse(evt);
+        else if (Request.MESSAGE.equals(method)) messageQueue.onResponse(evt.getClientTransaction(), response);
+        else if (Request.SUBSCRIBE.equals(method)) handleSubscribeResponse(evt);
+        else if (Request.PUBLISH.equals(method)) handlePublishResponse(evt);
+        else if (Request.INVITE.equals(method) && evt.getClientTransaction() != null
+                && pendingReInvites.contains(evt.getClientTransaction())) {
+            handleReInviteResponse(evt);
+        }
         else if (Request.INVITE.equals(method)) {
             if (response.getStatusCode() == Response.OK) {
                 // 呼叫方收到 200 OK，启动媒体
                 try {
                     byte[] raw = response.getRawContent();
-                    if (raw != null) startMediaEngines(new String(raw, StandardCharsets.UTF_8));
+                    if (raw != null) startMediaEngines(callIdOf(response), new String(raw, StandardCharsets.UTF_8));
 
                     if (evt.getDialog() != null) {
                         Request ack = evt.getDialog().createAck(((CSeqHeader)response.getHeader(CSeqHeader.NAME)).getSeqNumber());
                         evt.getDialog().sendAck(ack);
 
-                        if (callManager != null) {
-                            callManager.attachDialog(extractToUri(response), evt.getDialog());
-                            callManager.markActive(extractToUri(response));
+                        CallSession session = sessionOf(response);
+                        if (session != null) {
+                            callManager.attachDialog(session, evt.getDialog());
+                            callManager.markActive(session);
                         }
                     }
                 } catch (Exception e) { e.printStackTrace(); }
+            } else if (response.getStatusCode() == Response.RINGING) {
+                CallSession session = sessionOf(response);
+                if (session != null) callManager.markRinging(session);
+            } else if (response.getStatusCode() == Response.SESSION_PROGRESS) {
+                CallSession session = sessionOf(response);
+                if (session != null) callManager.markEarlyMedia(session);
+            } else if (response.getStatusCode() >= 300) {
+                // 被拒/忙/未找到等最终失败应答，非 2xx 的 ACK 由协议栈自动发送
+                CallSession session = sessionOf(response);
+                if (session != null) callManager.fail(session);
             }
         }
     }
 
-    public void processTimeout(TimeoutEvent e) { registrationLatch.countDown(); }
-    public void processIOException(IOExceptionEvent e) { registrationLatch.countDown(); }
-    public void processTransactionTerminated(TransactionTerminatedEvent e) {}
+    public void processTimeout(TimeoutEvent e) {
+        registrationLatch.countDown();
+        if (e.isServerTransaction()) return;
+        if (messageQueue.onTimeout(e.getClientTransaction())) return;
+        Request request = e.getClientTransaction().getRequest();
+        if (Request.INVITE.equals(request.getMethod())) {
+            CallSession session = sessionOf(request);
+            if (session != null) callManager.fail(session);
+        } else if (Request.SUBSCRIBE.equals(request.getMethod())) {
+            presenceUnavailable(Response.REQUEST_TIMEOUT);
+        }
+    }
+    public void processIOException(IOExceptionEvent e) {
+        registrationLatch.countDown();
+        messageQueue.onTransportError(e);
+    }
+    public void processTransactionTerminated(TransactionTerminatedEvent e) {
+        if (!e.isServerTransaction()) messageQueue.onTerminated(e.getClientTransaction());
+    }
     public void processDialogTerminated(DialogTerminatedEvent e) {}
 
     // --- 内部处理方法 ---
     private void handleMessage(RequestEvent evt) {
         try {
-            sipProvider.getNewServerTransaction(evt.getRequest()).sendResponse(messageFactory.createResponse(Response.OK, evt.getRequest()));
-            if (messageHandler != null) messageHandler.handleIncomingMessage(extractFromUri(evt.getRequest()), new String(evt.getRequest().getRawContent(), StandardCharsets.UTF_8));
+            Request request = evt.getRequest();
+            sipProvider.getNewServerTransaction(request).sendResponse(messageFactory.createResponse(Response.OK, request));
+            String from = extractFromUri(request);
+            String text = new String(request.getRawContent(), StandardCharsets.UTF_8);
+            ContentTypeHeader type = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
+            if (isType(type, ComposingIndicator.CONTENT_TYPE, ComposingIndicator.CONTENT_SUBTYPE)) {
+                composing.remoteIndication(peerKey(from), text);
+                return;
+            }
+            if (isType(type, ReadReceiptBatcher.CONTENT_TYPE, ReadReceiptBatcher.CONTENT_SUBTYPE)) {
+                handleReceipt(peerKey(from), text);
+                return;
+            }
+            if (type != null && "message".equalsIgnoreCase(type.getContentType()) && "partial".equalsIgnoreCase(type.getContentSubType())) {
+                // 每片单独应答 200，收齐后才交给上层
+                text = reassembler.accept(from, type.getParameter("id"), intParameter(type, "number"), intParameter(type, "total"), text);
+                if (text == null) return;
+            }
+            // 带序号的消息先去重、排序；不带序号的（旧客户端）直接交付
+            if (request.getHeader(SEQ_HEADER) instanceof ExtensionHeader seqHeader) {
+                String[] fields = seqHeader.getValue().split(";\\s*epoch=", 2);
+                long seq = parseSeq(fields[0]);
+                if (seq > 0 && fields.length == 2) {
+                    composing.remoteMessage(peerKey(from));
+                    receipts.received(peerKey(from), fields[1].trim(), seq);
+                    sequencer.accept(peerKey(from), from, fields[1].trim(), seq, text);
+                    return;
+                }
+            }
+            composing.remoteMessage(peerKey(from));
+            receipts.received(peerKey(from), null, 0);
+            deliverMessage(from, text);
         } catch (Exception e) {}
     }
 
+    private void deliverMessage(String from, String text) {
+        if (messageHandler != null) messageHandler.handleIncomingMessage(from, text);
+    }
+
+    private static boolean isType(ContentTypeHeader type, String contentType, String subType) {
+        return type != null && contentType.equalsIgnoreCase(type.getContentType()) && subType.equalsIgnoreCase(type.getContentSubType());
+    }
+
+    private void handleReceipt(String peer, String body) {
+        ReadReceiptBatcher.Mark mark = ReadReceiptBatcher.decode(peer, body);
+        ConversationListener listener = conversationListener;
+        if (mark == null || listener == null || !messageEpoch.equals(mark.epoch())) return;
+        AtomicLong sent = outboundSeq.get(peer);
+        listener.onRead(peer, sent == null || mark.seq() >= sent.get());
+    }
+
+    private static long parseSeq(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int intParameter(ContentTypeHeader type, String name) {
+        try {
+            return Integer.parseInt(type.getParameter(name));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private void handleInvite(RequestEvent evt) {
         try {
             ServerTransaction tx = sipProvider.getNewServerTransaction(evt.getRequest());
@@ -285,56 +818,270 @@ public final class SipUserAgent implements SipListener {
             r.addHeader(contactHeader);
             tx.sendResponse(r);
 
-            pendingInvites.put(extractFromUri(evt.getRequest()), tx);
-            if (callManager != null) callManager.acceptIncoming(extractFromUri(evt.getRequest()));
+            String callId = callIdOf(evt.getRequest());
+            pendingInvites.put(callId, tx);
+            if (callManager != null) callManager.acceptIncoming(extractFromUri(evt.getRequest()), callId);
         } catch (Exception e) { e.printStackTrace(); }
     }
 
+    /**
+     * 对话内 re-INVITE / UPDATE：按对端提议的方向生成应答，并就地调整媒体。
+     * 不认识的对话回 481；UPDATE 不带 SDP 时只刷新会话，应答也不带 SDP；
+     * re-INVITE 不带 SDP（延迟提议）时由本端在 200 OK 中提议，对端在 ACK 中应答。
+     */
+    private void handleReInvite(RequestEvent evt) {
+        Request request = evt.getRequest();
+        CallSession session = sessionOf(request);
+        try {
+            ServerTransaction tx = evt.getServerTransaction() != null
+                    ? evt.getServerTransaction() : sipProvider.getNewServerTransaction(request);
+            boolean knownDialog = callManager != null ? session != null : evt.getDialog() != null;
+            if (!knownDialog) {
+                tx.sendResponse(messageFactory.createResponse(Response.CALL_OR_TRANSACTION_DOES_NOT_EXIST, request));
+                return;
+            }
+            byte[] raw = request.getRawContent();
+            String remoteSdp = raw == null ? "" : new String(raw, StandardCharsets.UTF_8);
+
+            Response ok = messageFactory.createResponse(Response.OK, request);
+            ok.addHeader(contactHeader);
+            MediaDirection capability = localCapability(session);
+            if (remoteSdp.isBlank()) {
+                if (Request.INVITE.equals(request.getMethod())) {
+                    lateOffers.put(callIdOf(request), capability);
+                    ok.setContent(createLocalSdp(capability), headerFactory.createContentTypeHeader("application", "sdp"));
+                }
+                tx.sendResponse(ok);
+                return;
+            }
+
+            MediaDirection answer = SdpTools.getDirection(remoteSdp).reverse().intersect(capability);
+            ok.setContent(createLocalSdp(answer), headerFactory.createContentTypeHeader("application", "sdp"));
+            tx.sendResponse(ok);
+
+            renegotiateMedia(remoteSdp, answer);
+            if (session != null) callManager.updateMediaDirection(session, answer);
+            System.out.println(request.getMethod() + " 重协商: " + callIdOf(request) + " -> " + answer.attribute());
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    private void handleReInviteResponse(ResponseEvent evt) {
+        Response response = evt.getResponse();
+        if (response.getStatusCode() < 200) return;
+        pendingReInvites.remove(evt.getClientTransaction());
+        if (response.getStatusCode() != Response.OK) {
+            System.err.println("re-INVITE 被拒绝: " + response.getStatusCode());
+            return;
+        }
+        try {
+            Dialog dialog = evt.getDialog();
+            if (dialog != null) {
+                long seq = ((CSeqHeader) response.getHeader(CSeqHeader.NAME)).getSeqNumber();
+                dialog.sendAck(dialog.createAck(seq));
+            }
+            CallSession session = sessionOf(response);
+            byte[] raw = response.getRawContent();
+            if (raw != null) {
+                String remoteSdp = new String(raw, StandardCharsets.UTF_8);
+                MediaDirection local = SdpTools.getDirection(remoteSdp).reverse().intersect(localCapability(session));
+                renegotiateMedia(remoteSdp, local);
+                if (session != null) callManager.updateMediaDirection(session, local);
+            }
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    private boolean isInDialog(Request request) {
+        ToHeader to = (ToHeader) request.getHeader(ToHeader.NAME);
+        return to != null && to.getTag() != null;
+    }
+
     private void handleBye(RequestEvent evt) {
         try {
             sipProvider.getNewServerTransaction(evt.getRequest()).sendResponse(messageFactory.createResponse(Response.OK, evt.getRequest()));
         } catch (Exception e) {}
 
-        stopMedia();
-        if (callManager != null) callManager.terminateByRemote(extractFromUri(evt.getRequest()));
+        stopMediaFor(callIdOf(evt.getRequest()));
+        lateOffers.remove(callIdOf(evt.getRequest()));
+        CallSession session = sessionOf(evt.getRequest());
+        if (session != null) callManager.terminate(session);
     }
 
     private void handleAck(RequestEvent evt) {
-        if (callManager != null) callManager.markActive(extractFromUri(evt.getRequest()));
+        Request ack = evt.getRequest();
+        CallSession session = sessionOf(ack);
+        // 延迟提议的 re-INVITE：ACK 里带着对端对本端提议的应答
+        MediaDirection offered = lateOffers.remove(callIdOf(ack));
+        byte[] raw = ack.getRawContent();
+        if (offered != null && raw != null && raw.length > 0) {
+            String remoteSdp = new String(raw, StandardCharsets.UTF_8);
+            MediaDirection local = SdpTools.getDirection(remoteSdp).reverse().intersect(offered);
+            renegotiateMedia(remoteSdp, local);
+            if (session != null) callManager.updateMediaDirection(session, local);
+        }
+        if (session != null) callManager.markActive(session);
     }
 
     // --- 发送消息 ---
     public void sendMessage(String targetUri, String text) throws SipException {
         try {
-            SipURI reqUri = (SipURI) addressFactory.createURI(targetUri);
-            Request req = messageFactory.createRequest(reqUri, Request.MESSAGE, sipProvider.getNewCallId(),
-                    headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.MESSAGE),
-                    headerFactory.createFromHeader(addressFactory.createAddress(addressFactory.createSipURI(username, registrarHost)), generateTag()),
-                    headerFactory.createToHeader(addressFactory.createAddress(reqUri), null),
-                    Collections.singletonList(headerFactory.createViaHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), transport, null)),
-                    headerFactory.createMaxForwardsHeader(70));
-            req.addHeader(contactHeader);
-            req.setContent(text, headerFactory.createContentTypeHeader("text", "plain"));
-            sipProvider.getNewClientTransaction(req).sendRequest();
+            for (MessagePart part : MessagePart.split(text, messageChunkBytes, nextSeq(targetUri))) {
+                sipProvider.getNewClientTransaction(createMessageRequest(targetUri, part)).sendRequest();
+            }
         } catch (Exception e) { throw new SipException("发送失败", e); }
     }
 
+    /**
+     * 异步发送，结果在收到最终应答或事务超时后完成。
+     * 同一目的地的消息按窗口限流并保持提交顺序；未完成的消息过多时调用线程会短暂阻塞。
+     */
+    public CompletableFuture<DeliveryResult> sendMessageAsync(String targetUri, String text) {
+        return sendMessageAsync(targetUri, text, null);
+    }
+
+    /**
+     * 重发一条消息：沿用 messageId（上次结果里的 {@link DeliveryResult#messageId()}）的序号和分片 id，
+     * 上次其实已送达时接收方按序号去重。messageId 为 null 或不是本次启动发出的，按新消息发送。
+     */
+    public CompletableFuture<DeliveryResult> sendMessageAsync(String targetUri, String text, String messageId) {
+        long seq = -1;
+        if (messageId != null) {
+            String[] fields = messageId.split(";\\s*epoch=", 2);
+            if (fields.length == 2 && messageEpoch.equals(fields[1].trim())) seq = parseSeq(fields[0]);
+        }
+        if (seq <= 0) {
+            seq = nextSeq(targetUri);
+            messageId = seq + ";epoch=" + messageEpoch;
+        }
+        String id = messageId;
+        List<MessagePart> parts;
+        try {
+            parts = MessagePart.split(text, messageChunkBytes, seq, messageEpoch + Long.toHexString(seq));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(DeliveryResult.tooLarge(targetUri, e.getMessage()).withMessageId(id));
+        }
+        if (parts.size() == 1) {
+            return messageQueue.submit(targetUri, parts.get(0)).thenApply(result -> result.withMessageId(id));
+        }
+        // 各片共用目的地窗口，可能乱序到达，由接收端重组
+        List<CompletableFuture<DeliveryResult>> sends = new ArrayList<>(parts.size());
+        for (MessagePart part : parts) {
+            sends.add(messageQueue.submit(targetUri, part));
+        }
+        return CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new))
+                .thenApply(v -> DeliveryResult.combine(sends.stream().map(CompletableFuture::join).toList())
+                        .withMessageId(id));
+    }
+
+    /**
+     * 经服务器转交的离线消息交付前调用：SIP 上已收到过或之前已转交过的同一条消息返回 false，调用方应丢弃。
+     *
+     * @param messageId 发送方记录的消息 id（{@code <序号>;epoch=<epoch>}），旧客户端没有时为 null，此时不去重
+     */
+    public boolean claimOfflineMessage(String fromUri, String messageId) {
+        if (messageId == null) return true;
+        String[] fields = messageId.split(";\\s*epoch=", 2);
+        long seq = parseSeq(fields[0]);
+        if (seq <= 0 || fields.length != 2) return true;
+        return sequencer.claim(peerKey(fromUri), fromUri, fields[1].trim(), seq);
+    }
+
+    // --- 输入状态与已读回执 ---
+
+    /**
+     * 用户在与 target 的会话里输入时调用（可每次按键调用），实际发出的 isComposing 消息受限速控制。
+     */
+    public void notifyTyping(String targetUri) {
+        composing.typing(peerKey(targetUri), targetUri);
+    }
+
+    /**
+     * 用户看过与 peer 的会话时调用，已收到的消息全部标为已读；回执合并后延迟发出。
+     */
+    public void markRead(String peerUri) {
+        receipts.markRead(peerKey(peerUri), peerUri);
+    }
+
+    private void sendComposing(String target, String body) {
+        sendControlMessage(target, ComposingIndicator.CONTENT_TYPE, ComposingIndicator.CONTENT_SUBTYPE, body);
+    }
+
+    private void flushReceipts(List<ReadReceiptBatcher.Mark> marks) {
+        Map<String, String> readUpTo = new LinkedHashMap<>();
+        for (ReadReceiptBatcher.Mark mark : marks) {
+            readUpTo.put(mark.target(), mark.epoch() == null ? "" : mark.seq() + ";epoch=" + mark.epoch());
+            // 旧客户端的消息没有序号可引用
+            if (mark.epoch() != null) {
+                sendControlMessage(mark.target(), ReadReceiptBatcher.CONTENT_TYPE, ReadReceiptBatcher.CONTENT_SUBTYPE,
+                        ReadReceiptBatcher.encode(mark));
+            }
+        }
+        Consumer<Map<String, String>> sync = readSync;
+        if (sync != null) sync.accept(readUpTo);
+    }
+
+    /**
+     * 状态类 MESSAGE：不占会话序号、不分片，也不等待结果，丢了由下一次刷新或回执补上。
+     */
+    private void sendControlMessage(String targetUri, String contentType, String subType, String body) {
+        try {
+            Request req = newMessageRequest(targetUri);
+            req.setContent(body, headerFactory.createContentTypeHeader(contentType, subType));
+            sipProvider.getNewClientTransaction(req).sendRequest();
+        } catch (Exception e) {
+            System.err.println("发送 " + subType + " 失败: " + e.getMessage());
+        }
+    }
+
+    private long nextSeq(String targetUri) {
+        String peer = peerKey(targetUri);
+        // 发出正文即结束“正在输入”，对端收到消息后自行清除
+        composing.messageSent(peer);
+        return outboundSeq.computeIfAbsent(peer, uri -> new AtomicLong()).incrementAndGet();
+    }
+
+    private ClientTransaction prepareMessage(String targetUri, MessagePart part) throws Exception {
+        return sipProvider.getNewClientTransaction(createMessageRequest(targetUri, part));
+    }
+
+    private Request newMessageRequest(String targetUri) throws Exception {
+        Request req = messageFactory.createRequest(templates.requestUri(targetUri), Request.MESSAGE, sipProvider.getNewCallId(),
+                headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.MESSAGE),
+                templates.from(generateTag()), templates.to(targetUri), templates.via(), templates.maxForwards());
+        req.addHeader(contactHeader);
+        return req;
+    }
+
+    private Request createMessageRequest(String targetUri, MessagePart part) throws Exception {
+        Request req = newMessageRequest(targetUri);
+        ContentTypeHeader type;
+        if (part.isPartial()) {
+            type = headerFactory.createContentTypeHeader("message", "partial");
+            type.setParameter("id", part.id());
+            type.setParameter("number", Integer.toString(part.number()));
+            type.setParameter("total", Integer.toString(part.total()));
+        } else {
+            type = headerFactory.createContentTypeHeader("text", "plain");
+        }
+        req.setContent(part.body(), type);
+        if (part.seq() > 0) {
+            req.addHeader(headerFactory.createHeader(SEQ_HEADER, part.seq() + ";epoch=" + messageEpoch));
+        }
+        return req;
+    }
+
     public void rejectCall(String fromUri) throws SipException {
-        ServerTransaction tx = pendingInvites.remove(normalizeUri(fromUri));
+        ServerTransaction tx = removePendingInvite(normalizeUri(fromUri));
         if (tx != null) {
             try { tx.sendResponse(messageFactory.createResponse(Response.BUSY_HERE, tx.getRequest())); } catch (Exception e) {}
-            if (callManager != null) callManager.rejectCall(normalizeUri(fromUri));
+            CallSession session = sessionOf(tx.getRequest());
+            if (session != null) callManager.rejectCall(session);
         }
     }
 
     private Request createInviteRequest(String target, boolean video) throws Exception {
-        SipURI reqUri = (SipURI) addressFactory.createURI(target);
-        Request req = messageFactory.createRequest(reqUri, Request.INVITE, sipProvider.getNewCallId(),
+        Request req = messageFactory.createRequest(templates.requestUri(target), Request.INVITE, sipProvider.getNewCallId(),
                 headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.INVITE),
-                headerFactory.createFromHeader(addressFactory.createAddress(addressFactory.createSipURI(username, registrarHost)), generateTag()),
-                headerFactory.createToHeader(addressFactory.createAddress(reqUri), null),
-                Collections.singletonList(headerFactory.createViaHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), transport, null)),
-                headerFactory.createMaxForwardsHeader(70));
+                templates.from(generateTag()), templates.to(target), templates.via(), templates.maxForwards());
         req.addHeader(contactHeader);
 
         // 生成 SDP
@@ -345,35 +1092,82 @@ public final class SipUserAgent implements SipListener {
 
     // --- 注册相关 ---
     private boolean sendRegister(int expires, Duration timeout) throws SipException, InterruptedException {
+        CountDownLatch latch = startRegister(expires);
+        boolean ok = latch.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        return ok && registered == (expires > 0);
+    }
+
+    private CountDownLatch startRegister(int expires) throws SipException {
         try {
             Request req = createRegisterRequest(expires);
             ClientTransaction tx = sipProvider.getNewClientTransaction(req);
-            registrationLatch = new CountDownLatch(1);
+            CountDownLatch latch = new CountDownLatch(1);
+            registrationLatch = latch;
             if(expires > 0) registered = false;
             tx.sendRequest();
-            boolean ok = registrationLatch.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
-            return ok && registered == (expires > 0);
+            return latch;
         } catch (Exception e) { throw new SipException("注册失败", e); }
     }
 
+    /**
+     * 定时刷新注册：只发出 REGISTER 不等待应答，不占用共享的定时线程；成功的应答会安排下一次刷新
+     */
+    private void refreshRegistration() {
+        try {
+            startRegister(DEFAULT_EXPIRES_SECONDS);
+        } catch (SipException e) {
+            System.err.println("刷新注册失败: " + username + ": " + e.getMessage());
+        }
+    }
+
     private void handleRegisterResponse(ResponseEvent evt) {
         Response r = evt.getResponse();
-        if(r.getStatusCode()==Response.UNAUTHORIZED) {
+        if(r.getStatusCode()==Response.UNAUTHORIZED || r.getStatusCode()==Response.PROXY_AUTHENTICATION_REQUIRED) {
             try { authenticationHelper.handleChallenge(r, evt.getClientTransaction(), sipProvider, 5).sendRequest(); } catch(Exception e) { registrationLatch.countDown(); }
         } else if(r.getStatusCode()==Response.OK) {
-            registered = true;
-            scheduleReRegistration();
+            // 注销 (Expires: 0) 的 200 OK 不能再把状态置为已注册
+            ExpiresHeader requested = evt.getClientTransaction() == null ? null : evt.getClientTransaction().getRequest().getExpires();
+            registered = requested == null || requested.getExpires() > 0;
+            if (registered) {
+                grantedExpires = grantedExpiresOf(r, requested == null ? DEFAULT_EXPIRES_SECONDS : requested.getExpires());
+                scheduleReRegistration();
+                stack.getKeepAlive().start();
+                Runnable listener = registrationListener;
+                if (listener != null) {
+                    try { listener.run(); } catch (RuntimeException e) { System.err.println("注册回调失败: " + e.getMessage()); }
+                }
+            } else if (reRegisterTask != null) reRegisterTask.cancel(false);
+            registrationLatch.countDown();
+        } else if(r.getStatusCode()>=300) {
+            // 403/423/5xx 等最终失败，立即结束等待，由调用方决定退避
+            System.err.println("注册失败: " + username + " -> " + r.getStatusCode() + " " + r.getReasonPhrase());
             registrationLatch.countDown();
         }
     }
 
+    /**
+     * registrar 实际批准的有效期：优先取应答中本端 Contact 的 expires 参数，其次 Expires 头。
+     */
+    private int grantedExpiresOf(Response r, int requested) {
+        ListIterator<?> contacts = r.getHeaders(ContactHeader.NAME);
+        while (contacts != null && contacts.hasNext()) {
+            ContactHeader c = (ContactHeader) contacts.next();
+            if (c.getExpires() >= 0 && c.getAddress().getURI().equals(contactHeader.getAddress().getURI())) return c.getExpires();
+        }
+        ExpiresHeader expires = r.getExpires();
+        return expires != null ? expires.getExpires() : requested;
+    }
+
     private Request createRegisterRequest(int expires) throws Exception {
-        SipURI uri = addressFactory.createSipURI(null, registrarHost); uri.setPort(registrarPort);
-        Address addr = addressFactory.createAddress(addressFactory.createSipURI(username, registrarHost));
-        Request req = messageFactory.createRequest(uri, Request.REGISTER, sipProvider.getNewCallId(), headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.REGISTER),
-                headerFactory.createFromHeader(addr, generateTag()), headerFactory.createToHeader(addr, null),
-                Collections.singletonList(headerFactory.createViaHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), transport, null)), headerFactory.createMaxForwardsHeader(70));
-        req.addHeader(contactHeader);
+        Request req = messageFactory.createRequest(templates.registrarUri(), Request.REGISTER, sipProvider.getNewCallId(), headerFactory.createCSeqHeader(cseq.getAndIncrement(), Request.REGISTER),
+                templates.from(generateTag()), templates.toSelf(), templates.via(), templates.maxForwards());
+        ContactHeader contact = contactHeader;
+        if (expires == 0) {
+            // Contact 上的 expires 参数优先于 Expires 头，注销时必须一并置 0
+            contact = (ContactHeader) contactHeader.clone();
+            contact.setExpires(0);
+        }
+        req.addHeader(contact);
         req.addHeader(headerFactory.createExpiresHeader(expires));
         return req;
     }
@@ -386,13 +1180,21 @@ public final class SipUserAgent implements SipListener {
     }
 
     private void scheduleReRegistration() {
+        if(!autoRefresh) return;
         if(reRegisterTask!=null) reRegisterTask.cancel(false);
-        reRegisterTask = scheduler.schedule(()->{try{register(Duration.ofSeconds(10));}catch(Exception e){}}, (long)(3600*0.8), TimeUnit.SECONDS);
+        // 在批准有效期的 70%~85% 之间随机刷新，避免同时登录的账号在同一秒集中重注册
+        long delayMillis = Math.max(1000, (long) (grantedExpires * 1000L * ThreadLocalRandom.current().nextDouble(0.70, 0.85)));
+        try {
+            reRegisterTask = scheduler.schedule(this::refreshRegistration, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // 账号已关闭
+        }
     }
 
     private String extractFromUri(Request r) { return normalizeUri(((FromHeader)r.getHeader(FromHeader.NAME)).getAddress().getURI()); }
     private String extractToUri(Response r) { return normalizeUri(((ToHeader)r.getHeader(ToHeader.NAME)).getAddress().getURI()); }
     private String normalizeUri(URI u) { return (u instanceof SipURI)?((SipURI)u).toString():u.toString(); }
-    private String normalizeUri(String u) { try{return ((SipURI)addressFactory.createURI(u)).toString();}catch(Exception e){return u;} }
+    private String normalizeUri(String u) { return templates.normalize(u); }
+    private String peerKey(String u) { return templates.peerKey(u); }
     private String generateTag() { return Long.toHexString(System.currentTimeMillis()); }
 }
\ No newline at end of file
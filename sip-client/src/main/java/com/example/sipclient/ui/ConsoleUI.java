@@ -1,6 +1,8 @@
 package com.example.sipclient.ui;
 
+import com.example.sipclient.api.AdminServerClient;
 import com.example.sipclient.call.CallManager;
+import com.example.sipclient.chat.GroupBroadcaster;
 import com.example.sipclient.chat.GroupChatService;
 import com.example.sipclient.chat.MessageHandler;
 import com.example.sipclient.config.SipConfig;
@@ -139,6 +141,15 @@ public class ConsoleUI implements Runnable {
         System.out.print("成员列表（用逗号分隔的 SIP URI）: ");
         String members = scanner.nextLine();
         List<String> memberUris = List.of(members.split(","));
+        if (!groupChatService.isServerBacked() && currentConfig != null) {
+            System.out.print("业务服务器地址（如 http://localhost:8081，回车则由本机逐个发送）: ");
+            String serverUrl = scanner.nextLine().trim();
+            if (!serverUrl.isBlank()) {
+                AdminServerClient server = new AdminServerClient(serverUrl);
+                groupChatService.useServer(server, currentConfig.getUserAddress());
+                messageHandler.setGroupRelay(server.getGroupRelayUri());
+            }
+        }
         groupChatService.defineGroup(groupId, memberUris.stream().map(String::trim).filter(s -> !s.isBlank()).toList());
         System.out.println("群组已创建");
     }
@@ -149,7 +160,15 @@ public class ConsoleUI implements Runnable {
         String groupId = scanner.nextLine().trim();
         System.out.print("内容: ");
         String text = scanner.nextLine();
-        groupChatService.broadcastMessage(userAgent, groupId, text);
+        if (groupChatService.isServerBacked()) {
+            String fanOutId = groupChatService.relayMessage(groupId, text).join();
+            System.out.println(fanOutId != null ? "服务器已受理，扇出 id: " + fanOutId : "服务器受理失败");
+            return;
+        }
+        GroupBroadcaster.Report report = groupChatService.broadcastMessage(userAgent, groupId, text).join();
+        System.out.println("已送达 " + report.deliveredCount() + "/" + report.results().size()
+                + "，重试 " + report.retries() + " 次，耗时 " + report.elapsed().toMillis() + " ms");
+        report.failures().forEach(r -> System.out.println("  " + r.target() + " 未送达: " + r.reason()));
     }
 
     private void startCall() throws Exception {
@@ -182,6 +201,7 @@ public class ConsoleUI implements Runnable {
     }
 
     private void shutdown() {
+        groupChatService.close();
         if (userAgent != null) {
             userAgent.shutdown();
         }
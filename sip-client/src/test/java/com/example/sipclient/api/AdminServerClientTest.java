@@ -0,0 +1,27 @@
+package com.example.sipclient.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class AdminServerClientTest {
+
+    @Test
+    void parsesOfflineBatch() {
+        String json = "[{\"id\":41,\"sender\":\"sip:2001@10.0.0.1\",\"content\":\"第一行\\n\\\"引号\\\", {括号}\",\"timestamp\":null},"
+                + "{\"id\":42,\"sender\":\"sip:2002@10.0.0.1\",\"content\":\"\\u4f60\\u597d\",\"timestamp\":\"2026-10-19T08:00:00\"}]";
+
+        List<Map<String, String>> batch = AdminServerClient.parseObjects(json);
+
+        assertEquals(2, batch.size());
+        assertEquals("41", batch.get(0).get("id"));
+        assertEquals("第一行\n\"引号\", {括号}", batch.get(0).get("content"));
+        assertFalse(batch.get(0).containsKey("timestamp"));
+        assertEquals("你好", batch.get(1).get("content"));
+        assertEquals("2026-10-19T08:00:00", batch.get(1).get("timestamp"));
+    }
+}
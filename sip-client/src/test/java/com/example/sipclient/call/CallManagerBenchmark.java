@@ -0,0 +1,64 @@
+package com.example.sipclient.call;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CallManager 查找开销：网关模式下 1 万路并发会话时按 Call-ID 与按对端 URI 查找的对比。
+ * 在 test classpath 上运行 main 方法即可。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallManagerBenchmark {
+
+    @Param({"100", "10000"})
+    public int sessions;
+
+    private CallManager manager;
+    private String[] callIds;
+    private String[] remotes;
+
+    @Setup
+    public void setUp() {
+        manager = new CallManager(() -> null);
+        callIds = new String[sessions];
+        remotes = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            callIds[i] = "call-" + i + "@10.0.0.1";
+            remotes[i] = "sip:user" + (i % 1000) + "@example.com";
+            manager.startOutgoing(remotes[i], callIds[i]);
+        }
+    }
+
+    @Benchmark
+    public CallSession lookupByCallId() {
+        return manager.getByCallId(callIds[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    @Benchmark
+    public Object lookupByRemote() {
+        return manager.findByRemote(remotes[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(CallManagerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
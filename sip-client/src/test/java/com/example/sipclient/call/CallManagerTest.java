@@ -5,8 +5,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import javax.sip.Dialog;
+import java.time.Duration;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class CallManagerTest {
@@ -32,6 +35,8 @@ class CallManagerTest {
         CallManager manager = new CallManager(() -> mediaSession);
 
         CallSession session = manager.startOutgoing("sip:bob@example.com");
+        assertEquals(CallSession.State.IDLE, session.getState());
+        manager.markRinging(session);
         assertEquals(CallSession.State.RINGING, session.getState());
 
         Dialog dialog = Mockito.mock(Dialog.class);
@@ -52,6 +57,22 @@ class CallManagerTest {
         assertTrue(manager.listSessions().isEmpty());
     }
 
+    @Test
+    void outgoingRingTimeStartsAt180() throws InterruptedException {
+        CallManager manager = new CallManager();
+
+        CallSession session = manager.startOutgoing("sip:dave@example.com", "call-3");
+        Thread.sleep(50);
+        assertTrue(session.getRingTime().isEmpty());
+        manager.markRinging(session);
+        manager.markActive(session);
+
+        Duration setup = session.getSetupTime().orElseThrow();
+        Duration ring = session.getRingTime().orElseThrow();
+        assertTrue(setup.toMillis() >= 50);
+        assertTrue(ring.compareTo(setup.minusMillis(50)) <= 0);
+    }
+
     @Test
     void lifecycleForIncomingCall() {
         CallManager manager = new CallManager();
@@ -67,4 +88,20 @@ class CallManagerTest {
         assertEquals(CallSession.State.TERMINATED, session.getState());
         assertTrue(manager.findByRemote(session.getRemoteUri()).isEmpty());
     }
+
+    @Test
+    void callsWithSamePeerAreIndexedByCallId() {
+        CallManager manager = new CallManager();
+
+        CallSession first = manager.acceptIncoming("sip:carol@example.com", "call-1");
+        CallSession second = manager.acceptIncoming("sip:carol@example.com", "call-2");
+        assertEquals(2, manager.findAllByRemote("sip:carol@example.com").size());
+        assertSame(first, manager.getByCallId("call-1"));
+        assertSame(second, manager.getByCallId("call-2"));
+
+        manager.terminate(second);
+        assertNull(manager.getByCallId("call-2"));
+        assertSame(first, manager.findByRemote("sip:carol@example.com").orElseThrow());
+        assertEquals(CallSession.State.RINGING, first.getState());
+    }
 }
@@ -0,0 +1,64 @@
+package com.example.sipclient.call;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallSessionTest {
+
+    @Test
+    void rejectsIllegalTransitionsAndPublishesLegalOnes() {
+        CallSession session = new CallSession("sip:bob@example.com", false);
+        List<CallSession.Transition> seen = new ArrayList<>();
+        session.addTransitionListener((s, t) -> seen.add(t));
+
+        assertFalse(session.markHeld());
+        assertTrue(session.markRinging());
+        assertTrue(session.markEarlyMedia());
+        assertTrue(session.markActive());
+        assertTrue(session.markHeld());
+        assertFalse(session.markActive());
+        assertTrue(session.markResumed());
+        assertTrue(session.terminate());
+        assertFalse(session.fail());
+
+        assertEquals(CallSession.State.TERMINATED, session.getState());
+        assertEquals(6, seen.size());
+        assertEquals(CallSession.State.HELD, seen.get(3).to());
+        assertTrue(session.getSetupTime().isPresent());
+        assertTrue(session.getRingTime().isPresent());
+        assertTrue(session.getTalkTime().isPresent());
+    }
+
+    @Test
+    void onlyOneConcurrentFinishWins() throws Exception {
+        CallSession session = new CallSession("sip:alice@example.com", true);
+        session.markRinging();
+        AtomicInteger wins = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            boolean terminate = i % 2 == 0;
+            pool.submit(() -> {
+                start.await();
+                if (terminate ? session.terminate() : session.fail()) wins.incrementAndGet();
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, wins.get());
+        assertTrue(session.isFinished());
+    }
+}
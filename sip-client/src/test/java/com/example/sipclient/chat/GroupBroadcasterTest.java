@@ -0,0 +1,95 @@
+package com.example.sipclient.chat;
+
+import com.example.sipclient.sip.DeliveryResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupBroadcasterTest {
+
+    private GroupBroadcaster broadcaster;
+
+    @AfterEach
+    void close() {
+        broadcaster.close();
+    }
+
+    @Test
+    void limitsInFlightAndRetriesTransientFailures() throws Exception {
+        broadcaster = new GroupBroadcaster(new GroupBroadcaster.Settings(4, 10_000, 100, 3,
+                Duration.ofMillis(10), Duration.ofMillis(50)));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        Map<String, String> retriedIds = new ConcurrentHashMap<>();
+        GroupBroadcaster.Sender sender = (target, text, messageId) -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            int attempt = attempts.computeIfAbsent(target, t -> new AtomicInteger()).incrementAndGet();
+            if (messageId != null) {
+                retriedIds.put(target, messageId);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                inFlight.decrementAndGet();
+                if (target.endsWith("busy") && attempt == 1) {
+                    return new DeliveryResult(target, DeliveryResult.Outcome.REJECTED, 503, "Service Unavailable", Duration.ZERO,
+                            "7;epoch=e1");
+                }
+                if (target.endsWith("huge")) {
+                    return new DeliveryResult(target, DeliveryResult.Outcome.FAILED, 513, "Message too large", Duration.ZERO);
+                }
+                if (target.endsWith("gone")) {
+                    return new DeliveryResult(target, DeliveryResult.Outcome.REJECTED, 404, "Not Found", Duration.ZERO);
+                }
+                return new DeliveryResult(target, DeliveryResult.Outcome.DELIVERED, 200, "OK", Duration.ZERO);
+            }, CompletableFuture.delayedExecutor(5, TimeUnit.MILLISECONDS));
+        };
+        List<String> members = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            members.add("sip:m" + i + "@example.com");
+        }
+        members.add("sip:busy");
+        members.add("sip:gone");
+        members.add("sip:huge");
+
+        GroupBroadcaster.Report report = broadcaster.broadcast(sender, members, "hi").get(5, TimeUnit.SECONDS);
+
+        assertTrue(peak.get() <= 4);
+        assertEquals(41, report.deliveredCount());
+        assertEquals(1, report.retries());
+        assertEquals("sip:gone", report.failures().get(0).target());
+        assertEquals(1, attempts.get("sip:gone").get());
+        assertEquals(1, attempts.get("sip:huge").get());
+        // 重试沿用首次的消息 id
+        assertEquals(Map.of("sip:busy", "7;epoch=e1"), retriedIds);
+        assertEquals("sip:busy", report.results().get(40).target());
+    }
+
+    @Test
+    void pacesSendsByTokenRate() throws Exception {
+        broadcaster = new GroupBroadcaster(new GroupBroadcaster.Settings(64, 100, 5, 1,
+                Duration.ofMillis(10), Duration.ofMillis(10)));
+        GroupBroadcaster.Sender sender = (target, text, messageId) -> CompletableFuture.completedFuture(
+                new DeliveryResult(target, DeliveryResult.Outcome.DELIVERED, 200, "OK", Duration.ZERO));
+        List<String> members = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            members.add("sip:m" + i + "@example.com");
+        }
+
+        GroupBroadcaster.Report report = broadcaster.broadcast(sender, members, "hi").get(5, TimeUnit.SECONDS);
+
+        assertEquals(25, report.deliveredCount());
+        // 5 个突发令牌之后按 100 条/秒补充，其余 20 条至少需要约 200 ms
+        assertTrue(report.elapsed().toMillis() >= 150, "elapsed " + report.elapsed());
+    }
+}
@@ -47,4 +47,41 @@ class MessageHandlerTest {
         assertTrue(transcript.get(0).contains("msg-5"));
         assertTrue(transcript.get(transcript.size() - 1).contains("msg-24"));
     }
+
+    @Test
+    void archivesRelayedGroupMessagesByGroup() {
+        List<String> sink = new ArrayList<>();
+        MessageHandler handler = new MessageHandler(sink::add);
+        handler.setGroupRelay("sip:relay@example.com:5090");
+        String body = new GroupMessage("team", "sip:carol@example.com", "第一行\n第二行").encode();
+
+        // 普通用户发来的群消息信封不可信，按单聊消息记在发送方名下
+        handler.handleIncomingMessage("sip:mallory@example.com", body);
+        assertTrue(handler.listSessions().stream().noneMatch(s -> s.getSessionId().equals("team")));
+        assertTrue(sink.remove(0).contains("sip:mallory@example.com"));
+
+        handler.handleIncomingMessage("sip:relay@example.com", body);
+
+        assertEquals(new GroupMessage("team", "sip:carol@example.com", "第一行\n第二行"), GroupMessage.decode(body));
+        ChatSession session = handler.listSessions().stream()
+                .filter(s -> s.getSessionId().equals("team"))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(session.dumpRecentMessages().get(0).contains("第二行"));
+        assertTrue(sink.get(0).contains("sip:carol@example.com"));
+    }
+
+    @Test
+    void transcriptCapacityIsConfigurable() {
+        MessageHandler handler = new MessageHandler(null, 3);
+        for (int i = 0; i < 5; i++) {
+            handler.handleIncomingMessage("sip:dave@example.com", "msg-" + i);
+        }
+        ChatSession session = handler.listSessions().get(0);
+        List<ChatSession.Entry> entries = session.recentEntries();
+        assertEquals(3, entries.size());
+        assertEquals("msg-2", entries.get(0).text());
+        assertEquals("sip:dave@example.com", entries.get(2).from());
+        assertTrue(session.dumpRecentMessages().get(2).endsWith("sip:dave@example.com: msg-4"));
+    }
 }
@@ -0,0 +1,81 @@
+package com.example.sipclient.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SessionCacheTest {
+
+    @Test
+    void oneOffPeersDoNotEvictActiveSessions() {
+        SessionCache cache = new SessionCache(new SessionCache.Settings(10, Duration.ofHours(1)));
+        Map<String, SessionCache.Cause> evicted = new ConcurrentHashMap<>();
+        cache.setEvictionListener((session, cause) -> evicted.put(session.getSessionId(), cause));
+
+        ChatSession friend = cache.get("sip:friend", this::session);
+        cache.get("sip:friend", this::session);
+        for (int i = 0; i < 100; i++) {
+            cache.get("sip:bot" + i, this::session);
+        }
+
+        assertSame(friend, cache.get("sip:friend", this::session));
+        assertEquals(10, cache.size());
+        assertEquals(SessionCache.Cause.SIZE, evicted.get("sip:bot0"));
+        SessionCache.Stats stats = cache.getStats();
+        assertEquals(2, stats.hits());
+        assertEquals(101, stats.misses());
+        assertEquals(91, stats.evictions());
+    }
+
+    @Test
+    void evictsIdleSessions() throws Exception {
+        SessionCache cache = new SessionCache(new SessionCache.Settings(10, Duration.ofMillis(50)));
+        Map<String, SessionCache.Cause> evicted = new ConcurrentHashMap<>();
+        cache.setEvictionListener((session, cause) -> evicted.put(session.getSessionId(), cause));
+        ChatSession first = cache.get("sip:a", this::session);
+        first.appendMessage("sip:a", "hello");
+
+        Thread.sleep(100);
+        cache.cleanUp();
+
+        assertEquals(SessionCache.Cause.IDLE, evicted.get("sip:a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getStats().expirations());
+        assertNotSame(first, cache.get("sip:a", this::session));
+    }
+
+    @Test
+    void expiresSessionsDemotedBehindNewerOnes() throws Exception {
+        SessionCache cache = new SessionCache(new SessionCache.Settings(10, Duration.ofMillis(500)));
+        Map<String, SessionCache.Cause> evicted = new ConcurrentHashMap<>();
+        cache.setEvictionListener((session, cause) -> evicted.put(session.getSessionId(), cause));
+        cache.get("sip:old", this::session);
+        cache.get("sip:old", this::session);
+
+        Thread.sleep(300);
+        cache.get("sip:fresh", this::session);
+        // 保护段（容量 8）溢出，sip:old 带着旧的访问时间退回试用段，排在 sip:fresh 之后
+        for (int i = 0; i < 8; i++) {
+            cache.get("sip:p" + i, this::session);
+            cache.get("sip:p" + i, this::session);
+        }
+
+        Thread.sleep(300);
+        cache.cleanUp();
+
+        assertEquals(SessionCache.Cause.IDLE, evicted.get("sip:old"));
+        assertEquals(1, evicted.size());
+        assertEquals(9, cache.size());
+    }
+
+    private ChatSession session(String uri) {
+        return new ChatSession(uri, false, List.of(uri));
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.sipclient.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * admin-server 单连接收发 50 MB 文件的吞吐，以及服务端每 GB 消耗的 CPU 时间（由 /api/stats/files 的进程 CPU 采样相减）。
+ * upload: multipart 为原 POST /api/files/upload，stream 为 PUT 流式上传；download 在服务端开/关
+ * file.download.zero-copy 各跑一次对比 sendfile 与缓冲区复制。
+ * 需先启动 admin-server，地址由 -Dadmin.url 指定（默认 http://localhost:8081）；在 test classpath 上运行 main 方法即可。
+ * 服务端 CPU 包含同一进程里的其他工作，测量期间不要有别的负载。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileServingBenchmark {
+
+    private static final int FILE_BYTES = 50 * 1024 * 1024;
+
+    @Param({"multipart", "stream"})
+    public String upload;
+
+    private String serverUrl;
+    private Path file;
+    private String downloadUrl;
+    private long cpuAtStart;
+    private final AtomicLong transferred = new AtomicLong();
+    private long bytesAtStart;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        serverUrl = System.getProperty("admin.url", "http://localhost:8081");
+        byte[] content = new byte[FILE_BYTES];
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("serving", ".bin");
+        Files.write(file, content);
+        downloadUrl = extract(uploadStream(), "downloadUrl");
+    }
+
+    @Setup(Level.Iteration)
+    public void sampleStart() throws IOException {
+        String stats = get(serverUrl + "/api/stats/files");
+        cpuAtStart = number(stats, "processCpuNanos");
+        bytesAtStart = transferred.get();
+    }
+
+    @TearDown(Level.Iteration)
+    public void sampleEnd() throws IOException {
+        String stats = get(serverUrl + "/api/stats/files");
+        double gigabytes = (transferred.get() - bytesAtStart) / (1024.0 * 1024 * 1024);
+        double cpuMillis = (number(stats, "processCpuNanos") - cpuAtStart) / 1e6;
+        System.out.printf("%n  server cpu: %.0f ms/GB%n", gigabytes > 0 ? cpuMillis / gigabytes : 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String upload() throws IOException {
+        transferred.addAndGet(FILE_BYTES);
+        return "stream".equals(upload) ? uploadStream() : uploadMultipart();
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(downloadUrl).openConnection();
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try (InputStream in = connection.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                total += n;
+            }
+        }
+        transferred.addAndGet(total);
+        return total;
+    }
+
+    private String uploadStream() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                serverUrl + "/api/files/upload?fileName=serving.bin&type=file").openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setFixedLengthStreamingMode(FILE_BYTES);
+        try (OutputStream out = connection.getOutputStream()) {
+            Files.copy(file, out);
+        }
+        return read(connection);
+    }
+
+    private String uploadMultipart() throws IOException {
+        String boundary = "----bench" + System.nanoTime();
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"serving.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl + "/api/files/upload").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        connection.setFixedLengthStreamingMode(head.length + (long) FILE_BYTES + tail.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(head);
+            Files.copy(file, out);
+            out.write(tail);
+        }
+        return read(connection);
+    }
+
+    private static String get(String url) throws IOException {
+        return read((HttpURLConnection) new URL(url).openConnection());
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long number(String json, String field) {
+        Matcher matcher = Pattern.compile("\"" + field + "\":(\\d+)").matcher(json);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static String extract(String json, String field) {
+        Matcher matcher = Pattern.compile("\"" + field + "\":\"([^\"]*)\"").matcher(json);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FileServingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.sipclient.file;
+
+import com.example.sipclient.gui.model.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 50 MB 文件经本地 admin-server 上传、下载的耗时，单连接 (maxConnections=1) 与多连接对比。
+ * 需先启动 admin-server，地址由 -Dadmin.url 指定（默认 http://localhost:8081）；在 test classpath 上运行 main 方法即可。
+ * 本机回环没有传播延迟，多连接的收益主要来自客户端读文件、服务端落盘与网络传输的重叠；
+ * 高延迟链路上差距更大，可用 tc netem 等工具给回环加延迟后对比。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileTransferBenchmark {
+
+    private static final int FILE_BYTES = 50 * 1024 * 1024;
+
+    @Param({"1", "6"})
+    public int maxConnections;
+
+    private FileTransferService service;
+    private File file;
+    private String downloadUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        service = new FileTransferService();
+        service.setServerUrl(System.getProperty("admin.url", "http://localhost:8081"));
+        service.setMaxConnections(maxConnections);
+        byte[] content = new byte[FILE_BYTES];
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("bench", ".bin").toFile();
+        Files.write(file.toPath(), content);
+        downloadUrl = service.uploadFile(file, MessageType.FILE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String upload() throws Exception {
+        return service.uploadFile(file, MessageType.FILE);
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        File downloaded = service.downloadFile(downloadUrl, "bench.bin");
+        long length = downloaded.length();
+        downloaded.delete();
+        return length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FileTransferBenchmark.class.getSimpleName()).build()).run();
+    }
+}
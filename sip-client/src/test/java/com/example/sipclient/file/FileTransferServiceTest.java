@@ -0,0 +1,198 @@
+package com.example.sipclient.file;
+
+import com.example.sipclient.gui.model.MessageType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileTransferServiceTest {
+
+    private static final int CHUNK = 1024 * 1024;
+
+    @Test
+    void retriesFailedChunkWhileUploadingInParallel(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[CHUNK * 2 + 1234];
+        new Random(7).nextBytes(content);
+        File file = dir.resolve("video.mp4").toFile();
+        Files.write(file.toPath(), content);
+
+        byte[] stored = new byte[content.length];
+        BitSet received = new BitSet();
+        List<String> puts = Collections.synchronizedList(new ArrayList<>());
+        boolean[] failedOnce = {false};
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/files/uploads", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (method.equals("PUT")) {
+                int index = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                byte[] body = exchange.getRequestBody().readAllBytes();
+                puts.add(String.valueOf(index));
+                if (index == 1 && !failedOnce[0]) {
+                    failedOnce[0] = true;
+                    reply(exchange, 500, "{}");
+                    return;
+                }
+                synchronized (received) {
+                    System.arraycopy(body, 0, stored, index * CHUNK, body.length);
+                    received.set(index);
+                    reply(exchange, 200, status(received));
+                }
+            } else if (path.endsWith("/complete")) {
+                reply(exchange, 200, "{\"success\":true,\"downloadUrl\":\"http://files/abc.mp4\"}");
+            } else {
+                exchange.getRequestBody().readAllBytes();
+                synchronized (received) {
+                    reply(exchange, 200, status(received));
+                }
+            }
+        });
+        server.start();
+        try {
+            FileTransferService service = new FileTransferService();
+            service.setServerUrl("http://127.0.0.1:" + server.getAddress().getPort());
+
+            String url = service.uploadFile(file, MessageType.VIDEO);
+
+            assertEquals("http://files/abc.mp4", url);
+            Collections.sort(puts);
+            assertEquals(List.of("0", "1", "1", "2"), puts);
+            assertArrayEquals(content, stored);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void skipsUploadWhenServerAlreadyHasContent(@TempDir Path dir) throws Exception {
+        byte[] content = new byte[CHUNK + 1];
+        new Random(11).nextBytes(content);
+        File file = dir.resolve("report.pdf").toFile();
+        Files.write(file.toPath(), content);
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/files/", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+            if (!"Bearer t0ken".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                reply(exchange, 401, "");
+            } else if (exchange.getRequestURI().getPath().equals("/api/files/link/c1")) {
+                // 证明应为 nonce + 文件 [1000, 1000 + 4096) 区间的哈希
+                MessageDigest digest = sha256Digest();
+                digest.update(new byte[] {1, 2});
+                digest.update(content, 1000, 4096);
+                boolean valid = body.equals("{\"proof\":\"" + HexFormat.of().formatHex(digest.digest()) + "\"}");
+                reply(exchange, valid ? 200 : 403, valid ? "{\"success\":true,\"downloadUrl\":\"http://files/dup.pdf\"}" : "");
+            } else if (body.contains("\"sha256\":\"" + sha256 + "\"") && body.contains("\"size\":" + content.length)) {
+                reply(exchange, 200, "{\"challengeId\":\"c1\",\"offset\":1000,\"length\":4096,\"nonce\":\"0102\"}");
+            } else {
+                reply(exchange, 404, "");
+            }
+        });
+        server.start();
+        try {
+            FileTransferService service = new FileTransferService();
+            service.setServerUrl("http://127.0.0.1:" + server.getAddress().getPort());
+            service.setAuthToken(() -> "t0ken");
+
+            assertEquals("http://files/dup.pdf", service.uploadFile(file, MessageType.FILE));
+            assertEquals("http://files/dup.pdf", service.uploadFile(file, MessageType.FILE));
+            assertEquals(List.of("POST /api/files/link", "POST /api/files/link/c1",
+                    "POST /api/files/link", "POST /api/files/link/c1"), requests);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void downloadsRangesIntoPreallocatedFileAndRevalidates() throws Exception {
+        byte[] content = new byte[5 * 1024 * 1024 + 77];
+        new Random(11).nextBytes(content);
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/files/download/clip.mp4", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(range);
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            exchange.getResponseBody().write(content, start, end - start + 1);
+            exchange.close();
+        });
+        server.start();
+        File downloaded = null;
+        try {
+            FileTransferService service = new FileTransferService();
+            downloaded = service.downloadFile(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/api/files/download/clip.mp4", "clip.mp4");
+
+            assertArrayEquals(content, Files.readAllBytes(downloaded.toPath()));
+            assertEquals(3, ranges.size());
+            assertTrue(ranges.contains("bytes=4194304-" + (content.length - 1)));
+            // 同一链接再次下载：304，复用已有文件
+            assertEquals(downloaded, service.downloadFile(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/api/files/download/clip.mp4", "clip.mp4"));
+            assertEquals(4, ranges.size());
+        } finally {
+            server.stop(0);
+            if (downloaded != null) {
+                downloaded.delete();
+            }
+        }
+    }
+
+    private static String status(BitSet received) {
+        StringBuilder missing = new StringBuilder();
+        for (int i = received.nextClearBit(0); i < 3; i = received.nextClearBit(i + 1)) {
+            missing.append(missing.length() == 0 ? "" : ",").append(i);
+        }
+        int next = received.nextClearBit(0);
+        return "{\"uploadId\":\"u1\",\"chunkSize\":" + CHUNK + ",\"totalChunks\":3,\"receivedChunks\":"
+                + received.cardinality() + ",\"missing\":[" + missing + "],\"nextMissing\":" + (next < 3 ? next : -1) + "}";
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+}
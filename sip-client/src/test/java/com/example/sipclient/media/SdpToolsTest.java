@@ -0,0 +1,27 @@
+package com.example.sipclient.media;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SdpToolsTest {
+
+    @Test
+    void roundTripsDirectionAttribute() {
+        String sdp = SdpTools.createSdp("10.0.0.1", 20010, 0, MediaDirection.SENDONLY);
+        assertEquals(MediaDirection.SENDONLY, SdpTools.getDirection(sdp));
+        assertEquals(20010, SdpTools.getRemotePort(sdp));
+        assertEquals(MediaDirection.SENDRECV, SdpTools.getDirection("v=0\r\nm=audio 4000 RTP/AVP 98\r\n"));
+    }
+
+    @Test
+    void holdAnswerIsReverseOfOffer() {
+        assertEquals(MediaDirection.RECVONLY, MediaDirection.SENDONLY.reverse());
+        assertEquals(MediaDirection.INACTIVE, MediaDirection.INACTIVE.reverse());
+        // 本端保持中 (只允许 sendonly) 收到对方 sendrecv 提议
+        assertEquals(MediaDirection.SENDONLY, MediaDirection.SENDRECV.reverse().intersect(MediaDirection.SENDONLY));
+        assertEquals(MediaDirection.INACTIVE, MediaDirection.SENDONLY.reverse().intersect(MediaDirection.SENDONLY));
+        // 本端保持中 (不收不发) 时无论对方提议什么，应答与本端媒体都是 inactive
+        assertEquals(MediaDirection.INACTIVE, MediaDirection.SENDRECV.reverse().intersect(MediaDirection.INACTIVE));
+    }
+}
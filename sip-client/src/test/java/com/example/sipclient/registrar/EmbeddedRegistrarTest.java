@@ -0,0 +1,189 @@
+package com.example.sipclient.registrar;
+
+import com.example.sipclient.call.CallManager;
+import com.example.sipclient.call.CallSession;
+import com.example.sipclient.chat.ConversationListener;
+import com.example.sipclient.chat.MessageHandler;
+import com.example.sipclient.presence.PresenceStatus;
+import com.example.sipclient.sip.SipUserAgent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddedRegistrarTest {
+
+    private static final int REGISTRAR_PORT = 15060;
+
+    private EmbeddedRegistrar registrar;
+    private final List<SipUserAgent> agents = new ArrayList<>();
+
+    @BeforeEach
+    void startRegistrar() throws Exception {
+        registrar = EmbeddedRegistrar.builder().port(REGISTRAR_PORT).build().start();
+    }
+
+    @AfterEach
+    void shutdown() {
+        agents.forEach(SipUserAgent::shutdown);
+        registrar.close();
+    }
+
+    @Test
+    void registerRequiresValidDigest() throws Exception {
+        SipUserAgent good = agent("2001", "2001", 15071);
+        SipUserAgent bad = agent("2002", "wrong", 15072);
+
+        assertTrue(good.register(Duration.ofSeconds(5)));
+        assertFalse(bad.register(Duration.ofSeconds(2)));
+        assertNotNull(registrar.getLocationService().lookup("2001"));
+        assertEquals(null, registrar.getLocationService().lookup("2002"));
+
+        assertTrue(good.unregister(Duration.ofSeconds(5)));
+        assertEquals(null, registrar.getLocationService().lookup("2001"));
+    }
+
+    @Test
+    void routesMessageAndCallBetweenRegisteredAgents() throws Exception {
+        SipUserAgent alice = agent("2011", "2011", 15073);
+        SipUserAgent bob = agent("2012", "2012", 15074);
+        assertTrue(alice.register(Duration.ofSeconds(5)));
+        assertTrue(bob.register(Duration.ofSeconds(5)));
+
+        CompletableFuture<String> received = new CompletableFuture<>();
+        bob.setMessageHandler(new MessageHandler(received::complete));
+        alice.sendMessage(bobUri(), "hello");
+        assertTrue(received.get(5, TimeUnit.SECONDS).contains("hello"));
+
+        CallManager aliceCalls = new CallManager();
+        CallManager bobCalls = new CallManager();
+        alice.setCallManager(aliceCalls);
+        bob.setCallManager(bobCalls);
+        bobCalls.setIncomingCallListener((from, sessionId) -> CompletableFuture.runAsync(() ->
+                bobCalls.findById(sessionId).ifPresent(session -> {
+                    try {
+                        bob.answerCallByCallId(session.getCallId());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                })));
+        CountDownLatch established = new CountDownLatch(1);
+        aliceCalls.addTransitionListener((session, transition) -> {
+            if (transition.to() == CallSession.State.ACTIVE) {
+                established.countDown();
+            }
+        });
+
+        alice.startCall(bobUri());
+        assertTrue(established.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void notifiesPresenceFromRegistrationAndPublish() throws Exception {
+        SipUserAgent alice = agent("2021", "2021", 15075);
+        SipUserAgent bob = agent("2022", "2022", 15076);
+        assertTrue(alice.register(Duration.ofSeconds(5)));
+
+        Map<String, PresenceStatus> latest = new ConcurrentHashMap<>();
+        CountDownLatch initial = new CountDownLatch(2);
+        CountDownLatch busy = new CountDownLatch(1);
+        alice.setPresenceListener(status -> {
+            latest.put(status.uri(), status);
+            initial.countDown();
+            if ("开会中".equals(status.note())) {
+                busy.countDown();
+            }
+        });
+        String bobUri = "sip:2022@127.0.0.1:" + REGISTRAR_PORT;
+        String carolUri = "sip:2023@127.0.0.1:" + REGISTRAR_PORT;
+        alice.subscribePresence(List.of(bobUri, carolUri));
+        assertTrue(initial.await(5, TimeUnit.SECONDS));
+        assertFalse(latest.get(bobUri).online());
+        assertEquals(1, registrar.getPresenceSubscriptionCount());
+
+        assertTrue(bob.register(Duration.ofSeconds(5)));
+        bob.publishPresence(true, "开会中");
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        assertTrue(latest.get(bobUri).online());
+        assertFalse(latest.get(carolUri).online());
+    }
+
+    @Test
+    void coalescesTypingAndReadReceipts() throws Exception {
+        SipUserAgent alice = agent("2031", "2031", 15079);
+        SipUserAgent bob = agent("2032", "2032", 15080);
+        assertTrue(alice.register(Duration.ofSeconds(5)));
+        assertTrue(bob.register(Duration.ofSeconds(5)));
+        String aliceUri = "sip:2031@127.0.0.1:" + REGISTRAR_PORT;
+        String bobUri = "sip:2032@127.0.0.1:" + REGISTRAR_PORT;
+
+        List<Boolean> composing = new CopyOnWriteArrayList<>();
+        CountDownLatch startedTyping = new CountDownLatch(1);
+        CountDownLatch stoppedTyping = new CountDownLatch(1);
+        bob.setConversationListener(new ConversationListener() {
+            @Override
+            public void onComposing(String peerUri, boolean active) {
+                composing.add(active);
+                (active ? startedTyping : stoppedTyping).countDown();
+            }
+        });
+        List<Boolean> reads = new CopyOnWriteArrayList<>();
+        CountDownLatch read = new CountDownLatch(1);
+        alice.setConversationListener(new ConversationListener() {
+            @Override
+            public void onRead(String peerUri, boolean allRead) {
+                reads.add(allRead);
+                read.countDown();
+            }
+        });
+        CountDownLatch received = new CountDownLatch(3);
+        bob.setMessageHandler(new MessageHandler(line -> received.countDown()));
+        Map<String, String> synced = new ConcurrentHashMap<>();
+        bob.setReadSync(synced::putAll);
+
+        for (int i = 0; i < 50; i++) {
+            alice.notifyTyping(bobUri);
+        }
+        assertTrue(startedTyping.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(alice.sendMessageAsync(bobUri, "msg-" + i).get(5, TimeUnit.SECONDS).isDelivered());
+        }
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertTrue(stoppedTyping.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(true, false), composing);
+
+        for (int i = 0; i < 5; i++) {
+            bob.markRead(aliceUri);
+        }
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        assertEquals(List.of(true), reads);
+        assertEquals(1, synced.size());
+        assertTrue(synced.values().iterator().next().startsWith("3;epoch="));
+    }
+
+    private String bobUri() {
+        return "sip:2012@127.0.0.1:" + REGISTRAR_PORT;
+    }
+
+    private SipUserAgent agent(String user, String password, int port) throws Exception {
+        SipUserAgent agent = new SipUserAgent("sip:" + user + "@127.0.0.1:" + REGISTRAR_PORT, password, "127.0.0.1", port);
+        agent.setSyntheticMedia(true);
+        agents.add(agent);
+        return agent;
+    }
+}
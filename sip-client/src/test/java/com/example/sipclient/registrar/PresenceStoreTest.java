@@ -0,0 +1,85 @@
+package com.example.sipclient.registrar;
+
+import com.example.sipclient.presence.PresenceStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceStoreTest {
+
+    private record Sent(String watcher, List<PresenceStatus> changes) {
+    }
+
+    private final List<Sent> sent = new ArrayList<>();
+    // 定时刷新间隔足够长，测试里手动 flush
+    private final PresenceStore store = new PresenceStore(
+            (subscription, changes, terminated) -> sent.add(new Sent(subscription.watcher(), changes)),
+            Duration.ofHours(1), Duration.ofMillis(200), 100);
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void throttlesWatcherAndCoalescesPendingChanges() throws Exception {
+        store.subscribe("c1", "alice", Map.of("bob", "sip:bob@x", "carol", "sip:carol@x"), Duration.ofMinutes(5), null);
+        store.flush();
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).changes().size());
+        assertFalse(sent.get(0).changes().get(0).online());
+        sent.clear();
+
+        store.update("bob", true, null);
+        store.flush();
+        // 首条 NOTIFY 之后的限速期内继续合并
+        assertTrue(sent.isEmpty());
+        store.update("carol", true, null);
+        store.flush();
+        assertTrue(sent.isEmpty());
+
+        Thread.sleep(250);
+        store.flush();
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).changes().size());
+        assertTrue(sent.get(0).changes().stream().allMatch(PresenceStatus::online));
+    }
+
+    @Test
+    void fansOutOneNotifyPerWatcherRegardlessOfContactCount() {
+        PresenceStore unthrottled = new PresenceStore(
+                (subscription, changes, terminated) -> sent.add(new Sent(subscription.watcher(), changes)),
+                Duration.ofHours(1), Duration.ZERO, 100);
+        try {
+            List<String> users = List.of("u1", "u2", "u3", "u4", "u5");
+            for (String watcher : users) {
+                Map<String, String> contacts = new LinkedHashMap<>();
+                users.stream().filter(u -> !u.equals(watcher)).forEach(u -> contacts.put(u, "sip:" + u + "@x"));
+                unthrottled.subscribe(watcher, watcher, contacts, Duration.ofMinutes(5), null);
+            }
+            unthrottled.flush();
+            sent.clear();
+
+            users.forEach(u -> unthrottled.update(u, true, null));
+            // 翻转回原状态的变化不扇出
+            unthrottled.update("u5", false, null);
+            unthrottled.flush();
+
+            assertEquals(users.size(), sent.size());
+            int statuses = sent.stream().mapToInt(s -> s.changes().size()).sum();
+            assertEquals(4 * 3 + 4, statuses);
+            assertEquals(1, unthrottled.getSuppressedCount());
+        } finally {
+            unthrottled.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ComposingIndicatorTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+    private final List<String> remoteChanges = new CopyOnWriteArrayList<>();
+    private final ComposingIndicator indicator = new ComposingIndicator((target, body) -> sent.add(body),
+            (peer, active) -> remoteChanges.add(peer + "=" + active),
+            Duration.ofMillis(100), Duration.ofMillis(300), scheduler, 16);
+
+    @AfterEach
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void coalescesKeystrokesAndRefreshesThenGoesIdle() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            indicator.typing("sip:a@x", "sip:a@x");
+        }
+        assertTrue(sent.poll(1, TimeUnit.SECONDS).contains("<state>active</state>"));
+        assertNull(sent.poll(0, TimeUnit.MILLISECONDS));
+
+        // 超过 refresh 仍在输入：再发一次 active
+        Thread.sleep(150);
+        indicator.typing("sip:a@x", "sip:a@x");
+        assertTrue(sent.poll(1, TimeUnit.SECONDS).contains("<state>active</state>"));
+
+        // 最后一次按键后 idleAfter 才发 idle
+        assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(sent.poll(1, TimeUnit.SECONDS).contains("<state>idle</state>"));
+        assertNull(sent.poll(400, TimeUnit.MILLISECONDS));
+        assertEquals(6, indicator.getKeystrokeCount());
+        assertEquals(3, indicator.getSignalsSent());
+    }
+
+    @Test
+    void sendingAMessageImpliesIdle() throws Exception {
+        indicator.typing("sip:a@x", "sip:a@x");
+        sent.take();
+        indicator.messageSent("sip:a@x");
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+
+        indicator.typing("sip:a@x", "sip:a@x");
+        assertTrue(sent.poll(1, TimeUnit.SECONDS).contains("<state>active</state>"));
+    }
+
+    @Test
+    void tracksRemoteStateChangesOnly() {
+        String active = ComposingIndicator.encode(true, 60_000);
+        indicator.remoteIndication("sip:b@x", active);
+        indicator.remoteIndication("sip:b@x", active);
+        indicator.remoteMessage("sip:b@x");
+        indicator.remoteIndication("sip:b@x", ComposingIndicator.encode(false, 60_000));
+        indicator.remoteIndication("sip:b@x", "<isComposing/>");
+        assertEquals(List.of("sip:b@x=true", "sip:b@x=false"), remoteChanges);
+    }
+
+    @Test
+    void encodesRefreshInSecondsOnlyWhenActive() {
+        String active = ComposingIndicator.encode(true, 90_000);
+        assertTrue(active.contains("<state>active</state>"));
+        assertTrue(active.contains("<refresh>90</refresh>"));
+        assertTrue(active.contains("<contenttype>text/plain</contenttype>"));
+        assertTrue(ComposingIndicator.encode(true, 200).contains("<refresh>1</refresh>"));
+
+        String idle = ComposingIndicator.encode(false, 90_000);
+        assertTrue(idle.contains("<state>idle</state>"));
+        assertFalse(idle.contains("<refresh>"));
+    }
+}
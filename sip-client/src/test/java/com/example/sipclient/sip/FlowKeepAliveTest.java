@@ -0,0 +1,68 @@
+package com.example.sipclient.sip;
+
+import com.example.sipclient.registrar.EmbeddedRegistrar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowKeepAliveTest {
+
+    private static final int REGISTRAR_PORT = 15063;
+
+    private EmbeddedRegistrar registrar;
+    private SharedSipStack stack;
+
+    @AfterEach
+    void shutdown() {
+        if (stack != null) {
+            stack.close();
+        }
+        if (registrar != null) {
+            registrar.close();
+        }
+    }
+
+    @Test
+    void detectsFailureAndRecovery() throws Exception {
+        registrar = EmbeddedRegistrar.builder().port(REGISTRAR_PORT).build().start();
+        FlowKeepAlive.Settings settings = new FlowKeepAlive.Settings(Duration.ofMillis(200), Duration.ofMillis(100),
+                Duration.ofMillis(400), Duration.ofMillis(200), 2);
+        stack = new SharedSipStack("127.0.0.1", 15085, "UDP", "127.0.0.1:" + REGISTRAR_PORT, settings);
+        FlowKeepAlive keepAlive = stack.getKeepAlive();
+        CountDownLatch failed = new CountDownLatch(1);
+        CountDownLatch restored = new CountDownLatch(1);
+        keepAlive.addListener(new FlowKeepAlive.Listener() {
+            @Override
+            public void onFlowFailed() {
+                failed.countDown();
+            }
+
+            @Override
+            public void onFlowRestored() {
+                restored.countDown();
+            }
+        });
+        keepAlive.start();
+
+        Thread.sleep(1000);
+        assertTrue(keepAlive.isFlowUp());
+        assertTrue(keepAlive.getProbesSent() >= 3);
+        assertTrue(keepAlive.getBytesSent() > 0);
+        assertEquals(0, keepAlive.getFlowFailures());
+
+        registrar.close();
+        assertTrue(failed.await(3, TimeUnit.SECONDS));
+        assertTrue(keepAlive.getLastDetectionMillis() >= 0);
+
+        registrar = EmbeddedRegistrar.builder().port(REGISTRAR_PORT).build().start();
+        assertTrue(restored.await(3, TimeUnit.SECONDS));
+        assertTrue(keepAlive.isFlowUp());
+        assertEquals(1, keepAlive.getRecoveries());
+    }
+}
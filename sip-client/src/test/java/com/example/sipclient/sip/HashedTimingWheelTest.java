@@ -0,0 +1,46 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimingWheelTest {
+
+    @Test
+    void firesInDeadlineOrderAcrossRounds() throws Exception {
+        List<Integer> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        // 8 个槽 * 10ms，一轮 80ms，第三个任务需要转两圈
+        try (HashedTimingWheel wheel = new HashedTimingWheel(Duration.ofMillis(10), 8, Runnable::run)) {
+            wheel.schedule(() -> { fired.add(3); done.countDown(); }, 200, TimeUnit.MILLISECONDS);
+            wheel.schedule(() -> { fired.add(1); done.countDown(); }, 20, TimeUnit.MILLISECONDS);
+            wheel.schedule(() -> { fired.add(2); done.countDown(); }, 90, TimeUnit.MILLISECONDS);
+
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+            assertEquals(List.of(1, 2, 3), fired);
+            assertEquals(0, wheel.pendingCount());
+        }
+    }
+
+    @Test
+    void cancelledTaskNeverRuns() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+        CountDownLatch marker = new CountDownLatch(1);
+        try (HashedTimingWheel wheel = new HashedTimingWheel(Duration.ofMillis(10), 8, Runnable::run)) {
+            HashedTimingWheel.Timeout timeout = wheel.schedule(ran::countDown, 50, TimeUnit.MILLISECONDS);
+            wheel.schedule(marker::countDown, 100, TimeUnit.MILLISECONDS);
+            assertTrue(timeout.cancel());
+
+            assertTrue(marker.await(2, TimeUnit.SECONDS));
+            assertEquals(1, ran.getCount());
+            assertEquals(0, wheel.pendingCount());
+        }
+    }
+}
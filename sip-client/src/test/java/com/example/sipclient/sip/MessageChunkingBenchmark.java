@@ -0,0 +1,88 @@
+package com.example.sipclient.sip;
+
+import com.example.sipclient.chat.MessageHandler;
+import com.example.sipclient.registrar.EmbeddedRegistrar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大文本 MESSAGE 端到端吞吐：经内嵌 registrar 转发，整条发送 (chunkBytes=0) 与按 1200 字节分片发送的对比。
+ * 一次操作 = 发出并等到接收端拿到完整文本。在 test classpath 上运行 main 方法即可。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageChunkingBenchmark {
+
+    private static final int REGISTRAR_PORT = 15064;
+
+    @Param({"1000", "16000", "60000"})
+    public int textBytes;
+
+    @Param({"0", "1200"})
+    public int chunkBytes;
+
+    private EmbeddedRegistrar registrar;
+    private SipUserAgent sender;
+    private SipUserAgent receiver;
+    private String text;
+    private String target;
+    private volatile CompletableFuture<String> received;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        registrar = EmbeddedRegistrar.builder().port(REGISTRAR_PORT).build().start();
+        sender = new SipUserAgent("sip:3001@127.0.0.1:" + REGISTRAR_PORT, "3001", "127.0.0.1", 15077);
+        receiver = new SipUserAgent("sip:3002@127.0.0.1:" + REGISTRAR_PORT, "3002", "127.0.0.1", 15078);
+        sender.register(Duration.ofSeconds(5));
+        receiver.register(Duration.ofSeconds(5));
+        sender.setMessageChunkBytes(chunkBytes);
+        receiver.setMessageHandler(new MessageHandler(message -> {
+            CompletableFuture<String> pending = received;
+            if (pending != null) {
+                pending.complete(message);
+            }
+        }));
+        text = "消息".repeat(textBytes / 6) + "x".repeat(textBytes % 6);
+        target = "sip:3002@127.0.0.1:" + REGISTRAR_PORT;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.shutdown();
+        receiver.shutdown();
+        registrar.close();
+    }
+
+    @Benchmark
+    public String sendAndReceive() throws Exception {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        received = pending;
+        sender.sendMessageAsync(target, text);
+        return pending.get(10, TimeUnit.SECONDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(MessageChunkingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageReassemblerTest {
+
+    @Test
+    void reassemblesOutOfOrderParts() {
+        String text = "分片消息-".repeat(500);
+        List<MessagePart> parts = new ArrayList<>(MessagePart.split(text, 1200));
+        assertTrue(parts.size() > 1);
+        for (MessagePart part : parts) {
+            assertTrue(part.body().getBytes(StandardCharsets.UTF_8).length <= 1200);
+        }
+        Collections.reverse(parts);
+
+        MessageReassembler reassembler = new MessageReassembler(8, 1 << 20, Duration.ofSeconds(30));
+        MessagePart first = parts.get(0);
+        assertNull(reassembler.accept("sip:a@x", first.id(), first.number(), first.total(), first.body()));
+        String result = null;
+        for (MessagePart part : parts) {
+            assertNull(result);
+            // 第一片重复到达，被忽略
+            result = reassembler.accept("sip:a@x", part.id(), part.number(), part.total(), part.body());
+        }
+        assertEquals(text, result);
+        assertEquals(0, reassembler.getPendingCount());
+        assertEquals(1, reassembler.getCompletedCount());
+    }
+
+    @Test
+    void evictsOldestIncompleteMessage() {
+        MessageReassembler reassembler = new MessageReassembler(2, 1 << 20, Duration.ofSeconds(30));
+        reassembler.accept("sip:a@x", "m1", 1, 2, "a");
+        reassembler.accept("sip:a@x", "m2", 1, 2, "b");
+        reassembler.accept("sip:a@x", "m3", 1, 2, "c");
+
+        assertEquals(2, reassembler.getPendingCount());
+        assertEquals(1, reassembler.getEvictedCount());
+        assertEquals("bb", reassembler.accept("sip:a@x", "m2", 2, 2, "b"));
+        // m1 的第一片已被丢弃，后到的第二片无法拼出完整消息
+        assertNull(reassembler.accept("sip:a@x", "m1", 2, 2, "a"));
+        assertNull(reassembler.accept("sip:a@x", "m4", 3, 2, "x"));
+        assertEquals(1, reassembler.getRejectedCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSequencerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> delivered = new CopyOnWriteArrayList<>();
+    private final MessageSequencer sequencer = new MessageSequencer((peer, text) -> delivered.add(text),
+            128, 4, Duration.ofMillis(100), scheduler, 16);
+
+    @AfterEach
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void dropsDuplicatesAndRestoresOrder() {
+        sequencer.accept("sip:a@x", "e1", 1, "m1");
+        sequencer.accept("sip:a@x", "e1", 3, "m3");
+        sequencer.accept("sip:a@x", "e1", 1, "m1");
+        sequencer.accept("sip:a@x", "e1", 3, "m3");
+        assertEquals(List.of("m1"), delivered);
+
+        sequencer.accept("sip:a@x", "e1", 2, "m2");
+        sequencer.accept("sip:a@x", "e1", 2, "m2");
+        assertEquals(List.of("m1", "m2", "m3"), delivered);
+        assertEquals(3, sequencer.getDuplicateCount());
+        assertEquals(1, sequencer.getReorderedCount());
+
+        // 对方重启后序号从头开始
+        sequencer.accept("sip:a@x", "e2", 1, "n1");
+        assertEquals(List.of("m1", "m2", "m3", "n1"), delivered);
+    }
+
+    @Test
+    void skipsGapAfterTimeoutAndStillAcceptsLateMessage() throws Exception {
+        sequencer.accept("sip:b@x", "e1", 1, "m1");
+        sequencer.accept("sip:b@x", "e1", 3, "m3");
+        Thread.sleep(400);
+        assertEquals(List.of("m1", "m3"), delivered);
+        assertEquals(1, sequencer.getGapsSkipped());
+
+        sequencer.accept("sip:b@x", "e1", 2, "m2");
+        sequencer.accept("sip:b@x", "e1", 2, "m2");
+        assertEquals(List.of("m1", "m3", "m2"), delivered);
+        assertEquals(1, sequencer.getDuplicateCount());
+    }
+
+    @Test
+    void offlineCopiesAreClaimedOnce() {
+        sequencer.accept("sip:c@x", "sip:c@x:5060", "e1", 1, "m1");
+        // SIP 上已交付的那条再经服务器转交：丢弃
+        assertFalse(sequencer.claim("sip:c@x", "sip:c@x", "e1", 1));
+        // 没收到过的：第一次交给调用方，重复转交丢弃
+        assertTrue(sequencer.claim("sip:c@x", "sip:c@x", "e1", 2));
+        assertFalse(sequencer.claim("sip:c@x", "sip:c@x", "e1", 2));
+
+        // SIP 上后到的 3 不再等 2
+        sequencer.accept("sip:c@x", "sip:c@x:5060", "e1", 3, "m3");
+        assertEquals(List.of("m1", "m3"), delivered);
+        assertFalse(sequencer.claim("sip:c@x", "sip:c@x", "e1", 3));
+        assertEquals(3, sequencer.getDuplicateCount());
+    }
+
+    @Test
+    void hugeSequenceNumbersAreRejectedWithoutSpinning() {
+        sequencer.accept("sip:d@x", "e1", 1, "m1");
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            sequencer.accept("sip:d@x", "e1", Long.MAX_VALUE - 1, "bogus");
+            assertFalse(sequencer.claim("sip:d@x", "sip:d@x", "e1", 9_000_000_000_000_000_000L));
+            sequencer.accept("sip:d@x", "e1", -5, "bogus");
+        });
+        assertEquals(3, sequencer.getRejectedCount());
+
+        // 正常的序号不受影响
+        sequencer.accept("sip:d@x", "e1", 2, "m2");
+        assertEquals(List.of("m1", "m2"), delivered);
+
+        // 窗口之外但未越界的跳跃：直接越过缺口，不逐个推进
+        long far = MessageSequencer.MAX_AHEAD - 4;
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            for (long seq = far; seq <= far + 4; seq++) {
+                sequencer.accept("sip:d@x", "e1", seq, "f" + seq);
+            }
+        });
+        assertEquals(far - 3, sequencer.getGapsSkipped());
+        assertEquals(7, delivered.size());
+        assertTrue(sequencer.claim("sip:d@x", "sip:d@x", "e1", far + 5));
+        assertFalse(sequencer.claim("sip:d@x", "sip:d@x", "e1", far));
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.sipclient.sip;
+
+import gov.nist.javax.sip.TransactionExt;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockSettings;
+
+import javax.sip.ClientTransaction;
+import javax.sip.IOExceptionEvent;
+import javax.sip.message.Response;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+class OutboundMessageQueueTest {
+
+    private final List<ClientTransaction> sent = new ArrayList<>();
+
+    private ClientTransaction newTransaction() {
+        return newTransaction(withSettings());
+    }
+
+    private ClientTransaction newTransaction(MockSettings settings) {
+        ClientTransaction ct = mock(ClientTransaction.class, settings);
+        Object[] data = new Object[1];
+        doAnswer(inv -> data[0] = inv.getArgument(0)).when(ct).setApplicationData(any());
+        when(ct.getApplicationData()).thenAnswer(inv -> data[0]);
+        try {
+            doAnswer(inv -> sent.add(ct)).when(ct).sendRequest();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return ct;
+    }
+
+    private static Response response(int code) {
+        Response response = mock(Response.class);
+        when(response.getStatusCode()).thenReturn(code);
+        when(response.getReasonPhrase()).thenReturn(code == 200 ? "OK" : "Temporarily Unavailable");
+        return response;
+    }
+
+    @Test
+    void holdsMessagesBeyondWindowUntilEarlierOnesComplete() {
+        OutboundMessageQueue queue = new OutboundMessageQueue((t, m) -> newTransaction(), 16, 1, Duration.ofSeconds(1));
+
+        CompletableFuture<DeliveryResult> first = queue.submit("sip:bob@x", "1");
+        CompletableFuture<DeliveryResult> second = queue.submit("sip:bob@x", "2");
+        CompletableFuture<DeliveryResult> other = queue.submit("sip:carol@x", "3");
+        assertEquals(2, sent.size());
+
+        queue.onResponse(sent.get(0), response(200));
+        assertTrue(first.join().isDelivered());
+        assertEquals(3, sent.size());
+        assertFalse(second.isDone());
+
+        queue.onResponse(sent.get(2), response(480));
+        assertEquals(DeliveryResult.Outcome.REJECTED, second.join().outcome());
+        assertEquals(480, second.join().statusCode());
+
+        queue.onTimeout(sent.get(1));
+        assertEquals(DeliveryResult.Outcome.TIMED_OUT, other.join().outcome());
+    }
+
+    @Test
+    void transportErrorAndTerminationReleaseTheirPermits() {
+        OutboundMessageQueue queue = new OutboundMessageQueue((t, m) -> newTransaction(), 2, 4, Duration.ofMillis(50));
+
+        CompletableFuture<DeliveryResult> failed = queue.submit("sip:bob@x", "1");
+        CompletableFuture<DeliveryResult> dropped = queue.submit("sip:bob@x", "2");
+        assertEquals(2, queue.outstanding());
+
+        queue.onTransportError(new IOExceptionEvent(sent.get(0), "127.0.0.1", 5060, "UDP"));
+        assertEquals(DeliveryResult.Outcome.FAILED, failed.join().outcome());
+        // 事务结束前没有最终应答
+        queue.onTerminated(sent.get(1));
+        assertEquals(DeliveryResult.Outcome.TIMED_OUT, dropped.join().outcome());
+        assertEquals(0, queue.outstanding());
+
+        // 名额已归还，新消息照常发出；已有结果的事务再结束不影响计数
+        assertFalse(queue.submit("sip:bob@x", "3").isDone());
+        assertFalse(queue.submit("sip:bob@x", "4").isDone());
+        queue.onTerminated(sent.get(0));
+        assertEquals(2, queue.outstanding());
+    }
+
+    @Test
+    void transportErrorWithoutTransactionFailsMessagesToThatHop() {
+        OutboundMessageQueue queue = new OutboundMessageQueue((t, m) -> {
+            ClientTransaction ct = newTransaction(withSettings().extraInterfaces(TransactionExt.class));
+            when(((TransactionExt) ct).getPeerAddress()).thenReturn(t.contains("bob") ? "10.0.0.1" : "10.0.0.2");
+            when(((TransactionExt) ct).getPeerPort()).thenReturn(5060);
+            return ct;
+        }, 8, 4, Duration.ofMillis(50));
+
+        CompletableFuture<DeliveryResult> toBob = queue.submit("sip:bob@x", "1");
+        CompletableFuture<DeliveryResult> toCarol = queue.submit("sip:carol@y", "2");
+        queue.onTransportError(new IOExceptionEvent(new Object(), "10.0.0.1", 5060, "TCP"));
+
+        assertEquals(DeliveryResult.Outcome.FAILED, toBob.join().outcome());
+        assertFalse(toCarol.isDone());
+        assertEquals(1, queue.outstanding());
+    }
+
+    @Test
+    void failsWhenOutstandingLimitReached() {
+        OutboundMessageQueue queue = new OutboundMessageQueue((t, m) -> newTransaction(), 1, 4, Duration.ofMillis(50));
+
+        queue.submit("sip:bob@x", "1");
+        DeliveryResult rejected = queue.submit("sip:bob@x", "2").join();
+
+        assertEquals(DeliveryResult.Outcome.FAILED, rejected.outcome());
+        queue.onResponse(sent.get(0), response(200));
+        assertFalse(queue.submit("sip:bob@x", "3").isDone());
+        assertEquals(2, sent.size());
+    }
+}
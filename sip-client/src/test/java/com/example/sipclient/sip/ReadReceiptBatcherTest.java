@@ -0,0 +1,86 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadReceiptBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<List<ReadReceiptBatcher.Mark>> flushes = new LinkedBlockingQueue<>();
+    private final ReadReceiptBatcher batcher = new ReadReceiptBatcher(flushes::add, Duration.ofMillis(100), scheduler, 16);
+
+    @AfterEach
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void coalescesMarksIntoOneReceiptPerPeer() throws Exception {
+        batcher.received("sip:a@x", "ab12", 1);
+        batcher.received("sip:a@x", "ab12", 3);
+        batcher.received("sip:a@x", "ab12", 2);
+        assertTrue(batcher.markRead("sip:a@x", "sip:a@x:5060"));
+        // 没有新消息时再看一次会话不算
+        assertFalse(batcher.markRead("sip:a@x", "sip:a@x:5060"));
+        batcher.received("sip:a@x", "ab12", 4);
+        assertTrue(batcher.markRead("sip:a@x", "sip:a@x:5060"));
+        // 旧客户端不带序号
+        batcher.received("sip:b@x", null, 0);
+        assertTrue(batcher.markRead("sip:b@x", "sip:b@x"));
+        assertFalse(batcher.markRead("sip:c@x", "sip:c@x"));
+
+        List<ReadReceiptBatcher.Mark> marks = flushes.poll(2, TimeUnit.SECONDS);
+        assertNotNull(marks);
+        assertEquals(2, marks.size());
+        assertEquals("sip:a@x", marks.get(0).peer());
+        assertEquals("ab12", marks.get(0).epoch());
+        assertEquals(4, marks.get(0).seq());
+        assertNull(marks.get(1).epoch());
+        assertEquals(0, marks.get(1).seq());
+        assertNull(flushes.poll(300, TimeUnit.MILLISECONDS));
+        assertEquals(3, batcher.getMarkedCount());
+        assertEquals(2, batcher.getFlushedCount());
+    }
+
+    @Test
+    void waitsForTheIntervalAndRestartsAfterPeerEpochChanges() throws Exception {
+        batcher.received("sip:a@x", "e1", 10);
+        batcher.markRead("sip:a@x", "sip:a@x");
+        assertNull(flushes.poll(50, TimeUnit.MILLISECONDS));
+        assertEquals(10, flushes.poll(2, TimeUnit.SECONDS).get(0).seq());
+
+        // 对方重启后序号从头算，不沿用旧 epoch 的最大值
+        batcher.received("sip:a@x", "e2", 2);
+        batcher.markRead("sip:a@x", "sip:a@x");
+        ReadReceiptBatcher.Mark mark = flushes.poll(2, TimeUnit.SECONDS).get(0);
+        assertEquals("e2", mark.epoch());
+        assertEquals(2, mark.seq());
+    }
+
+    @Test
+    void encodesImdnDisplayNotification() {
+        String body = ReadReceiptBatcher.encode(new ReadReceiptBatcher.Mark("sip:a@x", "sip:a@x", "ab12", 7, 0));
+        assertTrue(body.contains("<message-id>ab12:7</message-id>"));
+        assertTrue(body.contains("<datetime>1970-01-01T00:00:00Z</datetime>"));
+        assertTrue(body.contains("<displayed/>"));
+
+        ReadReceiptBatcher.Mark decoded = ReadReceiptBatcher.decode("sip:a@x", body);
+        assertEquals("ab12", decoded.epoch());
+        assertEquals(7, decoded.seq());
+        assertNull(ReadReceiptBatcher.decode("sip:a@x", "<imdn><message-id>nope</message-id></imdn>"));
+    }
+}
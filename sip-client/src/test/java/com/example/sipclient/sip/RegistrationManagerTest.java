@@ -0,0 +1,83 @@
+package com.example.sipclient.sip;
+
+import com.example.sipclient.registrar.EmbeddedRegistrar;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistrationManagerTest {
+
+    private static final String DOMAIN = "127.0.0.1:15062";
+
+    @Test
+    void refreshesWithinGrantedExpiryAndBacksOffOnFailure() throws Exception {
+        try (EmbeddedRegistrar registrar = EmbeddedRegistrar.builder().port(15062)
+                     .minExpires(Duration.ofSeconds(1)).maxExpires(Duration.ofSeconds(2)).build().start();
+             SharedSipStack shared = new SharedSipStack("127.0.0.1", 15084, "UDP", DOMAIN);
+             RegistrationManager manager = RegistrationManager.builder()
+                     .registerTimeout(Duration.ofSeconds(1))
+                     .backoff(Duration.ofMillis(200), Duration.ofSeconds(1))
+                     .tick(Duration.ofMillis(20))
+                     .build()) {
+            SipUserAgent good = new SipUserAgent("sip:2041@" + DOMAIN, "2041", shared);
+            SipUserAgent bad = new SipUserAgent("sip:2042@" + DOMAIN, "wrong", shared);
+            manager.add(good);
+            manager.add(bad);
+
+            waitUntil(() -> manager.getRegisteredCount() == 1 && manager.getFailedCount() == 1);
+            assertEquals(2, good.getGrantedExpires());
+
+            // 批准 2 秒，在 1~1.7 秒内刷新；3 秒内至少再注册一次
+            long before = registrar.getRegistrationCount();
+            Thread.sleep(3000);
+            assertTrue(registrar.getRegistrationCount() > before);
+            assertEquals(RegistrationManager.State.REGISTERED, manager.stateOf(good));
+            assertTrue(registrar.getAuthFailureCount() >= 2, "failed account should keep retrying");
+
+            manager.remove(bad);
+            assertEquals(1, manager.size());
+            assertEquals(null, manager.stateOf(bad));
+        }
+    }
+
+    @Test
+    void reRegistersThroughManagerWhenSharedFlowRecovers() throws Exception {
+        String domain = "127.0.0.1:15065";
+        FlowKeepAlive.Settings settings = new FlowKeepAlive.Settings(Duration.ofMillis(200), Duration.ofMillis(100),
+                Duration.ofMillis(400), Duration.ofMillis(200), 2);
+        EmbeddedRegistrar registrar = EmbeddedRegistrar.builder().port(15065).build().start();
+        try (SharedSipStack shared = new SharedSipStack("127.0.0.1", 15087, "UDP", domain, settings);
+             RegistrationManager manager = RegistrationManager.builder()
+                     .flowRestoreSpread(Duration.ofMillis(500))
+                     .tick(Duration.ofMillis(20))
+                     .build()) {
+            for (int i = 0; i < 3; i++) {
+                manager.add(new SipUserAgent("sip:206" + i + "@" + domain, "206" + i, shared));
+            }
+            waitUntil(() -> manager.getRegisteredCount() == 3);
+
+            registrar.close();
+            waitUntil(() -> !shared.getKeepAlive().isFlowUp());
+            // 重启后的 registrar 丢失了所有绑定，流恢复后由管理器补注册（有效期 3600 秒，不会是定时刷新）
+            registrar = EmbeddedRegistrar.builder().port(15065).build().start();
+            EmbeddedRegistrar restarted = registrar;
+            waitUntil(() -> restarted.getRegistrationCount() == 3 && manager.getRegisteredCount() == 3);
+        } finally {
+            registrar.close();
+        }
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("condition not met in time");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.sipclient.sip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.sip.SipFactory;
+import javax.sip.address.AddressFactory;
+import javax.sip.address.SipURI;
+import javax.sip.header.HeaderFactory;
+import javax.sip.message.MessageFactory;
+import javax.sip.message.Request;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 构造一条 MESSAGE 请求的开销：每次经工厂重建 From/To/Via/Max-Forwards 并解析目标 URI，
+ * 与克隆 {@link RequestTemplates} 原型的对比。targets 为轮换的目标数（群发时的联系人数）。
+ * 在 test classpath 上运行 main 方法即可。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestTemplatesBenchmark {
+
+    @Param({"10", "1000"})
+    public int targets;
+
+    private AddressFactory addressFactory;
+    private HeaderFactory headerFactory;
+    private MessageFactory messageFactory;
+    private RequestTemplates templates;
+    private String[] uris;
+    private long cseq;
+
+    @Setup
+    public void setUp() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        addressFactory = sipFactory.createAddressFactory();
+        headerFactory = sipFactory.createHeaderFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        templates = new RequestTemplates(addressFactory, headerFactory, "1001", "10.0.0.1", 5060,
+                "10.0.0.2", 5070, "udp", 1024);
+        uris = new String[targets];
+        for (int i = 0; i < targets; i++) {
+            uris[i] = "sip:" + (2000 + i) + "@10.0.0.1:5060";
+        }
+    }
+
+    @Benchmark
+    public Request viaFactories() throws Exception {
+        String target = uris[ThreadLocalRandom.current().nextInt(targets)];
+        SipURI reqUri = (SipURI) addressFactory.createURI(target);
+        return messageFactory.createRequest(reqUri, Request.MESSAGE, headerFactory.createCallIdHeader("c" + cseq),
+                headerFactory.createCSeqHeader(++cseq, Request.MESSAGE),
+                headerFactory.createFromHeader(addressFactory.createAddress(addressFactory.createSipURI("1001", "10.0.0.1")), "tag"),
+                headerFactory.createToHeader(addressFactory.createAddress(reqUri), null),
+                Collections.singletonList(headerFactory.createViaHeader("10.0.0.2", 5070, "udp", null)),
+                headerFactory.createMaxForwardsHeader(70));
+    }
+
+    @Benchmark
+    public Request viaTemplates() throws Exception {
+        String target = uris[ThreadLocalRandom.current().nextInt(targets)];
+        return messageFactory.createRequest(templates.requestUri(target), Request.MESSAGE, headerFactory.createCallIdHeader("c" + cseq),
+                headerFactory.createCSeqHeader(++cseq, Request.MESSAGE),
+                templates.from("tag"), templates.to(target), templates.via(), templates.maxForwards());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RequestTemplatesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
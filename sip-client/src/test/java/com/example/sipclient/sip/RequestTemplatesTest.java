@@ -0,0 +1,41 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sip.SipFactory;
+import javax.sip.header.FromHeader;
+import javax.sip.header.ViaHeader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RequestTemplatesTest {
+
+    @Test
+    void clonesPrototypesAndCachesTargets() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("gov.nist");
+        RequestTemplates templates = new RequestTemplates(sipFactory.createAddressFactory(), sipFactory.createHeaderFactory(),
+                "1001", "10.0.0.1", 5060, "10.0.0.2", 5070, "udp", 2);
+
+        FromHeader first = templates.from("a");
+        FromHeader second = templates.from("b");
+        assertEquals("a", first.getTag());
+        assertEquals("b", second.getTag());
+        ViaHeader via = templates.via().get(0);
+        via.setBranch("z9hG4bK-1");
+        assertNull(templates.via().get(0).getBranch());
+
+        String target = "sip:2001@10.0.0.1:5060";
+        assertNotSame(templates.requestUri(target), templates.requestUri(target));
+        assertEquals(target, templates.normalize(target));
+        templates.normalize("sip:2002@10.0.0.1");
+        templates.normalize("sip:2003@10.0.0.1");
+        // 容量为 2，最久未用的 target 已被淘汰
+        templates.normalize(target);
+        assertEquals(2, templates.getTargetCacheHits());
+        assertEquals(4, templates.getTargetCacheMisses());
+        assertEquals("not a uri", templates.normalize("not a uri"));
+    }
+}
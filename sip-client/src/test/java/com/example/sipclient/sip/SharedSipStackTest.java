@@ -0,0 +1,89 @@
+package com.example.sipclient.sip;
+
+import com.example.sipclient.chat.MessageHandler;
+import com.example.sipclient.registrar.EmbeddedRegistrar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedSipStackTest {
+
+    private static final int REGISTRAR_PORT = 15061;
+    private static final String DOMAIN = "127.0.0.1:" + REGISTRAR_PORT;
+
+    private EmbeddedRegistrar registrar;
+    private SharedSipStack shared;
+    private SipUserAgent sender;
+
+    @AfterEach
+    void shutdown() {
+        if (sender != null) {
+            sender.shutdown();
+        }
+        if (shared != null) {
+            shared.close();
+        }
+        if (registrar != null) {
+            registrar.close();
+        }
+    }
+
+    @Test
+    void routesRequestsToAccountByRequestUriUser() throws Exception {
+        registrar = EmbeddedRegistrar.builder().port(REGISTRAR_PORT).build().start();
+        shared = new SharedSipStack("127.0.0.1", 15081, "UDP", DOMAIN);
+        SipUserAgent first = new SipUserAgent("sip:2021@" + DOMAIN, "2021", shared);
+        SipUserAgent second = new SipUserAgent("sip:2022@" + DOMAIN, "2022", shared);
+        assertEquals(2, shared.getAccountCount());
+        assertTrue(first.register(Duration.ofSeconds(5)));
+        assertTrue(second.register(Duration.ofSeconds(5)));
+
+        CompletableFuture<String> toFirst = new CompletableFuture<>();
+        CompletableFuture<String> toSecond = new CompletableFuture<>();
+        first.setMessageHandler(new MessageHandler(toFirst::complete));
+        second.setMessageHandler(new MessageHandler(toSecond::complete));
+
+        sender = new SipUserAgent("sip:2023@" + DOMAIN, "2023", "127.0.0.1", 15082);
+        assertTrue(sender.register(Duration.ofSeconds(5)));
+        sender.sendMessage("sip:2022@" + DOMAIN, "for-second");
+
+        assertTrue(toSecond.get(5, TimeUnit.SECONDS).contains("for-second"));
+        assertFalse(toFirst.isDone());
+
+        second.shutdown();
+        assertEquals(1, shared.getAccountCount());
+        assertTrue(first.isRegistered());
+    }
+
+    @Test
+    void reusesMediaPortsOfDetachedAccounts() throws Exception {
+        shared = new SharedSipStack("127.0.0.1", 15086, "UDP", DOMAIN);
+        SipUserAgent first = new SipUserAgent("sip:2051@" + DOMAIN, "2051", shared);
+        SipUserAgent second = new SipUserAgent("sip:2052@" + DOMAIN, "2052", shared);
+        assertEquals(2, shared.getAllocatedMediaBlocks());
+
+        first.shutdown();
+        assertEquals(1, shared.getAllocatedMediaBlocks());
+        // 释放的最低段先被复用，计数不会一直增长
+        int reused = shared.allocateMediaPorts();
+        assertEquals(20000 + 86 * 10, reused);
+        shared.releaseMediaPorts(reused);
+        second.shutdown();
+        assertEquals(0, shared.getAllocatedMediaBlocks());
+    }
+
+    @Test
+    void rejectsDuplicateAccount() throws Exception {
+        shared = new SharedSipStack("127.0.0.1", 15083, "UDP", DOMAIN);
+        new SipUserAgent("sip:2031@" + DOMAIN, "2031", shared);
+        assertThrows(IllegalStateException.class, () -> new SipUserAgent("sip:2031@" + DOMAIN, "2031", shared));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.sipclient.sip;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SipEventDispatcherTest {
+
+    private final SipEventDispatcher dispatcher = new SipEventDispatcher(4, Duration.ofSeconds(1));
+
+    @AfterEach
+    void close() {
+        dispatcher.close();
+    }
+
+    @Test
+    void keepsOrderWithinKey() throws Exception {
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            dispatcher.dispatch("call-1", () -> {
+                seen.add(n);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, seen.get(i));
+        }
+        // 计数在回调返回后才更新
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (dispatcher.getHandledCount() < 100 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, dispatcher.getHandledCount());
+    }
+
+    @Test
+    void slowKeyDoesNotBlockOthers() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+        dispatcher.dispatch("slow", () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.dispatch("slow", () -> { });
+        dispatcher.dispatch("fast", other::countDown);
+
+        assertTrue(other.await(2, TimeUnit.SECONDS));
+        // 出队计数在回调开始前就已更新，慢回调开始执行后只剩它后面那一条在排队
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getQueuedCount());
+        release.countDown();
+    }
+}